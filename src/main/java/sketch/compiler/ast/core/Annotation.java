@@ -1,5 +1,6 @@
 package sketch.compiler.ast.core;
 
+import java.io.Serializable;
 
 /**
  * Customizable annotation attached to a <code>TypeStruct</code> or <code>Function</code>
@@ -8,7 +9,7 @@ package sketch.compiler.ast.core;
  * 
  * @version $Id$
  */
-public class Annotation {
+public class Annotation implements Serializable {
     private final FEContext context;
     public final String tag;
     public final String rawParams;
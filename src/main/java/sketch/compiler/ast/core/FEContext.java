@@ -16,19 +16,43 @@
 
 package sketch.compiler.ast.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+
 /**
  * A FEContext provides source locations and other context for a
  * front-end node.  It has a file name, line number, and column
  * number.
  *
+ * Every node of the AST has a context, so contexts are kept small: the
+ * file name is shared with the other contexts of the file, the line and
+ * column are packed into one int unless they are too large for it, and
+ * the "file:line" string of getLocation() is only built when it is asked
+ * for.  Contexts are immutable, and equal contexts can be shared; see
+ * {@link #intern}.
+ *
  * @author  David Maze &lt;dmaze@cag.lcs.mit.edu&gt;
  * @version $Id$
  */
-public class FEContext
+public class FEContext implements Serializable
 {
-    private String fileName;
-    private int lineNumber, columnNumber;
-    private String file;
+    private static final long serialVersionUID = 3L;
+
+    /** Columns get the low COL_BITS bits of position, lines the rest. */
+    private static final int COL_BITS = 12;
+    private static final int MAX_COL = (1 << COL_BITS) - 2;
+    private static final int MAX_LINE = (1 << (32 - COL_BITS)) - 2;
+
+    /** Name of the file, or null if it is unavailable. */
+    private final String fileName;
+    /** (line + 1) and (column + 1), so that 0 stands for an unavailable one. */
+    private transient int position;
+    /** The line and column, if they don't fit in position; null otherwise. */
+    private transient int[] wide;
     private String lastComment;
 
     /** Create a new context object with no location information. */
@@ -67,36 +91,38 @@ public class FEContext
      */
     public FEContext(String fileName, int line, int col)
     {
-        this.fileName = fileName;
-        lineNumber = line;
-        columnNumber = col;
-
-        String lfile = fileName;
-        if (lfile == null){
-        	lfile = "<unknown>";
-        }
-        if (line >= 0){
-        	file =  lfile + ":" + line;
-        }else{
-        	file = lfile;
-        }
+        this(fileName, line, col, null);
     }
 
     public FEContext(String fileName, int line, int col, String lastComment) {
         this.fileName = fileName;
-        lineNumber = line;
-        columnNumber = col;
+        setPosition(line, col);
         this.lastComment = lastComment;
+    }
 
-        String lfile = fileName;
-        if (lfile == null) {
-            lfile = "<unknown>";
+    private void setPosition(int line, int col) {
+        if (line > MAX_LINE || col > MAX_COL) {
+            position = 0;
+            wide = new int[] { Math.max(line, -1), Math.max(col, -1) };
+            return;
         }
-        if (line >= 0) {
-            file = lfile + ":" + line;
-        } else {
-            file = lfile;
+        int l = line >= 0 ? line + 1 : 0;
+        int c = col >= 0 ? col + 1 : 0;
+        position = (l << COL_BITS) | c;
+        wide = null;
+    }
+
+    /**
+     * Returns the context in table equal to cx, adding cx if there is none. Parsers use
+     * this so that the nodes of a file share one context per location.
+     */
+    public static FEContext intern(HashMap<FEContext, FEContext> table, FEContext cx) {
+        FEContext old = table.get(cx);
+        if (old != null) {
+            return old;
         }
+        table.put(cx, cx);
+        return cx;
     }
 
     /** Get the name of the file this node appears in, or null if it is
@@ -118,14 +144,20 @@ public class FEContext
      * unavailable. */
     public int getLineNumber()
     {
-        return lineNumber;
+        if (wide != null) {
+            return wide[0];
+        }
+        return (position >>> COL_BITS) - 1;
     }
 
     /** Get the column number this node begins on, or -1 if it is
      * unavailable. */
     public int getColumnNumber()
     {
-        return columnNumber;
+        if (wide != null) {
+            return wide[1];
+        }
+        return (position & ((1 << COL_BITS) - 1)) - 1;
     }
 
     /** Return the location this represents, in the form
@@ -133,7 +165,12 @@ public class FEContext
      * and uses a default filename it that is unavilable. */
     public String getLocation()
     {
-        return file;
+        String lfile = getFileName();
+        if (lfile == null) {
+            lfile = "<unknown>";
+        }
+        int line = getLineNumber();
+        return line >= 0 ? lfile + ":" + line : lfile;
     }
 
     public String toString()
@@ -141,6 +178,43 @@ public class FEContext
         return getLocation();
     }
 
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FEContext)) {
+            return false;
+        }
+        FEContext other = (FEContext) o;
+        return (fileName == null ? other.fileName == null
+                : fileName.equals(other.fileName)) &&
+                position == other.position && Arrays.equals(wide, other.wide) &&
+                (lastComment == null ? other.lastComment == null
+                        : lastComment.equals(other.lastComment));
+    }
+
+    public int hashCode() {
+        int h = fileName == null ? 0 : fileName.hashCode();
+        h = (h * 31 + position) * 31 + Arrays.hashCode(wide);
+        return h * 31 +
+                (lastComment == null ? 0 : lastComment.hashCode());
+    }
+
+    /** The line and column are written as they are, not packed. */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(getLineNumber());
+        out.writeInt(getColumnNumber());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException
+    {
+        in.defaultReadObject();
+        int line = in.readInt();
+        setPosition(line, in.readInt());
+    }
+
     public static FEContext artificalFrom(String name, FENode node0) {
         FEContext cx0;
         if (node0 == null || (node0.getCx() == null)) {
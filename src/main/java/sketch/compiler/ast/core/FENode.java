@@ -16,6 +16,8 @@
 
 package sketch.compiler.ast.core;
 
+import java.io.Serializable;
+
 import sketch.compiler.ast.core.typs.StructDef;
 import sketch.util.exceptions.ExceptionAtNode;
 import sketch.util.exceptions.NotImplementedException;
@@ -29,7 +31,7 @@ import sketch.util.exceptions.NotImplementedException;
  * @author David Maze &lt;dmaze@cag.lcs.mit.edu&gt;
  * @version $Id$
  */
-public abstract class FENode
+public abstract class FENode implements Serializable
 {
     private FEContext context;
     private Object tag = null;
@@ -124,6 +124,42 @@ public class FEReplacer implements FEVisitor
 
     protected NameResolver nres;
 
+    /**
+     * Returns what visitFunctionIn needs to know about package pkg to visit one of its
+     * functions without visiting the rest of the program. nres resolves the names of
+     * the program. The scope is made once per package and is then only read, possibly
+     * by several threads at once.
+     */
+    public Object packageScope(NameResolver nres, Package pkg) {
+        return null;
+    }
+
+    /**
+     * Returns the replacement of f, a function of package pkg (or null, if the pass
+     * removes it), as visiting the whole program would, but visits nothing else. nres
+     * must resolve the names of the program and not be used by anyone else meanwhile;
+     * scope is what packageScope returned for pkg. Used to run a function-local pass on
+     * one function at a time.
+     */
+    public Function visitFunctionIn(NameResolver nres, Package pkg, Object scope,
+            Function f)
+    {
+        this.nres = nres;
+        nres.setPackage(pkg);
+        List<Function> oldNewFuncs = newFuncs;
+        newFuncs = new ArrayList<Function>();
+        try {
+            Function result = (Function) f.accept(this);
+            if (!newFuncs.isEmpty()) {
+                throw new IllegalStateException(getClass().getSimpleName() +
+                        " adds functions, so it can't visit one function at a time");
+            }
+            return result;
+        } finally {
+            newFuncs = oldNewFuncs;
+        }
+    }
+
     public NameResolver getNres() {
         return nres;
     }
@@ -2,6 +2,7 @@ package sketch.compiler.ast.core;
 
 import static sketch.util.Misc.nonnull;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -111,7 +112,7 @@ public class Function extends FENode {
         }
     }
 
-    public static class FcnInfo {
+    public static class FcnInfo implements Serializable {
         public final FcnType fcnType;
         public final LibraryFcnType libraryType;
         public final CudaFcnType cudaType;
@@ -20,17 +20,17 @@ import sketch.util.exceptions.UnrecognizedVariableException;
  * will be unique and help distinguish the same simple name in different packages.
  */
 public class NameResolver {
-    final Map<String, String> pkgForStruct = new HashMap<String, String>();
-    final Map<String, String> pkgForFun = new HashMap<String, String>();
-    final Map<String, String> pkgForVar = new HashMap<String, String>();
+    final Map<String, String> pkgForStruct;
+    final Map<String, String> pkgForFun;
+    final Map<String, String> pkgForVar;
 
-    final Map<String, StructDef> structMap = new HashMap<String, StructDef>();
+    final Map<String, StructDef> structMap;
     // ADT
-    final Map<String, String> structParent = new HashMap<String, String>();
-    final Map<String, List<String>> structChildren = new HashMap<String, List<String>>();
+    final Map<String, String> structParent;
+    final Map<String, List<String>> structChildren;
 
-    final Map<String, Function> funMap = new HashMap<String, Function>();
-    final Map<String, FieldDecl> varMap = new HashMap<String, FieldDecl>();
+    final Map<String, Function> funMap;
+    final Map<String, FieldDecl> varMap;
     Stack<Set<String>> tempStructNames = new Stack<Set<String>>();
     Package pkg;
 
@@ -59,11 +59,36 @@ public class NameResolver {
     }
 
     public NameResolver() {
-
+        pkgForStruct = new HashMap<String, String>();
+        pkgForFun = new HashMap<String, String>();
+        pkgForVar = new HashMap<String, String>();
+        structMap = new HashMap<String, StructDef>();
+        structParent = new HashMap<String, String>();
+        structChildren = new HashMap<String, List<String>>();
+        funMap = new HashMap<String, Function>();
+        varMap = new HashMap<String, FieldDecl>();
     }
     public NameResolver(Program p) {
+        this();
         populate(p);
     }
+
+    /**
+     * A resolver that shares the names registered in other, but has a current package
+     * and template types of its own, so that threads that only look names up can each
+     * have one without registering all the names again.
+     */
+    public NameResolver(NameResolver other) {
+        pkgForStruct = other.pkgForStruct;
+        pkgForFun = other.pkgForFun;
+        pkgForVar = other.pkgForVar;
+        structMap = other.structMap;
+        structParent = other.structParent;
+        structChildren = other.structChildren;
+        funMap = other.funMap;
+        varMap = other.varMap;
+        pkg = other.pkg;
+    }
     public void setPackage(Package pkg) {
         this.pkg = pkg;
     }
@@ -28,6 +28,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import sketch.compiler.Directive;
+import sketch.compiler.main.passes.PassProfiler;
 import sketch.compiler.passes.printers.SimpleCodePrinter;
 
 import static sketch.util.DebugOut.printWarning;
@@ -47,6 +48,9 @@ public class Program extends FENode
 
     protected final Set<Directive> directives;
 
+    /** Analyses passes share, by their class; see {@link #getAnalysis(Class)}. */
+    private transient Map<Class<?>, Object> analyses;
+
     public String toString() {
         String res = "";
         for (Package pkg : packages) {
@@ -125,6 +129,22 @@ public class Program extends FENode
         this.directives = directives;
     }
 
+    /**
+     * Returns the result of an analysis of this program that a pass stored with
+     * putAnalysis, or null. Passes that change the program return a new Program, which
+     * starts without analyses.
+     */
+    public synchronized <T> T getAnalysis(Class<T> cls) {
+        return analyses == null ? null : cls.cast(analyses.get(cls));
+    }
+
+    public synchronized <T> void putAnalysis(Class<T> cls, T result) {
+        if (analyses == null) {
+            analyses = new HashMap<Class<?>, Object>();
+        }
+        analyses.put(cls, result);
+    }
+
     public ProgramCreator creator() {
         return new ProgramCreator(this, packages, directives);
     }
@@ -142,7 +162,20 @@ public class Program extends FENode
     {
 //        System.out.println("before " + v.getClass().toString());
 //        (new CodePrinterVisitor()).visitProgram(this);
-        Object ret = v.visitProgram(this);
+        PassProfiler profiler = PassProfiler.get();
+        if (profiler == null) {
+            return v.visitProgram(this);
+        }
+        PassProfiler.Frame frame =
+                profiler.begin(v, PassProfiler.passName(v), this);
+        Object ret;
+        try {
+            ret = v.visitProgram(this);
+        } catch (RuntimeException e) {
+            profiler.abort(frame);
+            throw e;
+        }
+        profiler.end(frame, ret);
 //        if (ret instanceof Program) {
 //            System.out.println("after " + v.getClass().toString());
 //            (new CodePrinterVisitor()).visitProgram((Program)ret);
@@ -31,6 +31,7 @@ public class TempVarGen
 {
     private int seq;
     private String prefix;
+    private String space = "";
 
     /**
      * Create a new temporary variable generator, which will generate
@@ -53,6 +54,40 @@ public class TempVarGen
         this.prefix = prefix;
     }
 
+    /**
+     * Create a new temporary variable generator that continues the
+     * sequence of <code>other</code> from its current position.  The
+     * two generators are independent afterwards, so names produced by
+     * one may also be produced by the other.
+     *
+     * @param other  generator to copy the prefix and counter from
+     */
+    public TempVarGen(TempVarGen other)
+    {
+        this.seq = other.seq;
+        this.prefix = other.prefix;
+        this.space = other.space;
+    }
+
+    /**
+     * Create a new temporary variable generator whose names can not
+     * clash with those of <code>other</code> or of any generator made
+     * from <code>other</code> with a different <code>space</code>.
+     * The names only depend on <code>space</code> and on the order in
+     * which they are requested, so passes that run on several
+     * functions at once stay deterministic if each function gets its
+     * own space.
+     *
+     * @param other  generator to copy the prefix from
+     * @param space  name of the space, which must not start with a digit
+     */
+    public TempVarGen(TempVarGen other, String space)
+    {
+        this.seq = 0;
+        this.prefix = other.prefix;
+        this.space = other.space + space + "_";
+    }
+
     /**
      * Create a new temporary variable generator, guessing the prefix
      * from the program code.  This is useful when the output of
@@ -124,7 +159,7 @@ public class TempVarGen
      */
     public String varName(int num)
     {
-        return "__s" + prefix + num;
+        return "__s" + prefix + space + num;
     }
 
     /**
@@ -155,7 +190,7 @@ public class TempVarGen
      */
     public String nextVar (String startingWith) {
         if(startingWith != null){
-            return startingWith + "_s" + nextVarNum();
+            return startingWith + "_s" + space + nextVarNum();
         }else{
             return nextVar();
         }        
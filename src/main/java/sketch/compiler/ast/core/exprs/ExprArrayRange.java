@@ -2,6 +2,7 @@
  *
  */
 package sketch.compiler.ast.core.exprs;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -22,7 +23,7 @@ public class ExprArrayRange extends Expression
      * Represents the indices in {@link ExprArrayRange}. Includes the start index and the
      * length of the desired sub-array.
      */
-	public static class RangeLen
+	public static class RangeLen implements Serializable
 	{
 		private final Expression start;		
 		private final Expression lenExpr;		
@@ -185,6 +185,11 @@ public class ExprConstChar extends ExprConstant
 
 
 
+    /** Characters read back from a serialized tree are shared like the ones we create. */
+    private Object readResolve() {
+        return create(val);
+    }
+
     /** Returns the value of this. */
     public int getId() {
         return id;
@@ -17,6 +17,8 @@
 package sketch.compiler.ast.core.exprs;
 import static sketch.util.Misc.nonnull;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -26,6 +28,7 @@ import sketch.compiler.ast.core.FEContext;
 import sketch.compiler.ast.core.FENode;
 import sketch.compiler.ast.core.FEVisitor;
 import sketch.compiler.ast.core.typs.Type;
+import sketch.compiler.main.CompilationContext;
 
 /**
  * A call to a particular named function.  This contains the name of
@@ -39,20 +42,30 @@ import sketch.compiler.ast.core.typs.Type;
 public class ExprFunCall extends Expression
 {
     private final String name;
-    private static int NEXT_UID=0;
 
     private int clusterId; // Used to identify the cluster to combine funCalls.
-    private int callid;
+    private transient int callid;
     private final List<Expression> params;
     private final Map<String, Type> tparams;
 
     public void resetCallid(){
-    	this.callid = NEXT_UID++;
+    	this.callid = CompilationContext.current().nextCallUid();
     }
 
     public int getCallid(){
     	return callid;
     }
+
+    /**
+     * Calls read back from a serialized tree get a callid that is unique in this run, so
+     * the callid is not written.
+     */
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException
+    {
+        in.defaultReadObject();
+        this.callid = CompilationContext.current().nextCallUid();
+    }
     
     /** Creates a new function call with the specified name and
      * parameter list. */
@@ -65,7 +78,7 @@ public class ExprFunCall extends Expression
         	this.callid = ((ExprFunCall)context).callid;
             this.clusterId = ((ExprFunCall) context).getClusterId();
         }else{
-        	this.callid = NEXT_UID++;
+        	this.callid = CompilationContext.current().nextCallUid();
         }
         this.tparams = tparams;
     }
@@ -87,7 +100,7 @@ public class ExprFunCall extends Expression
         super(context);
         this.name = nonnull(name, "Cannot construct a function call without a name!");
         this.params = Collections.unmodifiableList(params);
-        this.callid = NEXT_UID++;
+        this.callid = CompilationContext.current().nextCallUid();
         tparams = null;
     }
 
@@ -8,6 +8,7 @@ import sketch.compiler.ast.core.FEContext;
 import sketch.compiler.ast.core.FENode;
 import sketch.compiler.ast.core.FEReplacer;
 import sketch.compiler.ast.core.FEVisitor;
+import sketch.compiler.main.CompilationContext;
 
 /**
  * Expression that represents a lambda expression. A lambda expression is of the
@@ -29,7 +30,6 @@ public class ExprLambda extends Expression {
 
 	private List<ExprVar> 	parameters;
 	private Expression		expression;
-	private static int missingVariableCount = 0;
 
 	public ExprLambda(FENode node) {
 		super(node);
@@ -151,13 +151,11 @@ public class ExprLambda extends Expression {
 			if (!parameters.contains(exprVar)
 					&& !this.missingFormalParameters.containsKey(exprVar)) {
 				// Create a fresh variable
-				ExprVar newVar = new ExprVar(exprVar.getCx(), exprVar.getName() + missingVariableCount);
+				ExprVar newVar = new ExprVar(exprVar.getCx(), exprVar.getName() +
+						CompilationContext.current().nextLambdaVarUid());
 
 				// Add it to the list of variables in expression
 				this.missingFormalParameters.put(exprVar, newVar);
-				
-				// Increment the number of missing variables
-				missingVariableCount++;
 			}
 
 			return super.visitExprVar(exprVar);
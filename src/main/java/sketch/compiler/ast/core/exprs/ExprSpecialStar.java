@@ -3,6 +3,7 @@ package sketch.compiler.ast.core.exprs;
 import sketch.compiler.ast.core.FENode;
 import sketch.compiler.ast.core.FEVisitor;
 import sketch.compiler.ast.core.typs.Type;
+import sketch.compiler.main.CompilationContext;
 
 /**
  * Designed for MINVAR's; this is like an <code>ExprStar</code>, but the backend will make
@@ -17,12 +18,10 @@ import sketch.compiler.ast.core.typs.Type;
  */
 public class ExprSpecialStar extends ExprStar {
     public final String name;
-    private static int cnt = 0;
     public ExprSpecialStar(FENode context, String name, int size, Type typ) {
         super(context, size, typ);
         this.name = name;
-        this.starName = "H__BND" + cnt;
-        ++cnt;
+        this.starName = "H__BND" + CompilationContext.current().nextBoundStarUid();
     }
     
     @Override
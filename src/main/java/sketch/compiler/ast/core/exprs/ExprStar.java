@@ -16,6 +16,8 @@
 
 package sketch.compiler.ast.core.exprs;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.List;
 import java.util.Vector;
 
@@ -25,6 +27,7 @@ import sketch.compiler.ast.core.FEVisitor;
 import sketch.compiler.ast.core.typs.Type;
 import sketch.compiler.ast.core.typs.TypeArray;
 import sketch.compiler.ast.core.typs.TypePrimitive;
+import sketch.compiler.main.CompilationContext;
 import sketch.compiler.main.cmdline.SketchOptions;
 import sketch.util.exceptions.ProgramParseException;
 
@@ -56,7 +59,6 @@ public class ExprStar extends Expression
     public final boolean isGlobal;
     protected String starName = "ANON";
     public boolean typeWasSetByScala = false;
-	private static int NEXT_UID=0;
 	private static String HOLE_BASE="H__";
     private static String ANGJ_BASE = "AH__";
 	
@@ -67,8 +69,30 @@ public class ExprStar extends Expression
     // private Expression exprMax = null;
 
 	public String getSname(){ return starName; }
-	public void renewName(){ starName = HOLE_BASE + (NEXT_UID++); }
+	public void renewName(){ starName = HOLE_BASE + CompilationContext.current().nextStarUid(); }
 	public void extendName(String ext){ starName += ext; } 
+    /** Renames the hole to match a hole of the program it is put into. */
+    public void setSname(String name) {
+        starName = name;
+    }
+
+    /**
+     * Holes read back from a serialized tree get a fresh name, so they do not clash with
+     * the holes created by this run.
+     */
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException
+    {
+        in.defaultReadObject();
+        for (String base : new String[] { ANGJ_BASE, HOLE_BASE }) {
+            if (starName.startsWith(base) && starName.length() > base.length() &&
+                    starName.substring(base.length()).matches("[0-9]+"))
+            {
+                starName = base + CompilationContext.current().nextStarUid();
+                break;
+            }
+        }
+    }
 	
     public ExprStar(ExprStar old, boolean isGlobal) {
         super(old);
@@ -133,7 +157,7 @@ public class ExprStar extends Expression
         if (kind == Kind.COUNTER) {
             this.starName = HOLE_BASE;
         } else {
-        this.starName = (kind == Kind.ANGELIC ? ANGJ_BASE : HOLE_BASE) + (NEXT_UID++);
+        this.starName = (kind == Kind.ANGELIC ? ANGJ_BASE : HOLE_BASE) + CompilationContext.current().nextStarUid();
         }
     }
 
@@ -156,7 +180,7 @@ public class ExprStar extends Expression
         rangelow = rstart;
         rangehigh = rend;
         hasrange = true;
-        this.starName = HOLE_BASE + (NEXT_UID++);
+        this.starName = HOLE_BASE + CompilationContext.current().nextStarUid();
     }
 
         /**
@@ -177,7 +201,7 @@ public class ExprStar extends Expression
         if (kind == Kind.COUNTER) {
             this.starName = HOLE_BASE;
         } else {
-            this.starName = (kind == Kind.ANGELIC ? ANGJ_BASE : HOLE_BASE) + (NEXT_UID++);
+            this.starName = (kind == Kind.ANGELIC ? ANGJ_BASE : HOLE_BASE) + CompilationContext.current().nextStarUid();
         }
     }
     
@@ -198,7 +222,7 @@ public class ExprStar extends Expression
         if (kind == Kind.COUNTER) {
             this.starName = HOLE_BASE;
         } else {
-            this.starName = (kind == Kind.ANGELIC ? ANGJ_BASE : HOLE_BASE) + (NEXT_UID++);
+            this.starName = (kind == Kind.ANGELIC ? ANGJ_BASE : HOLE_BASE) + CompilationContext.current().nextStarUid();
         }
     }
 
@@ -213,7 +237,7 @@ public class ExprStar extends Expression
         rangelow = rstart;
         rangehigh = rend;
         hasrange = true;
-        this.starName = HOLE_BASE + (NEXT_UID++);
+        this.starName = HOLE_BASE + CompilationContext.current().nextStarUid();
     }
 
 	public ExprStar(FEContext context, double rstart, double rend) {
@@ -224,7 +248,7 @@ public class ExprStar extends Expression
 		frangelow = rstart;
 		frangehigh = rend;
 		hasrange = true;
-		this.starName = HOLE_BASE + (NEXT_UID++);
+		this.starName = HOLE_BASE + CompilationContext.current().nextStarUid();
 	}
 
     @Deprecated
@@ -234,7 +258,7 @@ public class ExprStar extends Expression
         this.type = typ;
         this.size = domainsize;// (int) Math.ceil(Math.log(domainsize) / Math.log(2));
         isFixed = true;
-        this.starName = HOLE_BASE + (NEXT_UID++);
+        this.starName = HOLE_BASE + CompilationContext.current().nextStarUid();
         this.typeWasSetByScala = true;
     }
 
@@ -251,7 +275,7 @@ public class ExprStar extends Expression
     // }
     // }
 
-	public FENode getDepObject(int i){
+	public synchronized FENode getDepObject(int i){
 		Type t = type;
 		if(type instanceof TypePrimitive){
 			return this;
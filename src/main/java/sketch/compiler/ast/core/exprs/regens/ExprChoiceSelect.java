@@ -1,4 +1,6 @@
 package sketch.compiler.ast.core.exprs.regens;
+import java.io.Serializable;
+
 import sketch.compiler.ast.core.FENode;
 import sketch.compiler.ast.core.FEVisitor;
 import sketch.compiler.ast.core.exprs.Expression;
@@ -44,7 +46,7 @@ public class ExprChoiceSelect extends Expression {
 		return field.accept (sv);
 	}
 
-	public static abstract class Selector {
+	public static abstract class Selector implements Serializable {
 		public abstract Object accept (SelectorVisitor sv);
 		public abstract boolean isOptional ();
 	}
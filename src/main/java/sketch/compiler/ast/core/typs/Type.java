@@ -16,6 +16,7 @@
 
 package sketch.compiler.ast.core.typs;
 
+import java.io.Serializable;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
@@ -32,7 +33,7 @@ import sketch.util.exceptions.NotImplementedException;
  * @author  David Maze &lt;dmaze@cag.lcs.mit.edu&gt;
  * @version $Id$
  */
-public abstract class Type
+public abstract class Type implements Serializable
 {
     protected CudaMemoryType memtyp;
 
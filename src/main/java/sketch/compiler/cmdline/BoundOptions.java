@@ -49,6 +49,11 @@ public class BoundOptions extends CliAnnotatedOptionGroup {
             + "holes from 1 to n bits.")
     public CliOptional<Integer> incremental = new CliOptional<Integer>(5);
 
+    @CliParameter(help = "With --bnd-incremental, runs the solver on up to n integer sizes "
+            + "at the same time, and stops the larger ones once a smaller one succeeds; "
+            + "0 runs one per core. Ignored with --slv-parallel.")
+    public int incrementalJobs = 1;
+
     @CliParameter(help = "Bounds inlining to n levels of recursion, so each "
             + "function can appear at most n times in the stack.")
     public int inlineAmnt = 5;
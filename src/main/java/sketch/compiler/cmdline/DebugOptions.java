@@ -51,6 +51,16 @@ public class DebugOptions extends CliAnnotatedOptionGroup {
     @CliParameter(shortname = "P", help = "Stages / visitors to dump the program before (comma-sep)", hide_default = true, inlinesep = ",")
     public CmdLineHashSet dumpBefore = new CmdLineHashSet();
 
+    @CliParameter(help = "Print the time, CPU time and memory allocated by each compiler pass, "
+            + "and how it changes the number of statements and expressions, at the end of the run.")
+    public boolean profilePasses = false;
+    @CliParameter(metavar = "FILE", help = "Write the pass profile of --debug-profile-passes "
+            + "to FILE as JSON (implies --debug-profile-passes).")
+    public String profileJson = null;
+    @CliParameter(help = "Print an estimate of the heap taken by the AST after each stage, "
+            + "with how much of it is nodes and source contexts, at the end of the run.")
+    public boolean astHeap = false;
+
     @CliParameter(help = "Feed the backend input file to a bash script to check its validity")
     public String checkBackInput = null;
 
@@ -67,5 +77,8 @@ public class DebugOptions extends CliAnnotatedOptionGroup {
         if (verbosity >= 5) {
             printPasses = true;
         }
+        if (profileJson != null) {
+            profilePasses = true;
+        }
     }
 }
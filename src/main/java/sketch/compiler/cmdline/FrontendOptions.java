@@ -35,6 +35,56 @@ public class FrontendOptions extends CliAnnotatedOptionGroup {
     @CliParameter(help = "Keep intermediate files. Useful for debugging the compiler.")
     public boolean keepTmp;
 
+    @CliParameter(help = "Pipe the backend problem into the solver's standard input while it is being "
+            + "generated, instead of writing it to a file first. With --fe-keep-tmp, the file is written as well. "
+            + "Only used when the solver is run once on the problem.")
+    public boolean pipeSolver;
+
+    @CliParameter(help = "Symbolic subexpressions that are shared by several expressions and are at least this many "
+            + "characters long are written only once per function in the backend file, as a named temporary. "
+            + "0 disables sharing.")
+    public int shareSubterms = 0;
+
+    @CliParameter(help = "Number of threads used to translate functions into the backend file. "
+            + "The file is the same regardless of the number of threads.")
+    public int emitThreads = 1;
+
+    @CliParameter(help = "A call with the same arguments and path condition as an earlier call in the same "
+            + "function reuses the outputs of the earlier call, instead of being written to the backend file "
+            + "again. Ignored for sketches that use minimize().")
+    public boolean summarizeCalls = false;
+
+    @CliParameter(help = "Give integer holes that are only compared against small values, or only used "
+            + "to index small arrays, fewer bits in the backend file. Sizes of the inputs are not affected.")
+    public boolean narrowHoles = false;
+
+    @CliParameter(help = "Number of threads used to run passes that rewrite each function on its own. "
+            + "The output is the same for any number of threads.")
+    public int passThreads = 1;
+
+    @CliParameter(metavar = "DIR", help = "Directory of a persistent cache of backend problems and their solutions. "
+            + "If a sketch produces the same backend problem with the same solver and bound options as an earlier run, "
+            + "the earlier solution is reused and the solver is not called.")
+    public String solCache = null;
+
+    @CliParameter(help = "Maximum size of the solution cache in megabytes; least recently used entries are evicted first. "
+            + "0 means no limit.")
+    public int solCacheMb = 1024;
+
+    @CliParameter(help = "Entries of the solution cache that have not been used for this many days are evicted. "
+            + "0 means no limit.")
+    public int solCacheDays = 30;
+
+    @CliParameter(metavar = "DIR", help = "Directory of a persistent cache of parsed include files. "
+            + "An include file whose contents and preprocessor definitions match an earlier run is read "
+            + "from the cache instead of being preprocessed and parsed again.")
+    public String parseCache = null;
+
+    @CliParameter(metavar = "DIR", help = "Directory of a persistent cache of lowered functions. "
+            + "A function that, together with the functions it calls, the declarations of the program "
+            + "and the options, matches an earlier run is not lowered again.")
+    public String lowerCache = null;
+
     @CliParameter(help = "Turn off all typechecking, as well as stencils. Useful to reduce overhead when using sketch as a backend for other tools.")
     public boolean lowOverhead = false;
 
@@ -80,6 +80,25 @@ public class SolverOptions extends CliAnnotatedOptionGroup {
     @CliParameter(help = "Number of cores to use.")
     public int pCPUs = 0;
 
+    @CliParameter(help = "Stops parallel trials that concretize holes to values a failed "
+            + "trial already had, without a timeout. The solver's output is then read as it "
+            + "is printed, and only its beginning and end are kept.")
+    public boolean pShare = false;
+
+    @CliParameter(help = "Minimizes with a search over the cost bound in the frontend, with "
+            + "up to n solver runs on different bounds at the same time, instead of "
+            + "letting the solver minimize; 0 leaves it to the solver.")
+    public int feMinimize = 0;
+
+    @CliParameter(help = "Runs each solution on this many random inputs in the frontend, "
+            + "and warns if one of them fails; 0 turns this off.")
+    public int prescreen = 0;
+
+    @CliParameter(help = "With the interactive backend, sends a function again only when its "
+            + "text has changed since the last round the solver completed. The solver must keep "
+            + "the functions of earlier rounds.")
+    public boolean sendChanged = false;
+
     @CliParameter(help = "Concretize high-impact holes.")
     public boolean randassign = false;
 
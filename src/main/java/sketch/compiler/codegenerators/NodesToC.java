@@ -6,7 +6,6 @@ import java.util.Vector;
 
 import sketch.compiler.ast.core.FieldDecl;
 import sketch.compiler.ast.core.Function;
-import sketch.compiler.ast.core.NameResolver;
 import sketch.compiler.ast.core.Package;
 import sketch.compiler.ast.core.Parameter;
 import sketch.compiler.ast.core.Program;
@@ -299,20 +298,14 @@ public class NodesToC extends NodesToJava {
 	}
 
 	@Override
-	public Object visitProgram(Program prog)
+	protected void emitProgram(Program prog)
 	{
-        nres = new NameResolver(prog);
-		String ret=(String)super.visitProgram(prog);
-		StringBuffer preamble=new StringBuffer();
 		if(addIncludes){
-		preamble.append("#include <cstdio>\n");
-		preamble.append("#include <assert.h>\n");
-		preamble.append("#include \"");
-		preamble.append(filename);
-		preamble.append(".h\"\n");
+		emit("#include <cstdio>\n");
+		emit("#include <assert.h>\n");
+		emit("#include \"" + filename + ".h\"\n");
 		}
-		preamble.append(ret);
-		return preamble.toString();
+		super.emitProgram(prog);
 	}
 
 	public String outputStructure(StructDef struct){
@@ -328,31 +321,25 @@ public class NodesToC extends NodesToJava {
         symtab = new SymbolTable(symtab);
         nres.setPackage(spec);
 
-		String result = "";
-
-        
         for (Iterator iter = spec.getStructs().iterator(); iter.hasNext();) {
             StructDef struct = (StructDef) iter.next();
-            result += outputStructure(struct);
+            emit(outputStructure(struct));
         }
 
 		for(FieldDecl v : spec.getVars()){
-		    result += v.accept(this);
+		    emitCode(v.accept(this));
         }
 		
 		for (Iterator iter = spec.getFuncs().iterator(); iter.hasNext(); )
         {
             Function oldFunc = (Function)iter.next();
             symtab.registerFn(oldFunc);
-            result += (String)oldFunc.accept(this);
+            emit((String)oldFunc.accept(this));
         }
-        
 
-        
-        
         symtab = oldSymTab;
 
-        return result;
+        return null;
 	}
 
     public String escapeCName(String s) {
@@ -1,9 +1,11 @@
 package sketch.compiler.codegenerators;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import sketch.compiler.ast.core.Function;
 import sketch.compiler.ast.core.Parameter;
@@ -26,106 +28,109 @@ public class NodesToCOld extends NodesToJava {
 
 	private String filename; 
 	private ArrayList<String> usedMacros=new ArrayList<String>();
-	private static HashMap<String,String> macroDefinitions=null;
+	/** Filled in once, when the class is loaded, and only read afterwards. */
+	private static final Map<String,String> macroDefinitions;
 	
 	public NodesToCOld(TempVarGen varGen, String filename) {
 		super(false, varGen);
 		this.filename=filename;
-		if(macroDefinitions==null) {
-			macroDefinitions=new HashMap<String,String>();
-			macroDefinitions.put("SK_BITASSIGN","#define SK_BITASSIGN(a,i,x) a=((a)&(~(((unsigned long long)1)<<(i))))|(((x)&1)<<(i))");
-			macroDefinitions.put("SK_ONES","#define SK_ONES(n) ((((unsigned long long)1)<<(n))-1)");
-			macroDefinitions.put("SK_ONES_SL","#define SK_ONES_SL(s,l) (SK_ONES(l)<<(s))");
-			macroDefinitions.put("SK_ONES_SE","#define SK_ONES_SE(s,e) (SK_ONES((e)+1)^SK_ONES(s))");
-			macroDefinitions.put("SK_ONES_S","#define SK_ONES_S(s) (~SK_ONES(s))");
-			macroDefinitions.put("SK_ONES_E","#define SK_ONES_E(e) (SK_ONES((e)+1))");
-			macroDefinitions.put("SK_COPYBITS","#define SK_COPYBITS(l,m,r) l=((l)&~(m))|((r)&(m))");
-			macroDefinitions.put("SK_bitArrayCopy","template<typename T, typename V> \n"+
-					"void SK_bitArrayCopy(T* lhs, int s, int e, V* x, int ws)\n"+
-					"{\n	int aw=s/ws;\n	if(aw==e/ws) {\n	"+
-					"	int mask=SK_ONES_SE(s%ws,e%ws);\n"+
-					"		SK_COPYBITS(lhs[aw],mask,x[0]<<(s%ws));\n	}\n"+
-					"	else {\n"+
-					"		int k=s%ws;\n"+
-					"		int l=e-s;\n"+
-					"		int nfw=(l)/ws;\n"+
-					"       l = l+1;\n"+
-					"		int xw;\n"+
-					"		if(k==0) {\n"+
-					"			for(xw=0;xw<nfw;xw++) {\n"+
-					"				lhs[aw++]=x[xw];\n"+
-					"			}\n"+
-					"			int mask=SK_ONES_E(e%ws);\n"+
-					"			SK_COPYBITS(lhs[aw],mask,x[xw]);\n"+
-					"		}\n		else {\n			int kc=ws-k;\n"+
-					"			int mask1=SK_ONES_S(k);\n"+
-					"			int mask2=~mask1;\n"+
-					"			for(xw=0;xw<nfw;xw++) {\n"+
-					"				SK_COPYBITS(lhs[aw],mask1,x[xw]<<k);\n"+
-					"				aw++;\n"+
-					"				SK_COPYBITS(lhs[aw],mask2,x[xw]>>kc);\n"+
-					"			}\n"+
-					"			if(l%ws>kc) {\n"+
-					"				SK_COPYBITS(lhs[aw],mask1,x[xw]<<k);\n"+
-					"				aw++;\n"+
-					"				int mask=SK_ONES_E(e%ws);\n"+
-					"				SK_COPYBITS(lhs[aw],mask,x[xw]>>kc);\n"+
-					"			}\n"+
-					"			else {\n"+
-					"				int mask=SK_ONES_SE(k,e%ws);\n"+
-					"				SK_COPYBITS(lhs[aw],mask,x[xw]<<k);\n"+
-					"			}\n"+
-					"		}\n	}\n}\n");
-			macroDefinitions.put("SK_bitArrayCopyInv","template<typename T, typename V> \n" +
-					"void SK_bitArrayCopyInv(T* lhs, int s, int e, V* x, int wsl, int wsr, int totlen){\n" +
-					"    int aw=s/wsr;\n" +
-					"    int l=e-s+1;\n" +
-					"    if(aw==e/wsr) {\n" +
-					"       if( (l-1)/wsl == 0 ){\n" +
-					"           if( l == wsr ){ lhs[0] = x[aw]; return; } \n"+
-					"           int mask=SK_ONES_SE(0,(e%wsr) - (s%wsr));\n" +
-					"           SK_COPYBITS(lhs[0],mask,x[aw]>>(s%wsr));\n" +
-					"       }else{\n" +
-					"          printf(\"THIS HAS NOT BEEN IMPLEMENTED\"); return;\n" +
-					"       }\n" +
-					"    }\n" +
-					"    else {\n" +
-					"       int ws = wsr;\n" +
-					"       if( wsr != wsl ){ printf(\"THIS HAS NOT BEEN IMPLEMENTED\"); return;}\n" +
-					"       int k=s%ws;\n" +
-					"       int nfw=(l-1)/ws;\n" +
-					"       int xw;\n" +
-					"       if(k==0) {\n" +
-					"           for(xw=0;xw<nfw;xw++) {\n" +
-					"               lhs[xw]=x[aw++];\n" +
-					"           }\n" +
-					"           int mask=SK_ONES_E(e%ws);\n" +
-					"           SK_COPYBITS(lhs[xw],mask,x[aw]);\n" +
-					"       }\n" +
-					"       else {\n" +
-					"           int kc=ws-k;\n" +
-					"           int mask1=SK_ONES(kc);\n" +
-					"           int mask2=~mask1;\n" +
-					"           for(xw=0;xw<nfw;xw++) {\n" +
-					"               SK_COPYBITS(lhs[xw],mask1,x[aw]>>k);\n" +
-					"               aw++;\n" +
-					"               SK_COPYBITS(lhs[xw],mask2,x[aw]<<kc);\n" +
-					"           }\n" +
-					"           if(l%ws>kc) {\n" +
-					"               SK_COPYBITS(lhs[aw],mask1,x[xw]>>k);\n" +
-					"               aw++;\n" +
-					"               int mask=SK_ONES_SE(kc, e%ws);\n" +
-					"               SK_COPYBITS(lhs[aw],mask,x[xw]<<kc);\n" +
-					"           }\n" +
-					"           else {\n" +
-					"               int mask=SK_ONES_E((e%ws)-k);\n" +
-					"               SK_COPYBITS(lhs[xw],mask,x[aw]>>k);\n" +
-					"           }\n" +
-					"       }\n" +
-					"    }\n" +
-					"    if(totlen > l){       for(int i=l; i<totlen; ++i) SK_BITASSIGN(lhs[i/wsl], i%wsl, 0);     }}\n" +
-					"\n" );
-		}
+	}
+
+	static {
+		HashMap<String,String> macros=new HashMap<String,String>();
+		macros.put("SK_BITASSIGN","#define SK_BITASSIGN(a,i,x) a=((a)&(~(((unsigned long long)1)<<(i))))|(((x)&1)<<(i))");
+		macros.put("SK_ONES","#define SK_ONES(n) ((((unsigned long long)1)<<(n))-1)");
+		macros.put("SK_ONES_SL","#define SK_ONES_SL(s,l) (SK_ONES(l)<<(s))");
+		macros.put("SK_ONES_SE","#define SK_ONES_SE(s,e) (SK_ONES((e)+1)^SK_ONES(s))");
+		macros.put("SK_ONES_S","#define SK_ONES_S(s) (~SK_ONES(s))");
+		macros.put("SK_ONES_E","#define SK_ONES_E(e) (SK_ONES((e)+1))");
+		macros.put("SK_COPYBITS","#define SK_COPYBITS(l,m,r) l=((l)&~(m))|((r)&(m))");
+		macros.put("SK_bitArrayCopy","template<typename T, typename V> \n"+
+				"void SK_bitArrayCopy(T* lhs, int s, int e, V* x, int ws)\n"+
+				"{\n	int aw=s/ws;\n	if(aw==e/ws) {\n	"+
+				"	int mask=SK_ONES_SE(s%ws,e%ws);\n"+
+				"		SK_COPYBITS(lhs[aw],mask,x[0]<<(s%ws));\n	}\n"+
+				"	else {\n"+
+				"		int k=s%ws;\n"+
+				"		int l=e-s;\n"+
+				"		int nfw=(l)/ws;\n"+
+				"       l = l+1;\n"+
+				"		int xw;\n"+
+				"		if(k==0) {\n"+
+				"			for(xw=0;xw<nfw;xw++) {\n"+
+				"				lhs[aw++]=x[xw];\n"+
+				"			}\n"+
+				"			int mask=SK_ONES_E(e%ws);\n"+
+				"			SK_COPYBITS(lhs[aw],mask,x[xw]);\n"+
+				"		}\n		else {\n			int kc=ws-k;\n"+
+				"			int mask1=SK_ONES_S(k);\n"+
+				"			int mask2=~mask1;\n"+
+				"			for(xw=0;xw<nfw;xw++) {\n"+
+				"				SK_COPYBITS(lhs[aw],mask1,x[xw]<<k);\n"+
+				"				aw++;\n"+
+				"				SK_COPYBITS(lhs[aw],mask2,x[xw]>>kc);\n"+
+				"			}\n"+
+				"			if(l%ws>kc) {\n"+
+				"				SK_COPYBITS(lhs[aw],mask1,x[xw]<<k);\n"+
+				"				aw++;\n"+
+				"				int mask=SK_ONES_E(e%ws);\n"+
+				"				SK_COPYBITS(lhs[aw],mask,x[xw]>>kc);\n"+
+				"			}\n"+
+				"			else {\n"+
+				"				int mask=SK_ONES_SE(k,e%ws);\n"+
+				"				SK_COPYBITS(lhs[aw],mask,x[xw]<<k);\n"+
+				"			}\n"+
+				"		}\n	}\n}\n");
+		macros.put("SK_bitArrayCopyInv","template<typename T, typename V> \n" +
+				"void SK_bitArrayCopyInv(T* lhs, int s, int e, V* x, int wsl, int wsr, int totlen){\n" +
+				"    int aw=s/wsr;\n" +
+				"    int l=e-s+1;\n" +
+				"    if(aw==e/wsr) {\n" +
+				"       if( (l-1)/wsl == 0 ){\n" +
+				"           if( l == wsr ){ lhs[0] = x[aw]; return; } \n"+
+				"           int mask=SK_ONES_SE(0,(e%wsr) - (s%wsr));\n" +
+				"           SK_COPYBITS(lhs[0],mask,x[aw]>>(s%wsr));\n" +
+				"       }else{\n" +
+				"          printf(\"THIS HAS NOT BEEN IMPLEMENTED\"); return;\n" +
+				"       }\n" +
+				"    }\n" +
+				"    else {\n" +
+				"       int ws = wsr;\n" +
+				"       if( wsr != wsl ){ printf(\"THIS HAS NOT BEEN IMPLEMENTED\"); return;}\n" +
+				"       int k=s%ws;\n" +
+				"       int nfw=(l-1)/ws;\n" +
+				"       int xw;\n" +
+				"       if(k==0) {\n" +
+				"           for(xw=0;xw<nfw;xw++) {\n" +
+				"               lhs[xw]=x[aw++];\n" +
+				"           }\n" +
+				"           int mask=SK_ONES_E(e%ws);\n" +
+				"           SK_COPYBITS(lhs[xw],mask,x[aw]);\n" +
+				"       }\n" +
+				"       else {\n" +
+				"           int kc=ws-k;\n" +
+				"           int mask1=SK_ONES(kc);\n" +
+				"           int mask2=~mask1;\n" +
+				"           for(xw=0;xw<nfw;xw++) {\n" +
+				"               SK_COPYBITS(lhs[xw],mask1,x[aw]>>k);\n" +
+				"               aw++;\n" +
+				"               SK_COPYBITS(lhs[xw],mask2,x[aw]<<kc);\n" +
+				"           }\n" +
+				"           if(l%ws>kc) {\n" +
+				"               SK_COPYBITS(lhs[aw],mask1,x[xw]>>k);\n" +
+				"               aw++;\n" +
+				"               int mask=SK_ONES_SE(kc, e%ws);\n" +
+				"               SK_COPYBITS(lhs[aw],mask,x[xw]<<kc);\n" +
+				"           }\n" +
+				"           else {\n" +
+				"               int mask=SK_ONES_E((e%ws)-k);\n" +
+				"               SK_COPYBITS(lhs[xw],mask,x[aw]>>k);\n" +
+				"           }\n" +
+				"       }\n" +
+				"    }\n" +
+				"    if(totlen > l){       for(int i=l; i<totlen; ++i) SK_BITASSIGN(lhs[i/wsl], i%wsl, 0);     }}\n" +
+				"\n" );
+		macroDefinitions=Collections.unmodifiableMap(macros);
 	}
 	
 	private void requireMacro(String m) {
@@ -152,21 +157,25 @@ public class NodesToCOld extends NodesToJava {
 	}
 
 	@Override
-	public Object visitProgram(Program prog)
+	protected void emitProgram(Program prog)
 	{
-		String ret=(String)super.visitProgram(prog);
-		StringBuffer preamble=new StringBuffer();
-		preamble.append("#include <cstdio>\n");
-		preamble.append("#include <assert.h>\n");
-		preamble.append("#include \"");
-		preamble.append(filename);
-		preamble.append(".h\"\n");
+		// the preamble defines the macros the code turns out to use
+		Appendable oldOut=out;
+		StringBuilder code=new StringBuilder();
+		out=code;
+		try {
+			super.emitProgram(prog);
+		} finally {
+			out=oldOut;
+		}
+		emit("#include <cstdio>\n");
+		emit("#include <assert.h>\n");
+		emit("#include \"" + filename + ".h\"\n");
 		for(Iterator<String> it=usedMacros.iterator();it.hasNext();) {
-			preamble.append(macroDefinitions.get(it.next()));
-			preamble.append("\n");
+			emit(macroDefinitions.get(it.next()));
+			emit("\n");
 		}
-		preamble.append(ret);
-		return preamble.toString();
+		emit(code.toString());
 	}
 
 	public Object visitPackage(Package spec){
@@ -14,9 +14,11 @@ public class NodesToCPrintTest extends NodesToC {
     }
 
     @Override
-    public Object visitProgram(Program prog) {
-        return "#include <stdio.h>" + "\n#include <stdlib.h>" + "\n#include <time.h>" +
-                "\n" + super.visitProgram(prog) + "\nint main(void) {" + "\n    " +
-                fcnToTest + "();" + "\n    return 0;" + "\n}\n";
+    protected void emitProgram(Program prog) {
+        emit("#include <stdio.h>" + "\n#include <stdlib.h>" + "\n#include <time.h>" +
+                "\n");
+        super.emitProgram(prog);
+        emit("\nint main(void) {" + "\n    " + fcnToTest + "();" +
+                "\n    return 0;" + "\n}\n");
     }
 }
@@ -21,7 +21,6 @@ public class NodesToCTest extends NodesToJava {
 
 	private NodesToC _converter;
 	private String filename;
-	private StringBuffer output;
 	private HashMap<String,Function> fMap;
 	private List<String> testFuncs;
 	private static final String IN="in";
@@ -33,25 +32,22 @@ public class NodesToCTest extends NodesToJava {
 		super(false, new TempVarGen());
 		this.filename=filename;
         _converter = new NodesToC(null, filename, pythonPrintStatements);
-		output=new StringBuffer();
 		fMap=new HashMap<String,Function>();
 		testFuncs=new ArrayList<String>();
 	}
 	
 	protected void writeLine(String s) {
-		output.append(indent);
-		output.append(s);
-		output.append("\n");
+		emit(indent + s + "\n");
 	}
 	
 	@Override
-	public Object visitProgram(Program prog)
+	protected void emitProgram(Program prog)
 	{
 		writeLine("#include <stdio.h>");
 		writeLine("#include <stdlib.h>");
 		writeLine("#include <time.h>");
 		writeLine("#include \""+filename+".h\"\n");
-		super.visitProgram(prog);
+		super.emitProgram(prog);
 		writeLine("int main(void) {");
 		addIndent();
 		writeLine("srand(time(0));");
@@ -62,7 +58,6 @@ public class NodesToCTest extends NodesToJava {
 		writeLine("return 0;");
 		unIndent();
 		writeLine("}");
-		return output.toString();
 	}
 
 	public Object visitPackage(Package spec){
@@ -36,20 +36,17 @@ public class NodesToH extends NodesToC {
 	
 	
 	@Override
-	public Object visitProgram(Program prog)
+	protected void emitProgram(Program prog)
 	{
 		String defname=filename.toUpperCase()+"_H";
 		defname = defname.replace('.', '_');
-		String ret="#ifndef "+defname+"\n";
-		ret+="#define "+defname+"\n\n";
-		ret+="#include \"bitvec.h\"\n";
-		ret+="#include \"fixedarr.h\"\n";
-		
-		
+		emit("#ifndef "+defname+"\n");
+		emit("#define "+defname+"\n\n");
+		emit("#include \"bitvec.h\"\n");
+		emit("#include \"fixedarr.h\"\n");
 
-		ret+=super.visitProgram(prog);
-		ret+="\n#endif\n";
-		return ret;
+		super.emitProgram(prog);
+		emit("\n#endif\n");
 	}
 
 	public Object visitPackage(Package spec){
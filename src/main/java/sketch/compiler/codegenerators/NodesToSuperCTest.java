@@ -23,7 +23,6 @@ public class NodesToSuperCTest extends NodesToJava {
 
     private NodesToSuperCpp _converter;
     private String filename;
-    private StringBuffer output;
     // private HashMap<String,Function> fMap;
     private Set<String> testFuncs;
     private static final String IN = "in";
@@ -42,18 +41,15 @@ public class NodesToSuperCTest extends NodesToJava {
         BND = bnd;
         this.filename = filename;
         _converter = new NodesToSuperCpp(null, filename);
-        output = new StringBuffer();
         testFuncs = new HashSet<String>();
     }
 
     protected void writeLine(String s) {
-        output.append(indent);
-        output.append(s);
-        output.append("\n");
+        emit(indent + s + "\n");
     }
 
     @Override
-    public Object visitProgram(Program prog) {
+    protected void emitProgram(Program prog) {
         writeLine("#include <stdio.h>");
         writeLine("#include <stdlib.h>");
         writeLine("#include <time.h>");
@@ -61,7 +57,7 @@ public class NodesToSuperCTest extends NodesToJava {
         writeLine("#include \"vops.h\"");
         writeLine("#include \"" + filename + ".h\"\n");
         writeLine("using namespace std;\n");
-        super.visitProgram(prog);
+        super.emitProgram(prog);
         writeLine("int main(int argc, char** argv) {");
         addIndent();
         writeLine("Parameters p(argc, argv);");
@@ -73,7 +69,6 @@ public class NodesToSuperCTest extends NodesToJava {
         writeLine("return 0;");
         unIndent();
         writeLine("}");
-        return output.toString();
     }
 
     public Object visitPackage(Package spec) {
@@ -16,7 +16,6 @@ import sketch.compiler.ast.core.Annotation;
 import sketch.compiler.ast.core.FEReplacer;
 import sketch.compiler.ast.core.FieldDecl;
 import sketch.compiler.ast.core.Function;
-import sketch.compiler.ast.core.NameResolver;
 import sketch.compiler.ast.core.Package;
 import sketch.compiler.ast.core.Parameter;
 import sketch.compiler.ast.core.Program;
@@ -53,6 +52,8 @@ public class NodesToSuperCpp extends NodesToJava {
     protected boolean hasReturned = false;
     protected boolean addIncludes = true;
     protected Set<String> typeParams = new HashSet<String>();
+    /** The type field of the class of each struct, as named by the header. */
+    protected final Map<String, String> typeVars;
 
     protected String outputCreator(StructDef struct) {
 
@@ -226,7 +227,7 @@ public class NodesToSuperCpp extends NodesToJava {
                 parent = nres.getStructParentName(parent);
             }
             result +=
-                    indent + "rv->" + NodesToSuperH.typeVars.get(parent) + "= " +
+                    indent + "rv->" + typeVars.get(parent) + "= " +
 
                             classFullName(topParent) + "::" + 
                             struct.getName().toUpperCase() + "_type;\n";
@@ -262,10 +263,10 @@ public class NodesToSuperCpp extends NodesToJava {
         symtab = new SymbolTable(symtab);
 
         // Put context label at the start of the block, too.
-        String result = "{";
+        StringBuilder result = new StringBuilder("{");
         if (printSourceLines && stmt != null)
-            result += " // " + stmt;
-        result += "\n";
+            result.append(" // ").append(stmt);
+        result.append("\n");
         addIndent();
         pbStack.push(postBlock);
         postBlock = null;
@@ -273,34 +274,34 @@ public class NodesToSuperCpp extends NodesToJava {
         preStmt = null;
         for (Iterator iter = stmt.getStmts().iterator(); iter.hasNext();) {
             Statement s = (Statement) iter.next();
-            String line = indent;
-            line += (String) s.accept(this);
+            String code = (String) s.accept(this);
+            // the statement may have added code to go before it
+            if (preStmt != null) {
+                result.append(preStmt);
+                preStmt = null;
+            }
+            result.append(indent).append(code);
             if (!(s instanceof StmtIfThen || s instanceof StmtFor ||
                     s instanceof StmtWhile || s instanceof StmtSwitch))
             {
-                line += ";";
-            }
-            if (preStmt != null) {
-                line = preStmt + line;
-                preStmt = null;
+                result.append(";");
             }
             if (printSourceLines && s != null)
-                line += " // " + s;
-            line += "\n";
-            result += line;
+                result.append(" // ").append(s);
+            result.append("\n");
         }
         if (postBlock != null) {
             if (!hasReturned) {
-                result += postBlock;
+                result.append(postBlock);
             }
             postBlock = null;
         }
         preStmt = oldPS;
         postBlock = pbStack.pop();
         unIndent();
-        result += indent + "}";
+        result.append(indent).append("}");
         symtab = oldSymTab;
-        return result;
+        return result.toString();
     }
 
     public Object visitStmtReturn(StmtReturn stmt) {
@@ -324,8 +325,16 @@ public class NodesToSuperCpp extends NodesToJava {
     }
 
     public NodesToSuperCpp(TempVarGen varGen, String filename) {
+        this(varGen, filename, new HashMap<String, String>());
+    }
+
+    /** typeVars are the names of the type fields, from the NodesToSuperH of the header. */
+    public NodesToSuperCpp(TempVarGen varGen, String filename,
+            Map<String, String> typeVars)
+    {
         super(false, varGen);
         this.filename = filename;
+        this.typeVars = typeVars;
     }
 
 
@@ -729,25 +738,16 @@ public class NodesToSuperCpp extends NodesToJava {
 
 
     @Override
-    public Object visitProgram(Program prog) {
-        nres = new NameResolver(prog);
-
-
-        String ret = (String) super.visitProgram(prog);
-        StringBuffer preamble = new StringBuffer();
+    protected void emitProgram(Program prog) {
         if (addIncludes) {
-            preamble.append("#include <cstdio>\n");
-            preamble.append("#include <assert.h>\n");
-            preamble.append("#include <iostream>\n");
-            preamble.append("using namespace std;\n");
-            preamble.append("#include \"vops.h\"\n");
-            preamble.append("#include \"");
-            preamble.append(filename);
-            preamble.append(".h\"\n");
-        }
-        preamble.append(ret);
-        // System.out.println(preamble.toString());
-        return preamble.toString();
+            emit("#include <cstdio>\n");
+            emit("#include <assert.h>\n");
+            emit("#include <iostream>\n");
+            emit("using namespace std;\n");
+            emit("#include \"vops.h\"\n");
+            emit("#include \"" + filename + ".h\"\n");
+        }
+        super.emitProgram(prog);
     }
 
     public String outputStructure(StructDef struct) {
@@ -834,26 +834,26 @@ public class NodesToSuperCpp extends NodesToJava {
         symtab = new SymbolTable(symtab);
         nres.setPackage(spec);
 
-        String result = "namespace " + spec.getName() + "{\n\n";
+        emit("namespace " + spec.getName() + "{\n\n");
 
         for (Iterator iter = spec.getStructs().iterator(); iter.hasNext();) {
             StructDef struct = (StructDef) iter.next();
-            result += outputStructure(struct);
+            emit(outputStructure(struct));
         }
 
         for (FieldDecl v : spec.getVars()) {
-            result += v.accept(this);
+            emitCode(v.accept(this));
         }
 
         for (Iterator iter = spec.getFuncs().iterator(); iter.hasNext();) {
             Function oldFunc = (Function) iter.next();
             symtab.registerFn(oldFunc);
-            result += (String) oldFunc.accept(this);
+            emit((String) oldFunc.accept(this));
         }
 
         symtab = oldSymTab;
-        result += "\n}\n";
-        return result;
+        emit("\n}\n");
+        return null;
     }
 
     public String classFullName(StructDef struct) {
@@ -1117,7 +1117,7 @@ public class NodesToSuperCpp extends NodesToJava {
             name = sd.getParentName();
             sd = nres.getStruct(name);
         }
-        result += "->" + NodesToSuperH.typeVars.get(name) + "){\n";
+        result += "->" + typeVars.get(name) + "){\n";
         name = name.split("@")[0];
         for (String c : stmt.getCaseConditions()) {
             // brakects around cases and constants with type.
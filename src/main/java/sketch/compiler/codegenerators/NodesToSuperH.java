@@ -24,10 +24,16 @@ public class NodesToSuperH extends NodesToSuperCpp {
     private String preIncludes;
     private String creators;
 
-    protected static Map<String, String> typeVars = new HashMap<String, String>();
-
     public NodesToSuperH(String filename) {
-        super(null, filename);
+        this(filename, new HashMap<String, String>());
+    }
+
+    /**
+     * typeVars gets the name of the type field of each class made for a struct, which
+     * the code that goes with this header needs.
+     */
+    public NodesToSuperH(String filename, Map<String, String> typeVars) {
+        super(null, filename, typeVars);
         // _converter = new NodesToSuperCpp(null, filename, pythonPrintStatements);
         this.filename = filename;
         this.addIncludes = false;
@@ -204,25 +210,24 @@ public class NodesToSuperH extends NodesToSuperCpp {
     }
 
     @Override
-    public Object visitProgram(Program prog) {
+    protected void emitProgram(Program prog) {
         String defname = filename.toUpperCase() + "_H";
         defname = defname.replace('.', '_');
-        String ret = "#ifndef " + defname + "\n";
-        ret += "#define " + defname + "\n\n";
-        ret += "#include <cstring>\n\n";
-        ret += "#include \"vops.h\"\n\n";
+        emit("#ifndef " + defname + "\n");
+        emit("#define " + defname + "\n\n");
+        emit("#include <cstring>\n\n");
+        emit("#include \"vops.h\"\n\n");
 
         for (Package pkg : prog.getPackages()) {
-            ret += "namespace " + pkg.getName() + "{\n";
+            emit("namespace " + pkg.getName() + "{\n");
             for (StructDef ts : pkg.getStructs()) {
-                ret += structDecl(ts);
+                emit(structDecl(ts));
             }
-            ret += "}\n";
+            emit("}\n");
         }
 
-        ret += super.visitProgram(prog);
-        ret += "\n#endif\n";
-        return ret;
+        super.emitProgram(prog);
+        emit("\n#endif\n");
     }
 
     public String structDecl(StructDef struct) {
@@ -1,6 +1,7 @@
 package sketch.compiler.codegenerators;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -318,7 +319,8 @@ public class SNodesToC extends NodesToJava {
 
 	}
 	
-	private static Map<String,String> macroDefinitions=null;
+	private static final Map<String,String> macroDefinitions=
+		Collections.unmodifiableMap(new HashMap<String,String>());
 
 	private final String filename; 
 	private final List<String> usedMacros;
@@ -331,9 +333,6 @@ public class SNodesToC extends NodesToJava {
 		this.filename=filename;
 		usedMacros=new ArrayList<String>();
 		usedArrayTypes=new ArrayList<Integer>();
-		if(macroDefinitions==null) {
-			macroDefinitions=new HashMap<String,String>();
-		}
 	}
 	
 	private void requireMacro(String m) {
@@ -363,24 +362,29 @@ public class SNodesToC extends NodesToJava {
 	}
 
 	@Override
-	public Object visitProgram(Program prog)
+	protected void emitProgram(Program prog)
 	{
-		String ret=(String)super.visitProgram(prog);
-		StringBuffer preamble=new StringBuffer();
-		preamble.append("#include <cstdio>\n");
-		preamble.append("#include <assert.h>\n");
-		preamble.append("\n");
+		// the preamble defines the macros the code turns out to use
+		Appendable oldOut=out;
+		StringBuilder code=new StringBuilder();
+		out=code;
+		try {
+			super.emitProgram(prog);
+		} finally {
+			out=oldOut;
+		}
+		emit("#include <cstdio>\n");
+		emit("#include <assert.h>\n");
+		emit("\n");
 		for(String macroName: usedMacros) {
-			preamble.append(macroDefinitions.get(macroName));
-			preamble.append("\n");
+			emit(macroDefinitions.get(macroName));
+			emit("\n");
 		}
 		for(Integer dim: usedArrayTypes) {
-			String code=generateArrayImpl(dim);
-			preamble.append(code);
-			preamble.append("\n");
+			emit(generateArrayImpl(dim));
+			emit("\n");
 		}
-		preamble.append(ret);
-		return preamble.toString();
+		emit(code.toString());
 	}
 
 	public Object visitPackage(Package spec){
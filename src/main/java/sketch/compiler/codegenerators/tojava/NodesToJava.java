@@ -16,6 +16,8 @@
 
 package sketch.compiler.codegenerators.tojava;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
@@ -46,7 +48,10 @@ import sketch.compiler.passes.lowering.SymbolTableVisitor;
  * Traverse a front-end tree and produce Java code.  This uses {@link
  * sketch.compiler.nodes.FEVisitor} directly, without going through
  * an intermediate class such as <code>FEReplacer</code>.  Every
- * method actually returns a String.
+ * method actually returns a String, except that packages emit the
+ * code of their declarations as it is generated; {@link #generate}
+ * sends it straight to a Writer, so the code of a whole program need
+ * not be held in memory.
  *
  * @author  David Maze &lt;dmaze@cag.lcs.mit.edu&gt;
  * @version $Id$
@@ -81,6 +86,57 @@ public class NodesToJava extends SymbolTableVisitor
         this.printSourceLines=printSourceLines;
     }
 
+    /**
+     * Where the code of the program being generated goes: the Writer
+     * given to generate(), or a buffer that visitProgram returns as a
+     * String.
+     */
+    protected Appendable out = null;
+
+    /** Carries an IOException of the Writer out of the visitor. */
+    private static class OutputException extends RuntimeException {
+        OutputException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Write the code for prog to writer as it is generated.
+     */
+    public void generate(Program prog, Writer writer) throws IOException
+    {
+        Appendable oldOut = out;
+        out = writer;
+        try {
+            prog.accept(this);
+        } catch (OutputException e) {
+            throw (IOException) e.getCause();
+        } finally {
+            out = oldOut;
+        }
+    }
+
+    /** Add code to the output of the program. */
+    protected void emit(String code)
+    {
+        try {
+            out.append(code);
+        } catch (IOException e) {
+            throw new OutputException(e);
+        }
+    }
+
+    /**
+     * Add code returned by a visitor to the output of the program;
+     * visitors that emit their code themselves return null.
+     */
+    protected void emitCode(Object code)
+    {
+        if (code != null) {
+            emit((String) code);
+        }
+    }
+
     // Add two spaces to the indent.
     protected void addIndent()
     {
@@ -496,18 +552,33 @@ public class NodesToJava extends SymbolTableVisitor
 
     public Object visitProgram(Program prog)
     {
-        // Nothing special here either.  Just accumulate all of the
+        if (out != null) {
+            emitProgram(prog);
+            return null;
+        }
+        StringBuilder result = new StringBuilder();
+        out = result;
+        try {
+            emitProgram(prog);
+        } finally {
+            out = null;
+        }
+        return result.toString();
+    }
+
+    /**
+     * Emit the code of prog.  Subclasses add what goes before or after
+     * the code of the packages here, rather than in visitProgram.
+     */
+    protected void emitProgram(Program prog)
+    {
+        // Nothing special here either.  Just emit all of the
         // structures and streams.
-        String result = "";
         nres = new NameResolver(prog);
         for (Iterator iter = prog.getPackages().iterator(); iter.hasNext(); )
-            result += (String)((Package)iter.next()).accept(this);
-        return result;
+            emitCode(((Package)iter.next()).accept(this));
     }
 
-
-
-
     public Object visitStmtAssign(StmtAssign stmt)
     {
         String op;
@@ -532,30 +603,29 @@ public class NodesToJava extends SymbolTableVisitor
         symtab = new SymbolTable(symtab);
 
         // Put context label at the start of the block, too.
-        String result = "{";
+        StringBuilder result = new StringBuilder("{");
         if (printSourceLines && stmt != null)
-            result += " // " + stmt;
-        result += "\n";
+            result.append(" // ").append(stmt);
+        result.append("\n");
         addIndent();
         for (Iterator iter = stmt.getStmts().iterator(); iter.hasNext(); )
         {
             Statement s = (Statement)iter.next();
-            String line = indent;
-            line += (String)s.accept(this);
+            result.append(indent);
+            result.append((String)s.accept(this));
 		    if(!(s instanceof StmtIfThen ||
 		         s instanceof StmtFor ||
 		         s instanceof StmtWhile)) {
-		    	line += ";";
+		    	result.append(";");
 		    }
             if (printSourceLines && s != null)
-                line += " // " + s;
-            line += "\n";
-            result += line;
+                result.append(" // ").append(s);
+            result.append("\n");
         }
         unIndent();
-        result += indent + "}";
+        result.append(indent).append("}");
         symtab = oldSymTab;
-        return result;
+        return result.toString();
     }
 
 
@@ -694,34 +764,32 @@ public class NodesToJava extends SymbolTableVisitor
 
     public Object visitPackage(Package spec)
     {
-
-        String result = "";
         // At this point we get to ignore wholesale the stream type, except
         // that we want to save it.
         nres.setPackage(spec);
 
         for (Iterator iter = spec.getStructs().iterator(); iter.hasNext();) {
             StructDef struct = (StructDef) iter.next();
-            result += outputStructure(struct);
+            emit(outputStructure(struct));
         }
 
         // Output field definitions:
         for (Iterator iter = spec.getVars().iterator(); iter.hasNext(); )
         {
             FieldDecl varDecl = (FieldDecl)iter.next();
-            result += (String)varDecl.accept(this);
+            emit((String)varDecl.accept(this));
         }
 
         // Output method definitions:
         for (Iterator iter = spec.getFuncs().iterator(); iter.hasNext(); ){
         	Function func = (Function)iter.next();
 		    symtab.registerFn(func);
-            result += (String)((func).accept(this));
+            emit((String)((func).accept(this)));
         }
 
         unIndent();
-        result += "}\n";
-        return result;
+        emit("}\n");
+        return null;
     }
 
 
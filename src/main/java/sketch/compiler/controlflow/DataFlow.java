@@ -16,12 +16,13 @@
 
 package sketch.compiler.controlflow;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.PriorityQueue;
+
+import sketch.compiler.controlflow.CFGNode.EdgePair;
 
 /**
  * Abstract base class for data-flow analyses.  This provides the
@@ -34,7 +35,12 @@ import java.util.Set;
 public abstract class DataFlow
 {
     /**
-     * Actually perform the data-flow analysis.
+     * Actually perform the data-flow analysis.  Nodes are taken off the
+     * worklist in reverse postorder of the direction of the analysis, so
+     * a node is normally visited after all of its non-back-edge
+     * predecessors, and the value leaving each node is computed once per
+     * change of the value entering it rather than once per visit of
+     * each of its successors.
      *
      * @param cfg  control-flow graph to perform analysis on
      * @return     map of CFGNode to Lattice element at entry to the node
@@ -51,35 +57,48 @@ public abstract class DataFlow
             entry = cfg.getExit();
         Lattice init = getInit();
         Lattice top = init.getTop();
-        Lattice bottom = init.getBottom();
-        Map dfin = new HashMap();
-
-        // Set up initial worklist:
-        final Set worklist = new HashSet(cfg.getNodes());
-        worklist.remove(entry);
-        
-        // Set up initial dfin:
-        dfin.put(entry, init);
-        for (Iterator iter = worklist.iterator(); iter.hasNext(); )
-            dfin.put(iter.next(), top);
+        Map<CFGNode, Lattice> dfin = new HashMap<CFGNode, Lattice>();
+        Map<CFGNode, Lattice> dfout = new HashMap<CFGNode, Lattice>();
+
+        final List<CFGNode> order = reversePostorder(cfg, entry);
+        final Map<CFGNode, Integer> index = new HashMap<CFGNode, Integer>();
+        for (int i = 0; i < order.size(); ++i)
+            index.put(order.get(i), i);
+
+        // Set up initial worklist and dfin:
+        PriorityQueue<Integer> worklist = new PriorityQueue<Integer>();
+        boolean[] onList = new boolean[order.size()];
+        for (int i = 0; i < order.size(); ++i)
+        {
+            CFGNode n = order.get(i);
+            if (n == entry)
+            {
+                dfin.put(n, init);
+            }
+            else
+            {
+                dfin.put(n, top);
+                worklist.add(i);
+                onList[i] = true;
+            }
+        }
 
         while (!worklist.isEmpty())
         {
-            // Get an arbitrary element from the list.
-            CFGNode b = (CFGNode)worklist.iterator().next();
-            worklist.remove(b);
+            // Get the earliest node in reverse postorder.
+            int bi = worklist.poll();
+            onList[bi] = false;
+            CFGNode b = order.get(bi);
             Lattice totaleffect = top;
-            
-            List preds;
-            if (isForward())
-                preds = cfg.getPredecessors(b);
-            else
-                preds = cfg.getSuccessors(b);
-            for (Iterator iter = preds.iterator(); iter.hasNext(); )
+
+            for (CFGNode p : previous(cfg, b))
             {
-                CFGNode p = (CFGNode)iter.next();
-                Lattice in = (Lattice)dfin.get(p);
-                Lattice effect = flowFunction(p, in);
+                Lattice effect = dfout.get(p);
+                if (effect == null)
+                {
+                    effect = flowFunction(p, dfin.get(p));
+                    dfout.put(p, effect);
+                }
                 totaleffect = totaleffect.meet(effect);
             }
 
@@ -88,16 +107,90 @@ public abstract class DataFlow
                 // entry to this node has changed; save new value
                 // and put successors in worklist
                 dfin.put(b, totaleffect);
-                if (isForward())
-                    worklist.addAll(cfg.getSuccessors(b));
-                else
-                    worklist.addAll(cfg.getPredecessors(b));
+                dfout.remove(b);
+                for (CFGNode s : next(cfg, b))
+                {
+                    Integer si = index.get(s);
+                    if (si != null && !onList[si])
+                    {
+                        onList[si] = true;
+                        worklist.add(si);
+                    }
+                }
             }
         }
 
         return dfin;
     }
 
+    /** The nodes a value flows to from node, in the direction of the analysis. */
+    private List<CFGNode> next(CFG cfg, CFGNode node)
+    {
+        if (isForward())
+            return targets(cfg.getSuccessors(node));
+        else
+            return cfg.getPredecessors(node);
+    }
+
+    /** The nodes whose values flow into node, in the direction of the analysis. */
+    private List<CFGNode> previous(CFG cfg, CFGNode node)
+    {
+        if (isForward())
+            return cfg.getPredecessors(node);
+        else
+            return targets(cfg.getSuccessors(node));
+    }
+
+    private static List<CFGNode> targets(List<EdgePair> edges)
+    {
+        List<CFGNode> result = new ArrayList<CFGNode>(edges.size());
+        for (EdgePair ep : edges)
+            result.add(ep.node);
+        return result;
+    }
+
+    /**
+     * Order the nodes of cfg by reverse postorder of a depth-first
+     * search from entry in the direction of the analysis.  Nodes that
+     * can't be reached from entry go last, in the order of the CFG.
+     */
+    private List<CFGNode> reversePostorder(CFG cfg, CFGNode entry)
+    {
+        List<CFGNode> postorder = new ArrayList<CFGNode>(cfg.size());
+        Map<CFGNode, Boolean> visited = new HashMap<CFGNode, Boolean>();
+        // explicit stack of (node, remaining successors), since the
+        // CFGs of parallel sketches are too deep to recurse on.
+        List<CFGNode> stack = new ArrayList<CFGNode>();
+        List<List<CFGNode>> pending = new ArrayList<List<CFGNode>>();
+        visited.put(entry, true);
+        stack.add(entry);
+        pending.add(new ArrayList<CFGNode>(next(cfg, entry)));
+        while (!stack.isEmpty())
+        {
+            int top = stack.size() - 1;
+            List<CFGNode> succs = pending.get(top);
+            if (succs.isEmpty())
+            {
+                postorder.add(stack.remove(top));
+                pending.remove(top);
+                continue;
+            }
+            CFGNode s = succs.remove(succs.size() - 1);
+            if (visited.put(s, true) == null)
+            {
+                stack.add(s);
+                pending.add(new ArrayList<CFGNode>(next(cfg, s)));
+            }
+        }
+        List<CFGNode> order = new ArrayList<CFGNode>(cfg.size());
+        for (int i = postorder.size() - 1; i >= 0; --i)
+            order.add(postorder.get(i));
+        for (CFGNode n : cfg.getNodes())
+            if (!visited.containsKey(n))
+                order.add(n);
+        return order;
+    }
+
     /**
      * Get the lattice value that is at the entry node.  What value
      * this is depends on the particular analysis being performed.
@@ -0,0 +1,134 @@
+package sketch.compiler.dataflow;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * The elements of an array variable in a varState, by index. The indices of an array
+ * of known, moderate size are kept in a plain array, which only grows as far as the
+ * highest index stored so far; any other index, and every index of an array whose size
+ * is unknown, goes to a sorted map. A delta clone of a varState starts out empty and
+ * usually only stores a few low indices, so it stays small even for a long array.
+ * Iteration is in increasing order of index, like the TreeMap this replaces.
+ */
+public final class ArrayElems implements Iterable<Entry<Integer, abstractValue>> {
+    /** Arrays longer than this are stored sparsely. */
+    static final int MAX_DENSE = 1 << 16;
+
+    private final int denseSize;
+    private abstractValue[] dense = null;
+    private TreeMap<Integer, abstractValue> sparse = null;
+    private int size = 0;
+
+    public ArrayElems(int arraySize) {
+        denseSize = (arraySize > 0 && arraySize <= MAX_DENSE) ? arraySize : 0;
+    }
+
+    private boolean isDense(int i) {
+        return i >= 0 && i < denseSize;
+    }
+
+    /** Returns the value at index i, or null if there is none. */
+    public abstractValue get(int i) {
+        if (isDense(i)) {
+            return (dense == null || i >= dense.length) ? null : dense[i];
+        }
+        return sparse == null ? null : sparse.get(i);
+    }
+
+    public boolean containsKey(int i) {
+        return get(i) != null;
+    }
+
+    public void put(int i, abstractValue val) {
+        assert val != null : "array elements can not be null";
+        if (isDense(i)) {
+            if (dense == null || i >= dense.length) {
+                grow(i);
+            }
+            if (dense[i] == null) {
+                ++size;
+            }
+            dense[i] = val;
+        } else {
+            if (sparse == null) {
+                sparse = new TreeMap<Integer, abstractValue>();
+            }
+            if (sparse.put(i, val) == null) {
+                ++size;
+            }
+        }
+    }
+
+    /** Makes room for index i, at least doubling the plain array. */
+    private void grow(int i) {
+        int length = dense == null ? 0 : dense.length;
+        int newLength = Math.min(denseSize, Math.max(i + 1, Math.max(2 * length, 4)));
+        dense =
+                dense == null ? new abstractValue[newLength] : Arrays.copyOf(dense,
+                        newLength);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Length of the plain array, for tests. */
+    int denseCapacity() {
+        return dense == null ? 0 : dense.length;
+    }
+
+    /** Returns the indices that have a value, in increasing order. */
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        if (sparse != null) {
+            for (Integer k : sparse.headMap(0).keySet()) {
+                result[n++] = k;
+            }
+        }
+        if (dense != null) {
+            for (int i = 0; i < dense.length; ++i) {
+                if (dense[i] != null) {
+                    result[n++] = i;
+                }
+            }
+        }
+        if (sparse != null) {
+            for (Integer k : sparse.tailMap(0).keySet()) {
+                if (k >= denseSize) {
+                    result[n++] = k;
+                }
+            }
+        }
+        assert n == size;
+        return result;
+    }
+
+    public Iterator<Entry<Integer, abstractValue>> iterator() {
+        final int[] keys = keys();
+        return new Iterator<Entry<Integer, abstractValue>>() {
+            int pos = 0;
+
+            public boolean hasNext() {
+                return pos < keys.length;
+            }
+
+            public Entry<Integer, abstractValue> next() {
+                if (pos >= keys.length) {
+                    throw new NoSuchElementException();
+                }
+                int k = keys[pos++];
+                return new SimpleImmutableEntry<Integer, abstractValue>(k, get(k));
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
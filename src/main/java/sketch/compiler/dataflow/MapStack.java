@@ -4,6 +4,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 
 import sketch.compiler.dataflow.MethodState.ChangeTracker;
+import sketch.util.datastructures.PersistentHashMap;
 
 /**
  * This class maps each program variable name to its unique variable name to
@@ -18,6 +19,12 @@ import sketch.compiler.dataflow.MethodState.ChangeTracker;
 class MapStack{
     
     private HashMap<String, String> curVT; //HashMap<String, String>
+    /**
+     * Translations of the variables declared at this level and all the levels below it,
+     * so that translating a name does not have to walk the whole stack.
+     */
+    private PersistentHashMap<String, String> visible =
+            PersistentHashMap.<String, String> empty();
     private MapStack kid;
     private int vcount=0;
     private String lastSeen=null;
@@ -35,6 +42,7 @@ class MapStack{
         lastSeen = var;
         lastSeenTrans = newname;
         curVT.put(var, newname);
+        visible = visible.put(var, newname);
         return newname;
     }
     
@@ -49,6 +57,7 @@ class MapStack{
         lastSeen = newname;
         lastSeenTrans = newname;
         curVT.put(newname, newname);
+        visible = visible.put(newname, newname);
         return newname;
     }
     
@@ -57,6 +66,7 @@ class MapStack{
         MapStack tmp = new MapStack();
         tmp.kid = this;
         tmp.vcount = vcount;
+        tmp.visible = visible;
         return tmp;
     }
     
@@ -85,14 +95,8 @@ class MapStack{
         if( nm == lastSeen) 
             return lastSeenTrans;
         lastSeen = nm;
-        String t = (String) curVT.get(nm);
-        if(t != null)
-            lastSeenTrans = t;
-        else
-            if(kid != null)
-                lastSeenTrans = kid.transName(nm);
-            else
-                lastSeenTrans = nm;
+        String t = visible.get(nm);
+        lastSeenTrans = (t != null) ? t : nm;
         return lastSeenTrans;
     }
 }
\ No newline at end of file
@@ -15,6 +15,7 @@ import sketch.compiler.ast.core.stmts.StmtAssume;
 import sketch.compiler.ast.core.typs.Type;
 import sketch.compiler.ast.core.typs.TypePrimitive;
 import sketch.compiler.dataflow.nodesToSB.NtsbVtype;
+import sketch.util.datastructures.PersistentHashMap;
 
 import static sketch.util.DebugOut.assertFalse;
 import static sketch.util.DebugOut.printFailure;
@@ -29,6 +30,12 @@ public class MethodState {
         protected ChangeTracker kid;
         protected abstractValue condition;
         protected Map<String, varState> deltas;
+        /**
+         * The innermost delta of every variable changed in this tracker or the ones
+         * below it, so that looking up a variable does not have to walk the chain of
+         * trackers. It shares its structure with the view of the tracker below.
+         */
+        private PersistentHashMap<String, varState> view;
         protected int methodBoundary = 0;
         varState rvf = null;
         /*
@@ -95,17 +102,19 @@ public class MethodState {
         
         
         public void remove(String var){
-            if(deltas.containsKey(var)){
-                deltas.get(var).outOfScope();
-            }
-            deltas.remove(var);
-            if(kid != null){
-                assert !kid.deltas.containsKey(var): "This can't happen.";
+            varState vs = deltas.remove(var);
+            if(vs != null){
+                vs.outOfScope();
+                varState below = (kid != null) ? kid.view.get(var) : null;
+                assert below == null : "This can't happen.";
+                view = (below != null) ? view.put(var, below) : view.remove(var);
             }
         }
 
-        ChangeTracker(abstractValue cond, boolean isNegated){
+        ChangeTracker(abstractValue cond, boolean isNegated, ChangeTracker kid){
+            this.kid = kid;
             deltas = new HashMap<String, varState>();
+            view = (kid != null) ? kid.view : PersistentHashMap.<String, varState> empty();
             condition = cond;
             if( isNegated){
                 condition = vtype.not(condition);
@@ -121,20 +130,18 @@ public class MethodState {
         }
         /*
         ChangeTracker pushChangeTracker(abstractValue cond, boolean isNegated){
-            ChangeTracker tmp = new ChangeTracker( cond,  isNegated);
-            tmp.kid = this;
+            ChangeTracker tmp = new ChangeTracker( cond,  isNegated, this);
             return tmp;
         }
         */
 
         public varState addToDeltas(String var){
-            varState current = null;
-            if( !deltas.containsKey(var) ){
+            varState current = deltas.get(var);
+            if( current == null ){
                 current = UTvarState(var);
                 current = current.getDeltaClone(vtype);
                 deltas.put(var, current );
-            }else{
-                current = deltas.get(var);
+                view = view.put(var, current);
             }
             return current;
         }
@@ -150,30 +157,16 @@ public class MethodState {
         }
 
         boolean knowsAbout(String var){
-            varState i = deltas.get(var);
-            if(i != null)
-                return true;
-            else
-                return kid != null && kid.knowsAbout(var);
+            return view.containsKey(var);
         }
 
 
         public abstractValue varValue(String var){
-            varState i = deltas.get(var);
-            if( i != null){
-                return i.state(vtype);
-            }else{
-                return kid.varValue(var);
-            }
+            return view.get(var).state(vtype);
         }
 
         public varState varState(String var){
-            varState i = deltas.get(var);
-            if( i != null){
-                return i;
-            }else{
-                return kid.varState(var);
-            }
+            return view.get(var);
         }
 
     }
@@ -322,8 +315,9 @@ public class MethodState {
             assert i != null : "The variable " + var + " is causing problems";
             return i;
         }else{
-            if( changeTracker.knowsAbout(var) ){
-                return changeTracker.varState(var);
+            varState d = changeTracker.varState(var);
+            if( d != null ){
+                return d;
             }else{
                 assert(i != null) : ( "The variable " + var + " is used before being declared. This is an  internal error indicating a bug in the synthesizer. \n");
                 return i;
@@ -883,8 +877,7 @@ public class MethodState {
         /* Add new change tracker layer, including nesting conditional
          * expression and value. */
         ChangeTracker oldChangeTracker = changeTracker;
-        changeTracker = new ChangeTracker (cond, isNegated);
-        changeTracker.kid = oldChangeTracker;
+        changeTracker = new ChangeTracker (cond, isNegated, oldChangeTracker);
         changeTrackers++;
     }
 
@@ -894,8 +887,7 @@ public class MethodState {
          * value.
          */
         ChangeTracker oldChangeTracker = returnTracker;
-        returnTracker = new ChangeTracker(cond, isNegated);
-        returnTracker.kid = oldChangeTracker;
+        returnTracker = new ChangeTracker(cond, isNegated, oldChangeTracker);
     }
 
     /** Returns a set of the TRANSLATED variables names that are currently
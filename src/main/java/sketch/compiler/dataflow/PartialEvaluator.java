@@ -52,7 +52,7 @@ public class PartialEvaluator extends SymbolTableVisitor {
     protected RecursionControl rcontrol;
     /* Bounds for loop unrolling and function inlining (initialized arbitrarily). */
     protected int MAX_UNROLL = 0;
-    private TempVarGen varGen;
+    protected TempVarGen varGen;
     protected abstractValueType vtype;
     protected Expression exprRV=null;
     protected boolean isReplacer;
@@ -83,7 +83,7 @@ public class PartialEvaluator extends SymbolTableVisitor {
     }
 
     protected List<Function> funcsToAnalyze = null;
-    private Set<String> funcsAnalyzed = null;
+    protected Set<String> funcsAnalyzed = null;
 
 
     public String transName(String name){
@@ -2096,6 +2096,26 @@ nvarContext,
         if (funcsToAnalyze.size() == 0) {
             System.out.println("WARNING: Your input file contains no sketches. Make sure all your sketches use the implements keyword properly.");
         }
+        analyzeFunctions(newfuns);
+
+        List<Package> newPkgs = new ArrayList<Package>();
+        for (Package pkg : p.getPackages()) {
+            Package newPkg = preprocPkg(pkg);
+            String pkgName = pkg.getName();
+            newfuns.get(pkgName).addAll(newPkg.getFuncs());
+            newPkgs.add(new Package(newPkg, pkgName, newPkg.getStructs(),
+                    newPkg.getVars(), newfuns.get(pkgName), newPkg.getSpAsserts()));
+        }
+
+        return p.creator().streams(newPkgs).create();
+    }
+
+    /**
+     * Analyzes every function in funcsToAnalyze, including those that get added to it
+     * along the way, skipping the ones that are already in funcsAnalyzed. The new
+     * version of each function is added to the list for its package in newfuns.
+     */
+    protected void analyzeFunctions(Map<String, List<Function>> newfuns) {
         while (funcsToAnalyze.size() > 0) {
             Function f = funcsToAnalyze.get(0);
             String pkgName = f.getPkg();
@@ -2117,17 +2137,6 @@ nvarContext,
             Function tf = funcsToAnalyze.remove(0);
             assert tf == f;
         }
-
-        List<Package> newPkgs = new ArrayList<Package>();
-        for (Package pkg : p.getPackages()) {
-            Package newPkg = preprocPkg(pkg);
-            String pkgName = pkg.getName();
-            newfuns.get(pkgName).addAll(newPkg.getFuncs());
-            newPkgs.add(new Package(newPkg, pkgName, newPkg.getStructs(),
-                    newPkg.getVars(), newfuns.get(pkgName), newPkg.getSpAsserts()));
-        }
-
-        return p.creator().streams(newPkgs).create();
     }
 
 
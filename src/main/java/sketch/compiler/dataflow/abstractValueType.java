@@ -27,6 +27,14 @@ public abstract class abstractValueType{
 	abstract public abstractValue BOTTOM(); // == BOTTOM(TypePrimitive);
 	abstract public abstractValue BOTTOM(Type t);	
 	abstract public abstractValue BOTTOM(String label);
+
+	/**
+	 * Unknown value whose label is the label of v followed by suffix. Value types whose
+	 * labels are not plain strings can override this to avoid flattening v's label.
+	 */
+	public abstractValue BOTTOM(abstractValue v, String suffix) {
+		return BOTTOM(v.toString() + suffix);
+	}
 	/**
 	 * Called by varDeclare. Used to create the state that goes on the left hand side.
 	 * Usually ends up calling newLHSState();
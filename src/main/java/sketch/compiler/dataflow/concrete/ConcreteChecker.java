@@ -0,0 +1,126 @@
+package sketch.compiler.dataflow.concrete;
+
+import java.util.List;
+import java.util.Random;
+
+import sketch.compiler.ast.core.Function;
+import sketch.compiler.ast.core.NameResolver;
+import sketch.compiler.ast.core.Package;
+import sketch.compiler.ast.core.Program;
+import sketch.compiler.dataflow.abstractValue;
+import sketch.compiler.dataflow.concrete.ConcreteInterpreter.AssertionFailed;
+import sketch.compiler.dataflow.concrete.ConcreteInterpreter.AssumptionFailed;
+import sketch.compiler.dataflow.concrete.ConcreteInterpreter.Run;
+import sketch.compiler.solvers.constructs.AbstractValueOracle;
+import sketch.compiler.stencilSK.EliminateStarStatic;
+
+/**
+ * Tests the values of the holes of a program on random inputs, with the
+ * {@link ConcreteInterpreter}. Harnesses are run, and every sketch is run next to its
+ * specification. Inputs on which either can't be run, or that violate an assumption,
+ * are skipped. A failure is a hint rather than a proof, as the interpreter does not
+ * model everything the backend does, and passing says little more than that the
+ * candidate is not obviously wrong.
+ */
+public class ConcreteChecker {
+    /** Why a candidate failed, and on what inputs. */
+    public static class Failure {
+        public final Function fun;
+        public final List<abstractValue> inputs;
+        public final String message;
+
+        Failure(Function fun, List<abstractValue> inputs, String message) {
+            this.fun = fun;
+            this.inputs = inputs;
+            this.message = message;
+        }
+
+        public String toString() {
+            return fun.getName() + " fails on inputs " + inputs + ": " + message;
+        }
+    }
+
+    protected final Program prog;
+    protected final int inbits;
+    protected final Random rnd;
+    /** Runs given up on, because of something the interpreter can't compute. */
+    protected int skipped = 0;
+
+    public ConcreteChecker(Program prog, int inbits, long seed) {
+        this.prog = prog;
+        this.inbits = inbits;
+        this.rnd = seed != 0 ? new Random(seed) : new Random();
+    }
+
+    /**
+     * Runs every harness and sketch of the program on n random inputs, with the holes
+     * set by holes. Returns the first failure, or null if there was none.
+     */
+    public Failure check(AbstractValueOracle holes, int n) {
+        Program p = (Program) prog.accept(new EliminateStarStatic(holes));
+        NameResolver nres = new NameResolver(p);
+        ConcreteInterpreter interp = new ConcreteInterpreter(p);
+        for (Package pkg : p.getPackages()) {
+            for (Function f : pkg.getFuncs()) {
+                Function spec = null;
+                if (f.getSpecification() != null) {
+                    nres.setPackage(pkg);
+                    spec = nres.getFun(f.getSpecification());
+                    if (spec == null) {
+                        continue;
+                    }
+                } else if (!f.isSketchHarness()) {
+                    continue;
+                }
+                for (int i = 0; i < n; ++i) {
+                    Failure fail = checkOnce(interp, f, spec);
+                    if (fail != null) {
+                        return fail;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    protected Failure checkOnce(ConcreteInterpreter interp, Function f, Function spec) {
+        Run specRun = null;
+        if (spec != null) {
+            try {
+                specRun = interp.run(spec, rnd, inbits);
+            } catch (AssumptionFailed e) {
+                return null;
+            } catch (AssertionFailed e) {
+                // the specification does not accept these inputs
+                return null;
+            } catch (RuntimeException e) {
+                ++skipped;
+                return null;
+            }
+        }
+        Run run = null;
+        try {
+            run =
+                    specRun != null ? interp.run(f, specRun.inputs) : interp.run(f, rnd,
+                            inbits);
+            if (specRun != null && !run.sameOutputs(specRun)) {
+                return new Failure(f, run.inputs, "outputs " + run.outputs +
+                        " differ from those of " + spec.getName() + ", " +
+                        specRun.outputs);
+            }
+        } catch (AssumptionFailed e) {
+            return null;
+        } catch (AssertionFailed e) {
+            return new Failure(f, interp.lastInputs(), "assertion failed at " +
+                    e.getMessage());
+        } catch (RuntimeException e) {
+            // NotConcrete, or a construct the interpreter does not know
+            ++skipped;
+        }
+        return null;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+}
@@ -0,0 +1,367 @@
+package sketch.compiler.dataflow.concrete;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import sketch.compiler.ast.core.FieldDecl;
+import sketch.compiler.ast.core.Function;
+import sketch.compiler.ast.core.NameResolver;
+import sketch.compiler.ast.core.Package;
+import sketch.compiler.ast.core.Parameter;
+import sketch.compiler.ast.core.Program;
+import sketch.compiler.ast.core.SymbolTable;
+import sketch.compiler.ast.core.TempVarGen;
+import sketch.compiler.ast.core.exprs.ExprFunCall;
+import sketch.compiler.ast.core.exprs.Expression;
+import sketch.compiler.ast.core.stmts.Statement;
+import sketch.compiler.ast.core.stmts.StmtAssert;
+import sketch.compiler.ast.core.stmts.StmtAssume;
+import sketch.compiler.ast.core.stmts.StmtAtomicBlock;
+import sketch.compiler.ast.core.stmts.StmtBlock;
+import sketch.compiler.ast.core.stmts.StmtIfThen;
+import sketch.compiler.ast.core.stmts.StmtVarDecl;
+import sketch.compiler.ast.core.typs.Type;
+import sketch.compiler.ast.core.typs.TypeArray;
+import sketch.compiler.ast.core.typs.TypePrimitive;
+import sketch.compiler.ast.promela.stmts.StmtFork;
+import sketch.compiler.dataflow.MethodState;
+import sketch.compiler.dataflow.MethodState.Level;
+import sketch.compiler.dataflow.PartialEvaluator;
+import sketch.compiler.dataflow.abstractValue;
+import sketch.compiler.dataflow.recursionCtrl.BaseRControl;
+
+/**
+ * Runs functions of a program without holes on concrete inputs. It is a
+ * PartialEvaluator over {@link ConcreteVtype}, so it shares the semantics of the
+ * evaluators that produce the problem for the solver, but it follows only the branch
+ * a condition selects and runs the body of every function that is called.<BR>
+ * A run ends normally, with an {@link AssertionFailed} if an assertion fails, with an
+ * {@link AssumptionFailed} if the inputs violate an assumption, or with
+ * {@link NotConcrete} if something can't be computed, e.g. a call to an uninterpreted
+ * function; such inputs say nothing about the program.<BR>
+ * The threads of a fork run one after the other.
+ */
+public class ConcreteInterpreter extends PartialEvaluator {
+    /** The interpreter could not compute a value it needed. */
+    public static class NotConcrete extends RuntimeException {
+        public NotConcrete(String msg) {
+            super(msg);
+        }
+    }
+
+    /** An assertion failed. */
+    public static class AssertionFailed extends RuntimeException {
+        public final StmtAssert stmt;
+
+        public AssertionFailed(StmtAssert stmt) {
+            super(stmt.getCx() + ": " + stmt.getMsg());
+            this.stmt = stmt;
+        }
+    }
+
+    /** The inputs violate an assumption. */
+    public static class AssumptionFailed extends RuntimeException {
+        public AssumptionFailed(StmtAssume stmt) {
+            super(stmt.getCx() + ": " + stmt.getMsg());
+        }
+    }
+
+    protected static final int MAX_CALL_DEPTH = 1000;
+    protected static final int MAX_ARRAY_LEN = 1 << 16;
+
+    protected final Program prog;
+    protected int callDepth = 0;
+    /** The fork thread being run, or -1 outside of forks. */
+    protected int thread = -1;
+    protected Run current;
+
+    public ConcreteInterpreter(Program prog) {
+        super(new ConcreteVtype(), new TempVarGen("__ci"), false, 0, new BaseRControl(0));
+        this.prog = prog;
+        nres = new NameResolver(prog);
+        vtype.setNres(nres);
+        rcontrol.setNameRes(nres);
+    }
+
+    /** The values of the inputs and outputs of a run of a function. */
+    public static class Run {
+        public final List<abstractValue> inputs = new ArrayList<abstractValue>();
+        public final List<abstractValue> outputs = new ArrayList<abstractValue>();
+
+        /** Whether the outputs are those of other, value by value. */
+        public boolean sameOutputs(Run other) {
+            if (outputs.size() != other.outputs.size()) {
+                return false;
+            }
+            for (int i = 0; i < outputs.size(); ++i) {
+                if (!sameValue(outputs.get(i), other.outputs.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        static boolean sameValue(abstractValue v1, abstractValue v2) {
+            if (v1.isVect() && v2.isVect()) {
+                List<abstractValue> l1 = v1.getVectValue();
+                List<abstractValue> l2 = v2.getVectValue();
+                if (l1.size() != l2.size()) {
+                    return false;
+                }
+                for (int i = 0; i < l1.size(); ++i) {
+                    if (!sameValue(l1.get(i), l2.get(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if (!v1.hasIntVal() || !v2.hasIntVal()) {
+                throw new NotConcrete("output " + v1 + " compared to " + v2);
+            }
+            return v1.getIntVal() == v2.getIntVal();
+        }
+
+        public String toString() {
+            return "inputs " + inputs + ", outputs " + outputs;
+        }
+    }
+
+    /**
+     * Runs f on random inputs. Integers are drawn from [0, 2^inbits), like the inputs
+     * of the solver.
+     */
+    public Run run(Function f, Random rnd, int inbits) {
+        return run(f, rnd, inbits, null);
+    }
+
+    /** Runs f on the inputs of an earlier run, e.g. of its sketch. */
+    public Run run(Function f, List<abstractValue> inputs) {
+        return run(f, null, 0, inputs.iterator());
+    }
+
+    protected Run run(Function f, Random rnd, int inbits, Iterator<abstractValue> replay) {
+        Run run = new Run();
+        current = run;
+        state = new MethodState(vtype);
+        symtab = new SymbolTable(null);
+        thread = -1;
+        callDepth = 0;
+        Level pkgLevel = state.pushLevel("ConcreteInterpreter");
+        for (Package pkg : prog.getPackages()) {
+            nres.setPackage(pkg);
+            for (FieldDecl field : pkg.getVars()) {
+                field.accept(this);
+            }
+        }
+        nres.setPackage(packageOf(f));
+        Level lvl = state.beginFunction(f.getName());
+        SymbolTable oldSymTab = symtab;
+        symtab = new SymbolTable(symtab);
+        for (Parameter param : f.getParams()) {
+            param.accept(this);
+            if (param.isParameterInput()) {
+                Type type = (Type) param.getType().accept(this);
+                abstractValue value =
+                        replay != null ? replay.next() : randomValue(type, rnd, inbits);
+                run.inputs.add(value);
+                state.setVarValue(param.getName(), value);
+            }
+        }
+        f.getBody().accept(this);
+        for (Parameter param : f.getParams()) {
+            if (param.isParameterOutput()) {
+                run.outputs.add(state.varValue(param.getName()));
+            }
+        }
+        symtab = oldSymTab;
+        state.endFunction(lvl);
+        state.popLevel(pkgLevel);
+        return run;
+    }
+
+    /** The inputs of the last run, also when it ended with an exception. */
+    public List<abstractValue> lastInputs() {
+        return current.inputs;
+    }
+
+    protected Package packageOf(Function f) {
+        for (Package pkg : prog.getPackages()) {
+            if (pkg.getName().equals(f.getPkg())) {
+                return pkg;
+            }
+        }
+        throw new NotConcrete("no package for " + f.getName());
+    }
+
+    protected abstractValue randomValue(Type type, Random rnd, int inbits) {
+        if (type.equals(TypePrimitive.bittype)) {
+            return vtype.CONST(rnd.nextInt(2));
+        }
+        if (type.equals(TypePrimitive.inttype) || type.equals(TypePrimitive.int8type) ||
+                type.equals(TypePrimitive.int16type) ||
+                type.equals(TypePrimitive.int32type))
+        {
+            return vtype.CONST(rnd.nextInt(1 << inbits));
+        }
+        if (type instanceof TypeArray) {
+            TypeArray ta = (TypeArray) type;
+            abstractValue len = (abstractValue) ta.getLength().accept(this);
+            if (!len.hasIntVal() || len.getIntVal() < 0 || len.getIntVal() > MAX_ARRAY_LEN)
+            {
+                throw new NotConcrete("array length " + ta.getLength());
+            }
+            List<abstractValue> elems = new ArrayList<abstractValue>(len.getIntVal());
+            for (int i = 0; i < len.getIntVal(); ++i) {
+                elems.add(randomValue(ta.getBase(), rnd, inbits));
+            }
+            return vtype.ARR(elems);
+        }
+        throw new NotConcrete("input of type " + type);
+    }
+
+    protected abstractValue concrete(Expression e) {
+        abstractValue v = (abstractValue) e.accept(this);
+        if (!v.hasIntVal()) {
+            throw new NotConcrete(e.toString());
+        }
+        return v;
+    }
+
+    @Override
+    public Object visitExprFunCall(ExprFunCall exp) {
+        Function fun = nres.getFun(exp.getName());
+        if (fun == null || fun.isUninterp()) {
+            return super.visitExprFunCall(exp);
+        }
+        if (++callDepth > MAX_CALL_DEPTH) {
+            throw new NotConcrete("calls nested too deep in " + exp);
+        }
+        Package oldPkg = nres.curPkg();
+        List<Statement> oldNewStatements = newStatements;
+        newStatements = new ArrayList<Statement>();
+        Level lvl2 = state.pushFunCall(exp.getName());
+        try {
+            Level lvl =
+                    inParameterSetter(exp, fun.getParams().iterator(),
+                            exp.getParams().iterator(), false);
+            boolean returned = false;
+            try {
+                nres.setPackage(packageOf(fun));
+                Level body = state.beginFunction(fun.getName());
+                try {
+                    fun.getBody().accept(this);
+                } finally {
+                    state.endFunction(body);
+                    nres.setPackage(oldPkg);
+                }
+                returned = true;
+            } finally {
+                if (!returned) {
+                    // outParameterSetter pops it otherwise
+                    state.popLevel(lvl);
+                }
+            }
+            outParameterSetter(fun.getParams().iterator(), exp.getParams().iterator(),
+                    false, lvl);
+        } finally {
+            state.popFunCall(lvl2);
+            newStatements = oldNewStatements;
+            --callDepth;
+        }
+        exprRV = exp;
+        return vtype.BOTTOM();
+    }
+
+    @Override
+    public Object visitStmtIfThen(StmtIfThen stmt) {
+        abstractValue vcond = concrete(stmt.getCond());
+        if (vcond.getIntVal() != 0) {
+            stmt.getCons().accept(this);
+        } else if (stmt.getAlt() != null) {
+            stmt.getAlt().accept(this);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Object visitStmtAssert(StmtAssert stmt) {
+        abstractValue vcond = (abstractValue) stmt.getCond().accept(this);
+        state.Assert(vcond, stmt);
+        return stmt;
+    }
+
+    @Override
+    public Object visitStmtAssume(StmtAssume stmt) {
+        abstractValue vcond = (abstractValue) stmt.getCond().accept(this);
+        state.Assume(vcond, stmt);
+        return stmt;
+    }
+
+    @Override
+    public Object visitStmtVarDecl(StmtVarDecl stmt) {
+        Object result = super.visitStmtVarDecl(stmt);
+        for (int i = 0; i < stmt.getNumVars(); ++i) {
+            if (stmt.getInit(i) == null && stmt.getType(i) instanceof TypeArray) {
+                // PartialEvaluator leaves arrays of unknown length a single value
+                TypeArray ta = (TypeArray) stmt.getType(i);
+                if (ta.getLength() != null && ta.getLength().getIValue() == null) {
+                    abstractValue len = concrete(ta.getLength());
+                    abstractValue dv =
+                            (abstractValue) ta.getBase().defaultValue().accept(this);
+                    List<abstractValue> elems =
+                            new ArrayList<abstractValue>(len.getIntVal());
+                    for (int j = 0; j < len.getIntVal(); ++j) {
+                        elems.add(dv);
+                    }
+                    state.setVarValue(stmt.getName(i), vtype.ARR(elems));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Object visitStmtAtomicBlock(StmtAtomicBlock ab) {
+        if (ab.isCond() && concrete(ab.getCond()).getIntVal() == 0) {
+            // the thread would wait for a later thread, which has not started
+            throw new NotConcrete("thread " + thread + " blocks at " + ab);
+        }
+        ab.getBlock().doStatement(this);
+        return ab;
+    }
+
+    @Override
+    public Object visitStmtFork(StmtFork loop) {
+        int nthreads = concrete(loop.getIter()).getIntVal();
+        int oldThread = thread;
+        try {
+            for (int i = 0; i < nthreads; ++i) {
+                Level lvl = state.pushLevel("StmtFork");
+                try {
+                    thread = -1;
+                    loop.getLoopVarDecl().accept(this);
+                    state.setVarValue(loop.getLoopVarName(), vtype.CONST(i));
+                    thread = i;
+                    loop.getBody().accept(this);
+                } finally {
+                    state.popLevel(lvl);
+                }
+            }
+        } finally {
+            thread = oldThread;
+        }
+        return loop;
+    }
+
+    @Override
+    public Object visitStmtBlock(StmtBlock stmt) {
+        List<Statement> oldNewStatements = newStatements;
+        try {
+            return super.visitStmtBlock(stmt);
+        } finally {
+            newStatements = oldNewStatements;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package sketch.compiler.dataflow.concrete;
+
+import java.util.List;
+
+import sketch.compiler.ast.core.FENode;
+import sketch.compiler.ast.core.Function;
+import sketch.compiler.ast.core.stmts.StmtAssert;
+import sketch.compiler.ast.core.stmts.StmtAssume;
+import sketch.compiler.dataflow.MethodState;
+import sketch.compiler.dataflow.abstractValue;
+import sketch.compiler.dataflow.nodesToSB.IntVtype;
+
+/**
+ * The values of the {@link ConcreteInterpreter}. They are those of IntVtype, which
+ * already computes every operation whose operands are known; this class adds the few
+ * operations IntVtype leaves symbolic, and turns failed assertions into exceptions
+ * instead of warnings. Anything that still can't be computed makes the run give up.
+ * <p>
+ * Java and the backend need not agree on integers that overflow, on division and
+ * remainder of negative numbers or by zero, or on shifts by a negative count or by the
+ * width of an int or more. Rather than guess, the run gives up on those too, so a
+ * failure it reports is one the program has whatever the integer width.
+ */
+public class ConcreteVtype extends IntVtype {
+    @Override
+    public abstractValue STAR(FENode star) {
+        throw new ConcreteInterpreter.NotConcrete("unresolved hole " + star);
+    }
+
+    /** The int val, or a NotConcrete if Java's int and the backend's may differ. */
+    private abstractValue exact(long val, String op) {
+        if (val < Integer.MIN_VALUE || val > Integer.MAX_VALUE) {
+            throw new ConcreteInterpreter.NotConcrete(op + " overflows");
+        }
+        return CONST((int) val);
+    }
+
+    private static boolean ints(abstractValue v1, abstractValue v2) {
+        return v1.hasIntVal() && v2.hasIntVal();
+    }
+
+    @Override
+    public abstractValue plus(abstractValue v1, abstractValue v2) {
+        if (ints(v1, v2)) {
+            return exact((long) v1.getIntVal() + v2.getIntVal(), "+");
+        }
+        return super.plus(v1, v2);
+    }
+
+    @Override
+    public abstractValue minus(abstractValue v1, abstractValue v2) {
+        if (ints(v1, v2)) {
+            return exact((long) v1.getIntVal() - v2.getIntVal(), "-");
+        }
+        return super.minus(v1, v2);
+    }
+
+    @Override
+    public abstractValue times(abstractValue v1, abstractValue v2) {
+        if (ints(v1, v2)) {
+            return exact((long) v1.getIntVal() * v2.getIntVal(), "*");
+        }
+        return super.times(v1, v2);
+    }
+
+    @Override
+    public abstractValue neg(abstractValue v1) {
+        if (v1.hasIntVal()) {
+            return exact(-(long) v1.getIntVal(), "-");
+        }
+        return super.neg(v1);
+    }
+
+    @Override
+    public abstractValue over(abstractValue v1, abstractValue v2) {
+        if (ints(v1, v2) && (v1.getIntVal() < 0 || v2.getIntVal() <= 0)) {
+            throw new ConcreteInterpreter.NotConcrete(v1 + " / " + v2);
+        }
+        return super.over(v1, v2);
+    }
+
+    @Override
+    public abstractValue mod(abstractValue v1, abstractValue v2) {
+        if (ints(v1, v2) && (v1.getIntVal() < 0 || v2.getIntVal() <= 0)) {
+            throw new ConcreteInterpreter.NotConcrete(v1 + " % " + v2);
+        }
+        return super.mod(v1, v2);
+    }
+
+    @Override
+    public abstractValue shr(abstractValue v1, abstractValue v2) {
+        if (ints(v1, v2)) {
+            if (v1.getIntVal() < 0 || v2.getIntVal() < 0 || v2.getIntVal() > 31) {
+                throw new ConcreteInterpreter.NotConcrete(v1 + " >> " + v2);
+            }
+            return CONST(v1.getIntVal() >> v2.getIntVal());
+        }
+        return super.shr(v1, v2);
+    }
+
+    @Override
+    public abstractValue shl(abstractValue v1, abstractValue v2) {
+        if (ints(v1, v2)) {
+            if (v2.getIntVal() < 0 || v2.getIntVal() > 30) {
+                throw new ConcreteInterpreter.NotConcrete(v1 + " << " + v2);
+            }
+            return exact((long) v1.getIntVal() << v2.getIntVal(), "<<");
+        }
+        return super.shl(v1, v2);
+    }
+
+    @Override
+    public void Assert(abstractValue val, StmtAssert stmt) {
+        if (!val.hasIntVal()) {
+            throw new ConcreteInterpreter.NotConcrete("assertion " + stmt);
+        }
+        if (val.getIntVal() == 0) {
+            throw new ConcreteInterpreter.AssertionFailed(stmt);
+        }
+    }
+
+    @Override
+    public void Assume(abstractValue val, StmtAssume stmt) {
+        if (!val.hasIntVal()) {
+            throw new ConcreteInterpreter.NotConcrete("assumption " + stmt);
+        }
+        if (val.getIntVal() == 0) {
+            throw new ConcreteInterpreter.AssumptionFailed(stmt);
+        }
+    }
+
+    /** Only uninterpreted functions get here; the interpreter runs the others. */
+    @Override
+    public void funcall(Function fun, List<abstractValue> avlist,
+            List<abstractValue> outSlist, abstractValue patchCond, MethodState state,
+            int clusterId)
+    {
+        throw new ConcreteInterpreter.NotConcrete("call to uninterpreted function " +
+                fun.getName());
+    }
+}
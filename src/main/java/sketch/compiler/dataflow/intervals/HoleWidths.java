@@ -0,0 +1,410 @@
+package sketch.compiler.dataflow.intervals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import sketch.compiler.ast.core.FEReplacer;
+import sketch.compiler.ast.core.FieldDecl;
+import sketch.compiler.ast.core.Function;
+import sketch.compiler.ast.core.Package;
+import sketch.compiler.ast.core.Parameter;
+import sketch.compiler.ast.core.Program;
+import sketch.compiler.ast.core.SymbolTable;
+import sketch.compiler.ast.core.TempVarGen;
+import sketch.compiler.ast.core.exprs.ExprArrayRange;
+import sketch.compiler.ast.core.exprs.ExprArrayRange.RangeLen;
+import sketch.compiler.ast.core.exprs.ExprBinary;
+import sketch.compiler.ast.core.exprs.ExprSpecialStar;
+import sketch.compiler.ast.core.exprs.ExprStar;
+import sketch.compiler.ast.core.exprs.ExprVar;
+import sketch.compiler.ast.core.exprs.Expression;
+import sketch.compiler.ast.core.stmts.StmtAssign;
+import sketch.compiler.ast.core.stmts.StmtVarDecl;
+import sketch.compiler.ast.core.typs.StructDef;
+import sketch.compiler.ast.core.typs.Type;
+import sketch.compiler.ast.core.typs.TypePrimitive;
+import sketch.compiler.dataflow.MethodState;
+import sketch.compiler.dataflow.MethodState.Level;
+import sketch.compiler.dataflow.PartialEvaluator;
+import sketch.compiler.dataflow.abstractValue;
+import sketch.compiler.dataflow.recursionCtrl.BaseRControl;
+
+/**
+ * Finds the integer holes that need fewer bits than they are given.<BR>
+ * A hole whose value is only compared against values no greater than hi behaves the
+ * same for every value above hi: all the comparisons come out the same. Likewise, every
+ * index past the end of an array reads the same 0. So if every use of a hole is a
+ * comparison with a value no greater than b - 1, or an index into an array of length at
+ * most b, its values above b can be dropped and it only needs enough bits for b.<BR>
+ * Uses are found syntactically: a hole qualifies if it is only an operand of
+ * comparisons and array reads, or the value assigned to a local int that is itself only
+ * used that way. The values it is compared against are bounded by evaluating every
+ * function in the {@link IntervalVtype} domain, unrolling loops as
+ * {@link sketch.compiler.dataflow.nodesToSB.ProduceBooleanFunctions} does, so the
+ * comparisons seen here are the ones it writes to the backend.
+ */
+public class HoleWidths extends PartialEvaluator {
+    /** Holes with a use that is not bounded. */
+    protected final Set<String> escaped = new HashSet<String>();
+    /** The smallest b such that every value of the hole above b is the same as b. */
+    protected final Map<String, Long> bounds = new HashMap<String, Long>();
+    protected final Map<String, Integer> sizes = new HashMap<String, Integer>();
+    protected HoleUses uses;
+
+    public HoleWidths(int maxUnroll) {
+        super(new IntervalVtype(), new TempVarGen(), false, maxUnroll,
+                new BaseRControl(10));
+    }
+
+    /**
+     * Number of bits each hole of prog needs, for the holes that need fewer than their
+     * size, by hole name.
+     */
+    public static Map<String, Integer> compute(Program prog, int maxUnroll) {
+        final HoleWidths hw = new HoleWidths(maxUnroll);
+        try {
+            prog.accept(hw);
+        } catch (RuntimeException e) {
+            return new HashMap<String, Integer>();
+        }
+        FEReplacer outside = new FEReplacer() {
+            public Object visitExprStar(ExprStar star) {
+                hw.escaped.add(star.getSname());
+                return star;
+            }
+        };
+        for (Package pkg : prog.getPackages()) {
+            for (FieldDecl field : pkg.getVars()) {
+                field.accept(outside);
+            }
+            for (StructDef struct : pkg.getStructs()) {
+                struct.accept(outside);
+            }
+        }
+        return hw.widths();
+    }
+
+    protected Map<String, Integer> widths() {
+        Map<String, Integer> widths = new HashMap<String, Integer>();
+        for (Map.Entry<String, Long> e : bounds.entrySet()) {
+            String name = e.getKey();
+            int width = Math.max(1, 64 - Long.numberOfLeadingZeros(e.getValue()));
+            if (!escaped.contains(name) && sizes.containsKey(name) &&
+                    width < sizes.get(name))
+            {
+                widths.put(name, width);
+            }
+        }
+        return widths;
+    }
+
+    static boolean isComparison(int op) {
+        switch (op) {
+            case ExprBinary.BINOP_EQ:
+            case ExprBinary.BINOP_NEQ:
+            case ExprBinary.BINOP_LT:
+            case ExprBinary.BINOP_LE:
+            case ExprBinary.BINOP_GT:
+            case ExprBinary.BINOP_GE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static boolean isNarrowable(ExprStar star) {
+        return TypePrimitive.inttype.equals(star.getType()) && !star.special() &&
+                !star.isAngelicMax() && !star.isCounter() && !star.hasRange() &&
+                !(star instanceof ExprSpecialStar);
+    }
+
+    protected List<Function> functionsToAnalyze(Package spec) {
+        return new ArrayList<Function>(spec.getFuncs());
+    }
+
+    /**
+     * A function the analysis fails on is left out, along with the holes in it; the
+     * state is started over for the next one.
+     */
+    public Object visitFunction(Function func) {
+        uses = new HoleUses();
+        func.accept(uses);
+        uses.resolve();
+        SymbolTable oldSymtab = symtab;
+        try {
+            Level lvl = state.beginFunction(func.getName());
+            for (Parameter param : func.getParams()) {
+                param.accept(this);
+            }
+            func.getBody().accept(this);
+            state.endFunction(lvl);
+        } catch (RuntimeException e) {
+            giveUp(oldSymtab);
+        } catch (AssertionError e) {
+            giveUp(oldSymtab);
+        }
+        return null;
+    }
+
+    private void giveUp(SymbolTable oldSymtab) {
+        for (ExprStar star : uses.stars) {
+            escaped.add(star.getSname());
+        }
+        state = new MethodState(vtype);
+        symtab = oldSymtab;
+    }
+
+    public Object visitExprStar(ExprStar star) {
+        Object rv = super.visitExprStar(star);
+        Integer size = sizes.get(star.getSname());
+        if (size == null || size < star.getSize()) {
+            sizes.put(star.getSname(), star.getSize());
+        }
+        return rv;
+    }
+
+    public Object visitExprBinary(ExprBinary exp) {
+        Set<String> lholes = uses.holesOf(exp.getLeft());
+        Set<String> rholes = uses.holesOf(exp.getRight());
+        if (!isComparison(exp.getOp()) || (lholes == null && rholes == null)) {
+            return super.visitExprBinary(exp);
+        }
+        abstractValue left = (abstractValue) exp.getLeft().accept(this);
+        abstractValue right = (abstractValue) exp.getRight().accept(this);
+        compared(lholes, right);
+        compared(rholes, left);
+        exprRV = exp;
+        switch (exp.getOp()) {
+            case ExprBinary.BINOP_EQ:
+                return vtype.eq(left, right);
+            case ExprBinary.BINOP_NEQ:
+                return vtype.not(vtype.eq(left, right));
+            case ExprBinary.BINOP_LT:
+                return vtype.lt(left, right);
+            case ExprBinary.BINOP_LE:
+                return vtype.le(left, right);
+            case ExprBinary.BINOP_GT:
+                return vtype.gt(left, right);
+            default:
+                return vtype.ge(left, right);
+        }
+    }
+
+    public Object visitExprArrayRange(ExprArrayRange exp) {
+        RangeLen rl = exp.getSelection();
+        Set<String> holes = rl.hasLen() ? null : uses.holesOf(rl.start());
+        if (holes == null) {
+            return super.visitExprArrayRange(exp);
+        }
+        abstractValue idx = (abstractValue) rl.start().accept(this);
+        abstractValue base = (abstractValue) exp.getBase().accept(this);
+        if (base.isVect()) {
+            bound(holes, base.getVectValue().size());
+        } else {
+            escaped.addAll(holes);
+        }
+        exprRV = exp;
+        return vtype.arracc(base, idx, null, true);
+    }
+
+    private void compared(Set<String> holes, abstractValue other) {
+        if (holes == null) {
+            return;
+        }
+        IntervalValue iv = (IntervalValue) other;
+        if (iv.isBounded()) {
+            bound(holes, iv.hi() + 1);
+        } else {
+            escaped.addAll(holes);
+        }
+    }
+
+    private void bound(Set<String> holes, long b) {
+        for (String hole : holes) {
+            Long old = bounds.get(hole);
+            bounds.put(hole, Math.max(Math.max(b, 0), old == null ? 0 : old));
+        }
+    }
+
+    /**
+     * The uses of the holes and local variables of a function. A local int is a
+     * candidate if every read of it is an operand of a comparison or an array index, and
+     * it is only ever assigned as a whole; the holes it may hold are those assigned to it,
+     * directly or through other candidates. Holes found anywhere else are escaped.
+     */
+    protected class HoleUses extends FEReplacer {
+        final List<ExprStar> stars = new ArrayList<ExprStar>();
+        final Set<String> ints = new HashSet<String>();
+        final Set<String> excluded = new HashSet<String>();
+        final Map<String, List<Expression>> assigned =
+                new HashMap<String, List<Expression>>();
+        final Map<String, Set<String>> holes = new HashMap<String, Set<String>>();
+        private boolean inLhs = false;
+
+        /** The holes e may hold, if e is a hole or a candidate and holds any. */
+        Set<String> holesOf(Expression e) {
+            if (e instanceof ExprStar) {
+                ExprStar star = (ExprStar) e;
+                return isNarrowable(star) ? holes(star) : null;
+            }
+            if (e instanceof ExprVar) {
+                Set<String> hs = holes.get(((ExprVar) e).getName());
+                return hs == null || hs.isEmpty() ? null : hs;
+            }
+            return null;
+        }
+
+        private Set<String> holes(ExprStar star) {
+            Set<String> hs = new HashSet<String>();
+            hs.add(star.getSname());
+            return hs;
+        }
+
+        void resolve() {
+            Set<String> candidates = new HashSet<String>(ints);
+            candidates.removeAll(excluded);
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (Map.Entry<String, List<Expression>> e : assigned.entrySet()) {
+                    if (candidates.contains(e.getKey())) {
+                        continue;
+                    }
+                    for (Expression rhs : e.getValue()) {
+                        if (rhs instanceof ExprStar) {
+                            escaped.add(((ExprStar) rhs).getSname());
+                        } else {
+                            changed |= candidates.remove(((ExprVar) rhs).getName());
+                        }
+                    }
+                }
+            }
+            for (String v : candidates) {
+                holes.put(v, new HashSet<String>());
+            }
+            changed = true;
+            while (changed) {
+                changed = false;
+                for (String v : candidates) {
+                    List<Expression> rhss = assigned.get(v);
+                    if (rhss == null) {
+                        continue;
+                    }
+                    Set<String> hs = holes.get(v);
+                    for (Expression rhs : rhss) {
+                        if (rhs instanceof ExprStar) {
+                            changed |= hs.add(((ExprStar) rhs).getSname());
+                        } else if (candidates.contains(((ExprVar) rhs).getName())) {
+                            changed |= hs.addAll(holes.get(((ExprVar) rhs).getName()));
+                        }
+                    }
+                }
+            }
+        }
+
+        private boolean isOperand(Expression e) {
+            return e instanceof ExprVar || e instanceof ExprStar;
+        }
+
+        private void operand(Expression e) {
+            if (e instanceof ExprStar) {
+                ExprStar star = (ExprStar) e;
+                stars.add(star);
+                if (!isNarrowable(star)) {
+                    escaped.add(star.getSname());
+                }
+            }
+        }
+
+        private void assign(String name, Expression rhs) {
+            if (isOperand(rhs)) {
+                List<Expression> rhss = assigned.get(name);
+                if (rhss == null) {
+                    rhss = new ArrayList<Expression>();
+                    assigned.put(name, rhss);
+                }
+                rhss.add(rhs);
+                operand(rhs);
+            } else {
+                rhs.accept(this);
+            }
+        }
+
+        public Object visitExprVar(ExprVar exp) {
+            excluded.add(exp.getName());
+            return exp;
+        }
+
+        public Object visitExprStar(ExprStar star) {
+            stars.add(star);
+            escaped.add(star.getSname());
+            return star;
+        }
+
+        public Object visitExprBinary(ExprBinary exp) {
+            if (!isComparison(exp.getOp())) {
+                return super.visitExprBinary(exp);
+            }
+            for (Expression e : new Expression[] { exp.getLeft(), exp.getRight() }) {
+                if (isOperand(e)) {
+                    operand(e);
+                } else {
+                    e.accept(this);
+                }
+            }
+            return exp;
+        }
+
+        public Object visitExprArrayRange(ExprArrayRange exp) {
+            RangeLen rl = exp.getSelection();
+            if (inLhs || rl.hasLen() || !isOperand(rl.start())) {
+                return super.visitExprArrayRange(exp);
+            }
+            exp.getBase().accept(this);
+            operand(rl.start());
+            return exp;
+        }
+
+        public Object visitStmtAssign(StmtAssign stmt) {
+            Expression lhs = stmt.getLHS();
+            if (stmt.getOp() == 0 && lhs instanceof ExprVar) {
+                assign(((ExprVar) lhs).getName(), stmt.getRHS());
+                return stmt;
+            }
+            inLhs = true;
+            try {
+                lhs.accept(this);
+            } finally {
+                inLhs = false;
+            }
+            stmt.getRHS().accept(this);
+            return stmt;
+        }
+
+        public Object visitStmtVarDecl(StmtVarDecl stmt) {
+            for (int i = 0; i < stmt.getNumVars(); ++i) {
+                String name = stmt.getName(i);
+                Type t = stmt.getType(i);
+                t.accept(this);
+                if (t.equals(TypePrimitive.inttype)) {
+                    ints.add(name);
+                } else {
+                    excluded.add(name);
+                }
+                if (stmt.getInit(i) != null) {
+                    assign(name, stmt.getInit(i));
+                }
+            }
+            return stmt;
+        }
+
+        public Object visitParameter(Parameter par) {
+            excluded.add(par.getName());
+            return super.visitParameter(par);
+        }
+    }
+}
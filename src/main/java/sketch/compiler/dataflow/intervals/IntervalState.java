@@ -0,0 +1,45 @@
+package sketch.compiler.dataflow.intervals;
+
+import sketch.compiler.ast.core.typs.Type;
+import sketch.compiler.ast.core.typs.TypeArray;
+import sketch.compiler.dataflow.abstractValue;
+import sketch.compiler.dataflow.abstractValueType;
+import sketch.compiler.dataflow.varState;
+
+public class IntervalState extends varState {
+
+    IntervalState(Type t) {
+        super(t);
+    }
+
+    IntervalState(Type t, abstractValueType vtype) {
+        super(t);
+        if (t instanceof TypeArray) {
+            abstractValue av = typeSize(t, vtype);
+            if (av.hasIntVal()) {
+                init(av.getIntVal());
+            } else {
+                init(-1);
+            }
+        } else {
+            init(newLHSvalue());
+        }
+    }
+
+    @Override
+    public varState getDeltaClone(abstractValueType vt) {
+        IntervalState st = new IntervalState(getType());
+        st.helperDeltaClone(this, vt);
+        return st;
+    }
+
+    @Override
+    public abstractValue newLHSvalue() {
+        return new IntervalValue();
+    }
+
+    @Override
+    public abstractValue newLHSvalue(int i) {
+        return new IntervalValue();
+    }
+}
@@ -0,0 +1,156 @@
+package sketch.compiler.dataflow.intervals;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import sketch.compiler.dataflow.abstractValue;
+
+/**
+ * An integer known to be between lo and hi, or an array of such values. A value with
+ * no bounds is the unknown value; bounds are only kept while they fit in an int, so
+ * that no operation on a bounded value can overflow.
+ */
+public class IntervalValue extends abstractValue {
+    protected boolean bounded;
+    protected long lo;
+    protected long hi;
+    protected List<abstractValue> elems;
+
+    /** The unknown value. */
+    public IntervalValue() {
+        this.bounded = false;
+    }
+
+    public IntervalValue(long lo, long hi) {
+        assert lo <= hi : "Empty interval [" + lo + ", " + hi + "]";
+        if (lo >= Integer.MIN_VALUE && hi <= Integer.MAX_VALUE) {
+            this.bounded = true;
+            this.lo = lo;
+            this.hi = hi;
+        }
+    }
+
+    public IntervalValue(List<abstractValue> elems) {
+        this.elems = elems;
+    }
+
+    public IntervalValue(IntervalValue n) {
+        this.bounded = n.bounded;
+        this.lo = n.lo;
+        this.hi = n.hi;
+        this.elems = n.elems;
+        this.isVolatile = n.isVolatile;
+    }
+
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    public long lo() {
+        assert bounded : "Asking for the bounds of " + this;
+        return lo;
+    }
+
+    public long hi() {
+        assert bounded : "Asking for the bounds of " + this;
+        return hi;
+    }
+
+    public boolean isVect() {
+        return elems != null;
+    }
+
+    public List<abstractValue> getVectValue() {
+        assert elems != null : "Incorrect value type";
+        return elems;
+    }
+
+    public boolean isBottom() {
+        return !isVect() && !hasIntVal();
+    }
+
+    public boolean hasIntVal() {
+        return bounded && lo == hi;
+    }
+
+    public int getIntVal() {
+        assert hasIntVal() : "Incorrect value type. Asking for int from " + this;
+        return (int) lo;
+    }
+
+    @Override
+    public boolean knownGeqZero() {
+        return bounded && lo >= 0;
+    }
+
+    @Override
+    public void makeVolatile() {
+        super.makeVolatile();
+        bounded = false;
+        elems = null;
+    }
+
+    public void update(abstractValue v) {
+        if (isVolatile) {
+            return; // If the variable is volatile, the update has no effect.
+        }
+        IntervalValue iv = (IntervalValue) v;
+        bounded = iv.bounded;
+        lo = iv.lo;
+        hi = iv.hi;
+        elems = iv.elems;
+    }
+
+    public abstractValue clone() {
+        return new IntervalValue(this);
+    }
+
+    public Map<String, Map<String, abstractValue>> getADTcases() {
+        return null;
+    }
+
+    public boolean equals(Object obj) {
+        if (!(obj instanceof IntervalValue)) {
+            return false;
+        }
+        IntervalValue v2 = (IntervalValue) obj;
+        if (isVect() || v2.isVect()) {
+            return isVect() && v2.isVect() && elems.equals(v2.elems);
+        }
+        if (bounded != v2.bounded) {
+            return false;
+        }
+        return !bounded || (lo == v2.lo && hi == v2.hi);
+    }
+
+    public int hashCode() {
+        if (isVect()) {
+            return elems.hashCode();
+        }
+        return bounded ? (int) (lo * 31 + hi) : 0;
+    }
+
+    public String toString() {
+        String v = isVolatile ? "_v" : "";
+        if (isVect()) {
+            String rval = "$ ";
+            int i = 0;
+            for (Iterator<abstractValue> it = elems.iterator(); it.hasNext();) {
+                rval += it.next().toString() + " ";
+                if (++i > 10) {
+                    rval += "...";
+                    break;
+                }
+            }
+            return rval + "$";
+        }
+        if (!bounded) {
+            return "BOTTOM" + v;
+        }
+        if (lo == hi) {
+            return lo + v;
+        }
+        return "[" + lo + ", " + hi + "]" + v;
+    }
+}
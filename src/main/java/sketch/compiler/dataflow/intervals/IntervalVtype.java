@@ -0,0 +1,435 @@
+package sketch.compiler.dataflow.intervals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import sketch.compiler.ast.core.FENode;
+import sketch.compiler.ast.core.Function;
+import sketch.compiler.ast.core.Parameter;
+import sketch.compiler.ast.core.exprs.ExprStar;
+import sketch.compiler.ast.core.stmts.StmtAssert;
+import sketch.compiler.ast.core.stmts.StmtAssume;
+import sketch.compiler.ast.core.typs.Type;
+import sketch.compiler.ast.core.typs.TypeArray;
+import sketch.compiler.ast.core.typs.TypePrimitive;
+import sketch.compiler.dataflow.MethodState;
+import sketch.compiler.dataflow.abstractValue;
+import sketch.compiler.dataflow.abstractValueType;
+import sketch.compiler.dataflow.varState;
+
+/**
+ * Interval domain: every integer is known to lie in a range [lo, hi]. Booleans are the
+ * integers in [0, 1]. Constants are folded exactly as in
+ * {@link sketch.compiler.dataflow.nodesToSB.IntVtype}, so the partial evaluator takes
+ * the same branches and unrolls loops the same way; everything else is approximated by
+ * the smallest interval that contains every possible result. Reals, structures and
+ * results of calls are unknown.
+ */
+public class IntervalVtype extends abstractValueType {
+
+    public abstractValue STAR(FENode node) {
+        if (node instanceof ExprStar) {
+            ExprStar star = (ExprStar) node;
+            if (star.isAngelicMax() || star.special() || star.isCounter()) {
+                return BOTTOM();
+            }
+            Type t = star.getType();
+            if (t == null) {
+                return BOTTOM();
+            }
+            if (t.equals(TypePrimitive.bittype)) {
+                return new IntervalValue(0, 1);
+            }
+            if (t.equals(TypePrimitive.inttype) && star.getSize() < 31) {
+                // holes are unsigned.
+                return new IntervalValue(0, (1L << star.getSize()) - 1);
+            }
+            return BOTTOM();
+        }
+        // the choice of a select is a bit.
+        return new IntervalValue(0, 1);
+    }
+
+    public abstractValue BOTTOM() {
+        return new IntervalValue();
+    }
+
+    public abstractValue BOTTOM(Type t) {
+        return BOTTOM();
+    }
+
+    public abstractValue BOTTOM(String label) {
+        return BOTTOM();
+    }
+
+    @Override
+    public abstractValue BOTTOM(abstractValue v, String suffix) {
+        return BOTTOM();
+    }
+
+    public varState cleanState(String var, Type t, MethodState mstate) {
+        return new IntervalState(t, this);
+    }
+
+    public abstractValue ADTnode(Map<String, Map<String, abstractValue>> cases) {
+        return BOTTOM();
+    }
+
+    public abstractValue RCONST(double v) {
+        return BOTTOM();
+    }
+
+    public abstractValue CONST(int v) {
+        return new IntervalValue(v, v);
+    }
+
+    public abstractValue CONST(boolean v) {
+        return CONST(v ? 1 : 0);
+    }
+
+    public abstractValue ARR(List<abstractValue> vals) {
+        return new IntervalValue(vals);
+    }
+
+    public abstractValue TUPLE(List<abstractValue> vals, String name) {
+        return new IntervalValue(vals);
+    }
+
+    public abstractValue NULL() {
+        return BOTTOM();
+    }
+
+    protected IntervalValue range(long lo, long hi) {
+        return new IntervalValue(lo, hi);
+    }
+
+    protected static boolean bounded(abstractValue v) {
+        return ((IntervalValue) v).isBounded();
+    }
+
+    protected static long lo(abstractValue v) {
+        return ((IntervalValue) v).lo();
+    }
+
+    protected static long hi(abstractValue v) {
+        return ((IntervalValue) v).hi();
+    }
+
+    protected static boolean isBit(abstractValue v) {
+        return bounded(v) && lo(v) >= 0 && hi(v) <= 1;
+    }
+
+    /** The smallest interval that contains all of r. */
+    protected abstractValue hull(long... r) {
+        long min = r[0];
+        long max = r[0];
+        for (long x : r) {
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+        }
+        return range(min, max);
+    }
+
+    public abstractValue plus(abstractValue v1, abstractValue v2) {
+        if (!bounded(v1) || !bounded(v2)) {
+            return BOTTOM();
+        }
+        return range(lo(v1) + lo(v2), hi(v1) + hi(v2));
+    }
+
+    public abstractValue minus(abstractValue v1, abstractValue v2) {
+        if (!bounded(v1) || !bounded(v2)) {
+            return BOTTOM();
+        }
+        return range(lo(v1) - hi(v2), hi(v1) - lo(v2));
+    }
+
+    public abstractValue times(abstractValue v1, abstractValue v2) {
+        if (!bounded(v1) || !bounded(v2)) {
+            return BOTTOM();
+        }
+        return hull(lo(v1) * lo(v2), lo(v1) * hi(v2), hi(v1) * lo(v2), hi(v1) * hi(v2));
+    }
+
+    public abstractValue over(abstractValue v1, abstractValue v2) {
+        if (!bounded(v1) || !bounded(v2) || (lo(v2) <= 0 && hi(v2) >= 0)) {
+            return BOTTOM();
+        }
+        return hull(lo(v1) / lo(v2), lo(v1) / hi(v2), hi(v1) / lo(v2), hi(v1) / hi(v2));
+    }
+
+    public abstractValue mod(abstractValue v1, abstractValue v2) {
+        if (v1.hasIntVal() && v2.hasIntVal() && v2.getIntVal() != 0) {
+            return CONST(v1.getIntVal() % v2.getIntVal());
+        }
+        if (!bounded(v1) || !bounded(v2) || lo(v2) <= 0) {
+            return BOTTOM();
+        }
+        // the result has the sign of v1 and is smaller than v2 in magnitude.
+        long m = hi(v2) - 1;
+        return range(lo(v1) >= 0 ? 0 : -m, hi(v1) <= 0 ? 0 : m);
+    }
+
+    public abstractValue and(abstractValue v1, abstractValue v2) {
+        if (v1.hasIntVal() && v2.hasIntVal()) {
+            return CONST(v1.getIntVal() > 0 && v2.getIntVal() > 0);
+        }
+        if (isBit(v1) && isBit(v2)) {
+            return range(Math.min(lo(v1), lo(v2)), Math.min(hi(v1), hi(v2)));
+        }
+        if (v1.hasIntVal() && v1.getIntVal() == 0 || v2.hasIntVal() &&
+                v2.getIntVal() == 0)
+        {
+            return CONST(0);
+        }
+        return BOTTOM();
+    }
+
+    public abstractValue or(abstractValue v1, abstractValue v2) {
+        if (v1.hasIntVal() && v2.hasIntVal()) {
+            return CONST(v1.getIntVal() > 0 || v2.getIntVal() > 0);
+        }
+        if (isBit(v1) && isBit(v2)) {
+            return range(Math.max(lo(v1), lo(v2)), Math.max(hi(v1), hi(v2)));
+        }
+        if (v1.hasIntVal() && v1.getIntVal() == 1 || v2.hasIntVal() &&
+                v2.getIntVal() == 1)
+        {
+            return CONST(1);
+        }
+        return BOTTOM();
+    }
+
+    public abstractValue xor(abstractValue v1, abstractValue v2) {
+        if (v1.hasIntVal() && v2.hasIntVal()) {
+            return CONST(v1.getIntVal() > 0 ^ v2.getIntVal() > 0);
+        }
+        if (isBit(v1) && isBit(v2)) {
+            return range(0, 1);
+        }
+        return BOTTOM();
+    }
+
+    public abstractValue shr(abstractValue v1, abstractValue v2) {
+        if (bounded(v1) && lo(v1) >= 0 && bounded(v2) && lo(v2) >= 0) {
+            return range(0, hi(v1));
+        }
+        return BOTTOM();
+    }
+
+    public abstractValue shl(abstractValue v1, abstractValue v2) {
+        return BOTTOM();
+    }
+
+    /** Whether v1 < v2 always, never, or sometimes. */
+    protected abstractValue less(abstractValue v1, abstractValue v2, boolean orEqual) {
+        if (!bounded(v1) || !bounded(v2)) {
+            return range(0, 1);
+        }
+        long d = orEqual ? 1 : 0;
+        if (hi(v1) < lo(v2) + d) {
+            return CONST(1);
+        }
+        if (lo(v1) >= hi(v2) + d) {
+            return CONST(0);
+        }
+        return range(0, 1);
+    }
+
+    public abstractValue gt(abstractValue v1, abstractValue v2) {
+        return less(v2, v1, false);
+    }
+
+    public abstractValue lt(abstractValue v1, abstractValue v2) {
+        return less(v1, v2, false);
+    }
+
+    public abstractValue ge(abstractValue v1, abstractValue v2) {
+        return less(v2, v1, true);
+    }
+
+    public abstractValue le(abstractValue v1, abstractValue v2) {
+        return less(v1, v2, true);
+    }
+
+    public abstractValue eq(abstractValue v1, abstractValue v2) {
+        if (v1.hasIntVal() && v2.hasIntVal()) {
+            return CONST(v1.getIntVal() == v2.getIntVal());
+        }
+        if (bounded(v1) && bounded(v2) && (hi(v1) < lo(v2) || hi(v2) < lo(v1))) {
+            return CONST(0);
+        }
+        return range(0, 1);
+    }
+
+    public abstractValue not(abstractValue v1) {
+        if (v1.hasIntVal()) {
+            return CONST(1 - v1.getIntVal());
+        }
+        if (isBit(v1)) {
+            return range(1 - hi(v1), 1 - lo(v1));
+        }
+        return BOTTOM();
+    }
+
+    public abstractValue neg(abstractValue v1) {
+        if (!bounded(v1)) {
+            return BOTTOM();
+        }
+        return range(-hi(v1), -lo(v1));
+    }
+
+    public abstractValue tupleacc(abstractValue tuple, abstractValue idx) {
+        if (tuple.isVect() && idx.hasIntVal()) {
+            List<abstractValue> elems = tuple.getVectValue();
+            int i = idx.getIntVal();
+            if (i >= 0 && i < elems.size()) {
+                return elems.get(i);
+            }
+        }
+        return BOTTOM();
+    }
+
+    public abstractValue arracc(abstractValue arr, abstractValue idx) {
+        return arracc(arr, idx, null, true);
+    }
+
+    /**
+     * Out of bounds reads are 0, as in the backend. They are never reported here, since
+     * stopping the analysis of a function early would miss the rest of it.
+     */
+    public abstractValue arracc(abstractValue arr, abstractValue idx, abstractValue len,
+            boolean isUnchecked)
+    {
+        if (len != null) {
+            if (!len.hasIntVal()) {
+                return BOTTOM();
+            }
+            int ilen = len.getIntVal();
+            if (ilen != 1) {
+                List<abstractValue> lst = new ArrayList<abstractValue>(ilen);
+                for (int i = 0; i < ilen; ++i) {
+                    lst.add(arracc(arr, plus(idx, CONST(i)), null, isUnchecked));
+                }
+                return ARR(lst);
+            }
+        }
+        if (!arr.isVect()) {
+            return BOTTOM();
+        }
+        List<abstractValue> elems = arr.getVectValue();
+        if (idx.hasIntVal()) {
+            int i = idx.getIntVal();
+            return i >= 0 && i < elems.size() ? elems.get(i) : CONST(0);
+        }
+        abstractValue rv = null;
+        if (!bounded(idx) || lo(idx) < 0 || hi(idx) >= elems.size()) {
+            rv = CONST(0);
+        }
+        for (int i = 0; i < elems.size(); ++i) {
+            if (!bounded(idx) || (lo(idx) <= i && i <= hi(idx))) {
+                rv = rv == null ? elems.get(i) : join(rv, elems.get(i));
+            }
+        }
+        return rv;
+    }
+
+    public abstractValue cast(abstractValue v1, Type type) {
+        if (type instanceof TypeArray) {
+            TypeArray t = (TypeArray) type;
+            if (!v1.isVect()) {
+                if (t.getLength() == null) {
+                    return v1;
+                }
+                List<abstractValue> vls = new ArrayList<abstractValue>(1);
+                vls.add(v1);
+                v1 = ARR(vls);
+            }
+            Integer len = t.getLength() == null ? null : t.getLength().getIValue();
+            if (len == null) {
+                return v1;
+            }
+            List<abstractValue> lst = new ArrayList<abstractValue>(len);
+            List<abstractValue> elems = v1.getVectValue();
+            for (int i = 0; i < len; ++i) {
+                lst.add(i < elems.size() ? elems.get(i) : CONST(0));
+            }
+            return ARR(lst);
+        }
+        if (type.equals(TypePrimitive.inttype)) {
+            if (!v1.isVect()) {
+                return v1;
+            }
+            // a bit vector read as an unsigned integer.
+            List<abstractValue> elems = v1.getVectValue();
+            long lo = 0;
+            long hi = 0;
+            for (int i = elems.size() - 1; i >= 0; --i) {
+                abstractValue e = elems.get(i);
+                if (!isBit(e) || i >= 31) {
+                    return BOTTOM();
+                }
+                lo = 2 * lo + lo(e);
+                hi = 2 * hi + hi(e);
+            }
+            return range(lo, hi);
+        }
+        if (type.equals(TypePrimitive.bittype) && isBit(v1)) {
+            return v1;
+        }
+        return BOTTOM();
+    }
+
+    public abstractValue join(abstractValue v1, abstractValue v2) {
+        if (v1.isVect() || v2.isVect()) {
+            if (!v1.isVect() || !v2.isVect()) {
+                return BOTTOM();
+            }
+            List<abstractValue> l1 = v1.getVectValue();
+            List<abstractValue> l2 = v2.getVectValue();
+            if (l1.size() != l2.size()) {
+                return BOTTOM();
+            }
+            List<abstractValue> lst = new ArrayList<abstractValue>(l1.size());
+            for (int i = 0; i < l1.size(); ++i) {
+                lst.add(join(l1.get(i), l2.get(i)));
+            }
+            return ARR(lst);
+        }
+        if (!bounded(v1) || !bounded(v2)) {
+            return BOTTOM();
+        }
+        return range(Math.min(lo(v1), lo(v2)), Math.max(hi(v1), hi(v2)));
+    }
+
+    public abstractValue ternary(abstractValue cond, abstractValue vtrue,
+            abstractValue vfalse)
+    {
+        return condjoin(cond, vtrue, vfalse);
+    }
+
+    public abstractValue condjoin(abstractValue cond, abstractValue vtrue,
+            abstractValue vfalse)
+    {
+        if (cond != null && cond.hasIntVal()) {
+            return cond.getIntVal() != 0 ? vtrue : vfalse;
+        }
+        return join(vtrue, vfalse);
+    }
+
+    public void Assert(abstractValue val, StmtAssert stmt) {}
+
+    public void Assume(abstractValue val, StmtAssume stmt) {}
+
+    public void funcall(Function fun, List<abstractValue> avlist,
+            List<abstractValue> outSlist, abstractValue pathCond, MethodState state,
+            int clusterId)
+    {
+        for (Parameter param : fun.getParams()) {
+            if (param.isParameterOutput()) {
+                outSlist.add(BOTTOM());
+            }
+        }
+    }
+}
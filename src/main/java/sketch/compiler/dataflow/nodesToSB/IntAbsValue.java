@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.Map;
 
 import sketch.compiler.dataflow.abstractValue;
+import sketch.compiler.main.CompilationContext;
 
 public class IntAbsValue extends abstractValue {
 
@@ -16,27 +17,23 @@ public class IntAbsValue extends abstractValue {
     public static final int SYMBOLIC = 4;
     public static final int REAL = 5;
 
-    private static int idcounter = 0;
-
 	protected int type;
 	protected Object obj;
     protected boolean knownGeqZero;
 
-    public static abstractValue symbolic(String s, boolean b) {
+    public static abstractValue symbolic(Object s, boolean b) {
         IntAbsValue iab = new IntAbsValue();
         iab.type = SYMBOLIC;
-        iab.obj = s + ":" + idcounter;
+        iab.obj = NtsbExpr.cat(s, ":" + CompilationContext.current().nextSymbolicUid());
         iab.knownGeqZero = b;
-        idcounter++;
         return iab;
 
     }
 
-    public static abstractValue symbolic(String s) {
+    public static abstractValue symbolic(Object s) {
         IntAbsValue iab = new IntAbsValue();
         iab.type = SYMBOLIC;
-        iab.obj = s + ":" + idcounter;
-        idcounter++;
+        iab.obj = NtsbExpr.cat(s, ":" + CompilationContext.current().nextSymbolicUid());
         return iab;
 
     }
@@ -119,7 +116,7 @@ public class IntAbsValue extends abstractValue {
         return cases;
     }
 
-    public IntAbsValue(String label, boolean knownGeqZero) {
+    public IntAbsValue(Object label, boolean knownGeqZero) {
 		this.obj = label;
         this.knownGeqZero = knownGeqZero;
 		this.type = BOTTOM;
@@ -269,7 +266,7 @@ public class IntAbsValue extends abstractValue {
 
 		case BOTTOM:{ 
 			if( obj != null ){
-				if(obj.toString().length() > 10){
+				if (labelLength() > 10) {
 					return "BOTTOM" + (isVolatile ? "_v" : "");
 				}
 				return obj.toString() + (isVolatile ? "_v" : "");
@@ -287,6 +284,26 @@ public class IntAbsValue extends abstractValue {
 		return "NULL";
 	}
 
+    private long labelLength() {
+        if (obj instanceof NtsbExpr) {
+            return ((NtsbExpr) obj).length();
+        }
+        return obj.toString().length();
+    }
+
+    /**
+     * Returns the text of this value either as a String or, when the text of the value
+     * can be large, as an {@link NtsbExpr} that can be embedded in other expressions
+     * without flattening it. The result is a snapshot; later updates to this value do
+     * not affect it.
+     */
+    public Object symbolicForm() {
+        if (type == SYMBOLIC) {
+            return NtsbExpr.cat("{", obj, "}");
+        }
+        return toString();
+    }
+
     @Override
     public Map<String, Map<String, abstractValue>> getADTcases() {
         return knownCases;
@@ -49,11 +49,11 @@ public class IntVtype extends abstractValueType {
 		return new IntAbsValue(vals);
 	}
 
-    public abstractValue SYMBOLIC(String s, boolean b) {
+    public abstractValue SYMBOLIC(Object s, boolean b) {
         return IntAbsValue.symbolic(s, b);
     }
 
-    public abstractValue SYMBOLIC(String s) {
+    public abstractValue SYMBOLIC(Object s) {
         return IntAbsValue.symbolic(s);
     }
 
@@ -65,10 +65,29 @@ public class IntVtype extends abstractValueType {
 	    return BOTTOM(label, false);
 	}
 
-    public abstractValue BOTTOM(String label, boolean knownGeqZero) {
+    @Override
+    public abstractValue BOTTOM(abstractValue v, String suffix) {
+        return BOTTOM(expr(v, suffix), false);
+    }
+
+    public abstractValue BOTTOM(Object label, boolean knownGeqZero) {
         return new IntAbsValue(label, knownGeqZero);
     }
 
+    /**
+     * Builds the label of a symbolic value out of text fragments and operand values.
+     * Labels are kept as an {@link NtsbExpr} DAG so they never have to be flattened into
+     * a String while the program is being evaluated.
+     */
+    protected NtsbExpr expr(Object... pieces) {
+        return NtsbExpr.cat(pieces);
+    }
+
+    /** Like expr, for labels that are self-contained terms. */
+    protected NtsbExpr term(Object... pieces) {
+        return NtsbExpr.term(pieces);
+    }
+
     public abstractValue RCONST(double v) {
         return new IntAbsValue(v);
     }
@@ -104,8 +123,8 @@ public class IntVtype extends abstractValueType {
 		return new IntState(t, this);
 	}
 
-	private String opStr(abstractValue v1, abstractValue v2, String op) { 
-		return "(" + v1.toString() + " " + op + " " + v2.toString() + ")";
+	protected NtsbExpr opStr(abstractValue v1, abstractValue v2, String op) {
+		return term("(", v1, " ", op, " ", v2, ")");
 	}
 
 	public abstractValue plus(abstractValue v1, abstractValue v2) {
@@ -176,11 +195,11 @@ public class IntVtype extends abstractValueType {
 
 
 	public abstractValue shr(abstractValue v1, abstractValue v2){
-        return SYMBOLIC(v1 + ">>" + v2, v1.knownGeqZero());
+        return SYMBOLIC(expr(v1, ">>", v2), v1.knownGeqZero());
 	}
 
 	public abstractValue shl(abstractValue v1, abstractValue v2){
-        return SYMBOLIC(v1 + "<<" + v2, v1.knownGeqZero());
+        return SYMBOLIC(expr(v1, "<<", v2), v1.knownGeqZero());
 	}
 
 
@@ -369,7 +388,7 @@ public class IntVtype extends abstractValueType {
 	}
 
     public abstractValue tupleacc(abstractValue arr, abstractValue idx) {
-        return SYMBOLIC("((" + arr + ").[" + idx + "])");
+        return SYMBOLIC(term("((", arr, ").[", idx, "])"));
     }
 	public abstractValue arracc(abstractValue arr, abstractValue idx) {
 		assert false; return null;
@@ -382,7 +401,7 @@ public class IntVtype extends abstractValueType {
 
 	public abstractValue arracc(abstractValue arr, abstractValue idx, abstractValue len, boolean isUnchecked) {
 		if(  arr.isBottom()  ){
-            return BOTTOM("((" + arr + ")[|" + idx + "|])");
+            return BOTTOM(term("((", arr, ")[|", idx, "|])"), false);
 		}
 		if(len != null){
             if (len.hasIntVal()) {
@@ -395,7 +414,7 @@ public class IntVtype extends abstractValueType {
                     return ARR(lst);
                 }
             } else {
-                return BOTTOM("(" + arr + "[" + idx + "])");
+                return BOTTOM(term("(", arr, "[", idx, "])"), false);
             }
 		}
 
@@ -409,7 +428,7 @@ public class IntVtype extends abstractValueType {
     				return outOfBounds();
     			return arr.getVectValue().get(idx.getIntVal());
 			}else{
-                return BOTTOM("((" + arr + ")[|" + idx + "|])");
+                return BOTTOM(term("((", arr, ")[|", idx, "|])"), false);
 			}
 		}else{
 			return rawArracc(arr, idx);
@@ -418,7 +437,7 @@ public class IntVtype extends abstractValueType {
 
 
 	protected abstractValue rawArracc(abstractValue arr, abstractValue idx){
-        return BOTTOM("((" + arr + ")[|" + idx + "|])");
+        return BOTTOM(term("((", arr, ")[|", idx, "|])"), false);
 	}
 
 	public abstractValue cast(abstractValue v1, Type type) {
@@ -430,7 +449,8 @@ public class IntVtype extends abstractValueType {
 		if(v1.isVect() && type.equals( TypePrimitive.inttype ) ){
 			//Casting a bit-vector into an integer.
 			List<abstractValue> lst = v1.getVectValue();
-			String result =  "( $$";
+			List<Object> result = new ArrayList<Object>(2 * lst.size() + 2);
+			result.add("( $$");
 			int i = 0;
 	    	int val=0;
 	    	int t = 1;
@@ -438,22 +458,23 @@ public class IntVtype extends abstractValueType {
 			for(Iterator<abstractValue> it = lst.iterator(); it.hasNext(); ){
 				abstractValue o = it.next();
 	    		if(!o.hasIntVal()){
-	    			result += " " + o;
+	    			result.add(" ");
+	    			result.add(o);
 	    			hasValue = false;
 	    		}else{
 	    			int curv =  o.getIntVal();
-	    			result += " " + curv;
+	    			result.add(" " + curv);
 	    			assert curv == 1 || curv == 0 : "Casting only works for boolean arrays!!" + v1;
 	    			if( curv == 1 ) val += t;
 	    			t = t*2;
 	    		}
 	    		++i;
 			}
-			result += " $$ )";
+			result.add(" $$ )");
 			if(hasValue){
 				return CONST(val);
 	    	}else{
-	    		return BOTTOM(result);
+	    		return BOTTOM(term(result.toArray()), false);
 	    	}
 		}
 
@@ -500,7 +521,7 @@ public class IntVtype extends abstractValueType {
 		if( v1.hasIntVal() ){
 			return CONST( 1-v1.getIntVal()  );
 		}else{
-            return SYMBOLIC("( ! " + v1 + ")");
+            return SYMBOLIC(term("( ! ", v1, ")"));
 		}
 	}
 
@@ -511,7 +532,7 @@ public class IntVtype extends abstractValueType {
             if (v1.hasRealVal()) {
                 return RCONST(-v1.getRealVal());
             }
-            return SYMBOLIC("( -" + v1 + ")");
+            return SYMBOLIC(term("( -", v1, ")"));
 		}
 	}
 
@@ -534,7 +555,7 @@ public class IntVtype extends abstractValueType {
 				return vfalse;
 			}
 		}else{
-            return SYMBOLIC("(" + cond + "? (" + vtrue + ") : (" + vfalse + ") )",
+            return SYMBOLIC(term("(", cond, "? (", vtrue, ") : (", vfalse, ") )"),
                     vtrue.knownGeqZero() && vfalse.knownGeqZero());
 		}
 	}
@@ -612,7 +633,7 @@ public class IntVtype extends abstractValueType {
                 return IntAbsValue.ADTnode(cases);
             }
         }
-        return BOTTOM("(" + cond + "? (" + vtrue + ") : (" + vfalse + ") )",
+        return BOTTOM(term("(", cond, "? (", vtrue, ") : (", vfalse, ") )"),
                 vtrue.knownGeqZero() && vfalse.knownGeqZero());
     }
 
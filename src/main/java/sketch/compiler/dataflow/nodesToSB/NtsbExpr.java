@@ -0,0 +1,337 @@
+package sketch.compiler.dataflow.nodesToSB;
+
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import sketch.compiler.dataflow.abstractValue;
+
+/**
+ * A node in the DAG of symbolic expressions built by {@link IntVtype} and
+ * {@link NtsbVtype}. Instead of concatenating the text of every operand into a new
+ * String each time an operator is applied, a node simply records its literal text
+ * fragments and references to its operand nodes, so building an expression costs O(1)
+ * regardless of how large its operands are. The text is only produced once, when the
+ * node is written to the backend file. <BR>
+ * Nodes created through a {@link Table} are hash-consed, so structurally equal
+ * expressions are represented by the same object; this lets the writer recognize
+ * shared subterms and, if requested, emit them once as named temporaries. Which
+ * subterms are shared is worked out from the expressions being written, not from how
+ * the nodes were built, so it does not depend on when the table drops unused nodes.
+ */
+public final class NtsbExpr {
+    /** Each part is either a String or an NtsbExpr. */
+    private final Object[] parts;
+    private final int hash;
+    /** Number of characters in the fully expanded text. */
+    private final long length;
+    /**
+     * True if the text of this node is a self-contained term that can be assigned to a
+     * variable and replaced by that variable's name; false for fragments such as
+     * argument lists.
+     */
+    private final boolean term;
+
+    /** Name of the temporary holding this node, valid while tmpScope is current. */
+    String tmpName;
+    int tmpScope = -1;
+    /** The last scope in which this node was part of an expression that was written. */
+    int seenScope = -1;
+
+    private NtsbExpr(Object[] parts, boolean term) {
+        this.parts = parts;
+        this.term = term;
+        int h = 17;
+        long len = 0;
+        for (Object o : parts) {
+            h = 31 * h + o.hashCode();
+            if (o instanceof String) {
+                len += ((String) o).length();
+            } else {
+                len += ((NtsbExpr) o).length;
+            }
+        }
+        this.hash = term ? h : ~h;
+        this.length = len;
+    }
+
+    /**
+     * Builds a new expression out of the given pieces. Each piece can be a String, an
+     * NtsbExpr, an abstractValue (whose current symbolic form is captured right away,
+     * since values that sit on the LHS of an assignment are mutable), or any other
+     * object, which is converted with toString.
+     */
+    public static NtsbExpr cat(Object... pieces) {
+        return build(null, false, pieces);
+    }
+
+    /**
+     * Like {@link #cat(Object...)}, but the result is a self-contained term, such as a
+     * parenthesized operator application.
+     */
+    public static NtsbExpr term(Object... pieces) {
+        return build(null, true, pieces);
+    }
+
+    static NtsbExpr build(Table table, boolean term, Object[] pieces) {
+        List<Object> lst = new ArrayList<Object>(pieces.length);
+        StringBuilder sb = null;
+        for (Object o : pieces) {
+            if (o instanceof abstractValue) {
+                o = symbolicForm((abstractValue) o);
+            }
+            if (o instanceof NtsbExpr) {
+                NtsbExpr e = (NtsbExpr) o;
+                if (e.parts.length == 1 && e.length < INLINE_LIMIT &&
+                        e.parts[0] instanceof String)
+                {
+                    o = e.parts[0];
+                }
+            }
+            if (o instanceof NtsbExpr) {
+                if (sb != null) {
+                    lst.add(sb.toString());
+                    sb = null;
+                }
+                lst.add(o);
+            } else {
+                String s = String.valueOf(o);
+                if (s.length() == 0) {
+                    continue;
+                }
+                if (sb == null) {
+                    sb = new StringBuilder(s);
+                } else {
+                    sb.append(s);
+                }
+            }
+        }
+        if (sb != null) {
+            lst.add(sb.toString());
+        }
+        NtsbExpr e = new NtsbExpr(lst.toArray(), term);
+        if (table != null) {
+            return table.intern(e);
+        }
+        return e;
+    }
+
+    /**
+     * Returns the symbolic form of a value as it is right now: either a String or an
+     * NtsbExpr.
+     */
+    public static Object symbolicForm(abstractValue v) {
+        if (v instanceof IntAbsValue) {
+            return ((IntAbsValue) v).symbolicForm();
+        }
+        return v.toString();
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public boolean isTerm() {
+        return term;
+    }
+
+    public int hashCode() {
+        return hash;
+    }
+
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof NtsbExpr)) {
+            return false;
+        }
+        // explicit stack; expressions produced by unrolled loops can be very deep.
+        List<NtsbExpr> stack = new ArrayList<NtsbExpr>();
+        stack.add(this);
+        stack.add((NtsbExpr) other);
+        while (!stack.isEmpty()) {
+            NtsbExpr b = stack.remove(stack.size() - 1);
+            NtsbExpr a = stack.remove(stack.size() - 1);
+            if (!a.sameNode(b)) {
+                return false;
+            }
+            for (int i = 0; i < a.parts.length; ++i) {
+                Object pa = a.parts[i];
+                Object pb = b.parts[i];
+                if (pa instanceof String) {
+                    if (!pa.equals(pb)) {
+                        return false;
+                    }
+                } else if (pa != pb) {
+                    if (!(pb instanceof NtsbExpr)) {
+                        return false;
+                    }
+                    stack.add((NtsbExpr) pa);
+                    stack.add((NtsbExpr) pb);
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Compares everything but the operands. */
+    private boolean sameNode(NtsbExpr e) {
+        return e.hash == hash && e.term == term && e.length == length &&
+                e.parts.length == parts.length;
+    }
+
+    public String toString() {
+        if (length > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Symbolic expression too large to print: " +
+                    length + " characters");
+        }
+        StringBuilder sb = new StringBuilder((int) length);
+        write(sb, null, -1);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the text of this node to sb. Nodes that have a temporary in the given
+     * scope are written as the name of the temporary. If out is not null, sb is flushed
+     * to out whenever it grows large, so very large expressions never have to be held
+     * in memory in their entirety.
+     */
+    void write(StringBuilder sb, PrintStream out, int scope) {
+        // explicit stack; expressions produced by unrolled loops can be very deep.
+        List<Object[]> stack = new ArrayList<Object[]>();
+        List<Integer> pos = new ArrayList<Integer>();
+        stack.add(parts);
+        pos.add(0);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            Object[] ps = stack.get(top);
+            int i = pos.get(top);
+            if (i == ps.length) {
+                stack.remove(top);
+                pos.remove(top);
+                continue;
+            }
+            pos.set(top, i + 1);
+            Object o = ps[i];
+            if (o instanceof String) {
+                sb.append((String) o);
+                if (out != null && sb.length() >= FLUSH_SIZE) {
+                    out.print(sb);
+                    sb.setLength(0);
+                }
+            } else {
+                NtsbExpr e = (NtsbExpr) o;
+                if (scope >= 0 && e.tmpScope == scope) {
+                    sb.append(e.tmpName);
+                } else {
+                    stack.add(e.parts);
+                    pos.add(0);
+                }
+            }
+        }
+    }
+
+    static final int FLUSH_SIZE = 1 << 13;
+
+    /**
+     * Leaves shorter than this are copied into their parents instead of being
+     * referenced, which keeps small expressions compact. Copying is bounded by this
+     * constant, so building a node is still O(1).
+     */
+    static final int INLINE_LIMIT = 64;
+
+    /**
+     * Calls visitor.visit on every node reachable from this one that does not already
+     * have a temporary in scope, children before parents, each node at most once.
+     */
+    void postOrder(int scope, Visitor visitor) {
+        Map<NtsbExpr, Boolean> visited = new IdentityHashMap<NtsbExpr, Boolean>();
+        List<NtsbExpr> stack = new ArrayList<NtsbExpr>();
+        List<Integer> pos = new ArrayList<Integer>();
+        stack.add(this);
+        pos.add(0);
+        visited.put(this, true);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            NtsbExpr cur = stack.get(top);
+            int i = pos.get(top);
+            if (i == cur.parts.length) {
+                stack.remove(top);
+                pos.remove(top);
+                visitor.visit(cur);
+                continue;
+            }
+            pos.set(top, i + 1);
+            Object o = cur.parts[i];
+            if (o instanceof NtsbExpr) {
+                NtsbExpr e = (NtsbExpr) o;
+                if (e.tmpScope != scope && !visited.containsKey(e)) {
+                    visited.put(e, true);
+                    stack.add(e);
+                    pos.add(0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of times each node reachable from this one occurs as an operand of the nodes
+     * reachable from this one, stopping at the nodes that have a temporary in scope.
+     */
+    Map<NtsbExpr, Integer> useCounts(int scope) {
+        final Map<NtsbExpr, Integer> uses = new IdentityHashMap<NtsbExpr, Integer>();
+        postOrder(scope, new Visitor() {
+            public void visit(NtsbExpr n) {
+                for (Object o : n.parts) {
+                    if (o instanceof NtsbExpr) {
+                        Integer u = uses.get(o);
+                        uses.put((NtsbExpr) o, u == null ? 1 : u + 1);
+                    }
+                }
+            }
+        });
+        return uses;
+    }
+
+    interface Visitor {
+        void visit(NtsbExpr e);
+    }
+
+    /**
+     * Hash-consing table. Nodes are held weakly, so the table never keeps alive an
+     * expression that is no longer referenced by any abstract value.
+     */
+    public static class Table {
+        private final Map<NtsbExpr, WeakReference<NtsbExpr>> nodes =
+                new WeakHashMap<NtsbExpr, WeakReference<NtsbExpr>>();
+
+        public NtsbExpr cat(Object... pieces) {
+            return build(this, false, pieces);
+        }
+
+        public NtsbExpr term(Object... pieces) {
+            return build(this, true, pieces);
+        }
+
+        NtsbExpr intern(NtsbExpr e) {
+            WeakReference<NtsbExpr> ref = nodes.get(e);
+            if (ref != null) {
+                NtsbExpr old = ref.get();
+                if (old != null) {
+                    return old;
+                }
+            }
+            nodes.put(e, new WeakReference<NtsbExpr>(e));
+            return e;
+        }
+
+        public int size() {
+            return nodes.size();
+        }
+    }
+}
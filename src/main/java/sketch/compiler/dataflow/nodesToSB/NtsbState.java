@@ -1,5 +1,8 @@
 package sketch.compiler.dataflow.nodesToSB;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import sketch.compiler.ast.core.typs.Type;
 import sketch.compiler.ast.core.typs.TypeArray;
 import sketch.compiler.ast.core.typs.TypePrimitive;
@@ -98,15 +101,18 @@ public class NtsbState extends varState {
     
     public void printUpdate(abstractValue val, abstractValueType vt){
         if(! this.isArr() ){
-            if(! val.hasIntVal() )
-                vtype.out.println( name + "_" +  val().getlhsIdx() + " = " + val + ";");    
+            if (!val.hasIntVal()) {
+                vtype.emit(name + "_" + val().getlhsIdx() + " = ", val, ";");
+                vtype.out.println();
+            }
         }
     }
     
     public void printUpdate(abstractValue idx, abstractValue val, abstractValueType vt){
         if (!this.isArr()) {
-            vtype.out.println(name + "_" + val().getlhsIdx() + "= " + val() + "[[" + idx +
-                    "->" + val + "]];");
+            vtype.emit(name + "_" + val().getlhsIdx() + "= ", val(), "[[", idx, "->", val,
+                    "]];");
+            vtype.out.println();
             return;
         }
 
@@ -114,24 +120,32 @@ public class NtsbState extends varState {
             int iidx = idx.getIntVal();
             NtsbValue lhsval = val(iidx);
             if(!val.hasIntVal()){
-                String result  =  name + "_idx_" + iidx + "_" +  lhsval.getlhsIdx() + " = " + val + ";";
-                vtype.out.println( result );
+                vtype.emit(name + "_idx_" + iidx + "_" + lhsval.getlhsIdx() + " = ", val,
+                        ";");
+                vtype.out.println();
             }
         }else{
             int lk = numKeys();
-            vtype.out.print("$ ");
+            List<Object> pieces = new ArrayList<Object>(2 * lk + 6);
+            pieces.add("$ ");
             for(int i=0; i<lk; ++i){
-                vtype.out.print(" " + name + "_idx_" + i + "_" +  val(i).getlhsIdx() );
+                pieces.add(" " + name + "_idx_" + i + "_" + val(i).getlhsIdx());
             }
-            vtype.out.print("$$ ");
+            pieces.add("$$ ");
             for(int i=0; i<lk; ++i){
                 if( this.hasKey(i) ){
-                    vtype.out.print(" " +  this.val(i));
+                    pieces.add(" ");
+                    pieces.add(this.val(i));
                 }else{
-                    vtype.out.print(" " + 0 );
+                    pieces.add(" " + 0);
                 }
             }
-            vtype.out.print("$[ " + idx + "]=" +  val +";");
+            pieces.add("$[ ");
+            pieces.add(idx);
+            pieces.add("]=");
+            pieces.add(val);
+            pieces.add(";");
+            vtype.emit(pieces.toArray());
             vtype.out.println();
         }
     }
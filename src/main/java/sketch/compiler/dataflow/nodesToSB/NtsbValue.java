@@ -1,5 +1,6 @@
 package sketch.compiler.dataflow.nodesToSB;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -65,7 +66,7 @@ public class NtsbValue extends IntAbsValue {
         this.isVolatile = n.isVolatile;
     }
 
-    public NtsbValue(String label, boolean knownGeqZero) {
+    public NtsbValue(Object label, boolean knownGeqZero) {
         super(label, knownGeqZero);
         this.name = null;
     }
@@ -156,13 +157,55 @@ public class NtsbValue extends IntAbsValue {
         return "NULL";
     }
 
+    public Object symbolicForm() {
+        switch (type) {
+            case LIST: {
+                List<abstractValue> vals = getVectValue();
+                Object[] pieces = new Object[2 * vals.size() + 2];
+                int i = 0;
+                pieces[i++] = "$ ";
+                for (abstractValue av : vals) {
+                    pieces[i++] = av;
+                    pieces[i++] = " ";
+                }
+                pieces[i++] = "$";
+                return NtsbExpr.cat(pieces);
+            }
+            case BOTTOM: {
+                if (lhsIdx == null && (obj instanceof NtsbExpr || obj instanceof String)) {
+                    return obj;
+                }
+            }
+        }
+        return toString();
+    }
+
+    /**
+     * A key that is equal for values known to be equal. A variable is named after the
+     * expression it was last assigned rather than after its own name, so that two
+     * variables assigned the same expression have the same key.
+     */
+    public Object valueKey() {
+        if (type == LIST) {
+            List<Object> keys = new ArrayList<Object>();
+            for (abstractValue av : getVectValue()) {
+                keys.add(((NtsbValue) av).valueKey());
+            }
+            return keys;
+        }
+        if (type == BOTTOM && lhsIdx != null && obj instanceof NtsbExpr) {
+            return obj;
+        }
+        return symbolicForm();
+    }
+
     public void update(abstractValue v) {
         assert !isVolatile : "NtsbValue does not support volatility.";
         assert lhsIdx != null;
         NtsbValue nb = (NtsbValue) v;
         if (nb.isAXPB) {
             isAXPB = true;
-            X = new NtsbValue(nb.X.toString(), false);
+            X = new NtsbValue(nb.X.symbolicForm(), false);
             A = nb.A;
             B = nb.B;
         } else {
@@ -36,6 +36,147 @@ public class NtsbVtype extends IntVtype {
         this.out = out;     
     }
 
+    /** Hash-consing table for the symbolic expressions built in the current function. */
+    protected NtsbExpr.Table exprs = new NtsbExpr.Table();
+
+    /**
+     * Subterms that are shared by several expressions and whose text is at least this
+     * long are written only once per function, as a named temporary. 0 disables it.
+     */
+    protected int shareThreshold = 0;
+    private int scope = 0;
+    private int shareid = 0;
+    /**
+     * The expressions written in the current scope. Holding them keeps the table from
+     * dropping them, so an equal expression built later is the same node, and is written
+     * with the same temporaries.
+     */
+    private List<NtsbExpr> written = new ArrayList<NtsbExpr>();
+
+    public void setShareThreshold(int shareThreshold) {
+        this.shareThreshold = shareThreshold;
+    }
+
+    /**
+     * The outputs of the calls written in the current function, by the function, the
+     * cluster, the path condition and the values of the inputs, or null if calls are
+     * not summarized. A call with the same key as an earlier one has the same outputs and
+     * checks the same assertions, so it is not written again and the outputs of the
+     * earlier call are used instead; they are valid anywhere after it, since every line
+     * of a function is evaluated unconditionally. Globals have been turned into
+     * parameters by then, and the path condition covers the returns taken so far, so the
+     * key includes all the state a call depends on.
+     */
+    protected Map<List<Object>, List<abstractValue>> callSummaries = null;
+
+    public void setSummarizeCalls(boolean summarizeCalls) {
+        callSummaries =
+                summarizeCalls ? new HashMap<List<Object>, List<abstractValue>>() : null;
+    }
+
+    /**
+     * Number of bits to give each hole that needs fewer than its size, by hole name; see
+     * {@link sketch.compiler.dataflow.intervals.HoleWidths}. Null to use the sizes of the
+     * holes.
+     */
+    protected Map<String, Integer> holeWidths = null;
+
+    public void setHoleWidths(Map<String, Integer> holeWidths) {
+        this.holeWidths = holeWidths;
+    }
+
+    /**
+     * Temporaries are local to the function being printed, so this must be called
+     * every time we start printing a new function. The expression table and the
+     * counters used to name temporaries also start afresh, so the text printed for a
+     * function does not depend on which functions were printed before it.
+     */
+    public void beginScope() {
+        ++scope;
+        exprs = new NtsbExpr.Table();
+        written = new ArrayList<NtsbExpr>();
+        shareid = 0;
+        gbgid = 0;
+        if (callSummaries != null) {
+            callSummaries.clear();
+        }
+    }
+
+    @Override
+    protected NtsbExpr expr(Object... pieces) {
+        return exprs.cat(pieces);
+    }
+
+    @Override
+    protected NtsbExpr term(Object... pieces) {
+        return exprs.term(pieces);
+    }
+
+    /**
+     * Prints the given pieces to the output. Pieces can be Strings, NtsbExprs or
+     * abstract values; expressions are written directly from the DAG, without first
+     * building their text in memory.
+     */
+    public void emit(Object... pieces) {
+        for (int i = 0; i < pieces.length; ++i) {
+            if (pieces[i] instanceof abstractValue) {
+                pieces[i] = NtsbExpr.symbolicForm((abstractValue) pieces[i]);
+            }
+        }
+        int sc = -1;
+        if (shareThreshold > 0) {
+            sc = scope;
+            for (Object p : pieces) {
+                if (p instanceof NtsbExpr) {
+                    hoistShared((NtsbExpr) p);
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Object p : pieces) {
+            if (p instanceof NtsbExpr) {
+                NtsbExpr e = (NtsbExpr) p;
+                if (sc >= 0 && e.tmpScope == sc) {
+                    sb.append(e.tmpName);
+                } else {
+                    e.write(sb, out, sc);
+                }
+            } else {
+                sb.append(p);
+            }
+        }
+        out.print(sb);
+    }
+
+    /**
+     * Writes out as temporaries the terms of e that occur more than once in it, or that
+     * were already part of an expression written earlier in this scope.
+     */
+    private void hoistShared(NtsbExpr e) {
+        if (e.tmpScope == scope) {
+            return;
+        }
+        written.add(e);
+        final Map<NtsbExpr, Integer> uses = e.useCounts(scope);
+        e.postOrder(scope, new NtsbExpr.Visitor() {
+            public void visit(NtsbExpr n) {
+                Integer u = uses.get(n);
+                boolean shared = n.seenScope == scope || (u != null && u > 1);
+                n.seenScope = scope;
+                if (n.isTerm() && shared && n.length() >= shareThreshold) {
+                    String tmp = "___sHaReD" + (shareid++);
+                    StringBuilder sb = new StringBuilder(tmp);
+                    sb.append(" = ");
+                    n.write(sb, out, scope);
+                    sb.append(";\n");
+                    out.print(sb);
+                    n.tmpName = tmp;
+                    n.tmpScope = scope;
+                }
+            }
+        });
+    }
+
     public abstractValue outOfBounds(){
         return CONST(0);
     }
@@ -91,8 +232,12 @@ public class NtsbVtype extends IntVtype {
 
                 head += "<";
 
-                if (star.getSize() > 1 && !star.isCounter())
-                    rval += head + cvar + "  " + star.getSize() + isFixed;
+                int size = star.getSize();
+                if (holeWidths != null && holeWidths.containsKey(cvar)) {
+                    size = Math.min(size, holeWidths.get(cvar));
+                }
+                if (size > 1 && !star.isCounter())
+                    rval += head + cvar + "  " + size + isFixed;
                 else
                     rval = head + cvar;
                 if (star.isCounter()) {
@@ -139,16 +284,16 @@ public class NtsbVtype extends IntVtype {
         return null;
     }
 
-    public abstractValue SYMBOLIC(String s, boolean b) {
+    public abstractValue SYMBOLIC(Object s, boolean b) {
         return BOTTOM(s, b);
     }
 
-    public abstractValue SYMBOLIC(String s) {
-        return BOTTOM(s);
+    public abstractValue SYMBOLIC(Object s) {
+        return BOTTOM(s, false);
     }
 
     @Override
-    public abstractValue BOTTOM(String label, boolean knownGeqZero) {
+    public abstractValue BOTTOM(Object label, boolean knownGeqZero) {
         return new NtsbValue(label, knownGeqZero);
     }
 
@@ -187,8 +332,7 @@ public class NtsbVtype extends IntVtype {
                 return;
             }
         }
-        out.print(stmt.getAssertSymbol() + " (" + val + ") : \"" +
-                msg + "\" ;\n");
+        emit(stmt.getAssertSymbol() + " (", val, ") : \"" + msg + "\" ;\n");
     }
 
     public void Assume(abstractValue val, StmtAssume stmt) {
@@ -204,8 +348,7 @@ public class NtsbVtype extends IntVtype {
                 return;
             }
         }
-        out.print("assume (" + val + ")" + (msg == null ? "" : (" : \"" + msg + "\"")) +
-                ";\n");
+        emit("assume (", val, ")" + (msg == null ? "" : (" : \"" + msg + "\"")) + ";\n");
     }
 
     public varState cleanState(String var, Type t, MethodState mstate){
@@ -291,16 +434,20 @@ public class NtsbVtype extends IntVtype {
         if (nidx.isAXPB && arr.isVect()) {
             int i=nidx.B;
             List<abstractValue> vlist =arr.getVectValue(); 
-            String rval = "($ ";
+            List<Object> rval = new ArrayList<Object>();
+            rval.add("($ ");
             int vsz = vlist.size();
             while(i < vsz ){
-                rval += vlist.get(i).toString() + " ";
+                rval.add(vlist.get(i));
+                rval.add(" ");
                 i += nidx.A;
             }
-            rval += "$[" + nidx.X + "])";
-            return BOTTOM(rval);
+            rval.add("$[");
+            rval.add(nidx.X);
+            rval.add("])");
+            return BOTTOM(term(rval.toArray()), false);
         }else
-            return BOTTOM("(" + arr + "[" + idx + "])");
+            return BOTTOM(term("(", arr, "[", idx, "])"), false);
     }
 
     int funid = 0;
@@ -314,11 +461,27 @@ public class NtsbVtype extends IntVtype {
             // don't have assertions anyway.
             pathCond = this.CONST(true);
         }
+        List<Object> key = null;
+        if (callSummaries != null && !(fun.isUninterp() && fun.hasAnnotation("Gen"))) {
+            // every call of an uninterpreted generator is a different function.
+            key = new ArrayList<Object>(avlist.size() + 3);
+            key.add(fun);
+            key.add(clusterId);
+            key.add(((NtsbValue) pathCond).valueKey());
+            for (abstractValue av : avlist) {
+                key.add(((NtsbValue) av).valueKey());
+            }
+            List<abstractValue> outputs = callSummaries.get(key);
+            if (outputs != null) {
+                outSlist.addAll(outputs);
+                return;
+            }
+        }
 
         Iterator<abstractValue> actualParams = avlist.iterator();
         Iterator<Parameter> formalParams = fun.getParams().iterator();
         String name = fun.getName();
-        String plist = "";
+        List<Object> plist = new ArrayList<Object>();
         while( actualParams.hasNext() ){
             abstractValue param = actualParams.next();
             Parameter formal = formalParams.next();
@@ -331,12 +494,15 @@ public class NtsbVtype extends IntVtype {
                 Expression eln = ta.getLength();
                 Integer lntt = eln == null ? null : eln.getIValue();
                 if (lntt == null) {
-                    plist += "( {" + param + "} )";
+                    plist.add("( {");
+                    plist.add(param);
+                    plist.add("} )");
                 } else {
                     List<abstractValue> lst = param.getVectValue();
                     assert lntt == lst.size();
                     for (int tt = 0; tt < lst.size(); ++tt) {
-                        plist += lst.get(tt) + " ";
+                        plist.add(lst.get(tt));
+                        plist.add(" ");
                     }
                 }
             }else{
@@ -346,20 +512,22 @@ public class NtsbVtype extends IntVtype {
                     Expression eln = ta.getLength();
                     Integer lntt = eln == null ? null : eln.getIValue();
                     if (lntt == null) {
-                        plist += param;
+                        plist.add(param);
                     } else {
                         int lsz = lntt;
-                        plist += param + " ";
+                        plist.add(param);
+                        plist.add(" ");
                         for (int tt = 1; tt < lsz; ++tt) {
-                            plist += CONST(ta.getBase().defaultValue().getIValue()) + " ";
+                            plist.add(CONST(ta.getBase().defaultValue().getIValue()) + " ");
                         }
                     }
                 } else {
-                    plist += param;
+                    plist.add(param);
                 }
             }
-            plist += " ";           
+            plist.add(" ");
         }
+        NtsbExpr params = expr(plist.toArray());
 
         formalParams = fun.getParams().iterator();
         boolean hasout = false;
@@ -389,10 +557,9 @@ public class NtsbVtype extends IntVtype {
             }
 
         abstractValue outval =
-                    BOTTOM(name + "[*" + outtname + "]( " + plist + "  )(" +
-                            pathCond + ")[ _p_out_" +
- fun.getName() + "_" + fun.getPkg() + "," +
-                            clusterId + "]");
+                    BOTTOM(expr(name + "[*" + outtname + "]( ", params, "  )(", pathCond,
+                            ")[ _p_out_" + fun.getName() + "_" + fun.getPkg() + "," +
+                                    clusterId + "]"), false);
         state.varDeclare(outLhsName, new TypeStructRef("norec", false));
         state.setVarValue(outLhsName, outval);
         }
@@ -434,11 +601,32 @@ public class NtsbVtype extends IntVtype {
             }
         }
         if (!hasout) {
-            String par =
-                    "___GaRbAgE" + (gbgid++) + "=" + name + "[bit]( " + plist + "  )(" +
-                            pathCond + ")[ NONE," + clusterId + "];";
-            out.println(par);
+            emit("___GaRbAgE" + (gbgid++) + "=" + name + "[bit]( ", params, "  )(", pathCond,
+                    ")[ NONE," + clusterId + "];");
+            out.println();
         }        
+        if (key != null) {
+            List<abstractValue> outputs = new ArrayList<abstractValue>(outSlist.size());
+            for (abstractValue ov : outSlist) {
+                outputs.add(snapshot(ov));
+            }
+            callSummaries.put(key, outputs);
+        }
+    }
+
+    /**
+     * A copy of av that keeps its current value, even if av is the value of a variable
+     * or an array element, which later assignments update in place.
+     */
+    private abstractValue snapshot(abstractValue av) {
+        if (av.isVect()) {
+            List<abstractValue> elems = new ArrayList<abstractValue>();
+            for (abstractValue e : av.getVectValue()) {
+                elems.add(snapshot(e));
+            }
+            return ARR(elems);
+        }
+        return av.clone();
     }
     int gbgid = 0; //This is a big hack!!
 
@@ -1,8 +1,16 @@
 package sketch.compiler.dataflow.nodesToSB;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import sketch.compiler.ast.core.Annotation;
 import sketch.compiler.ast.core.Function;
@@ -31,11 +39,13 @@ import sketch.compiler.ast.core.typs.TypePrimitive;
 import sketch.compiler.ast.core.typs.TypeStructRef;
 import sketch.compiler.ast.cuda.exprs.CudaThreadIdx;
 import sketch.compiler.ast.cuda.stmts.CudaSyncthreads;
+import sketch.compiler.dataflow.MethodState;
 import sketch.compiler.dataflow.MethodState.Level;
 import sketch.compiler.dataflow.PartialEvaluator;
 import sketch.compiler.dataflow.abstractValue;
 import sketch.compiler.dataflow.recursionCtrl.RecursionControl;
 import sketch.compiler.main.cmdline.SketchOptions;
+import sketch.compiler.solvers.SolutionCache;
 import sketch.compiler.solvers.constructs.ValueOracle;
 import sketch.util.exceptions.ExceptionAtNode;
 /**
@@ -251,6 +261,46 @@ public class ProduceBooleanFunctions extends PartialEvaluator {
         state.useRetTracker();
     }
 
+    /**
+     * Shared symbolic subterms at least this long are emitted once per function as
+     * named temporaries. 0 disables sharing.
+     */
+    public void setShareThreshold(int shareThreshold) {
+        ((NtsbVtype) this.vtype).setShareThreshold(shareThreshold);
+    }
+
+    /**
+     * Whether a call with the same inputs and path condition as an earlier call in the
+     * same function reuses its outputs instead of being written again.
+     */
+    public void setSummarizeCalls(boolean summarizeCalls) {
+        ((NtsbVtype) this.vtype).setSummarizeCalls(summarizeCalls);
+    }
+
+    /**
+     * Number of bits to give each hole that needs fewer than its size, by hole name.
+     */
+    public void setHoleWidths(Map<String, Integer> holeWidths) {
+        ((NtsbVtype) this.vtype).setHoleWidths(holeWidths);
+    }
+
+    /**
+     * Number of threads used to translate functions. Each function is translated
+     * independently of the others, so the output is the same for any number of threads.
+     */
+    public void setEmitThreads(int emitThreads) {
+        this.emitThreads = emitThreads;
+    }
+
+    int emitThreads = 1;
+
+    /**
+     * Every function starts numbering its temporaries from the same point, so the text
+     * produced for a function does not depend on the order in which functions are
+     * translated.
+     */
+    TempVarGen funVarGen;
+
 
 
     List<Integer> opsizes;
@@ -493,7 +543,8 @@ public class ProduceBooleanFunctions extends PartialEvaluator {
     }
 
     public void doOutParams(List<Parameter> params) {
-        PrintStream out = ((NtsbVtype) this.vtype).out;
+        NtsbVtype vt = (NtsbVtype) this.vtype;
+        PrintStream out = vt.out;
         Iterator<Integer> opsz = opsizes.iterator();
         if (hasOutput) {
 
@@ -505,14 +556,14 @@ public class ProduceBooleanFunctions extends PartialEvaluator {
                     assert opsz.hasNext() : "This can't happen.";
                     int sz = opsz.next();
                     for (int tt = 0; tt < sz; ++tt) {
-                        String nnm = null;
+                        abstractValue nnm = null;
                         if (inval.isVect()) {
-                            nnm = inval.getVectValue().get(tt).toString();
+                            nnm = inval.getVectValue().get(tt);
                         } else {
                             assert tt == 0;
-                            nnm = inval.toString();
+                            nnm = inval;
                         }
-                        out.print(nnm + " ");
+                        vt.emit(nnm, " ");
                     }
                 }
             }
@@ -560,14 +611,75 @@ public class ProduceBooleanFunctions extends PartialEvaluator {
 
     SpecSketch currentFun;
 
-    public Object visitFunction(Function func)
+    /**
+     * Digests of the text of functions that have already been sent to the solver, by
+     * full name, or null to write every function.
+     */
+    Map<String, String> sentFunctions = null;
+
+    /**
+     * Functions whose text has the same digest as in sentFunctions are translated as
+     * usual, so that the oracle learns about their holes, but they are not written
+     * again. The digests of the functions that are written are added to the map. This
+     * is for a solver that is fed one problem after another and keeps the functions it
+     * has already seen.
+     */
+    public void setSentFunctions(Map<String, String> sentFunctions) {
+        this.sentFunctions = sentFunctions;
+    }
+
+    public Object visitFunction(Function func) {
+        if (sentFunctions == null || func.hasAnnotation("DontAnalyze")) {
+            return translateFunction(func);
+        }
+        NtsbVtype vt = (NtsbVtype) this.vtype;
+        PrintStream out = vt.out;
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        vt.out = new PrintStream(text, false);
+        try {
+            Object result = translateFunction(func);
+            vt.out.flush();
+            writeFunction(func, text, out);
+            return result;
+        } finally {
+            vt.out = out;
+        }
+    }
+
+    /**
+     * Copies the text of fun to out, unless it is unchanged since it was last sent.
+     */
+    private void writeFunction(Function fun, ByteArrayOutputStream text, PrintStream out)
+    {
+        if (sentFunctions != null) {
+            MessageDigest md = SolutionCache.newDigest();
+            md.update(text.toByteArray());
+            String digest = SolutionCache.toKey(md);
+            if (digest.equals(sentFunctions.put(fun.getFullName(), digest))) {
+                return;
+            }
+        }
+        try {
+            text.writeTo(out);
+        } catch (IOException e) {
+            // a PrintStream never throws.
+            throw new RuntimeException(e);
+        }
+    }
+
+    Object translateFunction(Function func)
     {
         fhtrack.enterFunction(func);
 
         if (func.hasAnnotation("DontAnalyze")) {
             return func;
         }
-
+        ((NtsbVtype) this.vtype).beginScope();
+        // Fresh state for every function, so that nothing, not even the numbering of
+        // variable names, carries over from the functions translated before it.
+        state = new MethodState(vtype);
+        state.useRetTracker();
+        varGen = new TempVarGen(funVarGen);
 
 
         if(tracing)
@@ -690,10 +802,14 @@ public class ProduceBooleanFunctions extends PartialEvaluator {
 
     Set<String> mainfuns = new HashSet<String>();
 
+    Program program;
+
     public Object visitProgram(Program p) {
         PrintStream out = ((NtsbVtype) this.vtype).out;
         printDeclarationsAndRegisterMainfuns(p, out);
 
+        program = p;
+        funVarGen = new TempVarGen(varGen);
         Object o = super.visitProgram(p);
         for (Package pkg : p.getPackages()) {
             for (StmtSpAssert sa : pkg.getSpAsserts()) {
@@ -735,6 +851,153 @@ public class ProduceBooleanFunctions extends PartialEvaluator {
 
 
 
+    /**
+     * The result of translating one function in a separate worker.
+     */
+    static class EmittedFunction {
+        final Function fun;
+        /** The text of the function. */
+        final ByteArrayOutputStream text;
+        final List<Function> calls;
+        final List<SpecSketch> assertions;
+        final Set<String> holes;
+        final Set<String> callees;
+        final Set<String> fixes;
+
+        EmittedFunction(Function fun, ByteArrayOutputStream text, List<Function> calls,
+                List<SpecSketch> assertions, FunctionHoleTracker track)
+        {
+            this.fun = fun;
+            this.text = text;
+            this.calls = calls;
+            this.assertions = assertions;
+            String name = fun.getFullName();
+            this.holes = track.functionHoles.get(name);
+            this.callees = track.functionCalls.get(name);
+            this.fixes = track.fixes.get(name);
+        }
+    }
+
+    /**
+     * Creates a translator that can work on functions of the current program
+     * concurrently with this one. It shares the oracle, but has its own state and name
+     * resolver.
+     */
+    private ProduceBooleanFunctions newWorker() {
+        NtsbVtype vt = (NtsbVtype) vtype;
+        ProduceBooleanFunctions w =
+                new ProduceBooleanFunctions(varGen, (ValueOracle) vt.oracle, null,
+                        MAX_UNROLL, maxArrSize, rcontrol.copy(), tracing);
+        w.setShareThreshold(vt.shareThreshold);
+        w.setSummarizeCalls(vt.callSummaries != null);
+        w.setHoleWidths(vt.holeWidths);
+        w.nres = new NameResolver(program);
+        w.vtype.setNres(w.nres);
+        w.rcontrol.setNameRes(w.nres);
+        w.pkgs = pkgs;
+        w.mainfuns = mainfuns;
+        w.funVarGen = funVarGen;
+        return w;
+    }
+
+    /**
+     * Translates f with the given worker, capturing its output and the functions it
+     * leaves behind as calls.
+     */
+    private static EmittedFunction emitFunction(ProduceBooleanFunctions w, Function f) {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(text, false);
+        try {
+            ((NtsbVtype) w.vtype).out = ps;
+            w.funcsToAnalyze = new ArrayList<Function>();
+            int nassert = w.assertions.size();
+            w.nres.setPackage(w.pkgs.get(f.getPkg()));
+            f.accept(w);
+            List<SpecSketch> newAsserts =
+                    new ArrayList<SpecSketch>(w.assertions.subList(nassert,
+                            w.assertions.size()));
+            ps.flush();
+            return new EmittedFunction(f, text, w.funcsToAnalyze, newAsserts,
+                    w.fhtrack);
+        } finally {
+            ps.close();
+            // don't hold on to the state of f while waiting for the next function.
+            w.state = new MethodState(w.vtype);
+        }
+    }
+
+    /**
+     * With more than one thread, the functions are translated in rounds: the first
+     * round contains the functions to analyze, and each subsequent round contains the
+     * functions left behind as calls by the previous one. Within a round, functions
+     * are translated concurrently, but their output and the functions they call are
+     * collected in order, which is exactly the order in which the sequential worklist
+     * would have visited them.
+     */
+    @Override
+    protected void analyzeFunctions(Map<String, List<Function>> newfuns) {
+        if (emitThreads <= 1 || rcontrol.copy() == null) {
+            super.analyzeFunctions(newfuns);
+            return;
+        }
+        final ThreadLocal<ProduceBooleanFunctions> workers =
+                new ThreadLocal<ProduceBooleanFunctions>() {
+                    protected ProduceBooleanFunctions initialValue() {
+                        return newWorker();
+                    }
+                };
+        PrintStream out = ((NtsbVtype) vtype).out;
+        ExecutorService pool = Executors.newFixedThreadPool(emitThreads);
+        List<Future<EmittedFunction>> results = new ArrayList<Future<EmittedFunction>>();
+        try {
+            List<Function> round = funcsToAnalyze;
+            while (!round.isEmpty()) {
+                results.clear();
+                for (final Function f : round) {
+                    if (!funcsAnalyzed.add(f.getFullName()) || f.isUninterp()) {
+                        continue;
+                    }
+                    results.add(pool.submit(new Callable<EmittedFunction>() {
+                        public EmittedFunction call() {
+                            return emitFunction(workers.get(), f);
+                        }
+                    }));
+                }
+                round = new ArrayList<Function>();
+                for (Future<EmittedFunction> r : results) {
+                    EmittedFunction ef = getResult(r);
+                    writeFunction(ef.fun, ef.text, out);
+                    round.addAll(ef.calls);
+                    assertions.addAll(ef.assertions);
+                    String name = ef.fun.getFullName();
+                    fhtrack.functionHoles.put(name, ef.holes);
+                    fhtrack.functionCalls.put(name, ef.callees);
+                    fhtrack.fixes.put(name, ef.fixes);
+                }
+            }
+            funcsToAnalyze.clear();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static EmittedFunction getResult(Future<EmittedFunction> r) {
+        try {
+            return r.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
     private void printDeclarationsAndRegisterMainfuns(Program p, PrintStream out) {
         
 
@@ -55,6 +55,10 @@ public class BaseRControl extends RecursionControl {
 	}
 	
 	
+	public RecursionControl copy(){
+		return new BaseRControl(MAX_INLINE);
+	}
+
 	public int inlineLevel(ExprFunCall fun) {
 		return icount.getInlineCounter(fun.getName());
 	}
@@ -8,6 +8,7 @@ public class DelayedInlineRControl extends BaseRControl {
 		
 	public InlineCounter appearenceCounter = new InlineCounter();	
 	private int MAX_OCC;
+	private int MAX_INLINE;
 	
 	
 	public boolean leaveCallsBehind(){
@@ -16,6 +17,11 @@ public class DelayedInlineRControl extends BaseRControl {
 	public DelayedInlineRControl(int maxInline, int maxOccurrence){
 		super(maxInline);		
 		MAX_OCC = maxOccurrence;
+		MAX_INLINE = maxInline;
+	}
+
+	public RecursionControl copy(){
+		return new DelayedInlineRControl(MAX_INLINE, MAX_OCC);
 	}
 	
 	
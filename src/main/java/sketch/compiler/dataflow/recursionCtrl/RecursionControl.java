@@ -120,6 +120,15 @@ public abstract class RecursionControl{
 	public String debugMsg(){
 		return "";
 	}
+
+	/**
+	 * Returns a new recursion control with the same settings as this one but none of
+	 * its dynamic state, so that several functions can be analyzed concurrently, each
+	 * with its own copy. Returns null if this recursion control can not be copied.
+	 */
+	public RecursionControl copy(){
+		return null;
+	}
 	
 	public abstract String callStack();
 	
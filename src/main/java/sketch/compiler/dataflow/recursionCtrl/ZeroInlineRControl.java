@@ -37,6 +37,10 @@ public class ZeroInlineRControl extends RecursionControl {
 		// Nothing to do here.
 	}
 
+	public RecursionControl copy(){
+		return new ZeroInlineRControl();
+	}
+
 	public String callStack(){
 		return "";
 	}
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.TreeMap;
 
 import sketch.compiler.ast.core.exprs.ExprNullPtr;
 import sketch.compiler.ast.core.typs.Type;
@@ -12,7 +11,7 @@ import sketch.compiler.ast.core.typs.TypeArray;
 
 abstract public class varState {	
 	private int maxSize = -1;
-	protected TreeMap<Integer, abstractValue> arrElems=null;
+	protected ArrayElems arrElems=null;
 	protected abstractValue absVal = null;
 	protected varState parent = null;	
 	protected Type t;
@@ -32,11 +31,8 @@ abstract public class varState {
 			if( sz < 0){ return vtype.BOTTOM();  }
 			List<abstractValue> avl = new ArrayList<abstractValue>(sz);
 			for(int i=0; i<sz; ++i){
-				if( this.hasKey(i)  ){
-					avl.add(this.state(i));
-				}else{
-					avl.add(newLHSvalue(i));
-				}
+				abstractValue av = find(i);
+				avl.add(av != null ? av : newLHSvalue(i));
 			}			
 			return vtype.ARR(avl);
 		}else{
@@ -50,7 +46,7 @@ abstract public class varState {
 	}
 	protected void init(int size){
 		maxSize = size;
-		arrElems = new TreeMap<Integer, abstractValue>();
+		arrElems = new ArrayElems(size);
 	}
 	public varState(Type t){
 		this.t = t;
@@ -115,23 +111,30 @@ abstract public class varState {
 	}
 	
 	final public boolean hasKey(int idx){
-		if(arrElems.containsKey(idx)){
-			return true;
-		}else{
-			if( parent != null){
-				return parent.hasKey(idx);
+		return find(idx) != null;
+	}
+	
+	/**
+	 * Returns the value of element i in this state or the closest parent that has one,
+	 * or null if none of them does.
+	 */
+	private abstractValue find(int i){
+		for(varState vs = this; vs != null; vs = vs.parent){
+			abstractValue av = vs.arrElems.get(i);
+			if(av != null){
+				return av;
 			}
 		}
-		return false;
+		return null;
 	}
 	
 	public abstractValue state(int i){ 
-		if(arrElems.containsKey(i)){
-			return arrElems.get(i);
-		}else{
-			if( parent != null){
-				return parent.state(i);
-			}
+		abstractValue av = arrElems.get(i);
+		if(av != null){
+			return av;
+		}
+		if( parent != null){
+			return parent.state(i);
 		}
 		abstractValue newVal = newLHSvalue(i);
 		arrElems.put(i, newVal);
@@ -162,7 +165,7 @@ abstract public class varState {
                 if (val.isBottom()) {
 					for(int i=0; i<lv ; ++i){                  
                         update(vtype.CONST(i),
-                                vtype.BOTTOM(val.toString() + "[|" + i + "|]"), vtype);
+                                vtype.BOTTOM(val, "[|" + i + "|]"), vtype);
 	                }
 				}else{
                     cv = null;
@@ -187,9 +190,9 @@ abstract public class varState {
 		}else{
 			int sz = this.maxSize;
 			for(int i=0; i<sz; ++i){
-				if(arrElems.containsKey(i)){
-					abstractValue newVal = arrElems.get(i);
-					newVal.makeVolatile();
+				abstractValue oldVal = arrElems.get(i);
+				if(oldVal != null){
+					oldVal.makeVolatile();
 				}else{
 					abstractValue newVal = newLHSvalue(i);
 					newVal.makeVolatile();
@@ -212,8 +215,9 @@ abstract public class varState {
 		}
 		if( idx.hasIntVal() ){
 			int iidx = idx.getIntVal();
-			if( arrElems.containsKey(iidx) ){
-				arrElems.get(iidx).update(val);
+			abstractValue oldVal = arrElems.get(iidx);
+			if( oldVal != null ){
+				oldVal.update(val);
 			}else{
 				abstractValue newVal = newLHSvalue(iidx);
 				if(parent != null){
@@ -230,8 +234,9 @@ abstract public class varState {
 			int lv = this.numKeys();
 			for(int i=0; i<lv ; ++i){
 				// update(vtype.CONST(i), bottom, vtype);
-				if( arrElems.containsKey(i) ){
-					arrElems.get(i).update(bottom); // This could be more precise by doing a condjoin between the current value and prevvalue on cond (idx == i).
+				abstractValue oldVal = arrElems.get(i);
+				if( oldVal != null ){
+					oldVal.update(bottom); // This could be more precise by doing a condjoin between the current value and prevvalue on cond (idx == i).
 				}else{
 					abstractValue newVal = newLHSvalue(i);
 					if(parent != null){
@@ -273,7 +278,8 @@ abstract public class varState {
 		this.maxSize = parent.maxSize;
 		this.parent = parent;
 		if( parent.arrElems != null ){
-			arrElems = new TreeMap<Integer, abstractValue>();
+			// elements that are not updated are found in the parent.
+			arrElems = new ArrayElems(parent.maxSize);
 		}else{
 			absVal = parent.absVal.clone();
 		}
@@ -291,25 +297,17 @@ abstract public class varState {
 		varState rv = getDeltaClone(vt);		
 		if( rv.isArr() ){
 			assert val.isArr() : "NYS";
-			TreeMap<Integer, abstractValue> tmpArrElems = new TreeMap<Integer, abstractValue>();
-			tmpArrElems.putAll(val.arrElems);
-			for(Iterator<Entry<Integer, abstractValue>>  thIt = arrElems.entrySet().iterator(); thIt.hasNext(); ){
-				Entry<Integer, abstractValue> toUd = thIt.next();
-				int idx = toUd.getKey();
-				if( val.arrElems.containsKey( idx ) ){
-					//update(vt.CONST( idx ), vt.condjoin(cond, toUd.getValue() , val.arrElems.get(idx) ), vt );
-					rv.arrElems.put(idx,  vt.condjoin(cond, val.arrElems.get(idx), toUd.getValue() ));
-					// toUd.getValue().update( vt.condjoin(cond, toUd.getValue() , val.arrElems.get(idx) ) );
-					tmpArrElems.remove(idx);
-				}else{
-					rv.arrElems.put(idx,  vt.condjoin(cond, val.state(idx), toUd.getValue() ));
-					//Nothing to do here, since we would be updating to the same value.
+			for(int idx : arrElems.keys()){
+				abstractValue vv = val.arrElems.get(idx);
+				if( vv == null ){
+					vv = val.state(idx);
 				}
+				rv.arrElems.put(idx,  vt.condjoin(cond, vv, arrElems.get(idx) ));
 			}
-			for(Iterator<Entry<Integer, abstractValue>>  thIt = tmpArrElems.entrySet().iterator(); thIt.hasNext(); ){
-				Entry<Integer, abstractValue> toUd = thIt.next();
-				int idx = toUd.getKey();
-				rv.arrElems.put(idx,  vt.condjoin(cond, toUd.getValue(), state(idx) ));
+			for(int idx : val.arrElems.keys()){
+				if( !arrElems.containsKey(idx) ){
+					rv.arrElems.put(idx,  vt.condjoin(cond, val.arrElems.get(idx), state(idx) ));
+				}
 			}
 		}else{
 			assert !val.isArr() : " Can't assign an array into a non-array";			
@@ -340,24 +338,16 @@ abstract public class varState {
 	public boolean compare(varState val, abstractValueType vt){
 		if( this.isArr() ){
 			if(!val.isArr()) return false;
-			TreeMap<Integer, abstractValue> tmpArrElems = new TreeMap<Integer, abstractValue>();
-			tmpArrElems.putAll(val.arrElems);
-			for(Iterator<Entry<Integer, abstractValue>>  thIt = arrElems.entrySet().iterator(); thIt.hasNext(); ){
-				Entry<Integer, abstractValue> toUd = thIt.next();
-				int idx = toUd.getKey();
-				if( val.arrElems.containsKey( idx ) ){
-					if( !val.arrElems.get(idx).equals(toUd.getValue()) ) return false;
-					tmpArrElems.remove(idx);
-				}else{
-					if( !val.state(idx).equals(toUd.getValue()) ) return false;					
-					//Nothing to do here, since we would be updating to the same value.
+			for(int idx : arrElems.keys()){
+				abstractValue vv = val.arrElems.get(idx);
+				if( vv == null ){
+					vv = val.state(idx);
 				}
+				if( !vv.equals(arrElems.get(idx)) ) return false;
 			}
-			for(Iterator<Entry<Integer, abstractValue>>  thIt = tmpArrElems.entrySet().iterator(); thIt.hasNext(); ){
-				Entry<Integer, abstractValue> toUd = thIt.next();
-				int idx = toUd.getKey();
+			for(int idx : val.arrElems.keys()){
 				if(!arrElems.containsKey(idx)){
-					if( !toUd.getValue().equals( state(idx) ) ) return false;
+					if( !val.arrElems.get(idx).equals( state(idx) ) ) return false;
 				}
 			}
 		}else{
@@ -372,13 +362,13 @@ abstract public class varState {
 	}
 	
 	final public Iterator<Entry<Integer, abstractValue>> iterator(){
-		return arrElems.entrySet().iterator();
+		return arrElems.iterator();
 	}
 	
 	public String toString(){
 		if( arrElems != null ){
 			String fu = "{";
-			for(Iterator<Entry<Integer, abstractValue>>  thIt = arrElems.entrySet().iterator(); thIt.hasNext(); ){
+			for(Iterator<Entry<Integer, abstractValue>>  thIt = arrElems.iterator(); thIt.hasNext(); ){
 				Entry<Integer, abstractValue> toUd = thIt.next();
 				fu += toUd.getKey() + ":" + toUd.getValue().toString() + ", "; 
 			}
@@ -0,0 +1,128 @@
+package sketch.compiler.main;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sketch.compiler.main.cmdline.SketchOptions;
+import sketch.compiler.main.passes.PassProfiler;
+import sketch.compiler.solvers.parallel.ParallelBackend;
+import sketch.util.exceptions.SketchExitException;
+
+/**
+ * State of a single compilation that used to live in static fields: the options, the
+ * platform localization, the pass profiler, and the counters that give holes and calls
+ * their unique names. A thread works for the compilation whose context it entered, or
+ * else the one its parent thread was in when it was created, so the worker threads of a
+ * compilation share its context. Threads outside any compilation share a default context, which is
+ * all that is used when the JVM runs one sketch at a time.
+ */
+public class CompilationContext {
+    private static final CompilationContext DEFAULT = new CompilationContext();
+    private static final InheritableThreadLocal<CompilationContext> current =
+            new InheritableThreadLocal<CompilationContext>();
+
+    volatile SketchOptions options;
+    PlatformLocalization localization;
+
+    private final AtomicInteger starUid = new AtomicInteger();
+    private final AtomicInteger boundStarUid = new AtomicInteger();
+    private final AtomicInteger callUid = new AtomicInteger();
+    private final AtomicInteger symbolicUid = new AtomicInteger();
+    private final AtomicInteger lambdaVarUid = new AtomicInteger();
+
+    private volatile ParallelBackend.STAGE parallelStage;
+    private volatile String lastComment;
+    private volatile PassProfiler profiler;
+
+    /** Returns the context of the compilation the current thread works for. */
+    public static CompilationContext current() {
+        CompilationContext ctx = current.get();
+        return ctx != null ? ctx : DEFAULT;
+    }
+
+    /**
+     * Makes this the context of the current thread, and of the threads it creates from
+     * now on.
+     */
+    public void enter() {
+        current.set(this);
+    }
+
+    /** Returns the current thread to the default context. */
+    public static void exit() {
+        current.remove();
+    }
+
+    /**
+     * Ends the compilation of the current thread with the given exit status. A
+     * compilation in the default context has the JVM to itself and exits it; one that
+     * entered a context of its own, like a job of a batch, throws a SketchExitException
+     * instead, so that the other compilations of the JVM go on.
+     */
+    public static void terminate(int status) {
+        if (current.get() == null) {
+            System.exit(status); // @code standards ignore
+        }
+        throw new SketchExitException(status);
+    }
+
+    public SketchOptions getOptions() {
+        return options;
+    }
+
+    public void setOptions(SketchOptions options) {
+        this.options = options;
+    }
+
+    synchronized PlatformLocalization getLocalization() {
+        if (localization == null) {
+            localization = new PlatformLocalization();
+        }
+        return localization;
+    }
+
+    public int nextStarUid() {
+        return starUid.getAndIncrement();
+    }
+
+    public int nextBoundStarUid() {
+        return boundStarUid.getAndIncrement();
+    }
+
+    public int nextCallUid() {
+        return callUid.getAndIncrement();
+    }
+
+    public int nextSymbolicUid() {
+        return symbolicUid.getAndIncrement();
+    }
+
+    public int nextLambdaVarUid() {
+        return lambdaVarUid.getAndIncrement();
+    }
+
+    public ParallelBackend.STAGE getParallelStage() {
+        return parallelStage;
+    }
+
+    public void setParallelStage(ParallelBackend.STAGE stage) {
+        parallelStage = stage;
+    }
+
+    /** The last comment the lexer has seen, which the parser attaches to declarations. */
+    public String getLastComment() {
+        return lastComment;
+    }
+
+    public void setLastComment(String comment) {
+        lastComment = comment;
+    }
+
+    /** The profiler started for this compilation, or null if passes are not profiled. */
+    public PassProfiler getProfiler() {
+        return profiler;
+    }
+
+    public void setProfiler(PassProfiler profiler) {
+        this.profiler = profiler;
+    }
+}
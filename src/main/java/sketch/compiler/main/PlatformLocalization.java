@@ -29,7 +29,6 @@ import sketch.util.exceptions.SketchSolverException;
  *          changes, please consider contributing back!
  */
 public class PlatformLocalization {
-    protected static PlatformLocalization singleton;
 	public String version = "1.7.6";
     public String osname = System.getProperty("os.name");
     public String osarch = System.getProperty("os.arch");
@@ -44,11 +43,9 @@ public class PlatformLocalization {
      */
     public boolean isSet = false;
 
+    /** Returns the localization of the compilation the current thread works for. */
     public static PlatformLocalization getLocalization() {
-        if (singleton == null) {
-            singleton = new PlatformLocalization();
-        }
-        return singleton;
+        return CompilationContext.current().getLocalization();
     }
 
     public PlatformLocalization() {
@@ -14,6 +14,7 @@ import sketch.compiler.cmdline.FrontendOptions;
 import sketch.compiler.cmdline.SemanticsOptions;
 import sketch.compiler.cmdline.SolverOptions;
 import sketch.compiler.cmdline.SpmdOptions;
+import sketch.compiler.main.CompilationContext;
 import sketch.compiler.main.PlatformLocalization;
 import sketch.util.cli.SketchCliParser;
 
@@ -45,7 +46,6 @@ public class SketchOptions {
     public Vector<String> backendArgs;
     public Vector<String> nativeArgs;
     protected String[] currentArgs;
-    protected static SketchOptions _singleton;
     private String fileIdx;
     int randomAppendage = 0;
     public SketchOptions(String[] inArgs) {
@@ -53,7 +53,7 @@ public class SketchOptions {
         preinit();
         SketchCliParser parser = new SketchCliParser(inArgs);
         parseCommandline(parser);
-        _singleton = this;
+        CompilationContext.current().setOptions(this);
         // Random r = new Random();
         randomAppendage = 0; // r.nextInt();
         fileIdx = "";
@@ -104,12 +104,13 @@ public class SketchOptions {
         return (Vector<String>) backendOptions.clone();
     }
 
+    /** Returns the options of the compilation the current thread works for. */
     public static SketchOptions getSingleton() {
-        return _singleton;
+        return CompilationContext.current().getOptions();
     }
 
     public static void resetSingleton() {
-        _singleton = null;
+        CompilationContext.current().setOptions(null);
     }
 
     public String getTmpFilename(String basename) {
@@ -25,7 +25,8 @@ public class ParallelSketchOptions extends SketchOptions {
     }
 
     public static ParallelSketchOptions getSingleton() {
-        assert _singleton != null : "no singleton instance";
-        return (ParallelSketchOptions) _singleton;
+        SketchOptions options = SketchOptions.getSingleton();
+        assert options != null : "no singleton instance";
+        return (ParallelSketchOptions) options;
     }
 }
@@ -0,0 +1,178 @@
+package sketch.compiler.main.passes;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import sketch.compiler.ast.core.FEContext;
+import sketch.compiler.ast.core.FENode;
+import sketch.compiler.ast.core.Program;
+
+/**
+ * An estimate of the heap a program takes: the objects reachable from it that belong to
+ * the AST, counted once each, split into nodes, source contexts, and everything else
+ * (types, lists, strings, annotations...).<BR>
+ * Fields of nodes and of other classes in sketch.compiler.ast are followed by
+ * reflection, and so are the elements of collections, maps and arrays they hold. Other
+ * objects are counted but not followed, so symbol tables or options a node may point to
+ * are not charged to the AST.
+ * Sizes assume a 64-bit JVM with compressed references: 12-byte headers, 4-byte
+ * references and 8-byte alignment. Collections are charged a rough size for their
+ * internal arrays and entries, since their fields are not accessible.
+ */
+class AstFootprint {
+    static final int HEADER = 12;
+    static final int REF = 4;
+
+    int nodes;
+    long nodeBytes;
+    int contexts;
+    long contextBytes;
+    int objects;
+    long bytes;
+
+    private final IdentityHashMap<Object, Boolean> seen =
+            new IdentityHashMap<Object, Boolean>();
+    private final ArrayDeque<Object> todo = new ArrayDeque<Object>();
+    private static final Map<Class<?>, ClassInfo> classes =
+            new HashMap<Class<?>, ClassInfo>();
+
+    /** The size of the instances of a class, and its reference fields to follow. */
+    static class ClassInfo {
+        final long size;
+        final Field[] refs;
+
+        ClassInfo(long size, Field[] refs) {
+            this.size = size;
+            this.refs = refs;
+        }
+    }
+
+    static AstFootprint measure(Program prog) {
+        AstFootprint f = new AstFootprint();
+        f.add(prog);
+        while (!f.todo.isEmpty()) {
+            f.visit(f.todo.pop());
+        }
+        return f;
+    }
+
+    private void add(Object o) {
+        if (o != null && !(o instanceof Class) && !(o instanceof Enum) &&
+                seen.put(o, Boolean.TRUE) == null)
+        {
+            todo.push(o);
+        }
+    }
+
+    private void visit(Object o) {
+        long size;
+        Class<?> c = o.getClass();
+        if (c.isArray()) {
+            size = arraySize(c.getComponentType(), Array.getLength(o));
+            if (!c.getComponentType().isPrimitive()) {
+                for (Object e : (Object[]) o) {
+                    add(e);
+                }
+            }
+        } else if (o instanceof String) {
+            size = align(HEADER + 12) + arraySize(byte.class, ((String) o).length());
+        } else if (o instanceof Collection) {
+            Collection<?> col = (Collection<?>) o;
+            size = align(HEADER + 12) + arraySize(Object.class, col.size());
+            if (!(o instanceof List)) {
+                // hashed and linked collections have an entry per element.
+                size += align(HEADER + 4 + 3 * REF) * (long) col.size();
+            }
+            for (Object e : col) {
+                add(e);
+            }
+        } else if (o instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) o;
+            size =
+                    align(HEADER + 20) + arraySize(Object.class, map.size()) +
+                            align(HEADER + 4 + 3 * REF) * (long) map.size();
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                add(e.getKey());
+                add(e.getValue());
+            }
+        } else {
+            ClassInfo info = info(c);
+            size = info.size;
+            for (Field f : info.refs) {
+                try {
+                    add(f.get(o));
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        objects++;
+        bytes += size;
+        if (o instanceof FENode) {
+            nodes++;
+            nodeBytes += size;
+        } else if (o instanceof FEContext) {
+            contexts++;
+            contextBytes += size;
+        }
+    }
+
+    static long align(long n) {
+        return (n + 7) & ~7L;
+    }
+
+    static long arraySize(Class<?> elem, int length) {
+        return align(HEADER + 4 + (long) primitiveSize(elem) * length);
+    }
+
+    static int primitiveSize(Class<?> t) {
+        if (t == long.class || t == double.class) {
+            return 8;
+        }
+        if (t == int.class || t == float.class) {
+            return 4;
+        }
+        if (t == short.class || t == char.class) {
+            return 2;
+        }
+        if (t == byte.class || t == boolean.class) {
+            return 1;
+        }
+        return REF;
+    }
+
+    static synchronized ClassInfo info(Class<?> c) {
+        ClassInfo info = classes.get(c);
+        if (info != null) {
+            return info;
+        }
+        long size = HEADER;
+        boolean follow =
+                c.getName().startsWith("sketch.compiler.ast.") ||
+                        FENode.class.isAssignableFrom(c);
+        List<Field> refs = new ArrayList<Field>();
+        for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+            for (Field f : k.getDeclaredFields()) {
+                if (Modifier.isStatic(f.getModifiers())) {
+                    continue;
+                }
+                size += primitiveSize(f.getType());
+                if (follow && !f.getType().isPrimitive()) {
+                    f.setAccessible(true);
+                    refs.add(f);
+                }
+            }
+        }
+        info = new ClassInfo(align(size), refs.toArray(new Field[refs.size()]));
+        classes.put(c, info);
+        return info;
+    }
+}
@@ -49,7 +49,7 @@ public class CleanupFinalCode extends MetaStage {
         // prog.accept(new SimpleCodePrinter());
 		// prog.debugDump("********************************** After preprocess
 		// sketch");
-        prog = (Program) prog.accept(new FlattenStmtBlocks());
+        prog = FunctionParallelRunner.run(prog, new FlattenStmtBlocks(), varGen);
 
         prog = (Program) prog.accept(new MakeCastsExplicit());
 
@@ -108,7 +108,7 @@ public class CleanupFinalCode extends MetaStage {
 
         prog = (Program) prog.accept(new AssembleInitializers());
 
-        prog = (Program) prog.accept(new FlattenStmtBlocks());
+        prog = FunctionParallelRunner.run(prog, new FlattenStmtBlocks(), varGen);
 
         return prog;
     }
@@ -0,0 +1,308 @@
+package sketch.compiler.main.passes;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import sketch.compiler.ast.core.FEReplacer;
+import sketch.compiler.ast.core.FEVisitor;
+import sketch.compiler.ast.core.Function;
+import sketch.compiler.ast.core.NameResolver;
+import sketch.compiler.ast.core.Package;
+import sketch.compiler.ast.core.Program;
+import sketch.compiler.ast.core.TempVarGen;
+import sketch.compiler.ast.core.exprs.ExprVar;
+import sketch.compiler.ast.core.stmts.StmtVarDecl;
+import sketch.compiler.main.CompilationContext;
+import sketch.compiler.main.cmdline.SketchOptions;
+import sketch.compiler.passes.annotations.CompilerPassDeps;
+import sketch.compiler.passes.lowering.FusedStatementPass;
+
+/**
+ * Runs passes annotated as function-local on all functions of a program concurrently,
+ * when --fe-pass-threads is more than 1. Each function is rewritten by its own instance
+ * of the pass, which only visits that function (see FEReplacer.visitFunctionIn); the
+ * names of the program and the symbols of each package are collected once and shared.
+ * Each instance gets a TempVarGen that records the names it hands out; once all
+ * functions are done, these are renamed in program order to the names varGen would have
+ * given in a sequential run, so the output does not depend on the number of threads.
+ * <BR>
+ * Other passes, and all passes when only one thread is used, just run sequentially.
+ */
+public class FunctionParallelRunner {
+    /** Makes a fresh instance of a pass that uses the given name generator. */
+    public static abstract class PassFactory {
+        public abstract FEReplacer create(TempVarGen varGen);
+    }
+
+    /**
+     * Hands out names that can not clash with those of other functions, and records
+     * them so that they can be renamed to sequential names later. Names can only be
+     * asked for through nextVar, since bare numbers can't be renamed.
+     */
+    static class RecordingVarGen extends TempVarGen {
+        /** The names handed out, in order, with the prefix each was asked for. */
+        final List<String> bases = new ArrayList<String>();
+        final List<String> names = new ArrayList<String>();
+        private boolean naming = false;
+
+        RecordingVarGen(TempVarGen varGen, int function) {
+            super(varGen, "f" + function);
+        }
+
+        @Override
+        public int nextVarNum() {
+            if (!naming) {
+                throw new UnsupportedOperationException(
+                        "function-local passes must name their variables with nextVar");
+            }
+            return super.nextVarNum();
+        }
+
+        @Override
+        public String nextVar() {
+            return record(null);
+        }
+
+        @Override
+        public String nextVar(String startingWith) {
+            return record(startingWith);
+        }
+
+        private String record(String startingWith) {
+            naming = true;
+            String name;
+            try {
+                name = startingWith == null ? super.nextVar() : super.nextVar(startingWith);
+            } finally {
+                naming = false;
+            }
+            bases.add(startingWith);
+            names.add(name);
+            return name;
+        }
+
+        /** Takes the names from varGen in the order they were handed out. */
+        Map<String, String> renaming(TempVarGen varGen) {
+            Map<String, String> renaming = new HashMap<String, String>();
+            for (int i = 0; i < names.size(); ++i) {
+                String base = bases.get(i);
+                renaming.put(names.get(i), base == null ? varGen.nextVar()
+                        : varGen.nextVar(base));
+            }
+            return renaming;
+        }
+    }
+
+    /** Renames the variables of a function, both where they are declared and used. */
+    static class Rename extends FEReplacer {
+        final Map<String, String> renaming;
+
+        Rename(Map<String, String> renaming) {
+            this.renaming = renaming;
+        }
+
+        @Override
+        public Object visitExprVar(ExprVar exp) {
+            String name = renaming.get(exp.getName());
+            return name == null ? exp : new ExprVar(exp, name);
+        }
+
+        @Override
+        public Object visitStmtVarDecl(StmtVarDecl stmt) {
+            StmtVarDecl result = (StmtVarDecl) super.visitStmtVarDecl(stmt);
+            List<String> names = new ArrayList<String>();
+            boolean changed = false;
+            for (String name : result.getNames()) {
+                String newName = renaming.get(name);
+                changed |= newName != null;
+                names.add(newName == null ? name : newName);
+            }
+            if (!changed) {
+                return result;
+            }
+            return new StmtVarDecl(result, result.getTypes(), names, result.getInits());
+        }
+    }
+
+    public static boolean isFunctionLocal(FEVisitor pass) {
+        CompilerPassDeps deps = pass.getClass().getAnnotation(CompilerPassDeps.class);
+        return deps != null && deps.functionLocal();
+    }
+
+    /**
+     * Returns a factory that makes new instances of the class of pass through its
+     * (TempVarGen) or () constructor, or null if it has neither. Fused passes are
+     * copied with the same rules.
+     */
+    static PassFactory reflectiveFactory(FEReplacer pass) {
+        if (pass instanceof FusedStatementPass) {
+            final List<FusedStatementPass.Rule> rules =
+                    ((FusedStatementPass) pass).getRules();
+            return new PassFactory() {
+                public FEReplacer create(TempVarGen varGen) {
+                    return new FusedStatementPass(rules);
+                }
+            };
+        }
+        final Class<? extends FEReplacer> cls = pass.getClass();
+        Constructor<? extends FEReplacer> withGen = null;
+        Constructor<? extends FEReplacer> noArgs = null;
+        try {
+            withGen = cls.getConstructor(TempVarGen.class);
+        } catch (NoSuchMethodException e) {
+            try {
+                noArgs = cls.getConstructor();
+            } catch (NoSuchMethodException e2) {
+                return null;
+            }
+        }
+        final Constructor<? extends FEReplacer> ctorGen = withGen;
+        final Constructor<? extends FEReplacer> ctor = noArgs;
+        return new PassFactory() {
+            public FEReplacer create(TempVarGen varGen) {
+                try {
+                    return ctorGen != null ? ctorGen.newInstance(varGen)
+                            : ctor.newInstance();
+                } catch (Exception e) {
+                    throw new RuntimeException("can't instantiate pass " + cls, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Runs pass on prog. If the pass is function-local and can be instantiated through
+     * a (TempVarGen) or () constructor, the instances for the functions use names from
+     * varGen.
+     */
+    public static Program run(Program prog, FEVisitor pass, TempVarGen varGen) {
+        int threads = SketchOptions.getSingleton().feOpts.passThreads;
+        if (threads > 1 && pass instanceof FEReplacer && isFunctionLocal(pass)) {
+            PassFactory factory = reflectiveFactory((FEReplacer) pass);
+            if (factory != null) {
+                return run(prog, pass, factory, varGen, threads);
+            }
+        }
+        return (Program) prog.accept(pass);
+    }
+
+    /** Like run(prog, pass, varGen), with the instances made by factory. */
+    public static Program run(Program prog, FEReplacer pass, PassFactory factory,
+            TempVarGen varGen)
+    {
+        int threads = SketchOptions.getSingleton().feOpts.passThreads;
+        if (threads > 1 && isFunctionLocal(pass)) {
+            return run(prog, pass, factory, varGen, threads);
+        }
+        return (Program) prog.accept(pass);
+    }
+
+    static Program run(Program prog, FEVisitor pass, PassFactory factory,
+            TempVarGen varGen, int threads)
+    {
+        PassProfiler profiler = PassProfiler.get();
+        if (profiler == null) {
+            return runParallel(prog, pass, factory, varGen, threads);
+        }
+        PassProfiler.Frame frame = profiler.begin(pass, PassProfiler.passName(pass), prog);
+        Program result;
+        try {
+            result = runParallel(prog, pass, factory, varGen, threads);
+        } catch (RuntimeException e) {
+            profiler.abort(frame);
+            throw e;
+        }
+        profiler.end(frame, result);
+        return result;
+    }
+
+    static Program runParallel(final Program prog, final FEVisitor pass,
+            final PassFactory factory, TempVarGen varGen, int threads)
+    {
+        List<Package> packages = prog.getPackages();
+        int nfuncs = 0;
+        for (Package pkg : packages) {
+            nfuncs += pkg.getFuncs().size();
+        }
+        if (nfuncs < 2) {
+            return (Program) prog.accept(pass);
+        }
+
+        final CompilationContext ctx = CompilationContext.current();
+        final NameResolver names = new NameResolver(prog);
+        final List<RecordingVarGen> gens = new ArrayList<RecordingVarGen>();
+        List<Callable<Function>> tasks = new ArrayList<Callable<Function>>();
+        for (final Package pkg : packages) {
+            final Object scope = factory.create(varGen).packageScope(names, pkg);
+            for (final Function f : pkg.getFuncs()) {
+                final RecordingVarGen fnGen = new RecordingVarGen(varGen, gens.size());
+                gens.add(fnGen);
+                tasks.add(new Callable<Function>() {
+                    public Function call() {
+                        ctx.enter();
+                        try {
+                            FEReplacer instance = factory.create(fnGen);
+                            return instance.visitFunctionIn(new NameResolver(names), pkg,
+                                    scope, f);
+                        } finally {
+                            CompilationContext.exit();
+                        }
+                    }
+                });
+            }
+        }
+
+        List<Future<Function>> results;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            results = pool.invokeAll(tasks);
+        } finally {
+            pool.shutdown();
+        }
+        List<Package> newPackages = new ArrayList<Package>();
+        int n = 0;
+        for (Package pkg : packages) {
+            List<Function> newFuncs = new ArrayList<Function>();
+            for (int j = 0; j < pkg.getFuncs().size(); ++j) {
+                Function newFunc = get(results.get(n));
+                // the names are taken even for functions that are removed, as they are
+                // in a sequential run.
+                Map<String, String> renaming = gens.get(n++).renaming(varGen);
+                if (newFunc != null) {
+                    if (!renaming.isEmpty()) {
+                        newFunc = (Function) newFunc.accept(new Rename(renaming));
+                    }
+                    newFuncs.add(newFunc);
+                }
+            }
+            newPackages.add(new Package(pkg, pkg.getName(), pkg.getStructs(),
+                    pkg.getVars(), newFuncs, pkg.getSpAsserts()));
+        }
+        return prog.creator().streams(newPackages).create();
+    }
+
+    /** Returns the result of f, rethrowing whatever the task threw. */
+    static Function get(Future<Function> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -72,7 +72,7 @@ public class LowerToSketch extends MetaStage {
 
         prog = (Program) prog.accept(new AddPkgNameToNames());
 
-        prog = (Program) prog.accept(new MakeBodiesBlocks());
+        prog = FunctionParallelRunner.run(prog, new MakeBodiesBlocks(), varGen);
 
 
         if (!SketchOptions.getSingleton().feOpts.lowOverhead) {
@@ -82,9 +82,10 @@ public class LowerToSketch extends MetaStage {
 
         prog = (Program) prog.accept(new ExtractComplexFunParams(varGen));
         
-        prog = (Program) prog.accept(new SeparateInitializers());
-        
-        prog = (Program) prog.accept(new FlattenStmtBlocks());
+        prog =
+                FunctionParallelRunner.run(prog, new FusedStatementPass(
+                        new SeparateInitializers.Rule(), new FlattenStmtBlocks.Rule()),
+                        varGen);
         
 
         if (false) { // temporarily disabled in the main branch.
@@ -113,7 +114,8 @@ public class LowerToSketch extends MetaStage {
         prog = (Program) prog.accept(new EliminateMultiDimArrays(false, varGen));
 
 
-        prog = (Program) prog.accept(new DisambiguateUnaries(varGen));
+        prog =
+                FunctionParallelRunner.run(prog, new DisambiguateUnaries(varGen), varGen);
         // pass to eliminate immutable structs
         // prog.debugDump("Before EIS");
 
@@ -132,14 +134,15 @@ public class LowerToSketch extends MetaStage {
                 (Program) prog.accept(new EliminateNestedTupleReads(varGen,
                         new ExprConstInt(options.bndOpts.arrSize)));
         prog =
-                (Program) prog.accept(new ExtractRightShifts(varGen));
+                FunctionParallelRunner.run(prog, new ExtractRightShifts(varGen), varGen);
         // prog.debugDump();
         // dump (prog, "Extract Vectors in Casts:");
-        prog = (Program) prog.accept(new ExtractVectorsInCasts(varGen));
+        prog =
+                FunctionParallelRunner.run(prog, new ExtractVectorsInCasts(varGen), varGen);
 
 
 
-        prog = (Program) prog.accept(new SeparateInitializers());
+        prog = FunctionParallelRunner.run(prog, new SeparateInitializers(), varGen);
 
 
         
@@ -0,0 +1,627 @@
+package sketch.compiler.main.passes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.NullOutputStream;
+
+import sketch.compiler.ast.core.Function;
+import sketch.compiler.ast.core.Package;
+import sketch.compiler.ast.core.Program;
+import sketch.compiler.ast.core.exprs.ExprStar;
+import sketch.compiler.ast.core.stmts.Statement;
+import sketch.compiler.ast.core.stmts.StmtBlock;
+import sketch.compiler.main.PlatformLocalization;
+import sketch.compiler.main.cmdline.SketchOptions;
+import sketch.compiler.parser.IncludeCache;
+import sketch.compiler.passes.structure.CallGraph;
+import sketch.compiler.solvers.SolutionCache;
+
+/**
+ * Persistent cache of lowered functions. A function is keyed by a digest of its tree
+ * before lowering, the trees of all the functions it calls and of all the functions
+ * that call it, the declarations of the program (structs, globals and the signatures of
+ * all functions), the compiler version and all options except the debug ones. Callers
+ * are part of the key because lowering may rewrite a function according to how it is
+ * called. Source positions are part of the trees, since lowering copies them into
+ * assertion messages.<BR>
+ * Functions found in the cache get an empty body, and the program is lowered like that;
+ * the cached bodies then replace the lowered empty ones. A function is only left empty
+ * if everything it calls is found as well, so the functions that are lowered again still
+ * see all their calls. This is only right if the bodies being left out did not change
+ * how the declarations were lowered, so every entry also records a digest of the
+ * lowered declarations of the run that stored it, and if that does not match, the
+ * whole program is lowered again.<BR>
+ * Holes are stored under their position in the function before lowering, and renamed
+ * to the holes of the current program when read back, so the solution can be mapped
+ * back to the source as usual. Functions whose lowered body contains holes from
+ * anywhere else are not cached.
+ */
+public class LoweringCache {
+    static final String SUFFIX = ".fn.gz";
+    /** Holes are written as this, followed by their position in the function. */
+    static final String HOLE_MARK = "LC__";
+
+    /** The lowering whose results are cached. */
+    public static abstract class Lowering {
+        public abstract Program lower(Program prog);
+    }
+
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+        /** The function after lowering, with its holes named by position. */
+        public final Function lowered;
+        /** Digest of the lowered declarations of the program it was lowered with. */
+        public final String declarations;
+
+        public Entry(Function lowered, String declarations) {
+            this.lowered = lowered;
+            this.declarations = declarations;
+        }
+    }
+
+    final File dir;
+    final SketchOptions options;
+    /** Calls between the functions of the program being lowered. */
+    CallGraph callGraph;
+
+    public LoweringCache(File dir, SketchOptions options) {
+        this.dir = dir;
+        this.options = options;
+    }
+
+    /** What the key of a function is made of. */
+    static class FunctionInfo {
+        final Function fun;
+        final String digest;
+        /** Names of the holes of the function, in the order they were written. */
+        final List<String> holes = new ArrayList<String>();
+        String key;
+
+        FunctionInfo(Function fun) throws IOException {
+            this.fun = fun;
+            this.digest = digest(holes, fun);
+        }
+    }
+
+    /**
+     * Lowers prog with lowering, reusing the lowered bodies of the functions that are in
+     * the cache, and adds the functions that were lowered to the cache.
+     */
+    public Program lower(Program prog, Lowering lowering) {
+        Map<Function, FunctionInfo> infos;
+        try {
+            infos = functionInfos(prog);
+        } catch (IOException e) {
+            log(3, "can't compute the keys of the functions: " + e.getMessage());
+            return lowering.lower(prog);
+        } catch (RuntimeException e) {
+            // the call graph does not resolve every call before lowering.
+            log(3, "can't compute the keys of the functions: " + e.getMessage());
+            return lowering.lower(prog);
+        }
+        Map<Function, Entry> hits = new IdentityHashMap<Function, Entry>();
+        for (FunctionInfo info : infos.values()) {
+            Entry entry = lookup(info);
+            if (entry != null) {
+                hits.put(info.fun, entry);
+            }
+        }
+        keepCallersOfMisses(infos, hits);
+
+        if (!hits.isEmpty()) {
+            Program result = null;
+            try {
+                result = lowering.lower(stub(prog, hits.keySet()));
+            } catch (RuntimeException e) {
+                log(3, "lowering without the cached bodies failed: " + e.getMessage());
+            } catch (AssertionError e) {
+                // passes assert that calls resolve, which emptied bodies may break.
+                log(3, "lowering without the cached bodies failed: " + e.getMessage());
+            }
+            if (result != null) {
+                Program spliced = splice(prog, result, hits);
+                if (spliced != null) {
+                    log(1, "Reused " + hits.size() + " of " + infos.size() +
+                            " lowered functions");
+                    storeAll(prog, spliced, infos, hits);
+                    return spliced;
+                }
+            }
+            log(1, "The cached lowered functions don't fit the program; lowering it again");
+        }
+        Program result = lowering.lower(prog);
+        storeAll(prog, result, infos, Collections.<Function, Entry> emptyMap());
+        return result;
+    }
+
+    /**
+     * Drops the hits that call a function that is not a hit, since lowering that
+     * function may depend on their calls to it.
+     */
+    void keepCallersOfMisses(Map<Function, FunctionInfo> infos, Map<Function, Entry> hits)
+    {
+        List<Function> dropped = new ArrayList<Function>();
+        for (Function f : hits.keySet()) {
+            for (Function callee : callees(f)) {
+                if (infos.containsKey(callee) && !hits.containsKey(callee)) {
+                    dropped.add(f);
+                    break;
+                }
+            }
+        }
+        hits.keySet().removeAll(dropped);
+    }
+
+    /** The functions f calls, directly or not, and the specification it implements. */
+    List<Function> callees(Function f) {
+        List<Function> result =
+                new ArrayList<Function>(callGraph.closureTargetsFrom(f));
+        if (f.getSpecification() != null) {
+            Function spec = callGraph.getByName(f.getSpecification());
+            result.add(spec);
+            result.addAll(callGraph.closureTargetsFrom(spec));
+        }
+        return result;
+    }
+
+    /** The functions that call f, directly or not, and the sketches that implement them. */
+    List<Function> callers(Function f) {
+        List<Function> result = new ArrayList<Function>(callGraph.closureCallersTo(f));
+        List<Function> specs = new ArrayList<Function>(result);
+        specs.add(f);
+        for (Function spec : specs) {
+            if (spec.getSpecification() == null && callGraph.isSketchOrSpec(spec)) {
+                Function sketch = callGraph.getSketchOfSpec(spec);
+                result.add(sketch);
+                result.addAll(callGraph.closureCallersTo(sketch));
+            }
+        }
+        return result;
+    }
+
+    Map<Function, FunctionInfo> functionInfos(Program prog) throws IOException {
+        Map<Function, FunctionInfo> infos = new IdentityHashMap<Function, FunctionInfo>();
+        List<FunctionInfo> all = new ArrayList<FunctionInfo>();
+        for (Package pkg : prog.getPackages()) {
+            for (Function f : pkg.getFuncs()) {
+                FunctionInfo info = new FunctionInfo(f);
+                all.add(info);
+                if (f.getBody() != null) {
+                    infos.put(f, info);
+                }
+            }
+        }
+        Map<Function, FunctionInfo> byFun = new IdentityHashMap<Function, FunctionInfo>();
+        for (FunctionInfo info : all) {
+            byFun.put(info.fun, info);
+        }
+
+        String settings = settings();
+        String declarations = declarations(prog);
+        CallGraph cg = CallGraph.of(prog);
+        callGraph = cg;
+        Comparator<FunctionInfo> byDigest = new Comparator<FunctionInfo>() {
+            public int compare(FunctionInfo a, FunctionInfo b) {
+                return a.digest.compareTo(b.digest);
+            }
+        };
+        for (FunctionInfo info : infos.values()) {
+            List<FunctionInfo> callees = new ArrayList<FunctionInfo>();
+            for (Function callee : callees(info.fun)) {
+                callees.add(byFun.get(callee));
+            }
+            List<FunctionInfo> callers = new ArrayList<FunctionInfo>();
+            for (Function caller : callers(info.fun)) {
+                callers.add(byFun.get(caller));
+            }
+            Collections.sort(callees, byDigest);
+            Collections.sort(callers, byDigest);
+            StringBuilder sb = new StringBuilder();
+            sb.append(settings).append('\0').append(declarations).append('\0');
+            sb.append(info.digest).append('\0');
+            for (FunctionInfo dep : callees) {
+                sb.append(dep.digest).append('\0');
+            }
+            // callers and callees are told apart, as a function may be either.
+            sb.append('\0');
+            for (FunctionInfo dep : callers) {
+                sb.append(dep.digest).append('\0');
+            }
+            MessageDigest md = SolutionCache.newDigest();
+            md.update(sb.toString().getBytes("UTF-8"));
+            info.key = SolutionCache.toKey(md);
+        }
+        return infos;
+    }
+
+    /** Digest of the compiler version and the options that can affect lowering. */
+    String settings() throws IOException {
+        MessageDigest md = SolutionCache.newDigest();
+        md.update(PlatformLocalization.getLocalization().version.getBytes("UTF-8"));
+        List<String> none = Collections.emptyList();
+        SolutionCache.addSettings(md, none, options.bndOpts);
+        SolutionCache.addSettings(md, none, options.feOpts);
+        SolutionCache.addSettings(md, none, options.semOpts);
+        SolutionCache.addSettings(md, none, options.solverOpts);
+        SolutionCache.addSettings(md, none, options.spmdOpts);
+        return SolutionCache.toKey(md);
+    }
+
+    /**
+     * Digest of everything in prog except the bodies of the functions, with holes named
+     * by position. Each declaration is written on its own, so that the digest does not
+     * depend on which nodes the declarations share.
+     */
+    static String declarations(Program prog) throws IOException {
+        List<Object> decls = new ArrayList<Object>();
+        for (Package pkg : prog.getPackages()) {
+            decls.add(pkg.getName());
+            decls.addAll(pkg.getStructs());
+            decls.addAll(pkg.getVars());
+            decls.addAll(pkg.getSpAsserts());
+            for (Function f : pkg.getFuncs()) {
+                Function signature = f.creator().body(null).create();
+                // the origin is the function before preprocessing, body and all.
+                signature.resetOrigin();
+                decls.add(signature);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Object decl : decls) {
+            sb.append(digest(new ArrayList<String>(), decl)).append('\0');
+        }
+        MessageDigest md = SolutionCache.newDigest();
+        md.update(sb.toString().getBytes("UTF-8"));
+        return SolutionCache.toKey(md);
+    }
+
+    /** Returns the digest of obj, adding the holes it contains to holes. */
+    static String digest(List<String> holes, Object obj) throws IOException {
+        MessageDigest md = SolutionCache.newDigest();
+        ObjectOutputStream out =
+                new HoleNamingOutputStream(new DigestOutputStream(
+                        NullOutputStream.NULL_OUTPUT_STREAM, md), holes, true);
+        try {
+            out.writeObject(obj);
+        } finally {
+            out.close();
+        }
+        return SolutionCache.toKey(md);
+    }
+
+    /** Returns prog with the bodies of the given functions left empty. */
+    static Program stub(Program prog, Set<Function> stubbed) {
+        List<Package> packages = new ArrayList<Package>();
+        for (Package pkg : prog.getPackages()) {
+            List<Function> funcs = new ArrayList<Function>();
+            for (Function f : pkg.getFuncs()) {
+                if (stubbed.contains(f)) {
+                    f =
+                            f.creator().body(
+                                    new StmtBlock(f.getBody(),
+                                            Collections.<Statement> emptyList())).create();
+                }
+                funcs.add(f);
+            }
+            packages.add(new Package(pkg, pkg.getName(), pkg.getStructs(), pkg.getVars(),
+                    funcs, pkg.getSpAsserts()));
+        }
+        return prog.creator().streams(packages).create();
+    }
+
+    /**
+     * Returns the function that f is lowered to in lowered, or null if there is not
+     * exactly one. Lowering adds the package name to function names when there are
+     * several packages.
+     */
+    static Function findLowered(Program prog, Program lowered, Function f) {
+        String name =
+                prog.getPackages().size() > 1 ? f.getName() + "_" + f.getPkg()
+                        : f.getName();
+        Function found = null;
+        for (Package pkg : lowered.getPackages()) {
+            for (Function g : pkg.getFuncs()) {
+                if (name.equals(g.getName())) {
+                    if (found != null) {
+                        return null;
+                    }
+                    found = g;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Puts the cached bodies into the functions that were lowered with empty bodies, or
+     * returns null if the result does not have the declarations the entries were stored
+     * with. Lowering drops functions that are no longer called, so cached functions
+     * that are only called from cached bodies are put back whole, after the function
+     * that precedes them in prog.
+     */
+    Program splice(Program prog, Program lowered, Map<Function, Entry> hits) {
+        List<Function> funcs = new ArrayList<Function>();
+        for (Package pkg : prog.getPackages()) {
+            funcs.addAll(pkg.getFuncs());
+        }
+        Map<Function, Function> loweredOf = new IdentityHashMap<Function, Function>();
+        List<Function> work = new ArrayList<Function>();
+        for (Function f : funcs) {
+            Function l = findLowered(prog, lowered, f);
+            if (l != null) {
+                loweredOf.put(f, l);
+                work.add(f);
+            }
+        }
+        Set<Function> restored =
+                Collections.newSetFromMap(new IdentityHashMap<Function, Boolean>());
+        while (!work.isEmpty()) {
+            Function f = work.remove(work.size() - 1);
+            List<Function> callees =
+                    new ArrayList<Function>(callGraph.targetsFrom(f));
+            if (f.getSpecification() != null) {
+                callees.add(callGraph.getByName(f.getSpecification()));
+            }
+            for (Function g : callees) {
+                if (!loweredOf.containsKey(g) && hits.containsKey(g)) {
+                    loweredOf.put(g, hits.get(g).lowered);
+                    restored.add(g);
+                    work.add(g);
+                }
+            }
+        }
+
+        // where each function goes: hits get their cached body, and restored functions
+        // follow the previous function of prog that is in the result.
+        Map<Function, Function> replace = new IdentityHashMap<Function, Function>();
+        Map<Function, List<Function>> after = new IdentityHashMap<Function, List<Function>>();
+        List<Function> first = new ArrayList<Function>();
+        Function anchor = null;
+        for (Function f : funcs) {
+            Function l = loweredOf.get(f);
+            if (l == null) {
+                continue;
+            }
+            if (restored.contains(f)) {
+                List<Function> list = first;
+                if (anchor != null) {
+                    list = after.get(anchor);
+                    if (list == null) {
+                        list = new ArrayList<Function>();
+                        after.put(anchor, list);
+                    }
+                }
+                list.add(l);
+            } else {
+                if (hits.containsKey(f)) {
+                    replace.put(l, l.creator().body(hits.get(f).lowered.getBody()).create());
+                }
+                anchor = l;
+            }
+        }
+
+        List<Package> packages = new ArrayList<Package>();
+        for (Package pkg : lowered.getPackages()) {
+            List<Function> newFuncs = new ArrayList<Function>();
+            if (packages.isEmpty()) {
+                newFuncs.addAll(first);
+            }
+            for (Function f : pkg.getFuncs()) {
+                newFuncs.add(replace.containsKey(f) ? replace.get(f) : f);
+                if (after.containsKey(f)) {
+                    newFuncs.addAll(after.get(f));
+                }
+            }
+            packages.add(new Package(pkg, pkg.getName(), pkg.getStructs(), pkg.getVars(),
+                    newFuncs, pkg.getSpAsserts()));
+        }
+        Program result = lowered.creator().streams(packages).create();
+
+        String declarations;
+        try {
+            declarations = declarations(result);
+        } catch (IOException e) {
+            return null;
+        }
+        for (Function f : funcs) {
+            if (hits.containsKey(f) && loweredOf.containsKey(f) &&
+                    !declarations.equals(hits.get(f).declarations))
+            {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /** Stores the lowered form of every function of prog that was not a hit. */
+    void storeAll(Program prog, Program lowered, Map<Function, FunctionInfo> infos,
+            Map<Function, Entry> hits)
+    {
+        String declarations;
+        try {
+            declarations = declarations(lowered);
+        } catch (IOException e) {
+            log(3, "can't compute the lowered declarations: " + e.getMessage());
+            return;
+        }
+        for (FunctionInfo info : infos.values()) {
+            if (hits.containsKey(info.fun)) {
+                continue;
+            }
+            Function f = findLowered(prog, lowered, info.fun);
+            if (f == null) {
+                continue;
+            }
+            try {
+                store(info, new Entry(f, declarations));
+            } catch (IOException e) {
+                log(3, "couldn't add " + info.fun.getName() + " to the lowering cache: " +
+                        e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the entry for the function, with its holes renamed to those of the
+     * function, or null if there is none or it can not be read.
+     */
+    Entry lookup(FunctionInfo info) {
+        File f = new File(dir, info.key + SUFFIX);
+        if (!f.isFile()) {
+            return null;
+        }
+        try {
+            ObjectInputStream in =
+                    new HoleRenamingInputStream(new GZIPInputStream(
+                            new BufferedInputStream(new FileInputStream(f))), info.holes);
+            try {
+                return (Entry) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the entry of a function. The entry is written to a temporary file and
+     * renamed into place, so several compilers can share a cache.
+     */
+    void store(FunctionInfo info, Entry entry) throws IOException {
+        if (!(dir.mkdirs() || dir.isDirectory())) {
+            throw new IOException("Can not create directory " + dir.getAbsolutePath());
+        }
+        File tmp =
+                new File(dir, info.key + ".part-" +
+                        Integer.toHexString(new Random().nextInt()));
+        try {
+            ObjectOutputStream out =
+                    new HoleNamingOutputStream(new GZIPOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(tmp))),
+                            info.holes, false);
+            try {
+                out.writeObject(entry);
+            } finally {
+                out.close();
+            }
+            File f = new File(dir, info.key + SUFFIX);
+            if (!tmp.renameTo(f) && !f.isFile()) {
+                throw new IOException("Can not create " + f.getAbsolutePath());
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    void log(int level, String msg) {
+        if (options.debugOpts.verbosity >= level) {
+            System.out.println("[LoweringCache] " + msg);
+        }
+    }
+
+    /**
+     * Writes holes under their position in a list of hole names. Holes that lowering
+     * derives from a hole are named after it with a suffix starting with '_'.
+     */
+    static class HoleNamingOutputStream extends IncludeCache.AstOutputStream {
+        final List<String> holes;
+        /** Whether holes that are not in the list are added to it. */
+        final boolean addHoles;
+
+        HoleNamingOutputStream(OutputStream out, List<String> holes, boolean addHoles)
+                throws IOException
+        {
+            super(out);
+            this.holes = holes;
+            this.addHoles = addHoles;
+        }
+
+        String position(String name) throws IOException {
+            int best = holes.indexOf(name);
+            if (best >= 0) {
+                return "" + best;
+            }
+            if (addHoles) {
+                holes.add(name);
+                return "" + (holes.size() - 1);
+            }
+            for (int i = 0; i < holes.size(); ++i) {
+                String h = holes.get(i);
+                if (name.startsWith(h + "_") &&
+                        (best < 0 || h.length() > holes.get(best).length()))
+                {
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                throw new IOException("hole " + name + " is not from this function");
+            }
+            return best + name.substring(holes.get(best).length());
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof ExprStar) {
+                ExprStar es = (ExprStar) obj;
+                ExprStar renamed = new ExprStar(es, es.isGlobal);
+                renamed.setSname(HOLE_MARK + position(es.getSname()));
+                return renamed;
+            }
+            return super.replaceObject(obj);
+        }
+    }
+
+    /** Reads holes written by HoleNamingOutputStream back under their names in a list. */
+    static class HoleRenamingInputStream extends IncludeCache.AstInputStream {
+        final List<String> holes;
+
+        HoleRenamingInputStream(InputStream in, List<String> holes) throws IOException {
+            super(in);
+            this.holes = holes;
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            obj = super.resolveObject(obj);
+            if (obj instanceof ExprStar) {
+                ExprStar es = (ExprStar) obj;
+                String name = es.getSname();
+                if (name.startsWith(HOLE_MARK)) {
+                    int end = HOLE_MARK.length();
+                    while (end < name.length() && Character.isDigit(name.charAt(end))) {
+                        ++end;
+                    }
+                    int pos = Integer.parseInt(name.substring(HOLE_MARK.length(), end));
+                    if (pos >= holes.size()) {
+                        throw new IOException("no hole at position " + pos);
+                    }
+                    es.setSname(holes.get(pos) + name.substring(end));
+                }
+            }
+            return obj;
+        }
+    }
+}
@@ -40,7 +40,20 @@ public abstract class MetaStage extends FEReplacer {
             if (options.debugOpts.dumpBefore.contains(this.name)) {
                 prog.debugDump("Before stage " + this.name);
             }
-            Program result = visitProgramInner(prog);
+            Program result;
+            PassProfiler profiler = PassProfiler.get();
+            if (profiler == null) {
+                result = visitProgramInner(prog);
+            } else {
+                PassProfiler.Frame frame = profiler.begin(this, "stage " + name, prog);
+                try {
+                    result = visitProgramInner(prog);
+                } catch (RuntimeException e) {
+                    profiler.abort(frame);
+                    throw e;
+                }
+                profiler.end(frame, result);
+            }
             if (options.debugOpts.dumpAfter.contains(this.name)) {
                 result.debugDump("After stage " + this.name);
             }
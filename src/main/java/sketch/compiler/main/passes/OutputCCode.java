@@ -1,8 +1,11 @@
 package sketch.compiler.main.passes;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
 
 import sketch.compiler.ast.core.Program;
 import sketch.compiler.ast.core.TempVarGen;
@@ -10,6 +13,7 @@ import sketch.compiler.codegenerators.NodesToCUDA;
 import sketch.compiler.codegenerators.NodesToSuperCTest;
 import sketch.compiler.codegenerators.NodesToSuperCpp;
 import sketch.compiler.codegenerators.NodesToSuperH;
+import sketch.compiler.codegenerators.tojava.NodesToJava;
 import sketch.compiler.main.cmdline.SketchOptions;
 import sketch.compiler.main.seq.SequentialSketchMain;
 import sketch.compiler.passes.lowering.EliminateMultiDimArrays;
@@ -53,37 +57,23 @@ public class OutputCCode extends MetaStage {
             prog.accept(new SimpleCodePrinter());
         } else if (!options.feOpts.noOutputPrint) {
             String resultFile = SequentialSketchMain.getOutputFileName(options);
-            String hcode = (String) pprog.accept(new NodesToSuperH(resultFile));
-            String ccode = (String) pprog.accept(new NodesToSuperCpp(varGen, resultFile));
-            if (new ContainsCudaCode().run(prog)) {
-                String cucode =
-                        (String) prog.accept(new NodesToCUDA(varGen,
-                                options.feOpts.outputDir + resultFile + ".cu",
-                                tprintPyStyle));
-                printDebug("CUDA code", cucode);
-            }
             try {
-                {
-                    Writer outWriter =
-                            new FileWriter(options.feOpts.outputDir + resultFile + ".h");
-                    outWriter.write(hcode);
-                    outWriter.flush();
-                    outWriter.close();
-                    outWriter =
-                            new FileWriter(options.feOpts.outputDir + resultFile + ".cpp");
-                    outWriter.write(ccode);
-                    outWriter.flush();
-                    outWriter.close();
+                Map<String, String> typeVars = new HashMap<String, String>();
+                writeCode(pprog, new NodesToSuperH(resultFile, typeVars),
+                        options.feOpts.outputDir + resultFile + ".h");
+                writeCode(pprog, new NodesToSuperCpp(varGen, resultFile, typeVars),
+                        options.feOpts.outputDir + resultFile + ".cpp");
+                if (new ContainsCudaCode().run(prog)) {
+                    String cucode =
+                            (String) prog.accept(new NodesToCUDA(varGen,
+                                    options.feOpts.outputDir + resultFile + ".cu",
+                                    tprintPyStyle));
+                    printDebug("CUDA code", cucode);
                 }
                 if (options.feOpts.outputTest) {
-                    String testcode =
-                            (String) pprog.accept(new NodesToSuperCTest(resultFile));
                     final String outputFname =
                             options.feOpts.outputDir + resultFile + "_test.cpp";
-                    Writer outWriter = new FileWriter(outputFname);
-                    outWriter.write(testcode);
-                    outWriter.flush();
-                    outWriter.close();
+                    writeCode(pprog, new NodesToSuperCTest(resultFile), outputFname);
                     writeRunScript(options.feOpts.outputDir + "script", resultFile,
                             resultFile + "_test.cpp\n");
                     printNote("Wrote test harness to", outputFname);
@@ -100,6 +90,20 @@ public class OutputCCode extends MetaStage {
         return prog;
     }
 
+    /**
+     * Writes the code generator produces for prog to the file name as it is generated,
+     * rather than building all of it in memory first.
+     */
+    void writeCode(Program prog, NodesToJava generator, String name) throws IOException
+    {
+        Writer outWriter = new BufferedWriter(new FileWriter(name));
+        try {
+            generator.generate(prog, outWriter);
+        } finally {
+            outWriter.close();
+        }
+    }
+
     void writeRunScript(String name, String resultFile, String drivername)
             throws IOException
     {
@@ -1,5 +1,6 @@
 package sketch.compiler.main.passes;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -13,6 +14,7 @@ import sketch.compiler.ast.core.TempVarGen;
 import sketch.compiler.ast.core.exprs.ExprConstChar;
 import sketch.compiler.ast.core.typs.StructDef;
 import sketch.compiler.main.cmdline.SketchOptions;
+import sketch.compiler.parser.IncludeCache;
 import sketch.compiler.parser.StreamItParser;
 import sketch.util.exceptions.ProgramParseException;
 
@@ -36,9 +38,14 @@ public class ParseProgramStage extends MetaStage {
         boolean useCpp = true;
         List<String> cppDefs = Arrays.asList(options.feOpts.def);
         Set<Directive> pragmas = new HashSet<Directive>();
+        IncludeCache includeCache = null;
+        if (options.feOpts.parseCache != null) {
+            includeCache = new IncludeCache(new File(options.feOpts.parseCache));
+        }
 
         for (String inputFile : inputFiles) {
             StreamItParser parser = new StreamItParser(inputFile, useCpp, cppDefs);
+            parser.setIncludeCache(includeCache);
             Program pprog = parser.parse();
             if (pprog == null)
                 return null;
@@ -0,0 +1,413 @@
+package sketch.compiler.main.passes;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import sketch.compiler.ast.core.FEReplacer;
+import sketch.compiler.ast.core.FEVisitor;
+import sketch.compiler.ast.core.Program;
+import sketch.compiler.ast.core.exprs.Expression;
+import sketch.compiler.ast.core.stmts.Statement;
+import sketch.compiler.main.CompilationContext;
+
+/**
+ * Records how long each pass over the whole program takes, how much it allocates, and
+ * how many statements and expressions the program has before and after it. Passes are
+ * timed by Program.accept and MetaStage.visitProgram while a profiler is active; a pass
+ * that runs other passes is charged both with and without the time of those passes
+ * ("total" and "self"). Time spent counting nodes is not charged to any pass.<BR>
+ * It can also measure the heap taken by the program after each stage, with
+ * {@link AstFootprint}; that is not charged to any pass either.<BR>
+ * The profiler belongs to the compilation context of the thread that started it, and
+ * only that thread is profiled, so compilations that run side by side in one JVM each
+ * have their own profile.
+ */
+public class PassProfiler {
+    final Thread owner;
+    final ThreadMXBean threads;
+    final boolean allocation;
+    final List<Frame> stack = new ArrayList<Frame>();
+    final List<Frame> runs = new ArrayList<Frame>();
+    final Map<String, Summary> summaries = new LinkedHashMap<String, Summary>();
+    final boolean measureHeap;
+    final List<HeapSample> heap = new ArrayList<HeapSample>();
+    final long start = System.nanoTime();
+
+    Program lastCounted = null;
+    int lastCount;
+
+    PassProfiler(boolean measureHeap) {
+        this.measureHeap = measureHeap;
+        owner = Thread.currentThread();
+        threads = ManagementFactory.getThreadMXBean();
+        if (threads.isThreadCpuTimeSupported() && !threads.isThreadCpuTimeEnabled()) {
+            threads.setThreadCpuTimeEnabled(true);
+        }
+        allocation =
+                threads instanceof com.sun.management.ThreadMXBean &&
+                        ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+        if (allocation) {
+            ((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    /** Starts profiling passes run by the current thread. */
+    public static PassProfiler start() {
+        return start(false);
+    }
+
+    /**
+     * Starts profiling passes run by the current thread, and if measureHeap, measuring
+     * the program after each stage.
+     */
+    public static PassProfiler start(boolean measureHeap) {
+        PassProfiler p = new PassProfiler(measureHeap);
+        CompilationContext.current().setProfiler(p);
+        return p;
+    }
+
+    /**
+     * Stops profiling the compilation of the current thread and returns the profiler
+     * that was active, if any.
+     */
+    public static PassProfiler stop() {
+        CompilationContext ctx = CompilationContext.current();
+        PassProfiler p = ctx.getProfiler();
+        ctx.setProfiler(null);
+        return p;
+    }
+
+    /**
+     * Returns the profiler of the current compilation if it profiles the current
+     * thread, otherwise null.
+     */
+    public static PassProfiler get() {
+        PassProfiler p = CompilationContext.current().getProfiler();
+        return (p != null && p.owner == Thread.currentThread()) ? p : null;
+    }
+
+    /** One run of a pass. */
+    public static class Frame {
+        final String name;
+        final FEVisitor pass;
+        final int depth;
+        final int nodesBefore;
+        int nodesAfter = -1;
+        long wall, cpu, alloc;
+        long childWall, childCpu, childAlloc;
+        // cost of counting nodes while this frame was open.
+        long overheadWall, overheadCpu, overheadAlloc;
+
+        Frame(String name, FEVisitor pass, int depth, int nodesBefore) {
+            this.name = name;
+            this.pass = pass;
+            this.depth = depth;
+            this.nodesBefore = nodesBefore;
+        }
+    }
+
+    /** The heap taken by the program a stage returned. */
+    static class HeapSample {
+        final String stage;
+        final AstFootprint footprint;
+
+        HeapSample(String stage, AstFootprint footprint) {
+            this.stage = stage;
+            this.footprint = footprint;
+        }
+    }
+
+    /** Totals over all runs of passes with the same name. */
+    static class Summary {
+        final String name;
+        int runs;
+        long wall, selfWall, cpu, selfCpu, alloc, selfAlloc;
+        long nodeDelta;
+
+        Summary(String name) {
+            this.name = name;
+        }
+    }
+
+    public static String passName(FEVisitor pass) {
+        Class<?> c = pass.getClass();
+        String name = c.getSimpleName();
+        return name.length() > 0 ? name : c.getName();
+    }
+
+    /**
+     * Called before pass visits prog. Returns null if the pass is already being timed,
+     * as happens when Program.accept calls MetaStage.visitProgram.
+     */
+    public Frame begin(FEVisitor pass, String name, Program prog) {
+        if (!stack.isEmpty() && stack.get(stack.size() - 1).pass == pass) {
+            return null;
+        }
+        int nodes = countNodes(prog);
+        Frame f = new Frame(name, pass, stack.size(), nodes);
+        stack.add(f);
+        // the frame starts with the negated counters, so that adding the counters at
+        // the end gives the difference.
+        f.wall = -System.nanoTime();
+        f.cpu = -cpuTime();
+        f.alloc = -allocatedBytes();
+        return f;
+    }
+
+    /** Called after the pass of f returns result. f may be null. */
+    public void end(Frame f, Object result) {
+        if (f == null) {
+            return;
+        }
+        f.wall += System.nanoTime();
+        f.cpu += cpuTime();
+        f.alloc += allocatedBytes();
+        f.wall -= f.overheadWall;
+        f.cpu -= f.overheadCpu;
+        f.alloc -= f.overheadAlloc;
+        finish(f, result instanceof Program ? (Program) result : null);
+        if (measureHeap && f.pass instanceof MetaStage && result instanceof Program) {
+            measureHeap(f.name, (Program) result);
+        }
+    }
+
+    void measureHeap(String stage, Program prog) {
+        long wall = System.nanoTime();
+        long cpu = cpuTime();
+        long alloc = allocatedBytes();
+        heap.add(new HeapSample(stage, AstFootprint.measure(prog)));
+        wall = System.nanoTime() - wall;
+        cpu = cpuTime() - cpu;
+        alloc = allocatedBytes() - alloc;
+        for (Frame f : stack) {
+            f.overheadWall += wall;
+            f.overheadCpu += cpu;
+            f.overheadAlloc += alloc;
+        }
+    }
+
+    /** Called when the pass of f throws. f may be null. */
+    public void abort(Frame f) {
+        if (f != null) {
+            end(f, null);
+        }
+    }
+
+    void finish(Frame f, Program result) {
+        // passes may be left without end() when an exception skips them.
+        int i = stack.lastIndexOf(f);
+        while (stack.size() > i) {
+            stack.remove(stack.size() - 1);
+        }
+        if (result != null) {
+            f.nodesAfter = countNodes(result);
+        }
+        if (!stack.isEmpty()) {
+            Frame parent = stack.get(stack.size() - 1);
+            parent.childWall += f.wall;
+            parent.childCpu += f.cpu;
+            parent.childAlloc += f.alloc;
+        }
+        runs.add(f);
+        Summary s = summaries.get(f.name);
+        if (s == null) {
+            s = new Summary(f.name);
+            summaries.put(f.name, s);
+        }
+        s.runs++;
+        s.wall += f.wall;
+        s.cpu += f.cpu;
+        s.alloc += f.alloc;
+        s.selfWall += f.wall - f.childWall;
+        s.selfCpu += f.cpu - f.childCpu;
+        s.selfAlloc += f.alloc - f.childAlloc;
+        if (f.nodesAfter >= 0 && f.nodesBefore >= 0) {
+            s.nodeDelta += f.nodesAfter - f.nodesBefore;
+        }
+    }
+
+    long cpuTime() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime()
+                : 0;
+    }
+
+    long allocatedBytes() {
+        if (!allocation) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(owner.getId());
+    }
+
+    int countNodes(Program prog) {
+        if (prog == lastCounted) {
+            return lastCount;
+        }
+        long wall = System.nanoTime();
+        long cpu = cpuTime();
+        long alloc = allocatedBytes();
+        NodeCounter counter = new NodeCounter();
+        try {
+            // not prog.accept(), which would profile the counter.
+            counter.visitProgram(prog);
+        } catch (RuntimeException e) {
+            // some intermediate programs can not be visited by a plain FEReplacer.
+            counter.count = -1;
+        }
+        wall = System.nanoTime() - wall;
+        cpu = cpuTime() - cpu;
+        alloc = allocatedBytes() - alloc;
+        for (Frame f : stack) {
+            f.overheadWall += wall;
+            f.overheadCpu += cpu;
+            f.overheadAlloc += alloc;
+        }
+        lastCounted = prog;
+        lastCount = counter.count;
+        return lastCount;
+    }
+
+    /** Counts the statements and expressions of a program without changing it. */
+    static class NodeCounter extends FEReplacer {
+        int count = 0;
+
+        @Override
+        protected void doStatement(Statement stmt) {
+            count++;
+            super.doStatement(stmt);
+        }
+
+        @Override
+        protected Expression doExpression(Expression expr) {
+            if (expr != null) {
+                count++;
+            }
+            return super.doExpression(expr);
+        }
+    }
+
+    List<Summary> sortedSummaries() {
+        List<Summary> result = new ArrayList<Summary>(summaries.values());
+        Collections.sort(result, new Comparator<Summary>() {
+            public int compare(Summary a, Summary b) {
+                return Long.compare(b.selfWall, a.selfWall);
+            }
+        });
+        return result;
+    }
+
+    static String ms(long nanos) {
+        return String.format("%.1f", nanos / 1e6);
+    }
+
+    static String mb(long bytes) {
+        return String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    /** Prints one line per pass, sorted by the time spent in the pass itself. */
+    public void report(PrintStream out) {
+        long total = System.nanoTime() - start;
+        out.println("Pass profile (" + runs.size() + " runs, " + ms(total) + " ms):");
+        out.println(String.format("%10s %10s %10s %10s %10s %6s %9s  %s", "self ms",
+                "total ms", "self cpu", "self MB", "total MB", "runs", "nodes +/-",
+                "pass"));
+        for (Summary s : sortedSummaries()) {
+            out.println(String.format("%10s %10s %10s %10s %10s %6d %9d  %s",
+                    ms(s.selfWall), ms(s.wall), ms(s.selfCpu), mb(s.selfAlloc),
+                    mb(s.alloc), s.runs, s.nodeDelta, s.name));
+        }
+        if (!allocation) {
+            out.println("(allocation is not measured on this JVM)");
+        }
+    }
+
+    /**
+     * Prints the heap taken by the program after each stage, in the order the stages
+     * finished: all of it, its nodes, and the source contexts of the nodes.
+     */
+    public void reportHeap(PrintStream out) {
+        out.println("AST heap after each stage (estimated):");
+        out.println(String.format("%10s %10s %10s %10s %10s %10s  %s", "objects",
+                "total MB", "nodes", "nodes MB", "contexts", "ctx MB", "stage"));
+        for (HeapSample h : heap) {
+            AstFootprint f = h.footprint;
+            out.println(String.format("%10d %10s %10d %10s %10d %10s  %s", f.objects,
+                    mb(f.bytes), f.nodes, mb(f.nodeBytes), f.contexts,
+                    mb(f.contextBytes), h.stage));
+        }
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Writes the summaries, every run in the order the runs finished, and the heap
+     * samples if any, as JSON. Times are in nanoseconds and sizes in bytes.
+     */
+    public void writeJson(File file) throws FileNotFoundException {
+        PrintStream out = new PrintStream(file);
+        try {
+            out.println("{");
+            out.println("  \"totalNanos\": " + (System.nanoTime() - start) + ",");
+            out.println("  \"allocationMeasured\": " + allocation + ",");
+            out.println("  \"passes\": [");
+            List<Summary> sorted = sortedSummaries();
+            for (int i = 0; i < sorted.size(); ++i) {
+                Summary s = sorted.get(i);
+                out.print("    {\"name\": " + quote(s.name) + ", \"runs\": " + s.runs +
+                        ", \"wallNanos\": " + s.wall + ", \"selfWallNanos\": " +
+                        s.selfWall + ", \"cpuNanos\": " + s.cpu +
+                        ", \"selfCpuNanos\": " + s.selfCpu + ", \"allocBytes\": " +
+                        s.alloc + ", \"selfAllocBytes\": " + s.selfAlloc +
+                        ", \"nodeDelta\": " + s.nodeDelta + "}");
+                out.println(i + 1 < sorted.size() ? "," : "");
+            }
+            out.println("  ],");
+            out.println("  \"runs\": [");
+            for (int i = 0; i < runs.size(); ++i) {
+                Frame f = runs.get(i);
+                out.print("    {\"name\": " + quote(f.name) + ", \"depth\": " + f.depth +
+                        ", \"wallNanos\": " + f.wall + ", \"selfWallNanos\": " +
+                        (f.wall - f.childWall) + ", \"cpuNanos\": " + f.cpu +
+                        ", \"allocBytes\": " + f.alloc + ", \"nodesBefore\": " +
+                        f.nodesBefore + ", \"nodesAfter\": " + f.nodesAfter + "}");
+                out.println(i + 1 < runs.size() ? "," : "");
+            }
+            out.println("  ],");
+            out.println("  \"heap\": [");
+            for (int i = 0; i < heap.size(); ++i) {
+                HeapSample h = heap.get(i);
+                AstFootprint f = h.footprint;
+                out.print("    {\"stage\": " + quote(h.stage) + ", \"objects\": " +
+                        f.objects + ", \"bytes\": " + f.bytes + ", \"nodes\": " +
+                        f.nodes + ", \"nodeBytes\": " + f.nodeBytes +
+                        ", \"contexts\": " + f.contexts + ", \"contextBytes\": " +
+                        f.contextBytes + "}");
+                out.println(i + 1 < heap.size() ? "," : "");
+            }
+            out.println("  ]");
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+}
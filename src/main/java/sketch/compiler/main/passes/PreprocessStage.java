@@ -49,10 +49,11 @@ public class PreprocessStage extends MetaStage {
                 (options.solverOpts.reorderEncoding == ReorderEncoding.exponential);
 
 
-        prog = (Program) prog.accept(new SeparateInitializers());
-
-		// prog.debugDump("************************************** Before BlockifyRewriteableStmts");
-        prog = (Program) prog.accept(new BlockifyRewriteableStmts());
+        // SeparateInitializers and BlockifyRewriteableStmts in one traversal.
+        prog =
+                FunctionParallelRunner.run(prog, new FusedStatementPass(
+                        new SeparateInitializers.Rule(),
+                        new BlockifyRewriteableStmts.Rule()), varGen);
 
 		// prog.debugDump("************************************** After BlockifyRewriteableStmts");
         prog = (Program) prog.accept(new ReplaceMinLoops(varGen));
@@ -94,7 +95,7 @@ public class PreprocessStage extends MetaStage {
 
 		// prog.debugDump("************************************** 5");
 
-        prog = (Program) prog.accept(new DisambiguateUnaries(varGen));
+        prog = FunctionParallelRunner.run(prog, new DisambiguateUnaries(varGen), varGen);
         
 
 
@@ -0,0 +1,231 @@
+package sketch.compiler.main.seq;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sketch.compiler.main.CompilationContext;
+import sketch.compiler.main.PlatformLocalization;
+import sketch.compiler.solvers.SolverSlots;
+import sketch.util.exceptions.SketchException;
+import sketch.util.exceptions.SketchExitException;
+
+/**
+ * Compiles many sketches concurrently in one JVM, so that a batch pays for class loading
+ * and JIT warm-up once instead of once per sketch. Each line of the job file is the
+ * command line of one ordinary sketch run; blank lines and lines starting with # are
+ * skipped. Every job gets its own CompilationContext, and its own temp directory unless
+ * it names one with --fe-output. At most --solvers backend solvers run at the same
+ * time, however many jobs are compiling. The output of a job is printed in one piece
+ * when the job finishes.
+ *
+ * <pre>
+ * usage: BatchSketchMain [--jobs N] [--solvers M] JOBFILE
+ * </pre>
+ */
+public class BatchSketchMain {
+    /** Where System.out and System.err go for the current job, if it runs in a job. */
+    private static final InheritableThreadLocal<ByteArrayOutputStream> jobOutput =
+            new InheritableThreadLocal<ByteArrayOutputStream>();
+
+    /** Writes to the output of the current job, or else to the original stream. */
+    private static class JobOutputStream extends OutputStream {
+        private final OutputStream original;
+
+        JobOutputStream(OutputStream original) {
+            this.original = original;
+        }
+
+        private OutputStream target() {
+            ByteArrayOutputStream out = jobOutput.get();
+            return out != null ? out : original;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+
+    static class Job implements Runnable {
+        final int id;
+        final String[] args;
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        boolean succeeded = false;
+        long millis;
+
+        Job(int id, String[] args) {
+            this.id = id;
+            this.args = args;
+        }
+
+        String name() {
+            return args.length > 0 ? args[args.length - 1] : "<empty>";
+        }
+
+        /**
+         * Jobs compiling the same sketch would otherwise share, and overwrite, the
+         * files they exchange with the solver.
+         */
+        String[] argsWithOutput() {
+            for (String a : args) {
+                if (a.equals("--fe-output") || a.startsWith("--fe-output=")) {
+                    return args;
+                }
+            }
+            String base = name().replaceAll(".*[/\\\\]", "").replaceAll("\\W", "_");
+            String[] result = new String[args.length + 2];
+            result[0] = "--fe-output";
+            result[1] = "batch" + id + "-" + base;
+            System.arraycopy(args, 0, result, 2, args.length);
+            return result;
+        }
+
+        public void run() {
+            long beg = System.currentTimeMillis();
+            jobOutput.set(output);
+            new CompilationContext().enter();
+            try {
+                SequentialSketchMain sketchmain = new SequentialSketchMain(argsWithOutput());
+                PlatformLocalization.getLocalization().setTempDirs();
+                sketchmain.run();
+                succeeded = true;
+            } catch (SketchException e) {
+                e.print();
+            } catch (SketchExitException e) {
+                succeeded = e.getStatus() == 0;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } catch (Error e) {
+                e.printStackTrace();
+            } finally {
+                millis = System.currentTimeMillis() - beg;
+                System.out.flush();
+                System.err.flush();
+                CompilationContext.exit();
+                jobOutput.remove();
+            }
+        }
+    }
+
+    static void usage() {
+        System.err.println("usage: BatchSketchMain [--jobs N] [--solvers M] JOBFILE");
+        System.exit(2);
+    }
+
+    static List<Job> readJobs(String jobFile) throws IOException {
+        List<Job> jobs = new ArrayList<Job>();
+        BufferedReader in = new BufferedReader(new FileReader(jobFile));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                jobs.add(new Job(jobs.size(), line.split("\\s+")));
+            }
+        } finally {
+            in.close();
+        }
+        return jobs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nJobs = Runtime.getRuntime().availableProcessors();
+        int nSolvers = nJobs;
+        String jobFile = null;
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("--jobs") && i + 1 < args.length) {
+                nJobs = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--solvers") && i + 1 < args.length) {
+                nSolvers = Integer.parseInt(args[++i]);
+            } else if (jobFile == null && !args[i].startsWith("-")) {
+                jobFile = args[i];
+            } else {
+                usage();
+            }
+        }
+        if (jobFile == null || nJobs < 1 || nSolvers < 1) {
+            usage();
+        }
+        List<Job> jobs = readJobs(jobFile);
+
+        final PrintStream out = System.out;
+        System.setOut(new PrintStream(new JobOutputStream(out), true));
+        System.setErr(new PrintStream(new JobOutputStream(System.err), true));
+        SolverSlots.setLimit(nSolvers);
+        System.out.println("SKETCH version " +
+                PlatformLocalization.getLocalization().version);
+        System.out.println("Running " + jobs.size() + " sketches, " + nJobs +
+                " at a time, with at most " + nSolvers + " solvers");
+
+        long beg = System.currentTimeMillis();
+        final AtomicInteger threadNum = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(nJobs, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                // a job's own threads inherit its context and output from the job
+                // thread, so pool threads must start with neither.
+                Thread t = new Thread(r, "sketch-job-" + threadNum.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final Job job : jobs) {
+            futures.add(pool.submit(new Runnable() {
+                public void run() {
+                    job.run();
+                    synchronized (out) {
+                        out.println("==== [" + job.id + "] " + job.name() + " " +
+                                Arrays.toString(job.args));
+                        out.print(job.output.toString());
+                        out.println("==== [" + job.id + "] " +
+                                (job.succeeded ? "done" : "FAILED") + " in " +
+                                job.millis + " ms");
+                        out.flush();
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        out.println("Summary:");
+        for (Job job : jobs) {
+            out.println(String.format("  [%d] %-8s %8d ms  %s", job.id,
+                    job.succeeded ? "ok" : "FAILED", job.millis, job.name()));
+            if (!job.succeeded) {
+                failed++;
+            }
+        }
+        out.println((jobs.size() - failed) + " of " + jobs.size() + " succeeded in " +
+                (System.currentTimeMillis() - beg) + " ms");
+        out.flush();
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
@@ -6,6 +6,7 @@ import java.util.Vector;
 
 import sketch.compiler.ast.core.FEVisitor;
 import sketch.compiler.ast.core.Program;
+import sketch.compiler.main.passes.FunctionParallelRunner;
 import sketch.compiler.passes.annotations.CompilerPassDeps;
 import sketch.util.datastructures.HashmapList;
 
@@ -62,7 +63,7 @@ public abstract class CompilerStage {
             {
                 prog.debugDump("Before visitor " + pass.getClass().getSimpleName());
             }
-            prog = (Program) prog.accept(pass);
+            prog = FunctionParallelRunner.run(prog, pass, sketch.varGen);
             if (passInfo.debug() || sketch.options.debugOpts.dumpAfter.contains(passName))
             {
                 prog.debugDump("After visitor " + pass.getClass().getSimpleName());
@@ -22,7 +22,8 @@ public class SMTSketchOptions extends SketchOptions {
     }
 
     public static SMTSketchOptions getSingleton() {
-        assert _singleton != null : "no singleton instance";
-        return (SMTSketchOptions) _singleton;
+        SketchOptions options = SketchOptions.getSingleton();
+        assert options != null : "no singleton instance";
+        return (SMTSketchOptions) options;
     }
 }
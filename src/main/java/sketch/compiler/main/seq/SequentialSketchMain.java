@@ -15,8 +15,10 @@
  */
 
 package sketch.compiler.main.seq;
+import static sketch.util.DebugOut.printWarning;
 import static sketch.util.Misc.nonnull;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
@@ -50,13 +52,16 @@ import sketch.compiler.codegenerators.OutputHoleFunc;
 import sketch.compiler.dataflow.recursionCtrl.AdvancedRControl;
 import sketch.compiler.dataflow.recursionCtrl.DelayedInlineRControl;
 import sketch.compiler.dataflow.recursionCtrl.RecursionControl;
+import sketch.compiler.main.CompilationContext;
 import sketch.compiler.main.PlatformLocalization;
 import sketch.compiler.main.cmdline.SketchOptions;
 import sketch.compiler.main.other.ErrorHandling;
 import sketch.compiler.main.passes.CleanupFinalCode;
 import sketch.compiler.main.passes.LowerToSketch;
+import sketch.compiler.main.passes.LoweringCache;
 import sketch.compiler.main.passes.OutputCCode;
 import sketch.compiler.main.passes.ParseProgramStage;
+import sketch.compiler.main.passes.PassProfiler;
 import sketch.compiler.main.passes.PreprocessStage;
 import sketch.compiler.main.passes.StencilTransforms;
 import sketch.compiler.main.passes.SubstituteSolution;
@@ -92,6 +97,7 @@ import sketch.util.ControlFlowException;
 import sketch.util.exceptions.InternalSketchException;
 import sketch.util.exceptions.ProgramParseException;
 import sketch.util.exceptions.SketchException;
+import sketch.util.exceptions.SketchExitException;
 
 /**
  * Convert StreamIt programs to legal Java code.  This is the main
@@ -348,6 +354,21 @@ public class SequentialSketchMain extends CommonSketchMain implements Runnable
      * Lower the source code to SKETCH, returning a new program and two intermediate ones.
      */
     protected SketchLoweringResult lowerToSketch(Program prog) {
+        if (options.feOpts.lowerCache != null) {
+            LoweringCache cache =
+                    new LoweringCache(new File(options.feOpts.lowerCache), options);
+            Program lowered = cache.lower(prog, new LoweringCache.Lowering() {
+                public Program lower(Program p) {
+                    return lowerToSketchUncached(p).result;
+                }
+            });
+            // the intermediate program may lack the bodies that came from the cache.
+            return new SketchLoweringResult(lowered, prog, null);
+        }
+        return lowerToSketchUncached(prog);
+    }
+
+    protected SketchLoweringResult lowerToSketchUncached(Program prog) {
         Program highLevelC = prog;
         prog = getIRStage2_LLC(prog).run(prog);
         Program afterSPMDSeq = prog;
@@ -596,6 +617,32 @@ public class SequentialSketchMain extends CommonSketchMain implements Runnable
     }
 
     public void run() {
+        if (!options.debugOpts.profilePasses && !options.debugOpts.astHeap) {
+            runPasses();
+            return;
+        }
+        PassProfiler profiler = PassProfiler.start(options.debugOpts.astHeap);
+        try {
+            runPasses();
+        } finally {
+            PassProfiler.stop();
+            if (options.debugOpts.profilePasses) {
+                profiler.report(System.out);
+            }
+            if (options.debugOpts.astHeap) {
+                profiler.reportHeap(System.out);
+            }
+            if (options.debugOpts.profileJson != null) {
+                try {
+                    profiler.writeJson(new File(options.debugOpts.profileJson));
+                } catch (FileNotFoundException e) {
+                    printWarning("Could not write the pass profile: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    void runPasses() {
         this.log(1, "Benchmark = " + this.benchmarkName());
         Program prog = null;
         try {
@@ -717,6 +764,11 @@ public class SequentialSketchMain extends CommonSketchMain implements Runnable
             } else {
                 exitCode = 1;
             }
+        } catch (SketchExitException e) {
+            if (isTest) {
+                throw e;
+            }
+            exitCode = e.getStatus();
         } catch (RuntimeException e) {
             ErrorHandling.handleErr(e);
             if (isTest) {
@@ -731,7 +783,7 @@ public class SequentialSketchMain extends CommonSketchMain implements Runnable
             System.out.println("Total time = " + (System.currentTimeMillis() - beg));
         }
         if (exitCode != 0) {
-            System.exit(exitCode);
+            CompilationContext.terminate(exitCode);
         }
     }
 }
@@ -226,6 +226,10 @@ public class ExtractPreParallelSection extends FEReplacer {
         }else{
         	newStatements = oldStatements;
         }
+        if(buildSuperBlock){
+        	// the next function must start at the top level again
+        	newStatements = null;
+        }
         return result;
     }
 
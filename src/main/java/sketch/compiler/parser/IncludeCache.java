@@ -0,0 +1,257 @@
+package sketch.compiler.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import sketch.compiler.ast.core.FENode;
+import sketch.compiler.ast.core.exprs.ExprConstFloat;
+import sketch.compiler.ast.core.exprs.ExprConstInt;
+import sketch.compiler.ast.core.exprs.ExprNullPtr;
+import sketch.compiler.ast.core.stmts.StmtEmpty;
+import sketch.compiler.ast.core.typs.NotYetComputedType;
+import sketch.compiler.ast.core.typs.Type;
+import sketch.compiler.ast.core.typs.TypeFunction;
+import sketch.compiler.ast.core.typs.TypePrimitive;
+import sketch.compiler.main.PlatformLocalization;
+import sketch.compiler.solvers.SolutionCache;
+
+/**
+ * On-disk cache of parsed include files. An entry holds what parsing an include file
+ * contributes to the parser that includes it: its packages, the names of the files it
+ * includes in turn, and its pragmas. Entries are keyed by the canonical path of the
+ * file, a digest of its contents, the preprocessor settings and the compiler version.<BR>
+ * Nested includes are not stored in the entry of the file that includes them; they are
+ * looked up again when the entry is used, so that a file is still included only once
+ * and changes to a nested include are seen.<BR>
+ * Files that use the preprocessor's own #include are not cached, since their contents
+ * do not determine the result.
+ */
+public class IncludeCache {
+    static final String SUFFIX = ".ast.gz";
+    static final Pattern CPP_INCLUDE =
+            Pattern.compile("^\\s*#\\s*include", Pattern.MULTILINE);
+
+    /** Classes whose static fields hold nodes that passes compare by identity. */
+    static final Class<?>[] CONSTANT_HOLDERS =
+            { TypePrimitive.class, TypeFunction.class, NotYetComputedType.class,
+                    ExprConstInt.class, ExprConstFloat.class, ExprNullPtr.class,
+                    StmtEmpty.class };
+
+    final File dir;
+
+    public IncludeCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * What parsing an include file contributes to the parser that includes it.
+     */
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+        /**
+         * The packages of the file, in the order they were parsed, with the name of each
+         * nested include (as written in the include statement) where it appeared.
+         */
+        public final List<Object> items;
+        /** Pairs of pragma name and arguments. */
+        public final List<String[]> pragmas;
+        /** Last comment seen by the lexer at the end of the file. */
+        public final String lastComment;
+
+        public Entry(List<Object> items, List<String[]> pragmas, String lastComment) {
+            this.items = items;
+            this.pragmas = pragmas;
+            this.lastComment = lastComment;
+        }
+    }
+
+    /**
+     * Returns the key for the include file with the given canonical name, or null if the
+     * file can not be cached.
+     */
+    public String key(String canonicalName, boolean preprocess, List<String> cppDefs)
+            throws IOException
+    {
+        byte[] contents = Files.readAllBytes(new File(canonicalName).toPath());
+        if (preprocess && CPP_INCLUDE.matcher(new String(contents, "UTF-8")).find()) {
+            return null;
+        }
+        MessageDigest md = SolutionCache.newDigest();
+        md.update(contents);
+        StringBuilder sb = new StringBuilder();
+        sb.append(PlatformLocalization.getLocalization().version).append('\0');
+        sb.append(canonicalName).append('\0');
+        sb.append(preprocess).append('\0');
+        if (cppDefs != null) {
+            for (String def : cppDefs) {
+                sb.append(def).append('\0');
+            }
+        }
+        md.update(sb.toString().getBytes("UTF-8"));
+        return SolutionCache.toKey(md);
+    }
+
+    /**
+     * Returns the entry for key, or null if there is none or it can not be read, for
+     * example because it was written by a different version of the compiler.
+     */
+    public Entry lookup(String key) {
+        File f = new File(dir, key + SUFFIX);
+        if (!f.isFile()) {
+            return null;
+        }
+        try {
+            ObjectInputStream in =
+                    new AstInputStream(new GZIPInputStream(new BufferedInputStream(
+                            new FileInputStream(f))));
+            try {
+                return (Entry) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores an entry for key. The entry is written to a temporary file and renamed into
+     * place, so several compilers can share a cache.
+     */
+    public void store(String key, Entry entry) throws IOException {
+        if (!(dir.mkdirs() || dir.isDirectory())) {
+            throw new IOException("Can not create directory " + dir.getAbsolutePath());
+        }
+        File tmp =
+                new File(dir, key + ".part-" + Integer.toHexString(new Random().nextInt()));
+        try {
+            ObjectOutputStream out =
+                    new AstOutputStream(new GZIPOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(tmp))));
+            try {
+                out.writeObject(entry);
+            } finally {
+                out.close();
+            }
+            File f = new File(dir, key + SUFFIX);
+            if (!tmp.renameTo(f) && !f.isFile()) {
+                throw new IOException("Can not create " + f.getAbsolutePath());
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Placeholder for a node that is the value of a static field, so that it is read
+     * back as that same object.
+     */
+    static class ConstantRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final String name;
+
+        ConstantRef(String name) {
+            this.name = name;
+        }
+    }
+
+    static Map<Object, String> constantNames;
+    static Map<String, Object> constantValues;
+
+    static synchronized void initConstants() {
+        if (constantNames != null) {
+            return;
+        }
+        Map<Object, String> names = new IdentityHashMap<Object, String>();
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (Class<?> c : CONSTANT_HOLDERS) {
+            for (Field f : c.getFields()) {
+                Class<?> t = f.getType();
+                if (!Modifier.isStatic(f.getModifiers()) ||
+                        !(FENode.class.isAssignableFrom(t) || Type.class.isAssignableFrom(t)))
+                {
+                    continue;
+                }
+                try {
+                    Object v = f.get(null);
+                    String name = c.getName() + "." + f.getName();
+                    if (v != null && !names.containsKey(v)) {
+                        names.put(v, name);
+                        values.put(name, v);
+                    }
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        constantValues = values;
+        constantNames = names;
+    }
+
+    /**
+     * Writes AST nodes so that the values of static fields are read back as those same
+     * objects by an AstInputStream.
+     */
+    public static class AstOutputStream extends ObjectOutputStream {
+        public AstOutputStream(OutputStream out) throws IOException {
+            super(out);
+            initConstants();
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            String name = constantNames.get(obj);
+            return name != null ? new ConstantRef(name) : obj;
+        }
+    }
+
+    public static class AstInputStream extends ObjectInputStream {
+        public AstInputStream(InputStream in) throws IOException {
+            super(in);
+            initConstants();
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof ConstantRef) {
+                Object v = constantValues.get(((ConstantRef) obj).name);
+                if (v == null) {
+                    throw new IOException("Unknown constant " + ((ConstantRef) obj).name);
+                }
+                return v;
+            }
+            return obj;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+                ClassNotFoundException
+        {
+            return Class.forName(desc.getName(), false, IncludeCache.class.getClassLoader());
+        }
+    }
+}
@@ -4,6 +4,8 @@
 	
 	import java.util.StringTokenizer;
 
+	import sketch.compiler.main.CompilationContext;
+
 import java.io.InputStream;
 import antlr.TokenStreamException;
 import antlr.TokenStreamIOException;
@@ -31,7 +33,14 @@ import antlr.SemanticException;
 public class StreamItLex extends antlr.CharScanner implements StreamItLexTokenTypes, TokenStream
  {
 
-  public static String lastComment = null;
+  /** The last comment seen, kept with the compilation that is being parsed. */
+  public static String getLastComment() {
+    return CompilationContext.current().getLastComment();
+  }
+
+  public static void setLastComment(String comment) {
+    CompilationContext.current().setLastComment(comment);
+  }
 
 public StreamItLex(InputStream in) {
 	this(new ByteBuffer(in));
@@ -841,7 +850,7 @@ tryAgain:
 		}
 		match("*/");
 		if ( inputState.guessing==0 ) {
-			lastComment = getText();  _ttype = Token.SKIP;
+			setLastComment(getText());  _ttype = Token.SKIP;
 		}
 		if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
 			_token = makeToken(_ttype);
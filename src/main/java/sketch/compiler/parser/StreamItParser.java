@@ -77,4 +77,13 @@ public class StreamItParser {
 	public Set<Directive> getDirectives () {
 		return parser.getDirectives ();
 	}
+
+	/** Includes are looked up in, and added to, CACHE; null disables caching. */
+	public void setIncludeCache (IncludeCache cache) {
+		parser.setIncludeCache (cache);
+	}
+
+	public IncludeCache.Entry getCacheEntry () {
+		return parser.getCacheEntry ();
+	}
 }
@@ -43,7 +43,8 @@ import sketch.compiler.main.cmdline.SketchOptions;
 
 import sketch.compiler.ast.spmd.stmts.StmtSpmdfork;
 
-import static sketch.util.DebugOut.assertFalse;
+import static sketch.util.DebugOut.assertFalse;
+import static sketch.util.DebugOut.printWarning;
 
 import antlr.TokenBuffer;
 import antlr.TokenStreamException;
@@ -66,11 +67,20 @@ public class StreamItParserFE extends antlr.LLkParser       implements StreamItP
     private Set<Directive> directives = new HashSet<Directive> ();
     private boolean preprocess;
     private List<String> cppDefs;
+    private IncludeCache includeCache = null;
+    private List<String> includeNames = new ArrayList<String>();
+    private List<Integer> includeStarts = new ArrayList<Integer>();
+    private List<Integer> includeEnds = new ArrayList<Integer>();
+    private List<String[]> pragmas = new ArrayList<String[]>();
+    private List<Package> parsedPackages = null;
     private String currPkg;
     private FEContext curPkgCx;    
     private FEContext lastCx=null;
     private String lastFilename = null;
     private String shortFilename = null;
+    /** Contexts made so far, so that nodes at the same location share one. */
+    private final HashMap<FEContext, FEContext> contexts =
+        new HashMap<FEContext, FEContext>();
     
      //ADT
     private List<String> parentStructNames = new ArrayList<String>();
@@ -131,7 +141,8 @@ public class StreamItParserFE extends antlr.LLkParser       implements StreamItP
 	    	}
 	    	shortFilename = lfile;	
 		}		
-		lastCx = new FEContext(shortFilename, line, col, StreamItLex.lastComment);	
+		lastCx = FEContext.intern(contexts,
+			new FEContext(shortFilename, line, col, StreamItLex.getLastComment()));
 		return lastCx;
 		
 		// int col = t.getColumn();
@@ -153,6 +164,14 @@ public class StreamItParserFE extends antlr.LLkParser       implements StreamItP
 	}
 
     public void handleInclude(String name, List<Package> namespace)
+    {
+        includeNames.add(name);
+        includeStarts.add(namespace.size());
+        includeFile(name, namespace);
+        includeEnds.add(namespace.size());
+    }
+
+    private void includeFile(String name, List<Package> namespace)
     {
         try {
             List<String> incList = Arrays.asList(
@@ -181,17 +200,79 @@ public class StreamItParserFE extends antlr.LLkParser       implements StreamItP
         if (processedIncludes.contains(name))
             return;
         processedIncludes.add(name);
+        parseInclude(name, namespace);
+    }
+
+    private void parseInclude(String name, List<Package> namespace) {
+        String key = null;
+        if (includeCache != null) {
+            try {
+                key = includeCache.key(name, preprocess, cppDefs);
+            } catch (IOException ioe) {
+                throw new IllegalArgumentException ("Something wrong with: "+ name);
+            }
+            IncludeCache.Entry entry = key == null ? null : includeCache.lookup(key);
+            if (entry != null) {
+                for (Object item : entry.items) {
+                    if (item instanceof String) {
+                        includeFile((String) item, namespace);
+                    } else {
+                        namespace.add((Package) item);
+                    }
+                }
+                for (String[] pragma : entry.pragmas) {
+                    directives.add (Directive.make (pragma[0], pragma[1]));
+                }
+                StreamItLex.setLastComment(entry.lastComment);
+                return;
+            }
+        }
         StreamItParser parser =
             new StreamItParser (name, processedIncludes, preprocess, cppDefs);
+        parser.setIncludeCache(includeCache);
         Program p = parser.parse ();
 		assert p != null;		
 		
 		namespace.addAll(p.getPackages());		
         directives.addAll (parser.getDirectives ());
+        if (key != null) {
+            try {
+                includeCache.store(key, parser.getCacheEntry());
+            } catch (IOException ioe) {
+                printWarning("couldn't add " + name + " to the include cache: " +
+                        ioe.getMessage());
+            }
+        }
+    }
+
+    public void setIncludeCache(IncludeCache includeCache) {
+        this.includeCache = includeCache;
+    }
+
+    /**
+     * What the program parsed by this parser contributes to a parser that includes it.
+     * Packages of nested includes are replaced by the names of those includes.
+     */
+    public IncludeCache.Entry getCacheEntry() {
+        List<Package> pkgs = parsedPackages;
+        List<Object> items = new ArrayList<Object>();
+        int i = 0;
+        for (int j = 0; j < includeNames.size(); ++j) {
+            for (; i < includeStarts.get(j); ++i) {
+                items.add(pkgs.get(i));
+            }
+            items.add(includeNames.get(j));
+            i = includeEnds.get(j);
+        }
+        for (; i < pkgs.size(); ++i) {
+            items.add(pkgs.get(i));
+        }
+        return new IncludeCache.Entry(items, pragmas, StreamItLex.getLastComment());
     }
 
     private void handlePragma (String pragma, String args) {
         directives.add (Directive.make (pragma, args));
+        pragmas.add (new String[] { pragma, args });
     }
 
     public Set<Directive> getDirectives () {  return directives;  }
@@ -282,7 +363,7 @@ public StreamItParserFE(ParserSharedInputState state) {
 					{
 						match(SEMI);
 						if ( inputState.guessing==0 ) {
-							pkgName = currPkg;  pkgCtxt = getContext(id); StreamItLex.lastComment = null;
+							pkgName = currPkg;  pkgCtxt = getContext(id); StreamItLex.setLastComment(null);
 						}
 						break;
 					}
@@ -481,6 +562,7 @@ inputState.guessing--;
 									
 								        Package ss=new Package(pkgCtxt, pkgName, structs, vars, funcs, specialAsserts);
 										namespaces.add(ss);
+										parsedPackages = namespaces;
 						if (!hasError) {
 						if (p == null) {
 						p = Program.emptyProgram();
@@ -700,7 +782,7 @@ inputState.guessing--;
 			}
 			l=param_decl_list();
 			if ( inputState.guessing==0 ) {
-				funCx = getContext(id); StreamItLex.lastComment = null;
+				funCx = getContext(id); StreamItLex.setLastComment(null);
 			}
 			{
 			switch ( LA(1)) {
@@ -905,7 +987,7 @@ inputState.guessing--;
 			} while (true);
 			}
 			if ( inputState.guessing==0 ) {
-				f = new FieldDecl(ctx, ts, ns, xs); StreamItLex.lastComment = null;
+				f = new FieldDecl(ctx, ts, ns, xs); StreamItLex.setLastComment(null);
 			}
 		}
 		catch (RecognitionException ex) {
@@ -956,7 +1038,7 @@ inputState.guessing--;
 			id = LT(1);
 			match(ID);
 			if ( inputState.guessing==0 ) {
-				fec = getContext(t); StreamItLex.lastComment = null;
+				fec = getContext(t); StreamItLex.setLastComment(null);
 			}
 			{
 			switch ( LA(1)) {
@@ -1106,7 +1188,7 @@ inputState.guessing--;
 			id = LT(1);
 			match(ID);
 			if ( inputState.guessing==0 ) {
-				fec = getContext(t); StreamItLex.lastComment = null;
+				fec = getContext(t); StreamItLex.setLastComment(null);
 			}
 			{
 			switch ( LA(1)) {
@@ -6591,7 +6673,7 @@ inputState.guessing--;
 			if ( inputState.guessing==0 ) {
 				
 							ts = StructDef.creator(getContext(id), id.getText(),null, true, names, types, typeargs, annotations).create();
-							StreamItLex.lastComment = null;
+							StreamItLex.setLastComment(null);
 							
 			}
 		}
@@ -24,4 +24,12 @@ public @interface CompilerPassDeps {
     Class<? extends FEVisitor>[] runsBefore();
     
     boolean debug() default false;
+
+    /**
+     * The pass rewrites each function on its own: it only changes function bodies,
+     * keeps no state from one function to the next, and does not add functions, holes
+     * or new function calls. Such a pass may be run on all functions concurrently, with
+     * one instance per function; see FunctionParallelRunner.
+     */
+    boolean functionLocal() default false;
 }
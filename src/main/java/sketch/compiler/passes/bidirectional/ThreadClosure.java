@@ -99,7 +99,7 @@ public class ThreadClosure extends FEReplacer {
     }
 
     public Object visitProgram(Program prog) {
-        CallGraph cg = new CallGraph(prog);
+        CallGraph cg = CallGraph.of(prog);
         nres = new NameResolver(prog);
         for (Map.Entry<String, NewFunInfo> eif : this.ifreplacer.extractedInnerFuns.entrySet()) {
             String key = eif.getKey();
@@ -20,7 +20,7 @@ import static sketch.util.fcns.VectorMap.vecmap_nonnull;
  */
 @CompilerPassDeps(runsAfter = {}, runsBefore = {})
 public class CleanupRemoveMinFcns extends FEReplacer {
-    protected static boolean isMinFcn;
+    protected boolean isMinFcn;
 
     @Override
     public Object visitPackage(Package spec) {
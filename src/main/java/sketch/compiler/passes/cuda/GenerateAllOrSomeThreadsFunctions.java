@@ -74,7 +74,7 @@ public class GenerateAllOrSomeThreadsFunctions extends SymbolTableVisitor {
             allThreadsFcns.add((Function) new AllThreadsTransform(symtab).visitFunction(fcn));
 
             // only add somethreads version if possibly necessary
-            for (Function f : cg.edges.callersTo(fcn)) {
+            for (Function f : cg.callersTo(fcn)) {
                 if (f.isParallel()) {
                     someThreadsFcns.add((Function) new SomeThreadsTransform(symtab).visitFunction(fcn));
                     break;
@@ -57,7 +57,7 @@ public class GlobalToLocalImplicitCasts extends SymbolTableVisitor {
 
     @Override
     public Object visitProgram(Program prog) {
-        cg = new CallGraph(prog);
+        cg = CallGraph.of(prog);
         return super.visitProgram(prog);
     }
 
@@ -66,7 +66,7 @@ public class LowerInstrumentation extends FEReplacer {
 
     @Override
     public Object visitProgram(Program prog) {
-        this.callGraph = new CallGraph(prog);
+        this.callGraph = CallGraph.of(prog);
         for (Directive d : prog.getDirectives()) {
             if (d instanceof InstrumentationDirective) {
                 InstrumentationDirective instrd = (InstrumentationDirective) d;
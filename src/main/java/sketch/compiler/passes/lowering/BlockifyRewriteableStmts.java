@@ -13,6 +13,7 @@ import sketch.compiler.ast.core.exprs.Expression;
 import sketch.compiler.ast.core.exprs.regens.ExprRegen;
 import sketch.compiler.ast.core.stmts.*;
 import sketch.compiler.ast.promela.stmts.StmtFork;
+import sketch.compiler.passes.annotations.CompilerPassDeps;
 import sketch.util.ControlFlowException;
 
 /**
@@ -54,6 +55,7 @@ import sketch.util.ControlFlowException;
  *
  * @author <a href="mailto:cgjones@cs.berkeley.edu">Chris Jones</a>
  */
+@CompilerPassDeps(runsBefore = {}, runsAfter = {}, functionLocal = true)
 public class BlockifyRewriteableStmts extends SymbolTableVisitor {
 	public BlockifyRewriteableStmts () {
 		super (null);
@@ -134,18 +136,22 @@ public class BlockifyRewriteableStmts extends SymbolTableVisitor {
 		return blockify ((Statement) super.visitStmtWhile (stmt));
 	}
 
-	protected StmtBlock blockify (Statement s) {
+	protected static StmtBlock blockify (Statement s) {
 		return new StmtBlock (s, Collections.singletonList (s));
 	}
 
 	protected boolean isRewriteable (Expression e) {
+		return isRewriteable (e, this);
+	}
+
+	static boolean isRewriteable (Expression e, SymbolTableVisitor v) {
 		return null != e
 			&& (e instanceof ExprRegen
-				|| isGlobal (e)
+				|| v.isGlobal (e)
 				|| hasShortCircuit (e));
 	}
 
-	protected boolean hasShortCircuit (Expression e) {
+	protected static boolean hasShortCircuit (Expression e) {
 		class checker extends FEReplacer {
 			public Object visitExprBinary (ExprBinary eb) {
 				String op = eb.getOpString ();
@@ -161,4 +167,41 @@ public class BlockifyRewriteableStmts extends SymbolTableVisitor {
 		catch (ControlFlowException re) {  return true;
 		}
 	}
+
+	/**
+	 * This pass as a rule of a FusedStatementPass, which must come after
+	 * SeparateInitializers.Rule.
+	 */
+	public static class Rule extends FusedStatementPass.Rule {
+		public Statement rewrite (Statement s, FusedStatementPass pass) {
+			if (s instanceof StmtDoWhile || s instanceof StmtFor
+					|| s instanceof StmtFork || s instanceof StmtWhile)
+				return blockify (s);
+			Expression e = null;
+			if (s instanceof StmtAssert) {
+				e = ((StmtAssert) s).getCond ();
+			} else if (s instanceof StmtAssign) {
+				StmtAssign sa = (StmtAssign) s;
+				return isRewriteable (sa.getLHS (), pass)
+						|| isRewriteable (sa.getRHS (), pass) ? blockify (s) : s;
+			} else if (s instanceof StmtAtomicBlock) {
+				StmtAtomicBlock sab = (StmtAtomicBlock) s;
+				return sab.isCond () && isRewriteable (sab.getCond (), pass) ?
+						blockify (s) : s;
+			} else if (s instanceof StmtExpr) {
+				e = ((StmtExpr) s).getExpression ();
+			} else if (s instanceof StmtIfThen) {
+				e = ((StmtIfThen) s).getCond ();
+			} else if (s instanceof StmtLoop) {
+				e = ((StmtLoop) s).getIter ();
+			} else if (s instanceof StmtReturn) {
+				e = ((StmtReturn) s).getValue ();
+			} else if (s instanceof StmtVarDecl) {
+				for (Expression init : ((StmtVarDecl) s).getInits ())
+					s.assertTrue (null == init,
+							"Should have run separate initializers before this");
+			}
+			return isRewriteable (e, pass) ? blockify (s) : s;
+		}
+	}
 }
@@ -32,7 +32,7 @@ public class CollectFunCallsToCombine extends SymbolTableVisitor {
 
     @Override
     public Object visitProgram(Program p) {
-		CallGraph cg = new CallGraph(p);
+		CallGraph cg = CallGraph.of(p);
 
         nres = new NameResolver(p);
         for (Package pkg : p.getPackages()) {
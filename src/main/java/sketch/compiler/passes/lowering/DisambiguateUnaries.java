@@ -30,6 +30,7 @@ import sketch.compiler.ast.core.stmts.StmtIfThen;
 import sketch.compiler.ast.core.stmts.StmtVarDecl;
 import sketch.compiler.ast.core.stmts.StmtWhile;
 import sketch.compiler.ast.core.typs.Type;
+import sketch.compiler.passes.annotations.CompilerPassDeps;
 import sketch.util.exceptions.ExceptionAtNode;
 
 /**
@@ -40,6 +41,7 @@ import sketch.util.exceptions.ExceptionAtNode;
  * @author David Maze &lt;dmaze@cag.lcs.mit.edu&gt;
  * @version $Id$
  */
+@CompilerPassDeps(runsBefore = {}, runsAfter = {}, functionLocal = true)
 public class DisambiguateUnaries extends SymbolTableVisitor
 {
     private TempVarGen varGen;
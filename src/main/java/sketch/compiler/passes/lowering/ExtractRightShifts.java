@@ -14,6 +14,7 @@ import sketch.compiler.ast.core.stmts.StmtVarDecl;
 import sketch.compiler.ast.core.typs.Type;
 import sketch.compiler.ast.core.typs.TypeArray;
 import sketch.compiler.ast.core.typs.TypePrimitive;
+import sketch.compiler.passes.annotations.CompilerPassDeps;
 
 
 /**
@@ -24,6 +25,7 @@ import sketch.compiler.ast.core.typs.TypePrimitive;
  */
 
 
+@CompilerPassDeps(runsBefore = {}, runsAfter = {}, functionLocal = true)
 public class ExtractRightShifts extends SymbolTableVisitor {
 	private TempVarGen varGen;
 	public ExtractRightShifts(TempVarGen varGen) {
@@ -7,7 +7,9 @@ import sketch.compiler.ast.core.exprs.ExprVar;
 import sketch.compiler.ast.core.exprs.Expression;
 import sketch.compiler.ast.core.stmts.StmtVarDecl;
 import sketch.compiler.ast.core.typs.Type;
+import sketch.compiler.passes.annotations.CompilerPassDeps;
 
+@CompilerPassDeps(runsBefore = {}, runsAfter = {}, functionLocal = true)
 public class ExtractVectorsInCasts extends SymbolTableVisitor {
 
 	private TempVarGen varGen;
@@ -6,6 +6,8 @@ import sketch.compiler.ast.core.FEReplacer;
 import sketch.compiler.ast.core.stmts.Statement;
 import sketch.compiler.ast.core.stmts.StmtAtomicBlock;
 import sketch.compiler.ast.core.stmts.StmtBlock;
+import sketch.compiler.ast.core.stmts.StmtReturn;
+import sketch.compiler.passes.annotations.CompilerPassDeps;
 
 
 /**
@@ -20,9 +22,10 @@ import sketch.compiler.ast.core.stmts.StmtBlock;
  * @author asolar
  *
  */
+@CompilerPassDeps(runsBefore = {}, runsAfter = {}, functionLocal = true)
 public class FlattenStmtBlocks extends FEReplacer {
 
-	void addStmts(List<Statement> oldS, List<Statement> newS){
+	static void addStmts(List<Statement> oldS, List<Statement> newS){
 		for(int i=0; i<oldS.size(); ++i){
 			Statement s = oldS.get(i);
 			if(s instanceof StmtBlock && ! (s instanceof StmtAtomicBlock)){
@@ -43,4 +46,24 @@ public class FlattenStmtBlocks extends FEReplacer {
 		return super.visitStmtBlock(new StmtBlock(sb, news));				
 	}
 	
+	/** This pass as a rule of a FusedStatementPass. */
+	public static class Rule extends FusedStatementPass.Rule {
+		public Statement rewrite(Statement s, FusedStatementPass pass) {
+			if (!(s instanceof StmtBlock)) {
+				return s;
+			}
+			StmtBlock sb = (StmtBlock) s;
+			List<Statement> news = new ArrayList<Statement>();
+			addStmts(sb.getStmts(), news);
+			// like FEReplacer.visitStmtBlock, drop what follows a return.
+			for (int i = 0; i < news.size() - 1; ++i) {
+				if (news.get(i) instanceof StmtReturn) {
+					news = new ArrayList<Statement>(news.subList(0, i + 1));
+					break;
+				}
+			}
+			return new StmtBlock(sb, news);
+		}
+	}
+
 }
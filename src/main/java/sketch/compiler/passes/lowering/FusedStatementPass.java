@@ -0,0 +1,238 @@
+package sketch.compiler.passes.lowering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import sketch.compiler.ast.core.stmts.*;
+import sketch.compiler.ast.cuda.stmts.CudaSyncthreads;
+import sketch.compiler.ast.cuda.stmts.StmtParfor;
+import sketch.compiler.ast.promela.stmts.StmtFork;
+import sketch.compiler.ast.promela.stmts.StmtJoin;
+import sketch.compiler.ast.spmd.stmts.SpmdBarrier;
+import sketch.compiler.ast.spmd.stmts.StmtSpmdfork;
+import sketch.compiler.passes.annotations.CompilerPassDeps;
+
+/**
+ * Runs several statement rewrites in a single bottom-up traversal, instead of one
+ * traversal per pass. Each statement is first rebuilt from its rewritten parts, as
+ * SymbolTableVisitor does, and then handed to every rule in order, so the rules see the
+ * symbol table of the statement's scope. The header of a for loop and the loop variable
+ * of a fork are not rewritten, as none of the passes written as rules touch them.
+ * <p>
+ * A rule may add statements before the one it returns; those go through the rules that
+ * follow it, but their parts are not visited again. This gives the same result as
+ * running the passes one after another as long as a rule does not add statements that
+ * contain statements a later rule would change.
+ * <p>
+ * Only statement rewrites can be rules. Expression passes, like EliminateBitSelector,
+ * DisambiguateUnaries and EliminateNestedArrAcc, still run on their own: they are not
+ * next to each other in the pipeline, and fusing them would change the order in which
+ * temporaries and holes are numbered. The two fusions in use, SeparateInitializers with
+ * BlockifyRewriteableStmts in PreprocessStage and SeparateInitializers with
+ * FlattenStmtBlocks in LowerToSketch, give the same program as the passes run one after
+ * the other on every sketch in src/test/sk/seq.
+ */
+@CompilerPassDeps(runsBefore = {}, runsAfter = {}, functionLocal = true)
+public class FusedStatementPass extends SymbolTableVisitor {
+    /**
+     * A rewrite of one statement whose parts have already been rewritten. Rules must
+     * not keep state between statements; they may be shared between passes.
+     */
+    public static abstract class Rule {
+        /**
+         * Returns the replacement of stmt, or null to remove it. Statements that go
+         * before the replacement are added with pass.addRuleStatement().
+         */
+        public abstract Statement rewrite(Statement stmt, FusedStatementPass pass);
+    }
+
+    private final List<Rule> rules;
+    private int currentRule = -1;
+    /** Statements that are visited but not rewritten. */
+    private final Set<Statement> unrewritten =
+            Collections.newSetFromMap(new IdentityHashMap<Statement, Boolean>());
+
+    public FusedStatementPass(Rule... rules) {
+        this(Arrays.asList(rules));
+    }
+
+    public FusedStatementPass(List<Rule> rules) {
+        super(null);
+        this.rules = new ArrayList<Rule>(rules);
+    }
+
+    public List<Rule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * Adds a statement before the one the current rule is rewriting, after passing it
+     * through the rules that follow the current one.
+     */
+    public void addRuleStatement(Statement stmt) {
+        Statement result = applyRules(stmt, currentRule + 1);
+        if (result != null) {
+            addStatement(result);
+        }
+    }
+
+    private Statement applyRules(Statement stmt, int first) {
+        int oldRule = currentRule;
+        try {
+            for (int i = first; i < rules.size() && stmt != null; ++i) {
+                currentRule = i;
+                stmt = rules.get(i).rewrite(stmt, this);
+            }
+        } finally {
+            currentRule = oldRule;
+        }
+        return stmt;
+    }
+
+    private Object rewrite(Statement orig, Object result) {
+        if (result == null || unrewritten.contains(orig)) {
+            return result;
+        }
+        return applyRules((Statement) result, 0);
+    }
+
+    public Object visitStmtAssign(StmtAssign stmt) {
+        return rewrite(stmt, super.visitStmtAssign(stmt));
+    }
+
+    public Object visitStmtAtomicBlock(StmtAtomicBlock stmt) {
+        return rewrite(stmt, super.visitStmtAtomicBlock(stmt));
+    }
+
+    public Object visitStmtBlock(StmtBlock stmt) {
+        return rewrite(stmt, super.visitStmtBlock(stmt));
+    }
+
+    public Object visitStmtBreak(StmtBreak stmt) {
+        return rewrite(stmt, super.visitStmtBreak(stmt));
+    }
+
+    public Object visitStmtContinue(StmtContinue stmt) {
+        return rewrite(stmt, super.visitStmtContinue(stmt));
+    }
+
+    public Object visitStmtDoWhile(StmtDoWhile stmt) {
+        return rewrite(stmt, super.visitStmtDoWhile(stmt));
+    }
+
+    public Object visitStmtEmpty(StmtEmpty stmt) {
+        return rewrite(stmt, super.visitStmtEmpty(stmt));
+    }
+
+    public Object visitStmtExpr(StmtExpr stmt) {
+        return rewrite(stmt, super.visitStmtExpr(stmt));
+    }
+
+    public Object visitStmtFor(StmtFor stmt) {
+        if (stmt.getInit() != null) {
+            unrewritten.add(stmt.getInit());
+        }
+        if (stmt.getIncr() != null) {
+            unrewritten.add(stmt.getIncr());
+        }
+        Object result;
+        try {
+            result = super.visitStmtFor(stmt);
+        } finally {
+            unrewritten.remove(stmt.getInit());
+            unrewritten.remove(stmt.getIncr());
+        }
+        return rewrite(stmt, result);
+    }
+
+    public Object visitStmtIfThen(StmtIfThen stmt) {
+        return rewrite(stmt, super.visitStmtIfThen(stmt));
+    }
+
+    public Object visitStmtInsertBlock(StmtInsertBlock stmt) {
+        return rewrite(stmt, super.visitStmtInsertBlock(stmt));
+    }
+
+    public Object visitStmtJoin(StmtJoin stmt) {
+        return rewrite(stmt, super.visitStmtJoin(stmt));
+    }
+
+    public Object visitStmtLoop(StmtLoop stmt) {
+        return rewrite(stmt, super.visitStmtLoop(stmt));
+    }
+
+    public Object visitStmtReturn(StmtReturn stmt) {
+        return rewrite(stmt, super.visitStmtReturn(stmt));
+    }
+
+    public Object visitStmtAssert(StmtAssert stmt) {
+        return rewrite(stmt, super.visitStmtAssert(stmt));
+    }
+
+    public Object visitStmtAssume(StmtAssume stmt) {
+        return rewrite(stmt, super.visitStmtAssume(stmt));
+    }
+
+    public Object visitStmtVarDecl(StmtVarDecl stmt) {
+        return rewrite(stmt, super.visitStmtVarDecl(stmt));
+    }
+
+    public Object visitStmtImplicitVarDecl(StmtImplicitVarDecl stmt) {
+        return rewrite(stmt, super.visitStmtImplicitVarDecl(stmt));
+    }
+
+    public Object visitStmtWhile(StmtWhile stmt) {
+        return rewrite(stmt, super.visitStmtWhile(stmt));
+    }
+
+    public Object visitStmtFunDecl(StmtFunDecl stmt) {
+        return rewrite(stmt, super.visitStmtFunDecl(stmt));
+    }
+
+    public Object visitStmtFork(StmtFork stmt) {
+        unrewritten.add(stmt.getLoopVarDecl());
+        Object result;
+        try {
+            result = super.visitStmtFork(stmt);
+        } finally {
+            unrewritten.remove(stmt.getLoopVarDecl());
+        }
+        return rewrite(stmt, result);
+    }
+
+    public Object visitStmtReorderBlock(StmtReorderBlock stmt) {
+        return rewrite(stmt, super.visitStmtReorderBlock(stmt));
+    }
+
+    public Object visitStmtSwitch(StmtSwitch stmt) {
+        return rewrite(stmt, super.visitStmtSwitch(stmt));
+    }
+
+    public Object visitStmtMinimize(StmtMinimize stmt) {
+        return rewrite(stmt, super.visitStmtMinimize(stmt));
+    }
+
+    public Object visitStmtMinLoop(StmtMinLoop stmt) {
+        return rewrite(stmt, super.visitStmtMinLoop(stmt));
+    }
+
+    public Object visitStmtParfor(StmtParfor stmt) {
+        return rewrite(stmt, super.visitStmtParfor(stmt));
+    }
+
+    public Object visitStmtSpmdfork(StmtSpmdfork stmt) {
+        return rewrite(stmt, super.visitStmtSpmdfork(stmt));
+    }
+
+    public Object visitCudaSyncthreads(CudaSyncthreads stmt) {
+        return rewrite(stmt, super.visitCudaSyncthreads(stmt));
+    }
+
+    public Object visitSpmdBarrier(SpmdBarrier stmt) {
+        return rewrite(stmt, super.visitSpmdBarrier(stmt));
+    }
+}
@@ -93,7 +93,7 @@ public class GlobalsToParams extends FEReplacer {
 
     @Override
     public Object visitProgram(Program prog) {
-        this.callGraph = new CallGraph(prog);
+        this.callGraph = CallGraph.of(prog);
         // prog.debugDump();
         // System.out.println(callGraph.toString());
         // System.exit(0);
@@ -113,7 +113,7 @@ public class GlobalsToParams extends FEReplacer {
         }
 
         // add all necessary params for callers (closure of above)
-        for (CallEdge closureEdge : callGraph.closureEdges) {
+        for (CallEdge closureEdge : callGraph.getClosureEdges()) {
             final Function caller = closureEdge.caller();
             final Function callee = closureEdge.target();
             final TreeMap<String, AddedParam> callerParams =
@@ -29,6 +29,7 @@ import sketch.compiler.ast.core.stmts.StmtMinLoop;
 import sketch.compiler.ast.core.stmts.StmtWhile;
 import sketch.compiler.ast.cuda.stmts.StmtParfor;
 import sketch.compiler.ast.spmd.stmts.StmtSpmdfork;
+import sketch.compiler.passes.annotations.CompilerPassDeps;
 
 /**
  * Front-end visitor pass to replace the bodies of compound statements
@@ -39,6 +40,7 @@ import sketch.compiler.ast.spmd.stmts.StmtSpmdfork;
  * @author  David Maze &lt;dmaze@cag.lcs.mit.edu&gt;
  * @version $Id$
  */
+@CompilerPassDeps(runsBefore = {}, runsAfter = {}, functionLocal = true)
 public class MakeBodiesBlocks extends FEReplacer
 {
     private Statement buildBlock(Statement stmt)
@@ -16,6 +16,7 @@
 
 package sketch.compiler.passes.lowering;
 import java.util.ArrayList;
+import java.util.List;
 
 import sketch.compiler.ast.core.FEReplacer;
 import sketch.compiler.ast.core.exprs.ExprVar;
@@ -45,11 +46,24 @@ import sketch.compiler.passes.annotations.CompilerPassDeps;
  * @author  David Maze &lt;dmaze@cag.lcs.mit.edu&gt;
  * @version $Id$
  */
-@CompilerPassDeps(runsBefore = {}, runsAfter = { EliminateComplexForLoops.class })
+@CompilerPassDeps(runsBefore = {}, runsAfter = { EliminateComplexForLoops.class },
+        functionLocal = true)
 public class SeparateInitializers extends FEReplacer
 {
     public Object visitStmtVarDecl(StmtVarDecl stmt)
     {
+        addStatements(separate(stmt));
+        // Already added the base statement.
+        return null;
+    }
+
+    /**
+     * Returns the declaration without initializers, followed by an
+     * assignment for each initializer.
+     */
+    static List<Statement> separate(StmtVarDecl stmt)
+    {
+        List<Statement> result = new ArrayList<Statement>();
         // Make sure the variable declaration stays first.  This will
         // have no initializers, except for where there is an array
         // initializer.
@@ -65,7 +79,7 @@ public class SeparateInitializers extends FEReplacer
                                             stmt.getTypes(),
                                             stmt.getNames(),
                                             newInits);
-        addStatement(newDecl);
+        result.add(newDecl);
 
         // Now go through the original statement; if there are
         // any initializers, create a new assignment statement.
@@ -78,12 +92,11 @@ public class SeparateInitializers extends FEReplacer
             if (init != null) //&& !(init instanceof ExprArrayInit))
             {
                 Statement assign = new StmtAssign(new ExprVar(stmt, name), init);
-                addStatement(assign);
+                result.add(assign);
             }
         }
 
-        // Already added the base statement.
-        return null;
+        return result;
     }
 
 
@@ -107,4 +120,17 @@ public class SeparateInitializers extends FEReplacer
         return new StmtFor(stmt, stmt.getInit(), stmt.getCond(), stmt.getIncr(), newBody,
                 stmt.isCanonical());
     }
+
+    /** This pass as a rule of a FusedStatementPass. */
+    public static class Rule extends FusedStatementPass.Rule
+    {
+        public Statement rewrite(Statement stmt, FusedStatementPass pass)
+        {
+            if (!(stmt instanceof StmtVarDecl))
+                return stmt;
+            for (Statement s : separate((StmtVarDecl) stmt))
+                pass.addRuleStatement(s);
+            return null;
+        }
+    }
 }
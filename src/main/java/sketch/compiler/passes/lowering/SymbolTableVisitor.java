@@ -549,6 +549,35 @@ public class SymbolTableVisitor extends FEReplacer
         return super.visitStmtImplicitVarDecl(decl);
     }
 
+    /** A symbol table with the functions and globals of pkg, as visitPackage makes. */
+    @Override
+    public Object packageScope(NameResolver nres, Package pkg) {
+        SymbolTable scope = new SymbolTable(symtab);
+        for (Function func : pkg.getFuncs()) {
+            scope.registerFn(func);
+        }
+        for (FieldDecl field : pkg.getVars()) {
+            for (int i = 0; i < field.getNumFields(); i++) {
+                scope.registerVar(field.getName(i), field.getType(i), field,
+                        SymbolTable.KIND_GLOBAL);
+            }
+        }
+        return scope;
+    }
+
+    @Override
+    public Function visitFunctionIn(NameResolver nres, Package pkg, Object scope,
+            Function f)
+    {
+        SymbolTable oldSymTab = symtab;
+        symtab = new SymbolTable((SymbolTable) scope);
+        try {
+            return super.visitFunctionIn(nres, pkg, scope, f);
+        } finally {
+            symtab = oldSymTab;
+        }
+    }
+
     public Object visitPackage(Package spec)
     {
 
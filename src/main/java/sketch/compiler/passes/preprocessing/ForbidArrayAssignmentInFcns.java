@@ -1,7 +1,5 @@
 package sketch.compiler.passes.preprocessing;
 
-import static sketch.util.DebugOut.printFailure;
-
 import java.util.Collection;
 import java.util.Vector;
 
@@ -14,6 +12,7 @@ import sketch.compiler.ast.core.exprs.ExprVar;
 import sketch.compiler.ast.core.stmts.StmtAssign;
 import sketch.compiler.passes.annotations.CompilerPassDeps;
 import sketch.compiler.passes.structure.GetImplementedFcns;
+import sketch.util.exceptions.ExceptionAtNode;
 
 @CompilerPassDeps(runsAfter = {}, runsBefore = {})
 public class ForbidArrayAssignmentInFcns extends FEReplacer {
@@ -43,10 +42,9 @@ public class ForbidArrayAssignmentInFcns extends FEReplacer {
             if (v.getBase() instanceof ExprVar) {
                 ExprVar v2 = (ExprVar) (v.getBase());
                 if (inputParameters.contains(v2.getName())) {
-                    printFailure("Assignments to input arrays are not allowed!",
-                            "(except on generator or main/harness functions).");
-                    printFailure("Error source:", stmt.getCx().toString());
-                    System.exit(1);
+                    throw new ExceptionAtNode("Assignments to input arrays are not " +
+                            "allowed (except on generator or main/harness functions).",
+                            stmt);
                 }
             }
         }
@@ -1100,7 +1100,7 @@ public class RemoveFunctionParameters extends FEReplacer {
         }
 
         public Object visitProgram(Program prog){
-            CallGraph cg = new CallGraph(prog);
+            CallGraph cg = CallGraph.of(prog);
             nres = new NameResolver(prog);
             for(Map.Entry<String, NewFunInfo> eif : extractedInnerFuns.entrySet() ){ 
                 String key = eif.getKey();
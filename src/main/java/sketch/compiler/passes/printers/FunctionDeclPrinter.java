@@ -21,17 +21,15 @@ import com.thoughtworks.xstream.io.xml.DomDriver;
  *          make changes, please consider contributing back!
  */
 public class FunctionDeclPrinter extends FEReplacer {
-    public static Vector<FunctionInfo> values = null;
+    public final Vector<FunctionInfo> values;
     public File path;
 
     public FunctionDeclPrinter(File outfile) {
         path = outfile;
         if (outfile.isFile()) {
-            if (values == null) {
-                System.out.println("    reading xml file...");
-                values = read();
-                System.out.println("    done reading xml file");
-            }
+            System.out.println("    reading xml file...");
+            values = read();
+            System.out.println("    done reading xml file");
         } else {
             values = new Vector<FunctionInfo>();
         }
@@ -45,9 +43,7 @@ public class FunctionDeclPrinter extends FEReplacer {
             InputStream in = path.toURI().toURL().openStream();
             return (Vector<FunctionInfo>) xs.fromXML(in);
         } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
-            return null;
+            throw new RuntimeException("can't read " + path, e);
         }
     }
 
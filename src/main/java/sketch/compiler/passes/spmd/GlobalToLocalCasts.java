@@ -39,7 +39,7 @@ public class GlobalToLocalCasts extends SymbolTableVisitor {
 
     @Override
     public Object visitProgram(Program prog) {
-        cg = new CallGraph(prog);
+        cg = CallGraph.of(prog);
         return super.visitProgram(prog);
     }
 
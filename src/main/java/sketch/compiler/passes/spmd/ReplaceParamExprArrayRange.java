@@ -36,7 +36,7 @@ public class ReplaceParamExprArrayRange extends SymbolTableVisitor {
 
     @Override
     public Object visitProgram(Program prog) {
-        cg = new CallGraph(prog);
+        cg = CallGraph.of(prog);
         return super.visitProgram(prog);
     }
 
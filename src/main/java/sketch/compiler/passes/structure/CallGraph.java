@@ -2,10 +2,17 @@ package sketch.compiler.passes.structure;
 
 import static sketch.util.Misc.nonnull;
 
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import sketch.compiler.ast.core.FEReplacer;
@@ -18,12 +25,20 @@ import sketch.util.datastructures.ObjPairBase;
 import sketch.util.datastructures.TypedHashMap;
 import sketch.util.datastructures.TypedHashSet;
 import sketch.util.exceptions.ExceptionAtNode;
-import sketch.util.fcns.IsChanging;
 
 /**
  * determines which functions call which functions, and the closure. debug print code
  * commented out in GlobalsToParams visitor (if it's not working correctly, or you want to
  * see output).
+ * <p>
+ * The closure is not stored as edges: the strongly connected components of the graph are
+ * found with Tarjan's algorithm, and each component gets a bit set of the functions it
+ * reaches, and one of the functions that reach it, computed over the components in
+ * topological order. closureEdges answers its queries from those bit sets.
+ * <p>
+ * Passes that only query the graph should get it with {@link #of(Program)}, which keeps
+ * it with the program, so that it is computed once for each version of the program.
+ * Since the graph is shared, everything it returns is read-only.
  * 
  * @author gatoatigrado (nicholas tung) [email: ntung at ntung]
  * @license This file is licensed under BSD license, available at
@@ -31,9 +46,21 @@ import sketch.util.fcns.IsChanging;
  *          changes, please consider contributing back!
  */
 public class CallGraph extends FEReplacer {
-    public CGEdgeSet<CallEdge> edges = new CGEdgeSet<CallEdge>();
-    public CGEdgeSet<CallEdge> closureEdges = new CGEdgeSet<CallEdge>();
-    public TypedHashSet<Function> allFcns = new TypedHashSet<Function>();
+    protected final CGEdgeSet<CallEdge> edges = new CGEdgeSet<CallEdge>();
+    protected final CGEdgeSet<CallEdge> closureEdges = new ClosureEdgeSet();
+    protected final TypedHashSet<Function> allFcns = new TypedHashSet<Function>();
+
+    /** all functions, in the order they were visited; the bits of the sets below */
+    protected final List<Function> fcnList = new ArrayList<Function>();
+    protected final Map<Function, Integer> fcnIds = new HashMap<Function, Integer>();
+    /** for each function, the functions it reaches with one or more calls */
+    protected BitSet[] reaches;
+    /** for each function, the functions that reach it with one or more calls */
+    protected BitSet[] reachedBy;
+
+    /** targets of the calls, resolved in the package of the caller */
+    protected final TypedHashMap<ExprFunCall, Function> fcnCallTarget =
+            new TypedHashMap<ExprFunCall, Function>();
 
     /** functions in which the call is made */
     protected final TypedHashMap<ExprFunCall, Function> fcnCallEnclosing =
@@ -61,6 +88,56 @@ public class CallGraph extends FEReplacer {
         buildEdges();
     }
 
+    /**
+     * Returns the call graph of prog, which is computed the first time and then kept with
+     * prog. Passes that change the program return a new Program, which gets its own
+     * graph; the graph is also computed again if the functions of prog were replaced in
+     * place. The graph must not be changed by its users.
+     */
+    public static CallGraph of(Program prog) {
+        CallGraph cg = prog.getAnalysis(CallGraph.class);
+        if (cg == null || !cg.isCurrent()) {
+            cg = new CallGraph(prog);
+            prog.putAnalysis(CallGraph.class, cg);
+        }
+        return cg;
+    }
+
+    /** Whether the functions of the program are still those the graph was built from. */
+    protected boolean isCurrent() {
+        int i = 0;
+        for (Package pkg : cprog.getPackages()) {
+            for (Function f : pkg.getFuncs()) {
+                if (i >= fcnList.size() || fcnList.get(i++) != f) {
+                    return false;
+                }
+            }
+        }
+        return i == fcnList.size();
+    }
+
+    /** Whether caller reaches target with one or more calls. */
+    public boolean reaches(Function caller, Function target) {
+        Integer from = fcnIds.get(caller);
+        Integer to = fcnIds.get(target);
+        return from != null && to != null && reaches[from].get(to);
+    }
+
+    /** All functions of the program. */
+    public Set<Function> getAllFcns() {
+        return Collections.unmodifiableSet(allFcns.asHashSet());
+    }
+
+    /** The functions caller calls directly. */
+    public Set<Function> targetsFrom(Function caller) {
+        return edges.targetsFrom(caller);
+    }
+
+    /** The functions caller reaches with one or more calls. */
+    public Set<Function> closureTargetsFrom(Function caller) {
+        return closureEdges.targetsFrom(caller);
+    }
+
     public Set<Function> callersTo(Function target) {
         return edges.callersTo(target);
     }
@@ -69,6 +146,11 @@ public class CallGraph extends FEReplacer {
 		return closureEdges.callersTo(target);
 	}
 
+    /** Every pair of a function and a function it reaches with one or more calls. */
+    public Iterable<CallEdge> getClosureEdges() {
+        return closureEdges;
+    }
+
     @Override
     public String toString() {
         StringBuilder result = new StringBuilder("=== edges ===\n");
@@ -78,7 +160,7 @@ public class CallGraph extends FEReplacer {
         }
 
         result.append("\n=== closure edges ===\n");
-        for (CallEdge edge : closureEdges.edges) {
+        for (CallEdge edge : closureEdges) {
             result.append("    " + edge.caller().getName() + " -> " +
                     edge.target().getName() + "\n");
         }
@@ -101,6 +183,10 @@ public class CallGraph extends FEReplacer {
 
         enclosing = func;
         allFcns.add(func);
+        if (!fcnIds.containsKey(func)) {
+            fcnIds.put(func, fcnList.size());
+            fcnList.add(func);
+        }
         return super.visitFunction(func);
     }
 
@@ -109,6 +195,10 @@ public class CallGraph extends FEReplacer {
     }
 
     public Function getTarget(ExprFunCall call) {
+        Function target = fcnCallTarget.get(call);
+        if (target != null) {
+            return target;
+        }
         return nonnull(nres.getFun(call.getName()));
     }
 
@@ -139,15 +229,10 @@ public class CallGraph extends FEReplacer {
             final Function target =
                     nonnull(nres.getFun(name), "Unknown function \"" + name + "\" called");
             edges.add(new CallEdge(caller, target));
+            fcnCallTarget.put(ent.getKey(), target);
         }
 
-        // compute closure
-        IsChanging ic = new IsChanging();
-        while (ic.cond(edges.edges.size())) {
-            for (CallEdge edge : edges) {
-                addClosure(edge);
-            }
-        }
+        computeClosure();
 
         // compute sketch relations
         for (Function ent : allFcns) {
@@ -157,17 +242,233 @@ public class CallGraph extends FEReplacer {
         }
     }
 
-    protected void addClosure(CallEdge edge) {
-        if (!closureEdges.edges.contains(edge)) {
-            closureEdges.add(edge);
-            for (Function next : edges.targetsFrom(edge.target())) {
-                addClosure(new CallEdge(edge.caller(), next));
+    /**
+     * Finds the strongly connected components with Tarjan's algorithm, without recursion,
+     * and fills reaches and reachedBy. The components come out in reverse topological
+     * order, so the components a component calls are done before it.
+     */
+    protected void computeClosure() {
+        for (CallEdge edge : edges) {
+            // calls to functions that were not visited, e.g. in other programs.
+            for (Function f : new Function[] { edge.caller(), edge.target() }) {
+                if (!fcnIds.containsKey(f)) {
+                    fcnIds.put(f, fcnList.size());
+                    fcnList.add(f);
+                }
+            }
+        }
+        final int n = fcnList.size();
+        int[][] succ = new int[n][];
+        int[][] pred = new int[n][];
+        for (int v = 0; v < n; ++v) {
+            succ[v] = ids(edges.targetsFrom(fcnList.get(v)));
+            pred[v] = ids(edges.callersTo(fcnList.get(v)));
+        }
+
+        int[] comp = new int[n];
+        List<int[]> comps = new ArrayList<int[]>();
+        int[] low = new int[n];
+        int[] order = new int[n];
+        Arrays.fill(order, -1);
+        int[] stack = new int[n];
+        int sp = 0;
+        boolean[] onStack = new boolean[n];
+        int[] callStack = new int[n];
+        int[] nextEdge = new int[n];
+        int counter = 0;
+        for (int root = 0; root < n; ++root) {
+            if (order[root] >= 0) {
+                continue;
+            }
+            int csp = 0;
+            callStack[csp++] = root;
+            order[root] = low[root] = counter++;
+            stack[sp++] = root;
+            onStack[root] = true;
+            while (csp > 0) {
+                int v = callStack[csp - 1];
+                if (nextEdge[v] < succ[v].length) {
+                    int w = succ[v][nextEdge[v]++];
+                    if (order[w] < 0) {
+                        order[w] = low[w] = counter++;
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        callStack[csp++] = w;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], order[w]);
+                    }
+                    continue;
+                }
+                --csp;
+                if (csp > 0) {
+                    int parent = callStack[csp - 1];
+                    low[parent] = Math.min(low[parent], low[v]);
+                }
+                if (low[v] == order[v]) {
+                    int top = sp;
+                    do {
+                        --sp;
+                        onStack[stack[sp]] = false;
+                        comp[stack[sp]] = comps.size();
+                    } while (stack[sp] != v);
+                    int[] members = new int[top - sp];
+                    System.arraycopy(stack, sp, members, 0, members.length);
+                    comps.add(members);
+                }
+            }
+        }
+
+        reaches = new BitSet[n];
+        reachedBy = new BitSet[n];
+        for (int c = 0; c < comps.size(); ++c) {
+            closureOf(comps.get(c), succ, comp, reaches);
+        }
+        for (int c = comps.size() - 1; c >= 0; --c) {
+            closureOf(comps.get(c), pred, comp, reachedBy);
+        }
+    }
+
+    /**
+     * Sets the functions the members of a component reach through adj, given the sets of
+     * the components it is adjacent to. The members of the component share the set.
+     */
+    private static void closureOf(int[] members, int[][] adj, int[] comp, BitSet[] sets)
+    {
+        BitSet result = new BitSet();
+        boolean cyclic = members.length > 1;
+        for (int v : members) {
+            for (int w : adj[v]) {
+                result.set(w);
+                if (comp[w] != comp[v]) {
+                    result.or(sets[w]);
+                } else {
+                    cyclic = true;
+                }
+            }
+        }
+        if (cyclic) {
+            for (int v : members) {
+                result.set(v);
+            }
+        }
+        for (int v : members) {
+            sets[v] = result;
+        }
+    }
+
+    private int[] ids(Set<Function> fcns) {
+        int[] result = new int[fcns.size()];
+        int i = 0;
+        for (Function f : fcns) {
+            result[i++] = fcnIds.get(f);
+        }
+        return result;
+    }
+
+    /** The functions in bits, as a set that can't be changed. */
+    protected Set<Function> fcnSet(final BitSet bits) {
+        if (bits == null || bits.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return new AbstractSet<Function>() {
+            @Override
+            public boolean contains(Object o) {
+                Integer id = fcnIds.get(o);
+                return id != null && bits.get(id);
             }
+
+            @Override
+            public int size() {
+                return bits.cardinality();
+            }
+
+            @Override
+            public Iterator<Function> iterator() {
+                return new Iterator<Function>() {
+                    int next = bits.nextSetBit(0);
+
+                    public boolean hasNext() {
+                        return next >= 0;
+                    }
+
+                    public Function next() {
+                        if (next < 0) {
+                            throw new NoSuchElementException();
+                        }
+                        Function f = fcnList.get(next);
+                        next = bits.nextSetBit(next + 1);
+                        return f;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /** The closure of the edges, answered from the bit sets. It can't be changed. */
+    protected class ClosureEdgeSet extends CGEdgeSet<CallEdge> {
+        @Override
+        public boolean add(CallEdge edge) {
+            throw new UnsupportedOperationException(
+                    "the closure is computed from the edges");
+        }
+
+        @Override
+        public Set<Function> targetsFrom(Function source) {
+            Integer id = fcnIds.get(source);
+            return id == null ? Collections.<Function> emptySet() : fcnSet(reaches[id]);
+        }
+
+        @Override
+        public Set<Function> callersTo(Function target) {
+            Integer id = fcnIds.get(target);
+            return id == null ? Collections.<Function> emptySet() : fcnSet(reachedBy[id]);
+        }
+
+        @Override
+        public Iterator<CallEdge> iterator() {
+            return new Iterator<CallEdge>() {
+                int caller = -1;
+                int target = -1;
+
+                {
+                    advance();
+                }
+
+                private void advance() {
+                    if (caller >= 0) {
+                        target = reaches[caller].nextSetBit(target + 1);
+                    }
+                    while (target < 0 && ++caller < fcnList.size()) {
+                        target = reaches[caller].nextSetBit(0);
+                    }
+                }
+
+                public boolean hasNext() {
+                    return caller < fcnList.size();
+                }
+
+                public CallEdge next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    CallEdge edge = new CallEdge(fcnList.get(caller), fcnList.get(target));
+                    advance();
+                    return edge;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
         }
     }
 
     /**
-     * see addClosure() for contains queries
+     * a set of edges, with the targets and callers of each function
      * 
      * @author gatoatigrado (nicholas tung) [email: ntung at ntung]
      * @license This file is licensed under BSD license, available at
@@ -188,15 +489,15 @@ public class CallGraph extends FEReplacer {
         }
 
         public Set<Function> targetsFrom(Function source) {
-            return outgoingEdges.getOrEmpty(source);
+            return Collections.unmodifiableSet(outgoingEdges.getOrEmpty(source));
         }
 
         public Set<Function> callersTo(Function target) {
-            return reverseEdges.getOrEmpty(target);
+            return Collections.unmodifiableSet(reverseEdges.getOrEmpty(target));
         }
 
         public Iterator<T> iterator() {
-            return edges.iterator();
+            return Collections.unmodifiableSet(edges.asHashSet()).iterator();
         }
     }
 
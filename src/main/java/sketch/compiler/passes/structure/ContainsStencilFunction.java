@@ -14,8 +14,8 @@ import sketch.compiler.ast.core.Program;
 public class ContainsStencilFunction extends ASTQuery {
     @Override
     public Object visitProgram(Program prog) {
-        CallGraph cg = new CallGraph(prog);
-        for (Function f : cg.allFcns) {
+        CallGraph cg = CallGraph.of(prog);
+        for (Function f : cg.getAllFcns()) {
             if (f.isStencil()) {
                 this.result = true;
             }
@@ -0,0 +1,197 @@
+package sketch.compiler.solvers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import sketch.util.SynchronousTimedProcess;
+
+/**
+ * Parses the output of the CEGIS solver a line at a time, while the solver runs. It
+ * gathers the statistics that used to be searched for in the whole output after the
+ * solver had exited, and tells its listeners about the progress of the solver as the
+ * lines arrive. Only the statistics are kept, not the lines, so its memory does not grow
+ * with the length of the output. A listener may stop the solver with stop(). The rest of
+ * a line is skipped at a number that doesn't parse.
+ */
+public class CegisOutputParser extends SynchronousTimedProcess.OutputHandler {
+    /** Receives the progress of the solver. All methods do nothing by default. */
+    public static abstract class Listener {
+        /** A CEGIS iteration finished; times are those of this iteration. */
+        public void iteration(CegisOutputParser parser, int iteration, double findMs,
+                double checkMs, double totalMs)
+        {}
+
+        /** The solver built the problem, with the given number of nodes. */
+        public void initialNodes(CegisOutputParser parser, long nodes) {}
+
+        /** The solver simplified the problem to the given number of nodes. */
+        public void finalNodes(CegisOutputParser parser, long nodes) {}
+
+        /** The solver fixed a hole to a value out of bound possible ones. */
+        public void holeConcretized(CegisOutputParser parser, String hole, int value,
+                int bound)
+        {}
+    }
+
+    private static final String NUM = "(\\d+(?:\\.\\d+)?)";
+    /** The summary the solver prints at exit; the lines must come in this order. */
+    private static final Pattern[] SUMMARY = {
+            Pattern.compile("Total elapsed time \\(ms\\):\\s+" + NUM + "$"),
+            Pattern.compile("Model building time \\(ms\\):\\s+" + NUM + "$"),
+            Pattern.compile("Solution time \\(ms\\):\\s+" + NUM + "$"),
+            Pattern.compile("Max virtual mem \\(bytes\\):\\s+(\\d+)") };
+    private static final Pattern ITERATION =
+            Pattern.compile("FIND TIME (\\S+) CHECK TIME (\\S+) TOTAL TIME (\\S+)");
+    private static final Pattern INITIAL_NODES = Pattern.compile("SKETCH nodes = (\\d+)");
+    private static final Pattern FINAL_NODES =
+            Pattern.compile("Final Problem size: Problem nodes = (\\d+)");
+    private static final Pattern CONTROLS = Pattern.compile("# OF CONTROLS:\\s+(\\d+)");
+    private static final Pattern CONTROL_BITS = Pattern.compile("ctrlSize = (\\d+)");
+    private static final Pattern HOLE =
+            Pattern.compile("(H__\\S+): replacing with value (\\d+) bnd= (\\d+)");
+
+    private final List<Listener> listeners = new ArrayList<Listener>();
+
+    private final long[] summary = new long[SUMMARY.length];
+    private int summaryLine = 0;
+    private boolean haveSummary = false;
+    private int iterations = 0;
+    private long iterationTimeMs = 0;
+    private long initialNodes = -1;
+    private long finalNodes = -1;
+    private long controls = -1;
+    private long controlBits = -1;
+    private double probability = 1.0;
+    private int badLines = 0;
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /** Parses the lines of out, which is all of the output of a solver run. */
+    public void parse(String out) {
+        for (String line : out.split("\\r\\n|\\n|\\r")) {
+            line(line);
+        }
+    }
+
+    public void line(String line) {
+        try {
+            parseLine(line);
+        } catch (NumberFormatException e) {
+            ++badLines;
+        }
+    }
+
+    private void parseLine(String line) {
+        parseSummary(line);
+
+        Matcher m = ITERATION.matcher(line);
+        if (m.find()) {
+            double find = Double.parseDouble(m.group(1));
+            double check = Double.parseDouble(m.group(2));
+            double total = Double.parseDouble(m.group(3));
+            ++iterations;
+            iterationTimeMs += (long) Float.parseFloat(m.group(3));
+            for (Listener l : listeners) {
+                l.iteration(this, iterations, find, check, total);
+            }
+        }
+        if (line.indexOf("H__") >= 0) {
+            m = HOLE.matcher(line);
+            while (m.find()) {
+                int value = Integer.parseInt(m.group(2));
+                int bound = Integer.parseInt(m.group(3));
+                if (bound > 1) {
+                    probability /= bound;
+                }
+                for (Listener l : listeners) {
+                    l.holeConcretized(this, m.group(1), value, bound);
+                }
+            }
+        }
+        if (initialNodes < 0 && (m = INITIAL_NODES.matcher(line)).find()) {
+            initialNodes = Long.parseLong(m.group(1));
+            for (Listener l : listeners) {
+                l.initialNodes(this, initialNodes);
+            }
+        }
+        if (finalNodes < 0 && (m = FINAL_NODES.matcher(line)).find()) {
+            finalNodes = Long.parseLong(m.group(1));
+            for (Listener l : listeners) {
+                l.finalNodes(this, finalNodes);
+            }
+        }
+        if (controls < 0 && (m = CONTROLS.matcher(line)).find()) {
+            controls = Long.parseLong(m.group(1));
+        }
+        if (controlBits < 0 && (m = CONTROL_BITS.matcher(line)).find()) {
+            controlBits = Long.parseLong(m.group(1));
+        }
+    }
+
+    /** Only the first complete summary counts. */
+    private void parseSummary(String line) {
+        if (haveSummary) {
+            return;
+        }
+        Matcher m = SUMMARY[summaryLine].matcher(line);
+        boolean matched = summaryLine == 0 ? m.find() : m.lookingAt();
+        if (!matched && summaryLine > 0) {
+            summaryLine = 0;
+            m = SUMMARY[0].matcher(line);
+            matched = m.find();
+        }
+        if (!matched) {
+            return;
+        }
+        summary[summaryLine] =
+                summaryLine < 3 ? (long) Float.parseFloat(m.group(1)) : Long
+                        .parseLong(m.group(1));
+        ++summaryLine;
+        if (summaryLine == SUMMARY.length) {
+            haveSummary = true;
+        }
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /** The number of lines that were skipped because a number in them didn't parse. */
+    public int getBadLines() {
+        return badLines;
+    }
+
+    /**
+     * The probability of picking the values of the holes the solver concretized, if
+     * each value of a hole is equally likely.
+     */
+    public double getProbability() {
+        return probability;
+    }
+
+    /** Returns the statistics of the lines seen so far. */
+    public SATSolutionStatistics getStatistics() {
+        SATSolutionStatistics s = new SATSolutionStatistics();
+        if (haveSummary) {
+            s.elapsedTimeMs = summary[0];
+            s.modelBuildingTimeMs = summary[1];
+            s.solutionTimeMs = summary[2];
+            s.maxMemUsageBytes = summary[3];
+        } else {
+            // even failed case, we need elapsed time
+            s.elapsedTimeMs = iterations > 0 ? iterationTimeMs : -1;
+            s.modelBuildingTimeMs = -1;
+            s.solutionTimeMs = -1;
+            s.maxMemUsageBytes = -1;
+        }
+        s.numNodesInitial = initialNodes;
+        s.numNodesFinal = finalNodes;
+        s.numControls = controls;
+        s.numControlBits = controlBits;
+        return s;
+    }
+}
@@ -4,6 +4,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Vector;
 
 import sketch.compiler.ast.core.Program;
@@ -20,11 +22,21 @@ public class InteractiveSATBackend extends SATBackend {
 			RecursionControl rcontrol, TempVarGen varGen) {
 		super(options, rcontrol, varGen);
 		ht = new StaticHoleTracker(varGen);
-		// TODO Auto-generated constructor stub
+		if (options.solverOpts.sendChanged) {
+			acknowledged = new HashMap<String, String>();
+		}
 	}
 
 	InteractiveTimedProcess proc;
 	final StaticHoleTracker ht;
+
+	/**
+	 * Digests of the functions the solver has read in rounds that it completed, or null
+	 * to send every function in every round. Functions are still translated in every
+	 * round, since their text depends on the rest of the program and is what is
+	 * compared; only writing them and reading them again is saved.
+	 */
+	Map<String, String> acknowledged = null;
 	
 	public void initializeSolver(){
 		String interactiveFlag = "-interactive";
@@ -32,7 +44,7 @@ public class InteractiveSATBackend extends SATBackend {
 		if (!opts.contains(interactiveFlag)) {
 		    opts.add(interactiveFlag);
 		}
-        String[] commandLine = getBackendCommandline(0, 1, options.getBackendOptions());
+        String[] commandLine = getBackendCommandline(0, 1, opts);
 		{
 			String cmdLine = "";
 			for (String a : commandLine)  cmdLine += a + " ";
@@ -60,7 +72,29 @@ public class InteractiveSATBackend extends SATBackend {
 	public boolean partialEvalAndSolve(Program prog){
 		oracle = new ValueOracle( ht );
 		log ("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
-			
+		// what this round sends only counts once the solver has completed it.
+		sentFunctions = acknowledged == null ? null
+				: new HashMap<String, String>(acknowledged);
+		boolean completed = false;
+		try {
+			completed = sendAndWait(prog);
+		} finally {
+			if (acknowledged != null) {
+				if (completed) {
+					acknowledged = sentFunctions;
+				} else {
+					// we can not tell what the solver kept, so send everything again.
+					acknowledged.clear();
+				}
+			}
+		}
+		String fname = options.feOpts.output + ".tmp";
+		extractOracleFromOutput(fname);
+		return proc.stillActive();
+	}
+
+	/** Writes prog to the solver and returns whether it completed the round. */
+	boolean sendAndWait(Program prog){
 		try{						
 			final OutputStream pos = proc.getOutputStream(); 
 			OutputStream multiplex = null;
@@ -90,10 +124,7 @@ public class InteractiveSATBackend extends SATBackend {
 		}catch(IOException ioe){
 			throw new RuntimeException(ioe.getMessage());
 		}
-		proc.waitForAnswer("COMPLETED", false);
-		String fname = options.feOpts.output + ".tmp";
-		extractOracleFromOutput(fname);
-		return proc.stillActive();
+		return proc.waitForAnswer("COMPLETED", false);
 	}
 	
 	public void cleanup(){
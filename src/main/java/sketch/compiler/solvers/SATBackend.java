@@ -1,19 +1,37 @@
 package sketch.compiler.solvers;
 
 import java.io.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 
 import static sketch.util.DebugOut.assertFalse;
 import static sketch.util.DebugOut.printDebug;
+import static sketch.util.DebugOut.printWarning;
 
 import sketch.compiler.ast.core.Program;
 import sketch.compiler.ast.core.TempVarGen;
+import sketch.compiler.dataflow.concrete.ConcreteChecker;
+import sketch.compiler.dataflow.intervals.HoleWidths;
 import sketch.compiler.dataflow.recursionCtrl.RecursionControl;
 import sketch.compiler.main.PlatformLocalization;
 import sketch.compiler.main.PlatformLocalization.ResolveFromFileAndPATH;
@@ -24,7 +42,6 @@ import sketch.compiler.passes.structure.HasMinimize;
 import sketch.compiler.solvers.constructs.RandomValueOracle;
 import sketch.compiler.solvers.constructs.StaticHoleTracker;
 import sketch.compiler.solvers.constructs.ValueOracle;
-import sketch.util.Misc;
 import sketch.util.NullStream;
 import sketch.util.ProcessStatus;
 import sketch.util.SynchronousTimedProcess;
@@ -43,6 +60,11 @@ public class SATBackend {
     private SATSolutionStatistics lastSolveStats;
     public final SketchOptions options;
     protected boolean minimize = false;
+    protected final SolutionCache solutionCache;
+    /** Digest of the last backend file written, if the solution cache is enabled. */
+    private MessageDigest problemDigest;
+    /** File name under which the solver reads the problem from its standard input. */
+    protected static final String STDIN_PATH = "/dev/stdin";
 
     public SATBackend(SketchOptions options,
             RecursionControl rcontrol, TempVarGen varGen)
@@ -50,6 +72,14 @@ public class SATBackend {
         this.options = options;
         this.rcontrol = rcontrol;
         this.varGen = varGen;
+        if (options.feOpts.solCache != null) {
+            this.solutionCache =
+                    SolutionCache.open(new File(options.feOpts.solCache),
+                            options.feOpts.solCacheMb * 1024L * 1024L,
+                            options.feOpts.solCacheDays * 24L * 3600L * 1000L);
+        } else {
+            this.solutionCache = null;
+        }
 
         // convert comma-separated degree of String into int
         this.randdegrees = new ArrayList<Integer>();
@@ -71,6 +101,11 @@ public class SATBackend {
         tracing = true;
     }
 
+    /** Makes the parser of the output of one solver run. */
+    protected CegisOutputParser newOutputParser() {
+        return new CegisOutputParser();
+    }
+
     protected List<Integer> randdegrees;
 
     @SuppressWarnings("unchecked")
@@ -130,6 +165,13 @@ public class SATBackend {
         return result;
     }
 
+    /**
+     * If not null, functions already sent to the solver with the same text are left out
+     * of the problem; see
+     * {@link sketch.compiler.dataflow.nodesToSB.ProduceBooleanFunctions#setSentFunctions(Map)}.
+     */
+    protected Map<String, String> sentFunctions = null;
+
     protected void partialEval(Program prog, OutputStream outStream) {
         PrintStream pstream = new PrintStream(outStream, false);
         sketch.compiler.dataflow.nodesToSB.ProduceBooleanFunctions partialEval =
@@ -138,6 +180,16 @@ public class SATBackend {
                         pstream
                         // System.out
                         , options.bndOpts.unrollAmnt, options.bndOpts.arrSize , rcontrol, tracing);
+        partialEval.setShareThreshold(options.feOpts.shareSubterms);
+        partialEval.setEmitThreads(options.feOpts.emitThreads);
+        // a call that is left out would not add its minimize() terms to the cost.
+        partialEval.setSummarizeCalls(options.feOpts.summarizeCalls && !minimize);
+        if (options.feOpts.narrowHoles) {
+            Map<String, Integer> widths = HoleWidths.compute(prog, options.bndOpts.unrollAmnt);
+            log("NARROWED HOLES = " + widths.size());
+            partialEval.setHoleWidths(widths);
+        }
+        partialEval.setSentFunctions(sentFunctions);
         log("MAX LOOP UNROLLING = " + options.bndOpts.unrollAmnt);
         log("MAX FUNC INLINING  = " + options.bndOpts.inlineAmnt);
         
@@ -147,10 +199,14 @@ public class SATBackend {
         log("After prog.accept(partialEval)");
     }
 
-    public Program preprocess(Program prog) {
+    protected static boolean hasMinimize(Program prog) {
         final HasMinimize hasMinimize = new HasMinimize();
         hasMinimize.visitProgram(prog);
-        if (hasMinimize.hasMinimize()) {
+        return hasMinimize.hasMinimize();
+    }
+
+    public Program preprocess(Program prog) {
+        if (hasMinimize(prog)) {
             minimize = true;
             final AbstractCostFcnAssert costFcnAssert =
                     new AbstractCostFcnAssert(options.bndOpts.mbits);
@@ -182,10 +238,36 @@ public class SATBackend {
         if (options.debugOpts.fakeSolver) {
             worked = true;
             options.setSolFileIdx("");
+        } else if (options.solverOpts.feMinimize > 0 && hasMinimize(prog)) {
+            options.cleanTemp();
+            worked = frontendMinimize(prog);
+        } else if (canStreamToSolver()) {
+            options.cleanTemp();
+            worked = streamAndSolve(preprocess(prog), options.solverOpts.timeout);
         } else {
             options.cleanTemp();
             writeProgramToBackendFormat(preprocess(prog));
-            worked = solve(oracle, minimize, options.solverOpts.timeout);
+            String cacheKey = solutionCacheKey();
+            SolutionCache.Hit hit = null;
+            if (cacheKey != null) {
+                hit =
+                        solutionCache.lookup(cacheKey,
+                                new File(options.getSolutionsString(0)));
+            }
+            if (hit != null) {
+                log(1, "Reusing cached solution " + cacheKey);
+                options.setSolFileIdx("0");
+                if (hit.starSizeCap >= 0) {
+                    oracle.capStarSizes(hit.starSizeCap);
+                }
+                lastSolveStats = cachedStats(hit);
+                worked = true;
+            } else {
+                worked = solve(oracle, minimize, options.solverOpts.timeout);
+                if (worked && cacheKey != null) {
+                    storeSolution(cacheKey);
+                }
+            }
         }
 
         if (!worked && !options.feOpts.forceCodegen) {
@@ -226,6 +308,9 @@ public class SATBackend {
                     options.sktmpdir());
         }
         extractOracleFromOutput(solutions[0].getPath());
+        if (options.solverOpts.prescreen > 0) {
+            prescreen(prog);
+        }
         if (!(options.feOpts.keepTmp || options.debugOpts.fakeSolver)) {
             options.cleanTemp();
         } else if (options.feOpts.keepTmp) {
@@ -234,50 +319,302 @@ public class SATBackend {
         return worked;
     }
 
-    protected boolean frontendMinimize(Program prog, File sketchOutputFile,
-            File bestValueFile, boolean worked)
-    {
-        IntRange currRange = IntRange.inclusive(0, 2 * options.bndOpts.costEstimate);
+    /**
+     * Runs the solution on random inputs. A failure only gives a warning: the solver
+     * checks the program within its bounds, and the interpreter may still differ from
+     * the backend, so a failure is a hint for the user to look into.
+     */
+    protected void prescreen(Program prog) {
+        ConcreteChecker checker =
+                new ConcreteChecker(prog, options.bndOpts.inbits, options.solverOpts.seed);
+        ConcreteChecker.Failure fail = checker.check(oracle, options.solverOpts.prescreen);
+        if (fail != null) {
+            printWarning("The solution fails a concrete run.", fail);
+        } else {
+            log(2, "The solution passed " + options.solverOpts.prescreen +
+                    " concrete runs per function, " + checker.getSkipped() + " given up.");
+        }
+    }
+
+    /**
+     * Whether the backend problem can be piped into the solver's standard input instead
+     * of being written to a file first. This needs a single solver run that reads the
+     * problem once, and nothing else that wants to read the file.
+     */
+    protected boolean canStreamToSolver() {
+        return options.feOpts.pipeSolver && !options.solverOpts.parallel &&
+                !options.bndOpts.incremental.isSet && solutionCache == null &&
+                options.debugOpts.checkBackInput == null && new File(STDIN_PATH).exists();
+    }
+
+    /**
+     * Starts the solver on its standard input and runs partial evaluation into it, so the
+     * solver parses the problem while it is still being produced. With --fe-keep-tmp, a
+     * copy of the problem is also written to the usual file.
+     */
+    protected boolean streamAndSolve(Program prog, float timeoutMins) {
+        String[] commandLine =
+                minimize ? getBackendCommandline(0, 1, options.getBackendOptions(),
+                        "--minvarHole") : getBackendCommandline(0, 1,
+                        options.getBackendOptions());
+        commandLine[commandLine.length - 1] = STDIN_PATH;
+        SATSolutionStatistics stat = null;
+        Semaphore slot = SolverSlots.acquire();
+        try {
+            final SynchronousTimedProcess proc = startSolver(commandLine, timeoutMins);
+            final CegisOutputParser parser = newOutputParser();
+            FutureTask<ProcessStatus> running =
+                    new FutureTask<ProcessStatus>(new Callable<ProcessStatus>() {
+                        public ProcessStatus call() {
+                            return proc.run(false, parser);
+                        }
+                    });
+            // the solver's output is drained on another thread, so it can't block on a full
+            // pipe while we are still writing its input.
+            new Thread(running, "solver").start();
+            try {
+                OutputStream outStream =
+                        new BufferedOutputStream(proc.getOutputStream(), 1 << 16);
+                if (options.feOpts.keepTmp) {
+                    outStream =
+                            new TeeOutputStream(outStream, new BufferedOutputStream(
+                                    new FileOutputStream(options.getTmpSketchFilename()),
+                                    1 << 16));
+                }
+                try {
+                    partialEval(prog, outStream);
+                } finally {
+                    outStream.close();
+                }
+            } catch (IOException e) {
+                // the solver exited before reading all of its input; its status says why.
+                log(0, "couldn't send the whole problem to the solver: " + e.getMessage());
+            } catch (RuntimeException e) {
+                proc.getProc().destroy();
+                throw e;
+            }
+            try {
+                stat = solverResult(running.get(), parser, timeoutMins);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } catch (SketchSolverException e) {
+                e.setBackendTempPath(options.getTmpSketchFilename());
+            }
+        } finally {
+            SolverSlots.release(slot);
+        }
+        if (stat != null && !stat.success) {
+            log(5, "The sketch cannot be resolved.");
+        }
+        return stat != null && stat.success;
+    }
+
+    /**
+     * Returns the key of the solution cache for the backend file that was just written,
+     * or null if the cache is disabled.
+     */
+    protected String solutionCacheKey() {
+        if (solutionCache == null || problemDigest == null) {
+            return null;
+        }
+        String[] cmd = getBackendCommandline(0, 1, options.getBackendOptions());
+        // the solver is identified by its file rather than its path, and the names of
+        // temporary files are left out.
+        List<String> args = new ArrayList<String>();
+        for (int i = 1; i < cmd.length - 1; ++i) {
+            if (cmd[i].equals("-o")) {
+                ++i;
+            } else {
+                args.add(cmd[i]);
+            }
+        }
+        args.add("minimize=" + minimize);
+        MessageDigest md = problemDigest;
+        problemDigest = null;
+        SolutionCache.addSolver(md, cmd[0]);
+        SolutionCache.addSettings(md, args, options.bndOpts);
+        return SolutionCache.toKey(md);
+    }
+
+    /**
+     * The statistics of a solution taken from the cache: those the solver printed when
+     * it found it, but with no time spent solving.
+     */
+    protected SATSolutionStatistics cachedStats(SolutionCache.Hit hit) {
+        SATSolutionStatistics stat =
+                hit.output != null ? parseStats(hit.output) : new SATSolutionStatistics();
+        stat.success = true;
+        stat.unsat = false;
+        stat.killedByTimeout = false;
+        stat.elapsedTimeMs = 0;
+        stat.solutionTimeMs = 0;
+        return stat;
+    }
+
+    protected void storeSolution(String cacheKey) {
+        File[] solutions = options.getSolutionsFiles();
+        if (solutions.length != 1) {
+            return;
+        }
+        try {
+            solutionCache.store(cacheKey, new File(options.getTmpSketchFilename()),
+                    solutions[0], lastSolveStats == null ? null : lastSolveStats.out,
+                    oracle.getStarSizeCap());
+        } catch (IOException e) {
+            log(0, "couldn't add the solution to the cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Minimizes the cost of the minimize() statements in the frontend. Each probe asks
+     * the solver for a solution whose cost is below a bound, which narrows the range of
+     * bounds left as in a binary search: a probe that succeeds sets its upper end, and
+     * one that fails its lower end. Up to --slv-fe-minimize probes run at the same time,
+     * on bounds that split the largest gaps of the range; each result narrows the range
+     * as soon as it comes, and the probes it makes useless are stopped.<BR>
+     * Until a probe succeeds, a failure of the highest bound doubles the range and the
+     * timeout of later probes. The solution of the smallest bound that succeeded is left
+     * as the solution file.<BR>
+     * With --bnd-incremental, the integer size is found first, as the solver does when
+     * it minimizes: the smallest one for which the sketch has a solution at all. Every
+     * probe then runs with that size.
+     */
+    protected boolean frontendMinimize(Program prog) {
+        String[] intSize = new String[0];
+        if (options.bndOpts.incremental.isSet) {
+            writeProgramToBackendFormat(preprocess(prog));
+            SATSolutionStatistics stat =
+                    incrementalSolve(oracle, false, options.solverOpts.timeout);
+            if (stat == null || !stat.success) {
+                return false;
+            }
+            intSize = new String[] { "--bnd-cbits=" + oracle.getStarSizeCap() };
+        }
+        int jobs = options.solverOpts.feMinimize;
+        IntRange range = IntRange.inclusive(0, 2 * options.bndOpts.costEstimate);
         float timeout = Math.max(1.f, options.solverOpts.timeout) / ((float) (1 << 10));
-        for (int a = 0; a < 100 && !currRange.isEmpty(); a++) {
-            // choose a value from not-yet-inspected values
-            final int currValue = (int) currRange.middle();
-            System.err.println("current: " + currValue + " \\in " + currRange);
-            log(2, "current range: " + currValue + " \\in " + currRange);
-
-            // rewrite the minimize statements in the program
-            final CostFcnAssert costFcnAssert = new CostFcnAssert(currValue);
-            writeProgramToBackendFormat((Program) costFcnAssert.visitProgram(prog));
-
-            // actually run the solver
-            SATSolutionStatistics currResult = incrementalSolve(oracle, false, timeout);
-            worked |= currResult.success;
-            if (!currResult.success) {
-                // didn't work. explore the upper interval, and explore more if we
-                // haven't
-                // found any solution yet
-                currRange = currRange.nextInfemum(currValue);
-                if (!worked) {
-                    timeout *= 2;
-                    currRange = currRange.nextMax(currRange.max * 2);
-                    // if the sketch is buggy, don't take too much time to fail.
-                    if (a >= 10) {
+        Vector<String> backendOptions = options.getBackendOptions();
+        String input = options.getTmpSketchFilename();
+        String solution = options.getSolutionsString(0);
+        TreeMap<Integer, SolverRun> running = new TreeMap<Integer, SolverRun>();
+        List<Integer> probed = new ArrayList<Integer>();
+        boolean worked = false;
+        int best = -1;
+        int growths = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        CompletionService<SolverRun> done = new ExecutorCompletionService<SolverRun>(pool);
+        try {
+            while (true) {
+                while (running.size() < jobs && probed.size() < 100) {
+                    Integer bound = nextCostProbe(range, running.navigableKeySet());
+                    if (bound == null) {
                         break;
                     }
+                    log(2, "current range: " + bound + " \\in " + range);
+                    // the problems of the probes only differ in the bound of the assertion.
+                    writeProgramToBackendFormat((Program) new CostFcnAssert(bound)
+                            .visitProgram(prog));
+                    String probeInput = input + "-bound" + bound;
+                    if (!new File(input).renameTo(new File(probeInput))) {
+                        throw new SketchSolverException("Could not move " + input +
+                                " to " + probeInput);
+                    }
+                    String[] commandLine =
+                            getBackendCommandline(0, 1, backendOptions, intSize);
+                    commandLine[commandLine.length - 1] = probeInput;
+                    SolverRun run =
+                            new SolverRun(bound, withSolutionFile(commandLine, solution +
+                                    "-bound" + bound), timeout);
+                    running.put(bound, run);
+                    probed.add(bound);
+                    done.submit(run);
                 }
-            } else {
-                // try the next range, and save the result
-                currRange = currRange.nextSupremum(currValue);
-                try {
-                    FileUtils.copyFile(sketchOutputFile, bestValueFile);
-                } catch (IOException e) {
-                    e.printStackTrace();
+                if (running.isEmpty()) {
+                    break;
+                }
+                SolverRun run = takeRun(done);
+                if (running.remove(run.key) == null) {
+                    // a run that was stopped.
+                    continue;
                 }
+                run.stat = solverResult(run.status, run.parser, run.timeoutMins);
+                if (run.stat.success) {
+                    // probes outside of the range are stopped, so this is the best so far.
+                    worked = true;
+                    best = run.key;
+                    range = range.nextSupremum(run.key);
+                } else {
+                    boolean highest = running.isEmpty() || run.key > running.lastKey();
+                    range = range.nextInfemum(run.key);
+                    if (!worked && highest) {
+                        // if the sketch is buggy, don't take too much time to fail.
+                        if (++growths > 10) {
+                            break;
+                        }
+                        timeout *= 2;
+                        range = range.nextMax(range.max * 2);
+                    }
+                }
+                for (Iterator<SolverRun> it = running.values().iterator(); it.hasNext();) {
+                    SolverRun r = it.next();
+                    if (r.key < range.min || r.key > range.max) {
+                        r.cancel();
+                        it.remove();
+                    }
+                }
+            }
+        } finally {
+            for (SolverRun r : running.values()) {
+                r.cancel();
+            }
+            pool.shutdownNow();
+        }
+
+        for (int bound : probed) {
+            if (!options.feOpts.keepTmp) {
+                new File(input + "-bound" + bound).delete();
+            }
+            if (bound != best) {
+                new File(solution + "-bound" + bound).delete();
+            }
+        }
+        if (worked) {
+            log(2, "minimal cost bound: " + best);
+            File won = new File(solution);
+            won.delete();
+            if (!new File(solution + "-bound" + best).renameTo(won)) {
+                throw new SketchSolverException("Could not move the solution of bound " +
+                        best + " to " + solution);
             }
         }
         return worked;
     }
 
+    /**
+     * The bound for the next probe of frontendMinimize: the middle of the largest gap
+     * between the ends of range and the bounds being probed, or null if every bound in
+     * the range is being probed.
+     */
+    protected static Integer nextCostProbe(IntRange range, SortedSet<Integer> probing) {
+        List<Long> ends = new ArrayList<Long>();
+        for (int bound : probing) {
+            ends.add((long) bound);
+        }
+        ends.add(range.supremum);
+        long lo = range.infemum;
+        long gapLo = 0, gap = 1;
+        for (long hi : ends) {
+            if (hi - lo > gap) {
+                gap = hi - lo;
+                gapLo = lo;
+            }
+            lo = hi;
+        }
+        return gap > 1 ? (int) (gapLo + gap / 2) : null;
+    }
+
     public void checkBackendInput(String fileName) {
         String check = options.debugOpts.checkBackInput;
         if (check != null) {
@@ -311,7 +648,11 @@ public class SATBackend {
                 // if (options.getTmpName != null)
                 fileName = options.getTmpSketchFilename();
                 outStream =
-                        new BufferedOutputStream(new FileOutputStream(fileName), 4096);
+                        new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16);
+                if (solutionCache != null) {
+                    problemDigest = SolutionCache.newDigest();
+                    outStream = new DigestOutputStream(outStream, problemDigest);
+                }
             }
             // else
             // DebugOut.assertFalse("no temporary filename defined.");
@@ -369,7 +710,9 @@ public class SATBackend {
         SATSolutionStatistics ret = null;
 
         // minimize
-        if (options.bndOpts.incremental.isSet) {
+        if (options.bndOpts.incremental.isSet && incrementalJobs() > 1) {
+            ret = raceIntSizes(oracle, backendOptions, timeoutMins, fileIdx, cpus);
+        } else if (options.bndOpts.incremental.isSet) {
             boolean isSolved = false;
             int bits = 0;
             int maxBits = options.bndOpts.incremental.value;
@@ -406,6 +749,185 @@ public class SATBackend {
         return ret;
     }
 
+    /** How many integer sizes of --bnd-incremental to run at the same time. */
+    protected int incrementalJobs() {
+        if (options.solverOpts.parallel) {
+            // the parallel trials already use the cores.
+            return 1;
+        }
+        int jobs = options.bndOpts.incrementalJobs;
+        if (jobs <= 0) {
+            jobs = Runtime.getRuntime().availableProcessors();
+        }
+        return Math.min(jobs, options.bndOpts.incremental.value);
+    }
+
+    /**
+     * The search of --bnd-incremental, with the solver running on several sizes at the
+     * same time: sizes are started from 1 bit up as runs finish, and once a size
+     * succeeds, the runs on larger sizes are stopped and no larger size is started. The
+     * result is that of the smallest size that succeeds, as in the sequential search,
+     * but the runs that fail on smaller sizes no longer add up.<BR>
+     * Each run writes its solution to its own file, and that of the size that wins is
+     * moved to the usual one.
+     */
+    protected SATSolutionStatistics raceIntSizes(ValueOracle oracle,
+            Vector<String> backendOptions, float timeoutMins, int fileIdx, int cpus)
+    {
+        int maxBits = options.bndOpts.incremental.value;
+        int jobs = incrementalJobs();
+        String solution = options.getSolutionsString(fileIdx);
+        SolverRun[] finished = new SolverRun[maxBits + 1];
+        Map<Integer, SolverRun> running = new HashMap<Integer, SolverRun>();
+        // the smallest size that succeeded so far.
+        int best = maxBits + 1;
+        int next = 1;
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        CompletionService<SolverRun> done =
+                new ExecutorCompletionService<SolverRun>(pool);
+        try {
+            while (true) {
+                while (running.size() < jobs && next < best) {
+                    log("TRYING SIZE " + next);
+                    String[] commandLine =
+                            getBackendCommandline(fileIdx, cpus, backendOptions,
+                                    "--bnd-cbits=" + next);
+                    SolverRun run =
+                            new SolverRun(next, withSolutionFile(commandLine, solution +
+                                    "-bits" + next), timeoutMins);
+                    running.put(next, run);
+                    done.submit(run);
+                    ++next;
+                }
+                if (running.isEmpty()) {
+                    break;
+                }
+                SolverRun run = takeRun(done);
+                if (running.remove(run.key) == null) {
+                    // a run that was stopped.
+                    continue;
+                }
+                run.stat = solverResult(run.status, run.parser, timeoutMins);
+                finished[run.key] = run;
+                if (run.stat.success) {
+                    best = Math.min(best, run.key);
+                    // stopped runs are not waited for.
+                    for (Iterator<SolverRun> it = running.values().iterator(); it
+                            .hasNext();)
+                    {
+                        SolverRun r = it.next();
+                        if (r.key > best) {
+                            log("Stopping size " + r.key);
+                            r.cancel();
+                            it.remove();
+                        }
+                    }
+                } else {
+                    log("Size " + run.key + " is not enough");
+                }
+            }
+        } finally {
+            for (SolverRun r : running.values()) {
+                r.cancel();
+            }
+            pool.shutdownNow();
+        }
+
+        for (int bits = 1; bits <= maxBits; ++bits) {
+            if (bits != best) {
+                new File(solution + "-bits" + bits).delete();
+            }
+        }
+        SolverRun result = finished[Math.min(best, maxBits)];
+        if (best <= maxBits) {
+            log("Succeded with " + best + " bits for integers");
+            File won = new File(solution);
+            won.delete();
+            if (!new File(solution + "-bits" + best).renameTo(won)) {
+                throw new SketchSolverException("Could not move the solution of size " +
+                        best + " to " + solution);
+            }
+            oracle.capStarSizes(best);
+        }
+        if (result == null) {
+            return null;
+        }
+        lastSolveStats = result.stat;
+        solverErrorStr = result.status.err;
+        return result.stat;
+    }
+
+    /** Waits for the next of the runs of done to finish. */
+    protected static SolverRun takeRun(CompletionService<SolverRun> done) {
+        try {
+            return done.take().get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** Replaces the file after -o in commandLine. */
+    protected static String[] withSolutionFile(String[] commandLine, String file) {
+        for (int i = commandLine.length - 2; i >= 0; --i) {
+            if (commandLine[i].equals("-o")) {
+                commandLine[i + 1] = file;
+                break;
+            }
+        }
+        return commandLine;
+    }
+
+    /**
+     * One of several solver runs that go on at the same time, which can be stopped from
+     * another thread. The key tells the runs apart: the integer size, or the cost bound.
+     */
+    private class SolverRun implements Callable<SolverRun> {
+        final int key;
+        final String[] commandLine;
+        final float timeoutMins;
+        final CegisOutputParser parser = newOutputParser();
+        volatile boolean cancelled = false;
+        volatile SynchronousTimedProcess proc;
+        ProcessStatus status;
+        SATSolutionStatistics stat;
+
+        SolverRun(int key, String[] commandLine, float timeoutMins) {
+            this.key = key;
+            this.commandLine = commandLine;
+            this.timeoutMins = timeoutMins;
+        }
+
+        public SolverRun call() {
+            Semaphore slot = SolverSlots.acquire();
+            try {
+                if (!cancelled) {
+                    proc = startSolver(commandLine, timeoutMins);
+                    // cancel() may have run before proc was set.
+                    if (cancelled) {
+                        proc.getProc().destroy();
+                    }
+                    status = proc.run(false, parser);
+                }
+                return this;
+            } finally {
+                SolverSlots.release(slot);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            SynchronousTimedProcess p = proc;
+            if (p != null) {
+                p.getProc().destroy();
+            }
+        }
+    }
+
     protected void logCmdLine(String[] commandLine){
         String cmdLine = "";
         for (String a : commandLine)  cmdLine += a + " ";
@@ -425,6 +947,18 @@ public class SATBackend {
 
     private SATSolutionStatistics runSolver(String[] commandLine, int bits,
             float timeoutMins)
+    {
+        Semaphore slot = SolverSlots.acquire();
+        try {
+            SynchronousTimedProcess proc = startSolver(commandLine, timeoutMins);
+            CegisOutputParser parser = newOutputParser();
+            return solverResult(proc.run(false, parser), parser, timeoutMins);
+        } finally {
+            SolverSlots.release(slot);
+        }
+    }
+
+    private SynchronousTimedProcess startSolver(String[] commandLine, float timeoutMins)
     {
         logCmdLine(commandLine);
 
@@ -439,7 +973,15 @@ public class SATBackend {
         if (!checkBeforeRunning(proc)) {
             throw new SketchSolverException("CEGIS was killed (assuming user kill); exiting.");
         }
-        final ProcessStatus status = proc.run(false);
+        return proc;
+    }
+
+    private SATSolutionStatistics solverResult(ProcessStatus status,
+            CegisOutputParser parser, float timeoutMins)
+    {
+        if (parser.stopRequested()) {
+            log(1, "CEGIS was stopped by a listener of its output.");
+        }
 
         // deal with killed states
         if (!status.killedByTimeout) {
@@ -450,7 +992,7 @@ public class SATBackend {
                 try {
                     Thread.sleep(1);
                 } catch (InterruptedException e) {}
-                if (SynchronousTimedProcess.wasKilled.get()) {
+                if (status.killedAtExit.get()) {
                     throw new SketchSolverException(
                             "CEGIS was killed (assuming user kill); exiting.");
                 } else {
@@ -461,15 +1003,19 @@ public class SATBackend {
             }
         } else if (status.exception instanceof IOException) {
             System.err.println("Warning: lost some output from backend because of timeout.");
-            SATSolutionStatistics err_stat = parseStats(status.out);
+            SATSolutionStatistics err_stat = parseStats(parser, status.out);
             err_stat.killedByTimeout = true;
+            err_stat.exitCode = status.exitCode;
             err_stat.elapsedTimeMs = (long) (timeoutMins * 60 * 1000);
             err_stat.success = false;
             return err_stat;
         }
 
-        SATSolutionStatistics be_stat = parseStats(status.out);
+        SATSolutionStatistics be_stat = parseStats(parser, status.out);
         be_stat.killedByTimeout = false;
+        // a timeout that lost no output comes here too
+        be_stat.killed = status.killedByTimeout || status.killedAtExit.get();
+        be_stat.exitCode = status.exitCode;
         be_stat.elapsedTimeMs = status.execTimeMs;
 
         // exit codes 0, 1, and 2 stand for FOUND, UNSAT, and UNDETERMINED, respectively.
@@ -487,70 +1033,20 @@ public class SATBackend {
         return be_stat;
     }
 
-    protected SATSolutionStatistics parseStats (String out) {
-        SATSolutionStatistics s = new SATSolutionStatistics ();
-        s.out = out;
-
-        List<String> res;
-        String NL = "(?:\\r\\n|\\n|\\r)";
-
-        // XXX: using max virtual mem; maybe resident or private is better
-        res = Misc.search (out,
-                "Total elapsed time \\(ms\\):\\s+(\\d+(?:\\.\\d+)?)"+ NL +
-                "Model building time \\(ms\\):\\s+(\\d+(?:\\.\\d+)?)"+ NL +
-                "Solution time \\(ms\\):\\s+(\\d+(?:\\.\\d+)?)"+ NL +
-                "Max virtual mem \\(bytes\\):\\s+(\\d+)");
-        if (res != null) {
-            s.elapsedTimeMs = (long) (Float.parseFloat (res.get (0)));
-            s.modelBuildingTimeMs = (long) (Float.parseFloat (res.get (1)));
-            s.solutionTimeMs = (long) (Float.parseFloat (res.get (2)));
-            s.maxMemUsageBytes = Long.parseLong (res.get (3));
-        } else {
-            s.elapsedTimeMs = -1;
-            s.modelBuildingTimeMs = -1;
-            s.solutionTimeMs = -1;
-            s.maxMemUsageBytes = -1;
-        }
-
-        // even failed case, we need elapsed time
-        if (s.elapsedTimeMs < 0) {
-            res = Misc.search(out, "FIND TIME \\S+ CHECK TIME \\S+ TOTAL TIME (\\S+)");
-            if (res != null) {
-                s.elapsedTimeMs = 0;
-                for (int i = 0; i < res.size(); i++) {
-                    s.elapsedTimeMs += (long) (Float.parseFloat(res.get(i)));
-                }
-            }
-        }
-
-        res = Misc.search (out, "SKETCH nodes = (\\d+)");
-        if (res != null) {
-            s.numNodesInitial = Long.parseLong (res.get (0));
-        } else {
-            s.numNodesInitial = -1;
-        }
-
-        res = Misc.search (out, "Final Problem size: Problem nodes = (\\d+)");
-        if (null != res) {
-            s.numNodesFinal = Long.parseLong (res.get (0));
-        } else {
-            s.numNodesFinal = -1;
-        }
-
-        res = Misc.search (out, "# OF CONTROLS:\\s+(\\d+)");
-        if (null != res) {
-            s.numControls = Long.parseLong (res.get (0));
-        } else {
-            s.numControls = -1;
-        }
-
-        res = Misc.search (out, "ctrlSize = (\\d+)");
-        if (null != res) {
-            s.numControlBits = Long.parseLong (res.get (0));
-        } else {
-            s.numControlBits = -1;
-        }
+    /** Parses out, which is all of the output of a solver run. */
+    protected SATSolutionStatistics parseStats(String out) {
+        CegisOutputParser parser = newOutputParser();
+        parser.parse(out);
+        return parseStats(parser, out);
+    }
 
+    /**
+     * Returns the statistics of a solver run whose output went through parser. out is
+     * what was kept of the output, which may only be its beginning and its end.
+     */
+    protected SATSolutionStatistics parseStats(CegisOutputParser parser, String out) {
+        SATSolutionStatistics s = parser.getStatistics();
+        s.out = out;
         return s;
     }
 
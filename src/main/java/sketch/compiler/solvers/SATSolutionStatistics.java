@@ -21,6 +21,10 @@ public class SATSolutionStatistics extends SolutionStatistics {
 	protected long numControlBits;
 
     public boolean killedByTimeout;
+    /** The solver was killed, other than by the timeout: e.g. as the JVM exited. */
+    public boolean killed;
+    /** The exit code of the solver; -1 if it is not known. */
+    public int exitCode = -1;
     public double probability;
     public String out;
 
@@ -37,6 +41,14 @@ public class SATSolutionStatistics extends SolutionStatistics {
         return unsat;
     }
 
+    /**
+     * Whether the solver ran to its end and reported that it found no solution, without
+     * showing the problem UNSAT. A crash or a kill is not that.
+     */
+    public boolean undetermined() {
+        return exitCode == 2 && !killedByTimeout && !killed;
+    }
+
 	public String toString () {
 		return super.toString () +
 "      [SAT-specific solution stats]\n"+
@@ -0,0 +1,413 @@
+package sketch.compiler.solvers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+
+import sketch.util.cli.CliOptional;
+import sketch.util.cli.CliParameter;
+
+/**
+ * Persistent, content-addressed cache of backend problems and their solutions. An
+ * entry is keyed by a SHA-256 digest of the backend file together with everything else
+ * that determines what the solver does with it: the backend command line (minus file
+ * names) and the bound options. A sketch whose key matches an earlier run can reuse
+ * that run's solution without calling the solver.<BR>
+ * Each entry is a directory named after its key, holding the solution, the output of
+ * the solver, a compressed copy of the backend file and a small properties file.
+ * Entries are written to a temporary directory and renamed into place, so several
+ * compilers can share a cache. Entries that have not been used for longer than the
+ * maximum age are evicted, and after that, the least recently used ones are evicted
+ * until the cache fits in its size limit.<BR>
+ * The entries are kept in an index ordered by use, which is read from the directory
+ * once per JVM, so that adding an entry only looks at the entries it evicts. Entries
+ * that other processes add in the meantime are indexed when they are first looked up.
+ */
+public class SolutionCache {
+    static final String SOLUTION = "solution";
+    static final String OUTPUT = "output";
+    static final String PROBLEM = "problem.tmp.gz";
+    static final String INFO = "info";
+    static final String TMP_MARK = ".part-";
+
+    private static final Map<File, SolutionCache> caches =
+            new HashMap<File, SolutionCache>();
+
+    final File dir;
+    private long maxBytes;
+    private long maxAgeMs;
+
+    /** Size and time of last use of each entry, least recently used first. */
+    private LinkedHashMap<String, Entry> index;
+    private long totalBytes;
+
+    static class Entry {
+        final long bytes;
+        long used;
+
+        Entry(long bytes, long used) {
+            this.bytes = bytes;
+            this.used = used;
+        }
+    }
+
+    SolutionCache(File dir, long maxBytes, long maxAgeMs) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Returns the cache in dir, which is shared by all the compilations of this JVM
+     * that use the same directory. The limits are those of the latest call.
+     */
+    public static SolutionCache open(File dir, long maxBytes, long maxAgeMs) {
+        SolutionCache cache;
+        synchronized (caches) {
+            File key = dir.getAbsoluteFile();
+            cache = caches.get(key);
+            if (cache == null) {
+                cache = new SolutionCache(key, maxBytes, maxAgeMs);
+                caches.put(key, cache);
+            }
+        }
+        cache.setLimits(maxBytes, maxAgeMs);
+        return cache;
+    }
+
+    synchronized void setLimits(long maxBytes, long maxAgeMs) {
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Adds the identity of the solver to the digest: its path, and the size and time of
+     * last modification of the file, so that a solver that was rebuilt does not reuse the
+     * solutions of the old one.
+     */
+    public static void addSolver(MessageDigest md, String solverPath) {
+        File f = new File(solverPath);
+        try {
+            f = f.getCanonicalFile();
+        } catch (IOException e) {
+            // keep the path as given.
+        }
+        String id = f.getPath() + '\0' + f.length() + '\0' + f.lastModified() + '\0';
+        try {
+            md.update(id.getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns a new digest for accumulating a key. The backend file should be fed to it
+     * first, followed by {@link #addSettings(MessageDigest, List, Object)}.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Adds the solver command line and the values of all the command line parameters of
+     * the given option group to the digest.
+     */
+    public static void addSettings(MessageDigest md, List<String> commandLine,
+            Object optionGroup)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String arg : commandLine) {
+            sb.append(arg).append('\0');
+        }
+        Field[] fields = optionGroup.getClass().getFields();
+        Arrays.sort(fields, new Comparator<Field>() {
+            public int compare(Field a, Field b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        for (Field f : fields) {
+            if (f.getAnnotation(CliParameter.class) == null) {
+                continue;
+            }
+            try {
+                Object v = f.get(optionGroup);
+                if (v instanceof CliOptional) {
+                    CliOptional<?> opt = (CliOptional<?>) v;
+                    v = opt.isSet ? opt.value : "unset";
+                }
+                if (v instanceof Object[]) {
+                    v = Arrays.deepToString((Object[]) v);
+                }
+                sb.append(f.getName()).append('=').append(v).append('\0');
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        try {
+            md.update(sb.toString().getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String toKey(MessageDigest md) {
+        byte[] digest = md.digest();
+        StringBuilder sb = new StringBuilder(2 * digest.length);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * What we know about a cached solution besides the solution file itself.
+     */
+    public static class Hit {
+        /** Value passed to ValueOracle.capStarSizes, or -1 if it was never called. */
+        public final int starSizeCap;
+        /** What the solver printed when it found the solution, or null if unknown. */
+        public final String output;
+
+        Hit(int starSizeCap, String output) {
+            this.starSizeCap = starSizeCap;
+            this.output = output;
+        }
+    }
+
+    /**
+     * If there is an entry for key, copies its solution to solutionFile and returns the
+     * rest of the entry; otherwise returns null. An entry older than the maximum age is
+     * removed instead of being used.
+     */
+    public synchronized Hit lookup(String key, File solutionFile) {
+        File entry = new File(dir, key);
+        File sol = new File(entry, SOLUTION);
+        if (!sol.isFile()) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (expired(key, entry, now)) {
+            FileUtils.deleteQuietly(entry);
+            Entry e = index().remove(key);
+            if (e != null) {
+                totalBytes -= e.bytes;
+            }
+            return null;
+        }
+        try {
+            Properties info = new Properties();
+            InputStream in = new FileInputStream(new File(entry, INFO));
+            try {
+                info.load(in);
+            } finally {
+                in.close();
+            }
+            File out = new File(entry, OUTPUT);
+            String output =
+                    out.isFile() ? new String(Files.readAllBytes(out.toPath()), "UTF-8")
+                            : null;
+            Files.copy(sol.toPath(), solutionFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            entry.setLastModified(now);
+            used(key, now);
+            return new Hit(Integer.parseInt(info.getProperty("starSizeCap", "-1")), output);
+        } catch (IOException e) {
+            // The entry was evicted while we were reading it, or is damaged.
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds an entry for key, unless there already is one, and evicts old entries.
+     * solverOutput is what the solver printed, and may be null.
+     */
+    public synchronized void store(String key, File problemFile, File solutionFile,
+            String solverOutput, int starSizeCap) throws IOException
+    {
+        if (!(dir.mkdirs() || dir.isDirectory())) {
+            throw new IOException("Can not create directory " + dir.getAbsolutePath());
+        }
+        File entry = new File(dir, key);
+        if (!entry.isDirectory()) {
+            File tmp =
+                    new File(dir, key + TMP_MARK +
+                            Integer.toHexString(new Random().nextInt()));
+            try {
+                if (!tmp.mkdir()) {
+                    throw new IOException("Can not create directory " +
+                            tmp.getAbsolutePath());
+                }
+                Files.copy(solutionFile.toPath(), new File(tmp, SOLUTION).toPath());
+                if (solverOutput != null) {
+                    Files.write(new File(tmp, OUTPUT).toPath(),
+                            solverOutput.getBytes("UTF-8"));
+                }
+                if (problemFile != null && problemFile.isFile()) {
+                    OutputStream out =
+                            new GZIPOutputStream(new FileOutputStream(new File(tmp,
+                                    PROBLEM)));
+                    try {
+                        Files.copy(problemFile.toPath(), out);
+                    } finally {
+                        out.close();
+                    }
+                }
+                Properties info = new Properties();
+                info.setProperty("starSizeCap", "" + starSizeCap);
+                OutputStream out = new FileOutputStream(new File(tmp, INFO));
+                try {
+                    info.store(out, null);
+                } finally {
+                    out.close();
+                }
+                if (!tmp.renameTo(entry)) {
+                    // someone else stored the same entry first.
+                    FileUtils.deleteQuietly(tmp);
+                }
+            } catch (IOException e) {
+                FileUtils.deleteQuietly(tmp);
+                throw e;
+            }
+        }
+        used(key, System.currentTimeMillis());
+        evict();
+    }
+
+    /**
+     * Whether the entry for key has not been used for longer than the maximum age, by
+     * this JVM or, going by the time of the entry directory, by another process.
+     */
+    private boolean expired(String key, File entry, long now) {
+        if (maxAgeMs <= 0) {
+            return false;
+        }
+        long used = entry.lastModified();
+        Entry e = index().get(key);
+        if (e != null) {
+            used = Math.max(used, e.used);
+        }
+        return now - used > maxAgeMs;
+    }
+
+    /** Moves key to the end of the index, adding it if it is not there yet. */
+    private void used(String key, long now) {
+        Entry e = index().get(key);
+        if (e == null) {
+            File f = new File(dir, key);
+            if (!f.isDirectory()) {
+                return;
+            }
+            e = new Entry(sizeOf(f), now);
+            index.put(key, e);
+            totalBytes += e.bytes;
+        }
+        e.used = now;
+    }
+
+    /**
+     * Returns the index, reading it from the directory the first time. Partially
+     * written entries are removed once they are older than a day, since the process
+     * writing them must have died.
+     */
+    private LinkedHashMap<String, Entry> index() {
+        if (index != null) {
+            return index;
+        }
+        index = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        totalBytes = 0;
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return index;
+        }
+        long now = System.currentTimeMillis();
+        final Map<File, Long> stamps = new HashMap<File, Long>();
+        List<File> entries = new ArrayList<File>();
+        for (File f : files) {
+            long stamp = f.lastModified();
+            if (f.getName().contains(TMP_MARK)) {
+                if (now - stamp > 24L * 3600 * 1000) {
+                    FileUtils.deleteQuietly(f);
+                }
+            } else {
+                stamps.put(f, stamp);
+                entries.add(f);
+            }
+        }
+        // least recently used first.
+        Collections.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(stamps.get(a), stamps.get(b));
+            }
+        });
+        for (File f : entries) {
+            Entry e = new Entry(sizeOf(f), stamps.get(f));
+            index.put(f.getName(), e);
+            totalBytes += e.bytes;
+        }
+        return index;
+    }
+
+    private static long sizeOf(File f) {
+        try {
+            return f.isDirectory() ? FileUtils.sizeOfDirectory(f) : f.length();
+        } catch (IllegalArgumentException ex) {
+            // evicted by someone else in the meantime.
+            return 0;
+        }
+    }
+
+    /**
+     * Removes expired entries, then the least recently used ones until the cache is
+     * within its size limit. Both are at the front of the index, so this stops at the
+     * first entry it keeps.
+     */
+    public synchronized void evict() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<String, Entry>> it = index().entrySet().iterator(); it
+                .hasNext();)
+        {
+            Map.Entry<String, Entry> e = it.next();
+            boolean expired = maxAgeMs > 0 && now - e.getValue().used > maxAgeMs;
+            if (!expired && (maxBytes <= 0 || totalBytes <= maxBytes)) {
+                break;
+            }
+            FileUtils.deleteQuietly(new File(dir, e.getKey()));
+            totalBytes -= e.getValue().bytes;
+            it.remove();
+        }
+    }
+
+    /** Number of entries in the index, for tests. */
+    synchronized int size() {
+        return index().size();
+    }
+}
@@ -0,0 +1,31 @@
+package sketch.compiler.solvers;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds the number of solver processes that run at the same time in this JVM, for
+ * when several compilations share it. There is no bound unless one is set.
+ */
+public class SolverSlots {
+    private static volatile Semaphore slots = null;
+
+    /** Allows at most n solvers at a time; 0 or less removes the bound. */
+    public static void setLimit(int n) {
+        slots = (n > 0) ? new Semaphore(n, true) : null;
+    }
+
+    /** Waits for a free slot; the result must be passed to release(). */
+    public static Semaphore acquire() {
+        Semaphore s = slots;
+        if (s != null) {
+            s.acquireUninterruptibly();
+        }
+        return s;
+    }
+
+    public static void release(Semaphore slot) {
+        if (slot != null) {
+            slot.release();
+        }
+    }
+}
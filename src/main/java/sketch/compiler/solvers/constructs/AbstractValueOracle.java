@@ -37,7 +37,7 @@ public abstract class AbstractValueOracle {
 		return holeNamer;
 	}
 
-	public String addBinding(Object node) {
+	public synchronized String addBinding(Object node) {
 		return holeNamer.getName(node);
 	}
 
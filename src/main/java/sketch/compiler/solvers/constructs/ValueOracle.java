@@ -53,7 +53,7 @@ public class ValueOracle extends AbstractValueOracle {
 	}
 
     public boolean hasFunctions() {
-        return !funlist.isEmpty();
+        return funlist != null && !funlist.isEmpty();
     }
 
     public List<Function> getFunctions() {
@@ -192,4 +192,8 @@ public class ValueOracle extends AbstractValueOracle {
 	public void capStarSizes(int size) {
 		starSizesCaped = size;
 	}
+
+	public int getStarSizeCap() {
+		return starSizesCaped;
+	}
 }
\ No newline at end of file
@@ -27,7 +27,7 @@ public class AsyncWilcoxonStrategy extends WilcoxonStrategy implements
     public SATSolutionStatistics callSolver(ValueOracle oracle, boolean hasMinimize,
             float timeoutMins, int fileIdx)
     {
-        return super.incrementalSolve(oracle, hasMinimize, timeoutMins, fileIdx, 1);
+        return trialSolve(oracle, hasMinimize, timeoutMins, fileIdx, 1);
     }
 
     public void plog(String msg) {
@@ -139,7 +139,7 @@ public class AsyncWilcoxonStrategy extends WilcoxonStrategy implements
             return;
 
         // if timed out during the learning phase, extend it
-        if (stat.killedByTimeout && stage == STAGE.LEARNING) {
+        if (stat.killedByTimeout && getStage() == STAGE.LEARNING) {
             adaptiveTimeoutMins = options.solverOpts.extendPTimeout();
             plog("=== timeout extended to " + adaptiveTimeoutMins);
         }
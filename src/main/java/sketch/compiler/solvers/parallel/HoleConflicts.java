@@ -0,0 +1,126 @@
+package sketch.compiler.solvers.parallel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import sketch.compiler.solvers.CegisOutputParser;
+import sketch.compiler.solvers.SATSolutionStatistics;
+
+/**
+ * Hole assignments that parallel trials have found infeasible, shared by all trials on
+ * the same problem. A trial that concretizes holes at random and then ends with
+ * UNDETERMINED (exit code 2), without running out of time or being killed, shows that
+ * no solution has all of those holes set to those values. A later trial whose concretization includes such an assignment
+ * can't succeed either, so it is stopped as soon as the solver prints the hole values
+ * that complete it, and its core goes to the next trial.<BR>
+ * Only minimal assignments are kept: one that includes another known one is not added,
+ * and adding one drops those that include it.
+ */
+public class HoleConflicts {
+    private final List<Map<String, Integer>> conflicts =
+            new ArrayList<Map<String, Integer>>();
+    private int pruned = 0;
+
+    /** Follows the holes one trial concretizes, and stops the trial on a conflict. */
+    public class Tracker extends CegisOutputParser.Listener {
+        final Map<String, Integer> assignment = new HashMap<String, Integer>();
+        /** The solver set a hole to two values, e.g. in two rounds of one run. */
+        boolean mixed = false;
+        boolean stopped = false;
+
+        @Override
+        public void holeConcretized(CegisOutputParser parser, String hole, int value,
+                int bound)
+        {
+            Integer old = assignment.put(hole, value);
+            if (old != null && old != value) {
+                mixed = true;
+            }
+            if (!mixed && !stopped && hasConflict(assignment)) {
+                stopped = true;
+                parser.stop();
+            }
+        }
+
+        public boolean wasStopped() {
+            return stopped;
+        }
+    }
+
+    public Tracker newTracker() {
+        return new Tracker();
+    }
+
+    /**
+     * Learns from the result of the trial tracker followed. Returns true if the trial was
+     * stopped because it repeated a known conflict.
+     */
+    public boolean record(Tracker tracker, SATSolutionStatistics stat) {
+        if (tracker.stopped) {
+            synchronized (this) {
+                ++pruned;
+            }
+            return true;
+        }
+        // only a run that ended with UNDETERMINED shows the assignment infeasible; a
+        // crash or a kill shows nothing
+        if (stat != null && stat.undetermined() && !tracker.mixed &&
+                !tracker.assignment.isEmpty())
+        {
+            add(new HashMap<String, Integer>(tracker.assignment));
+        }
+        return false;
+    }
+
+    synchronized boolean hasConflict(Map<String, Integer> assignment) {
+        for (Map<String, Integer> c : conflicts) {
+            if (includes(assignment, c)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized void add(Map<String, Integer> conflict) {
+        for (Iterator<Map<String, Integer>> it = conflicts.iterator(); it.hasNext();) {
+            Map<String, Integer> c = it.next();
+            if (includes(conflict, c)) {
+                return;
+            }
+            if (includes(c, conflict)) {
+                it.remove();
+            }
+        }
+        conflicts.add(conflict);
+    }
+
+    /** Whether every hole of part has the same value in whole. */
+    static boolean includes(Map<String, Integer> whole, Map<String, Integer> part) {
+        if (part.size() > whole.size()) {
+            return false;
+        }
+        for (Map.Entry<String, Integer> e : part.entrySet()) {
+            if (!e.getValue().equals(whole.get(e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Forgets all conflicts, when the problem changes. */
+    public synchronized void clear() {
+        conflicts.clear();
+    }
+
+    public synchronized int size() {
+        return conflicts.size();
+    }
+
+    /** The number of trials stopped because of a known conflict. */
+    public synchronized int getPruned() {
+        return pruned;
+    }
+}
@@ -5,16 +5,21 @@ import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.Vector;
 import java.util.concurrent.*;
 
+import sketch.compiler.ast.core.Program;
 import sketch.compiler.ast.core.TempVarGen;
 import sketch.compiler.dataflow.recursionCtrl.RecursionControl;
+import sketch.compiler.main.CompilationContext;
 import sketch.compiler.main.cmdline.SketchOptions;
+import sketch.compiler.solvers.CegisOutputParser;
 import sketch.compiler.solvers.SATBackend;
 import sketch.compiler.solvers.SATSolutionStatistics;
 import sketch.compiler.solvers.constructs.ValueOracle;
-import sketch.util.Misc;
 import sketch.util.SynchronousTimedProcess;
 import sketch.util.exceptions.SketchSolverException;
 
@@ -23,10 +28,19 @@ public class ParallelBackend extends SATBackend {
     protected boolean parallel_solved = false;
     protected boolean parallel_failed = false;
     private List<Process> cegiss;
+    /** The processes terminateSubprocesses killed, until their trials see it. */
+    private Set<Process> destroyed;
+    /** The solver process of the current worker thread. */
+    private final ThreadLocal<Process> solverProcess = new ThreadLocal<Process>();
     protected Object lock;
 
     protected int cpu;
     protected int test_trial_max;
+    /** Assignments known to be infeasible, with --slv-p-share. */
+    protected final HoleConflicts conflicts;
+    /** The conflicts tracker of the solver run of the current worker thread. */
+    private final ThreadLocal<HoleConflicts.Tracker> tracker =
+            new ThreadLocal<HoleConflicts.Tracker>();
 
     public ParallelBackend(SketchOptions options, RecursionControl rcontrol,
             TempVarGen varGen)
@@ -34,6 +48,7 @@ public class ParallelBackend extends SATBackend {
         super(options, rcontrol, varGen);
         lock = new Object();
         cegiss = new ArrayList<Process>();
+        destroyed = new HashSet<Process>();
         if (options.solverOpts.pCPUs <= 0) {
             // to not exhaust the system, use three quarters of available cores
             int three_q = (int) (Runtime.getRuntime().availableProcessors() * 0.75);
@@ -49,6 +64,79 @@ public class ParallelBackend extends SATBackend {
         if (options.solverOpts.seed == 0) {
             options.solverOpts.seed = (int) (System.currentTimeMillis());
         }
+
+        // with incremental bits, the trials don't all solve the same problem; with
+        // several rounds per run, the holes of a failed round can't be told apart.
+        if (options.solverOpts.pShare && !options.bndOpts.incremental.isSet &&
+                options.solverOpts.ntimes <= 1)
+        {
+            conflicts = new HoleConflicts();
+        } else {
+            conflicts = null;
+        }
+    }
+
+    @Override
+    public void writeProgramToBackendFormat(Program prog) {
+        super.writeProgramToBackendFormat(prog);
+        if (conflicts != null) {
+            conflicts.clear();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public String[] getBackendCommandline(int i, int cpus,
+            Vector<String> commandLineOptions, String... additional)
+    {
+        if (conflicts != null && options.debugOpts.verbosity < 5) {
+            // the solver only prints the values it gives to holes at verbosity 5
+            commandLineOptions = (Vector<String>) commandLineOptions.clone();
+            commandLineOptions.add("--verbosity");
+            commandLineOptions.add("5");
+        }
+        return super.getBackendCommandline(i, cpus, commandLineOptions, additional);
+    }
+
+    @Override
+    protected CegisOutputParser newOutputParser() {
+        CegisOutputParser parser = super.newOutputParser();
+        if (conflicts != null) {
+            HoleConflicts.Tracker t = conflicts.newTracker();
+            tracker.set(t);
+            parser.addListener(t);
+        }
+        return parser;
+    }
+
+    /**
+     * Runs one parallel trial. With --slv-p-share, the trial is stopped if it repeats an
+     * assignment of holes that made an earlier trial fail, and adds its own if it fails.
+     */
+    protected SATSolutionStatistics trialSolve(ValueOracle oracle, boolean hasMinimize,
+            float timeoutMins, int fileIdx, int cpus)
+    {
+        tracker.remove();
+        solverProcess.remove();
+        SATSolutionStatistics stat = null;
+        try {
+            stat = incrementalSolve(oracle, hasMinimize, timeoutMins, fileIdx, cpus);
+            return stat;
+        } finally {
+            Process p = solverProcess.get();
+            solverProcess.remove();
+            synchronized (lock) {
+                if (p != null && destroyed.remove(p) && stat != null) {
+                    stat.killed = true;
+                }
+            }
+            HoleConflicts.Tracker t = tracker.get();
+            tracker.remove();
+            if (t != null && conflicts.record(t, stat)) {
+                plog("=== trial (" + fileIdx + ") stopped; it repeats a failed assignment (" +
+                        conflicts.getPruned() + " so far)");
+            }
+        }
     }
 
     protected Callable<SATSolutionStatistics> createWorker(final ValueOracle oracle,
@@ -78,8 +166,7 @@ public class ParallelBackend extends SATBackend {
                 }
                 SATSolutionStatistics worker_stat = null;
                 try {
-                    worker_stat =
-                            incrementalSolve(oracle, minimize, timeoutMins, fileIdx, cpu);
+                    worker_stat = trialSolve(oracle, minimize, timeoutMins, fileIdx, cpu);
                 } catch (SketchSolverException e) {
                     e.setBackendTempPath(options.getTmpSketchFilename());
                 }
@@ -206,7 +293,7 @@ public class ParallelBackend extends SATBackend {
                     if (r == null) continue; // means, aborted
                     results.add(r);
                     // if timed out during the learning phase, extend it
-                    if (r.killedByTimeout && stage == STAGE.LEARNING) {
+                    if (r.killedByTimeout && getStage() == STAGE.LEARNING) {
                         adaptiveTimeoutMins = options.solverOpts.extendPTimeout();
                         plog("=== timeout extended to " + adaptiveTimeoutMins);
                     }
@@ -325,6 +412,7 @@ public class ParallelBackend extends SATBackend {
         synchronized (lock) {
             cegiss.add(proc.getProc());
         }
+        solverProcess.set(proc.getProc());
         return true;
     }
 
@@ -338,6 +426,7 @@ public class ParallelBackend extends SATBackend {
                     plog("destroying " + p);
                     p.destroy(); // if still running, kill the process
                     mustwait.add(p);
+                    destroyed.add(p);
                 }
             }
             cegiss.clear();
@@ -355,26 +444,20 @@ public class ParallelBackend extends SATBackend {
         LEARNING, TESTING
     };
 
-    public static STAGE stage;
+    public static STAGE getStage() {
+        return CompilationContext.current().getParallelStage();
+    }
+
+    public static void setStage(STAGE stage) {
+        CompilationContext.current().setParallelStage(stage);
+    }
 
     @Override
-    protected SATSolutionStatistics parseStats(String out) {
-        SATSolutionStatistics stat = super.parseStats(out);
-        // parsing holes' range and calculate search space might be expensive
-        // so, do the calculation only if it is in the learning phase
-        if (stage == STAGE.LEARNING) {
-            stat.probability = 1.0;
-            List<String> res;
-            res = Misc.search(out, "(H__\\S+): replacing with value \\d+ bnd= (\\d+)");
-            if (res != null) {
-                for (int i = 0; i < res.size(); i += 2) {
-                    // String hole = res.get(i);
-                    int bound = Integer.parseInt(res.get(i + 1));
-                    if (bound <= 1)
-                        continue;
-                    stat.probability /= bound;
-                }
-            }
+    protected SATSolutionStatistics parseStats(CegisOutputParser parser, String out) {
+        SATSolutionStatistics stat = super.parseStats(parser, out);
+        // the search space is only needed in the learning phase
+        if (getStage() == STAGE.LEARNING) {
+            stat.probability = parser.getProbability();
         }
         return stat;
     }
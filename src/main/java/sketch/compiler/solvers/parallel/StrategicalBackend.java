@@ -44,7 +44,7 @@ public class StrategicalBackend extends ParallelBackend {
         if (strategy != null) {
             int old_ntimes = options.solverOpts.ntimes;
             options.solverOpts.ntimes = 0;
-            stage = STAGE.LEARNING;
+            setStage(STAGE.LEARNING);
             plog(strategy.getName() + " degree searching...");
 
             // until the strategy has a fixed degree
@@ -74,7 +74,7 @@ public class StrategicalBackend extends ParallelBackend {
             randdegrees.clear();
 
             options.solverOpts.ntimes = old_ntimes;
-            stage = STAGE.TESTING;
+            setStage(STAGE.TESTING);
         }
         return super.solve(oracle, hasMinimize, timeoutMins);
     }
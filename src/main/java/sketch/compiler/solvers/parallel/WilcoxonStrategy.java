@@ -242,7 +242,7 @@ public class WilcoxonStrategy extends ParallelBackend {
         this.hasMinimize = hasMinimize;
         int old_ntimes = options.solverOpts.ntimes;
         options.solverOpts.ntimes = 0;
-        stage = STAGE.LEARNING;
+        setStage(STAGE.LEARNING);
 
         try {
             Pair<Integer, Integer> range = climb();
@@ -259,7 +259,7 @@ public class WilcoxonStrategy extends ParallelBackend {
 
         onStageChanged();
         options.solverOpts.ntimes = old_ntimes;
-        stage = STAGE.TESTING;
+        setStage(STAGE.TESTING);
         return super.solve(oracle, hasMinimize, timeoutMins);
     }
 
@@ -2,6 +2,7 @@ package sketch.util;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
+import sketch.compiler.main.CompilationContext;
 import sketch.util.wrapper.ScRichString;
 
 /**
@@ -232,6 +233,6 @@ public class DebugOut {
 
     public static void debug_quit_exception(String text, Exception e) {
         print_exception(text, e);
-        System.exit(1);
+        CompilationContext.terminate(1);
     }
 }
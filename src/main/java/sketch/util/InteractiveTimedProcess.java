@@ -1,5 +1,6 @@
 package sketch.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -101,14 +102,21 @@ public class InteractiveTimedProcess {
 	}
 	
 
-	public void waitForAnswer(String answer, boolean logAllOutput){
-		
+	/**
+	 * Reads the output of the process up to the first line that contains answer, and
+	 * returns whether there was one before the output ended.
+	 */
+	public boolean waitForAnswer(String answer, boolean logAllOutput){
+		OutputStream out = logAllOutput ? new ByteArrayOutputStream()
+				: new TruncatedOutputStream();
+		boolean answered = false;
 		try{
-			status.out += Misc.readStreamUntil(proc.getInputStream(), answer, logAllOutput);
+			answered = Misc.readStreamUntil(proc.getInputStream(), answer, out);
 		}catch(Exception e){
 			
 		}	
-		
+		status.out += out.toString();
+		return answered;
 	}
 	
 
@@ -60,7 +60,8 @@ public class Misc extends AssertedClass
 		return out.toString ();
 	}
 
-    public static void readStreamUntil(InputStream in, String keyword, OutputStream _out)
+    /** Returns whether keyword was read before the end of the stream. */
+    public static boolean readStreamUntil(InputStream in, String keyword, OutputStream _out)
             throws IOException
     {
         PrintStream out = new PrintStream(_out);
@@ -69,24 +70,36 @@ public class Misc extends AssertedClass
         while ((line = reader.readLine()) != null) {
             out.println(line);
             if (line.contains(keyword)) {
-                return;
+                return true;
             }
         }
+        return false;
     }
 
 	/** Read all of IN into a string and return the string. */
 	public static String readStream (InputStream in, boolean logAllOutput, PrintStream altOut) throws IOException {
-		
-		OutputStream out;
-		if(logAllOutput){
-			out = new ByteArrayOutputStream ();
-		}else{
-			out = new TruncatedOutputStream ();
-		}
-		Misc.dumpStreamTo (in, out, false, altOut);
-		return out.toString ();
+		return readStream (in, logAllOutput, altOut, null);
 	}
 
+    /**
+     * Read all of IN into a string and return the string, passing each line to handler
+     * as soon as it is read. Unless logAllOutput is set, only the beginning and the end
+     * of the stream are kept, so handler is the only one to see all of a long stream.
+     */
+    public static String readStream(InputStream in, boolean logAllOutput,
+            PrintStream altOut, SynchronousTimedProcess.OutputHandler handler)
+            throws IOException
+    {
+        OutputStream out;
+        if (logAllOutput) {
+            out = new ByteArrayOutputStream();
+        } else {
+            out = new TruncatedOutputStream();
+        }
+        Misc.dumpStreamTo(in, out, false, altOut, handler);
+        return out.toString();
+    }
+
     /**
      * Dump the stream IN to the stream _OUT, optionally with line numbers.
      * 
@@ -94,12 +107,23 @@ public class Misc extends AssertedClass
      */
     public static void dumpStreamTo(InputStream in, OutputStream _out,
             boolean withLineNumbers, PrintStream altOut) throws IOException
+    {
+        dumpStreamTo(in, _out, withLineNumbers, altOut, null);
+    }
+
+    /** Like dumpStreamTo(in, _out, withLineNumbers, altOut), also giving each line to handler. */
+    public static void dumpStreamTo(InputStream in, OutputStream _out,
+            boolean withLineNumbers, PrintStream altOut,
+            SynchronousTimedProcess.OutputHandler handler) throws IOException
     {
         int lineno = 1;
         PrintStream out = new PrintStream(_out);
         final BufferedReader reader = new BufferedReader(new InputStreamReader(in));
         String line;
         while ((line = reader.readLine()) != null) {
+            if (handler != null) {
+                handler.line(line);
+            }
             if (withLineNumbers) {
                 line = String.format("[%3d] %s", lineno, line);
                 lineno += 1;
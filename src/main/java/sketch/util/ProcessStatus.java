@@ -3,6 +3,8 @@
  */
 package sketch.util;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Simple 'struct' for returned status from processes:
  *  - exit code
@@ -17,5 +19,7 @@ public class ProcessStatus {
 	public String out = "", err = "";
 	public boolean killedByTimeout;
 	public long execTimeMs;		// TODO: find a less unholy place to put this
+	/** Becomes true if the process is killed because the JVM is shutting down. */
+	public AtomicBoolean killedAtExit = new AtomicBoolean(false);
 	public ProcessStatus () {}
 }
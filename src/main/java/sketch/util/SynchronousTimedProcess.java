@@ -22,11 +22,71 @@ import sketch.compiler.main.cmdline.SketchOptions;
  * @author Chris Jones
  */
 public class SynchronousTimedProcess {
+    /**
+     * Receives the standard output of a process line by line, while the process runs.
+     * The process is killed as soon as stop() is called, from any thread.
+     */
+    public static abstract class OutputHandler {
+        private boolean stopRequested = false;
+        /** The process whose output is being handled, if it is running. */
+        private Process process;
+
+        public abstract void line(String line);
+
+        /** Asks for the process to be killed. */
+        public void stop() {
+            Process p;
+            synchronized (this) {
+                stopRequested = true;
+                p = process;
+            }
+            if (p != null) {
+                p.destroy();
+            }
+        }
+
+        public synchronized boolean stopRequested() {
+            return stopRequested;
+        }
+
+        synchronized void attach(Process proc) {
+            process = proc;
+            if (stopRequested && proc != null) {
+                proc.destroy();
+            }
+        }
+    }
+
+    /**
+     * Passes lines to a handler until it throws, and then drops them, so that the output
+     * is still read and the process does not block on a full pipe.
+     */
+    private static class GuardedHandler extends OutputHandler {
+        final OutputHandler handler;
+        RuntimeException failure;
+
+        GuardedHandler(OutputHandler handler) {
+            this.handler = handler;
+        }
+
+        public void line(String line) {
+            if (failure != null) {
+                return;
+            }
+            try {
+                handler.line(line);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+
     protected final Process proc;
     protected File tmpFile = null;
     protected float timeoutMins;
     protected long startMs;
-    public static final AtomicBoolean wasKilled = new AtomicBoolean(false);
+    /** Set when the process is killed because the JVM is shutting down. */
+    protected final AtomicBoolean wasKilled = new AtomicBoolean(false);
     protected final List<String> cmdLine;
 
     public SynchronousTimedProcess (float timeoutMins, String... cmdLine)
@@ -51,7 +111,7 @@ public class SynchronousTimedProcess {
         ProcessBuilder pb = new ProcessBuilder (cmdLine);
         File f_workDir = new File(workDir);
         pb.directory(f_workDir);
-        if (options.solverOpts.parallel) {
+        if (options.solverOpts.parallel && !options.solverOpts.pShare) {
             String strategy = options.solverOpts.strategy.toString();
             File sktmpdir = options.sktmpdir();
             tmpFile = File.createTempFile(strategy, null, sktmpdir);
@@ -98,18 +158,42 @@ public class SynchronousTimedProcess {
     }
 
     public ProcessStatus run(boolean logAllOutput) {
+        return run(logAllOutput, null);
+    }
+
+    /**
+     * Runs the process to completion, giving each line of its standard output to handler
+     * as it arrives. When the output is redirected to a file, the lines are given to
+     * handler once the process has exited. If handler throws, the rest of the output is
+     * still read, and the exception is the exception of the status.
+     */
+    public ProcessStatus run(boolean logAllOutput, final OutputHandler handler) {
         ProcessKillerThread killer = null;
         ProcessStatus status = new ProcessStatus();
-        System.gc();
+        status.killedAtExit = wasKilled;
+        GuardedHandler guarded = null;
+        if (handler != null) {
+            guarded = new GuardedHandler(handler);
+            handler.attach(proc);
+        }
         try {
             if (timeoutMins > 0) {
                 killer = new ProcessKillerThread(proc, timeoutMins);
                 killer.start();
             }
-            if (tmpFile == null) {
-                status.out = Misc.readStream(proc.getInputStream(), logAllOutput, null);
+            try {
+                if (tmpFile == null) {
+                    status.out =
+                            Misc.readStream(proc.getInputStream(), logAllOutput, null,
+                                    guarded);
+                }
+                status.err = Misc.readStream(proc.getErrorStream(), true, System.err);
+            } catch (IOException e) {
+                // stop() closes the streams of the process when it kills it.
+                if (handler == null || !handler.stopRequested()) {
+                    throw e;
+                }
             }
-            status.err = Misc.readStream(proc.getErrorStream(), true, System.err);
             // wait for subprocess exit first
             status.exitCode = proc.waitFor();
 
@@ -128,13 +212,21 @@ public class SynchronousTimedProcess {
             if (status.killedByTimeout) {
                 status.execTimeMs = (long) (timeoutMins * 60 * 1000);
             }
+            if (handler != null) {
+                handler.attach(null);
+            }
             try {
                 if (tmpFile != null) {
-                    status.out = Misc.readStream(new FileInputStream(tmpFile), true, null);
+                    status.out =
+                            Misc.readStream(new FileInputStream(tmpFile), true, null,
+                                    guarded);
                 }
             } catch (IOException e) {
                 status.exception = e;
             }
+            if (guarded != null && guarded.failure != null && status.exception == null) {
+                status.exception = guarded.failure;
+            }
         }
 
         return status;
@@ -7,6 +7,7 @@ import java.util.Vector;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 
+import sketch.compiler.main.CompilationContext;
 import sketch.util.DebugOut;
 
 import static sketch.util.DebugOut.assertFalse;
@@ -162,7 +163,7 @@ public final class CliOption {
             if (defaultValue == null) {
                 DebugOut.print_stderr_colored(DebugOut.BASH_RED, "", " ", false, "argument",
                         name, "is required.\n    argument info:", this);
-                System.exit(1); // @code standards ignore
+                CompilationContext.terminate(1);
             } else if (CliOptionType.class.isAssignableFrom(typ)) {
                 return new Object[] { ((CliOptionType<?>) defaultValue).clone() };
             }
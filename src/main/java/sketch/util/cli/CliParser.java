@@ -11,6 +11,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import sketch.compiler.main.CompilationContext;
 import sketch.compiler.main.PlatformLocalization;
 
 /**
@@ -89,7 +90,7 @@ public class CliParser extends org.apache.commons.cli.PosixParser {
             this.outArgs = outArgs.toArray(new String[0]);
         } catch (org.apache.commons.cli.ParseException e) {
             printHelpInner(options, "Apache CLI error: " + e.getMessage());
-            System.exit(1); // @ code standards ignore
+            CompilationContext.terminate(1);
         }
         CliAnnotatedOptionGroup[] set_on_parse_arr =
                 set_on_parse.toArray(new CliAnnotatedOptionGroup[0]);
@@ -153,7 +154,7 @@ public class CliParser extends org.apache.commons.cli.PosixParser {
         }
 
         hf.printHelp(usageStr, description, options, error_msg);
-        System.exit(1); // @code standards ignore
+        CompilationContext.terminate(1);
     }
 
     /** generate descriptions of the option groups */
@@ -0,0 +1,345 @@
+package sketch.util.datastructures;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable hash map that shares structure between versions (a hash array mapped
+ * trie). put() and remove() return a new map and leave this one unchanged, copying
+ * only the O(log32 n) nodes on the path to the key, so keeping many versions that
+ * differ in a few keys is cheap. Keys and values must not be null. Iteration is in
+ * no particular order.
+ *
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ */
+public final class PersistentHashMap<K, V> implements Iterable<Map.Entry<K, V>> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentHashMap EMPTY = new PersistentHashMap(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        if (root == null) {
+            return null;
+        }
+        return (V) root.get(key, key.hashCode(), 0);
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    /** Returns a map that is like this one, except that key maps to value. */
+    public PersistentHashMap<K, V> put(K key, V value) {
+        assert key != null && value != null;
+        int hash = key.hashCode();
+        boolean[] added = new boolean[1];
+        Node newRoot =
+                (root == null) ? new Leaf(hash, key, value) : root.put(key, value, hash,
+                        0, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<K, V>(newRoot, root == null || added[0] ? size + 1
+                : size);
+    }
+
+    /** Returns a map that is like this one, except that key is not mapped. */
+    public PersistentHashMap<K, V> remove(K key) {
+        if (root == null) {
+            return this;
+        }
+        Node newRoot = root.remove(key, key.hashCode(), 0);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<K, V>(newRoot, size - 1);
+    }
+
+    /** Returns the entries of this map; the iterator does not support remove. */
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new Iterator<Map.Entry<K, V>>() {
+            // nodes still to visit, the next one last.
+            final List<Node> pending = new ArrayList<Node>();
+            Leaf leaf = null;
+            int pos = 0;
+
+            {
+                if (root != null) {
+                    pending.add(root);
+                }
+                advance();
+            }
+
+            /** Moves to the next leaf if the current one is done. */
+            void advance() {
+                while ((leaf == null || pos >= leaf.keys.length) && !pending.isEmpty()) {
+                    Node n = pending.remove(pending.size() - 1);
+                    if (n instanceof Leaf) {
+                        leaf = (Leaf) n;
+                        pos = 0;
+                    } else {
+                        Node[] children = ((Branch) n).children;
+                        for (int i = children.length - 1; i >= 0; --i) {
+                            pending.add(children[i]);
+                        }
+                    }
+                }
+            }
+
+            public boolean hasNext() {
+                return leaf != null && pos < leaf.keys.length;
+            }
+
+            @SuppressWarnings("unchecked")
+            public Map.Entry<K, V> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<K, V> e =
+                        new SimpleImmutableEntry<K, V>((K) leaf.keys[pos],
+                                (V) leaf.values[pos]);
+                ++pos;
+                advance();
+                return e;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** Number of nodes of this map that are not also nodes of other, for tests. */
+    int nodesNotIn(PersistentHashMap<K, V> other) {
+        Set<Node> shared =
+                Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        collect(other.root, shared);
+        Set<Node> mine =
+                Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        collect(root, mine);
+        mine.removeAll(shared);
+        return mine.size();
+    }
+
+    private static void collect(Node n, Set<Node> into) {
+        if (n == null) {
+            return;
+        }
+        into.add(n);
+        if (n instanceof Branch) {
+            for (Node c : ((Branch) n).children) {
+                collect(c, into);
+            }
+        }
+    }
+
+    private static abstract class Node {
+        abstract Object get(Object key, int hash, int shift);
+
+        /** Sets added[0] if the key was not in this node before. */
+        abstract Node put(Object key, Object value, int hash, int shift, boolean[] added);
+
+        /** Returns null if the node becomes empty. */
+        abstract Node remove(Object key, int hash, int shift);
+    }
+
+    /** One key, or several keys with the same hash code. */
+    private static final class Leaf extends Node {
+        final int hash;
+        final Object[] keys;
+        final Object[] values;
+
+        Leaf(int hash, Object key, Object value) {
+            this(hash, new Object[] { key }, new Object[] { value });
+        }
+
+        Leaf(int hash, Object[] keys, Object[] values) {
+            this.hash = hash;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        int indexOf(Object key) {
+            for (int i = 0; i < keys.length; ++i) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Object get(Object key, int hash, int shift) {
+            if (hash != this.hash) {
+                return null;
+            }
+            int i = indexOf(key);
+            return i < 0 ? null : values[i];
+        }
+
+        Node put(Object key, Object value, int hash, int shift, boolean[] added) {
+            if (hash == this.hash) {
+                int i = indexOf(key);
+                if (i >= 0) {
+                    if (values[i] == value) {
+                        return this;
+                    }
+                    Object[] nv = values.clone();
+                    nv[i] = value;
+                    return new Leaf(hash, keys, nv);
+                }
+                added[0] = true;
+                int n = keys.length;
+                Object[] nk = new Object[n + 1];
+                Object[] nv = new Object[n + 1];
+                System.arraycopy(keys, 0, nk, 0, n);
+                System.arraycopy(values, 0, nv, 0, n);
+                nk[n] = key;
+                nv[n] = value;
+                return new Leaf(hash, nk, nv);
+            }
+            added[0] = true;
+            return Branch.of(this, this.hash, new Leaf(hash, key, value), hash, shift);
+        }
+
+        Node remove(Object key, int hash, int shift) {
+            if (hash != this.hash) {
+                return this;
+            }
+            int i = indexOf(key);
+            if (i < 0) {
+                return this;
+            }
+            int n = keys.length;
+            if (n == 1) {
+                return null;
+            }
+            Object[] nk = new Object[n - 1];
+            Object[] nv = new Object[n - 1];
+            System.arraycopy(keys, 0, nk, 0, i);
+            System.arraycopy(values, 0, nv, 0, i);
+            System.arraycopy(keys, i + 1, nk, i, n - i - 1);
+            System.arraycopy(values, i + 1, nv, i, n - i - 1);
+            return new Leaf(hash, nk, nv);
+        }
+    }
+
+    /**
+     * Inner node; bit i of the bitmap is set if there is a child for the hash bits i at
+     * this level, and the children are stored in order of those bits.
+     */
+    private static final class Branch extends Node {
+        final int bitmap;
+        final Node[] children;
+
+        Branch(int bitmap, Node[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+
+        /** Creates the branch holding two nodes whose hashes differ. */
+        static Node of(Node a, int hashA, Node b, int hashB, int shift) {
+            int ba = (hashA >>> shift) & MASK;
+            int bb = (hashB >>> shift) & MASK;
+            if (ba == bb) {
+                return new Branch(1 << ba, new Node[] { of(a, hashA, b, hashB,
+                        shift + BITS) });
+            }
+            Node[] children = (ba < bb) ? new Node[] { a, b } : new Node[] { b, a };
+            return new Branch((1 << ba) | (1 << bb), children);
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        Object get(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            return children[index(bit)].get(key, hash, shift + BITS);
+        }
+
+        Node put(Object key, Object value, int hash, int shift, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                Node[] nc = new Node[children.length + 1];
+                System.arraycopy(children, 0, nc, 0, i);
+                nc[i] = new Leaf(hash, key, value);
+                System.arraycopy(children, i, nc, i + 1, children.length - i);
+                return new Branch(bitmap | bit, nc);
+            }
+            Node child = children[i].put(key, value, hash, shift + BITS, added);
+            if (child == children[i]) {
+                return this;
+            }
+            Node[] nc = children.clone();
+            nc[i] = child;
+            return new Branch(bitmap, nc);
+        }
+
+        Node remove(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int i = index(bit);
+            Node child = children[i].remove(key, hash, shift + BITS);
+            if (child == children[i]) {
+                return this;
+            }
+            if (child != null) {
+                Node[] nc = children.clone();
+                nc[i] = child;
+                return new Branch(bitmap, nc);
+            }
+            if (children.length == 1) {
+                return null;
+            }
+            if (children.length == 2 && children[1 - i] instanceof Leaf) {
+                // a single leaf does not need a branch above it.
+                return children[1 - i];
+            }
+            Node[] nc = new Node[children.length - 1];
+            System.arraycopy(children, 0, nc, 0, i);
+            System.arraycopy(children, i + 1, nc, i, children.length - i - 1);
+            return new Branch(bitmap & ~bit, nc);
+        }
+    }
+}
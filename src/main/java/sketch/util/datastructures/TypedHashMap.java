@@ -1,5 +1,6 @@
 package sketch.util.datastructures;
 
+import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -15,7 +16,8 @@ import java.util.Set;
  *          http://creativecommons.org/licenses/BSD/. While not required, if you make
  *          changes, please consider contributing back!
  */
-public class TypedHashMap<K, V> implements Cloneable, Iterable<Entry<K, V>> {
+public class TypedHashMap<K, V> implements Cloneable, Iterable<Entry<K, V>>, Serializable {
+    private static final long serialVersionUID = 1L;
     private final HashMap<K, V> base;
 
     public TypedHashMap() {
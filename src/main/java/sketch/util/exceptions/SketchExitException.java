@@ -0,0 +1,21 @@
+package sketch.util.exceptions;
+
+/**
+ * Ends a compilation that does not have the JVM to itself, like a job of a batch, where
+ * the compilation would otherwise have called System.exit. The driver of the compilation
+ * catches it and takes the status as the result of the compilation; see
+ * CompilationContext.terminate.
+ */
+public class SketchExitException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private final int status;
+
+    public SketchExitException(int status) {
+        super("compilation ended with exit status " + status);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
@@ -23,6 +23,8 @@ header {
 	package sketch.compiler.parser;
 	
 	import java.util.StringTokenizer;
+
+	import sketch.compiler.main.CompilationContext;
 }
 
 options {
@@ -103,7 +105,14 @@ tokens {
     "precond";
 }
 {
-  public static String lastComment = null;
+  /** The last comment seen, kept with the compilation that is being parsed. */
+  public static String getLastComment() {
+    return CompilationContext.current().getLastComment();
+  }
+
+  public static void setLastComment(String comment) {
+    CompilationContext.current().setLastComment(comment);
+  }
 
 }
 
@@ -142,7 +151,7 @@ ML_COMMENT
 		|	~('*'|'\n')
 		)*
 		"*/"
-			{ lastComment = getText();  $setType(Token.SKIP); }
+			{ setLastComment(getText());  $setType(Token.SKIP); }
 	;
 
 LPAREN
@@ -64,6 +64,7 @@ import sketch.compiler.main.cmdline.SketchOptions;
 import sketch.compiler.ast.spmd.stmts.StmtSpmdfork;
 
 import static sketch.util.DebugOut.assertFalse;
+import static sketch.util.DebugOut.printWarning;
 }
 
 {@SuppressWarnings("deprecation")}
@@ -80,11 +81,20 @@ options {
     private Set<Directive> directives = new HashSet<Directive> ();
     private boolean preprocess;
     private List<String> cppDefs;
+    private IncludeCache includeCache = null;
+    private List<String> includeNames = new ArrayList<String>();
+    private List<Integer> includeStarts = new ArrayList<Integer>();
+    private List<Integer> includeEnds = new ArrayList<Integer>();
+    private List<String[]> pragmas = new ArrayList<String[]>();
+    private List<Package> parsedPackages = null;
     private String currPkg;
     private FEContext curPkgCx;    
     private FEContext lastCx=null;
     private String lastFilename = null;
     private String shortFilename = null;
+    /** Contexts made so far, so that nodes at the same location share one. */
+    private final HashMap<FEContext, FEContext> contexts =
+        new HashMap<FEContext, FEContext>();
     
      //ADT
     private List<String> parentStructNames = new ArrayList<String>();
@@ -145,7 +155,8 @@ options {
 	    	}
 	    	shortFilename = lfile;	
 		}		
-		lastCx = new FEContext(shortFilename, line, col, StreamItLex.lastComment);	
+		lastCx = FEContext.intern(contexts,
+			new FEContext(shortFilename, line, col, StreamItLex.getLastComment()));
 		return lastCx;
 		
 		// int col = t.getColumn();
@@ -167,6 +178,14 @@ options {
 	}
 
     public void handleInclude(String name, List<Package> namespace)
+    {
+        includeNames.add(name);
+        includeStarts.add(namespace.size());
+        includeFile(name, namespace);
+        includeEnds.add(namespace.size());
+    }
+
+    private void includeFile(String name, List<Package> namespace)
     {
         try {
             List<String> incList = Arrays.asList(
@@ -195,17 +214,79 @@ options {
         if (processedIncludes.contains(name))
             return;
         processedIncludes.add(name);
+        parseInclude(name, namespace);
+    }
+
+    private void parseInclude(String name, List<Package> namespace) {
+        String key = null;
+        if (includeCache != null) {
+            try {
+                key = includeCache.key(name, preprocess, cppDefs);
+            } catch (IOException ioe) {
+                throw new IllegalArgumentException ("Something wrong with: "+ name);
+            }
+            IncludeCache.Entry entry = key == null ? null : includeCache.lookup(key);
+            if (entry != null) {
+                for (Object item : entry.items) {
+                    if (item instanceof String) {
+                        includeFile((String) item, namespace);
+                    } else {
+                        namespace.add((Package) item);
+                    }
+                }
+                for (String[] pragma : entry.pragmas) {
+                    directives.add (Directive.make (pragma[0], pragma[1]));
+                }
+                StreamItLex.setLastComment(entry.lastComment);
+                return;
+            }
+        }
         StreamItParser parser =
             new StreamItParser (name, processedIncludes, preprocess, cppDefs);
+        parser.setIncludeCache(includeCache);
         Program p = parser.parse ();
 		assert p != null;		
 		
 		namespace.addAll(p.getPackages());		
         directives.addAll (parser.getDirectives ());
+        if (key != null) {
+            try {
+                includeCache.store(key, parser.getCacheEntry());
+            } catch (IOException ioe) {
+                printWarning("couldn't add " + name + " to the include cache: " +
+                        ioe.getMessage());
+            }
+        }
+    }
+
+    public void setIncludeCache(IncludeCache includeCache) {
+        this.includeCache = includeCache;
+    }
+
+    /**
+     * What the program parsed by this parser contributes to a parser that includes it.
+     * Packages of nested includes are replaced by the names of those includes.
+     */
+    public IncludeCache.Entry getCacheEntry() {
+        List<Package> pkgs = parsedPackages;
+        List<Object> items = new ArrayList<Object>();
+        int i = 0;
+        for (int j = 0; j < includeNames.size(); ++j) {
+            for (; i < includeStarts.get(j); ++i) {
+                items.add(pkgs.get(i));
+            }
+            items.add(includeNames.get(j));
+            i = includeEnds.get(j);
+        }
+        for (; i < pkgs.size(); ++i) {
+            items.add(pkgs.get(i));
+        }
+        return new IncludeCache.Entry(items, pragmas, StreamItLex.getLastComment());
     }
 
     private void handlePragma (String pragma, String args) {
         directives.add (Directive.make (pragma, args));
+        pragmas.add (new String[] { pragma, args });
     }
 
     public Set<Directive> getDirectives () {  return directives;  }
@@ -236,7 +317,7 @@ program	 returns [Program p]
            |    sa = special_assert_statement { specialAsserts.add(sa); }
            |    file=include_stmt { handleInclude (file, namespaces); }
            |    TK_package id:ID { currPkg = (id.getText()); curPkgCx = getContext(id);}
-                            (SEMI {pkgName = currPkg;  pkgCtxt = getContext(id); StreamItLex.lastComment = null;} | pk = pkgbody {namespaces.add(pk);  } ) 
+                            (SEMI {pkgName = currPkg;  pkgCtxt = getContext(id); StreamItLex.setLastComment(null);} | pk = pkgbody {namespaces.add(pk);  } ) 
            |    pragma_stmt
         )*
 		EOF
@@ -254,6 +335,7 @@ program	 returns [Program p]
 			
 		        Package ss=new Package(pkgCtxt, pkgName, structs, vars, funcs, specialAsserts);
  				namespaces.add(ss);
+				parsedPackages = namespaces;
                 if (!hasError) {
                     if (p == null) {
                         p = Program.emptyProgram();
@@ -326,7 +408,7 @@ field_decl returns [FieldDecl f] { f = null; Type t; Expression x = null;
 			COMMA id2:ID (ASSIGN x=expr_or_lambda)?
 			{ ts.add(t); ns.add(id2.getText()); xs.add(x); }
 		)*
-		{ f = new FieldDecl(ctx, ts, ns, xs); StreamItLex.lastComment = null;  }
+		{ f = new FieldDecl(ctx, ts, ns, xs); StreamItLex.setLastComment(null);  }
 	;
 
 
@@ -565,7 +647,7 @@ function_decl returns [Function f] {
 	rt=return_type
 	id:ID
 	(tp=type_params)?
-	l=param_decl_list { funCx = getContext(id); StreamItLex.lastComment = null;}
+	l=param_decl_list { funCx = getContext(id); StreamItLex.setLastComment(null);}
 	(TK_implements impl:ID)?
 	(TK_fixes  ( name:ID{ fixes.add(name.getText());  } ) )?
 	( s=block
@@ -1274,7 +1356,7 @@ adt_decl returns [List<StructDef> adtList]
   FEContext fec = null;
   }
 
-	:  t:TK_adt id:ID { fec = getContext(t); StreamItLex.lastComment = null;  }
+	:  t:TK_adt id:ID { fec = getContext(t); StreamItLex.setLastComment(null);  }
 	(
 		LESS_THAN
 		  typearg : ID {typeargs.add(typearg.getText());}
@@ -1315,7 +1397,7 @@ structInsideADT_decl returns [StructDef ts]
 		RCURLY
 		{ 
 			ts = StructDef.creator(getContext(id), id.getText(),null, true, names, types, typeargs, annotations).create();
-			StreamItLex.lastComment = null;
+			StreamItLex.setLastComment(null);
 			}
 	;
 struct_decl returns [StructDef ts]
@@ -1327,7 +1409,7 @@ struct_decl returns [StructDef ts]
 	FEContext fec = null;
 	}
 	:	(an=annotation{ annotations.append(an.tag, an); })*
-	t:TK_struct id:ID { fec = getContext(t); StreamItLex.lastComment = null; }
+	t:TK_struct id:ID { fec = getContext(t); StreamItLex.setLastComment(null); }
 		(
 		LESS_THAN
 		  typearg : ID {typeargs.add(typearg.getText());}
@@ -0,0 +1,57 @@
+package sketch.compiler.ast.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Lines and columns of any size survive in a context, and through serialization.
+ */
+public class FEContextJunitTest extends TestCase {
+    static FEContext roundTrip(FEContext cx) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(cx);
+        out.close();
+        return (FEContext) new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray())).readObject();
+    }
+
+    static void assertPosition(String file, int line, int col, FEContext cx)
+            throws Exception
+    {
+        for (FEContext c : new FEContext[] { cx, roundTrip(cx) }) {
+            assertEquals(file, c.getFileName());
+            assertEquals(line, c.getLineNumber());
+            assertEquals(col, c.getColumnNumber());
+        }
+        assertEquals(cx, roundTrip(cx));
+        assertEquals(cx.hashCode(), roundTrip(cx).hashCode());
+    }
+
+    public void testPositions() throws Exception {
+        int[] values = { -1, 0, 1, 4094, 4095, 5000, 1048574, 1048575, 3000000,
+                Integer.MAX_VALUE };
+        for (int line : values) {
+            for (int col : values) {
+                assertPosition("a.sk", line, col, new FEContext("a.sk", line, col));
+            }
+        }
+        assertPosition(null, -1, -1, new FEContext());
+        assertPosition("b.sk", 3, -1, new FEContext("b.sk", 3));
+    }
+
+    public void testEquality() {
+        FEContext wide = new FEContext("a.sk", 2, 5000);
+        assertEquals(wide, new FEContext("a.sk", 2, 5000));
+        assertFalse(wide.equals(new FEContext("a.sk", 2, 5001)));
+        assertFalse(wide.equals(new FEContext("a.sk", 2, -1)));
+        assertFalse(wide.equals(new FEContext("b.sk", 2, 5000)));
+        assertFalse(new FEContext("a.sk", 2, 3).equals(new FEContext(null, 2, 3)));
+        assertEquals("a.sk:2", wide.getLocation());
+        assertEquals("<unknown>", new FEContext().getLocation());
+    }
+}
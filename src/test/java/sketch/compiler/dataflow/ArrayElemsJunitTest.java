@@ -0,0 +1,71 @@
+package sketch.compiler.dataflow;
+
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+import sketch.compiler.dataflow.nodesToSB.IntAbsValue;
+
+/**
+ * ArrayElems behaves like a TreeMap from index to value, and only takes room for the
+ * indices that were stored.
+ */
+public class ArrayElemsJunitTest extends TestCase {
+    static abstractValue v(int i) {
+        return new IntAbsValue(i);
+    }
+
+    public void testFewLowIndicesTakeLittleRoom() {
+        ArrayElems elems = new ArrayElems(ArrayElems.MAX_DENSE);
+        assertEquals(0, elems.denseCapacity());
+        elems.put(0, v(0));
+        elems.put(2, v(2));
+        assertTrue(elems.denseCapacity() < 8);
+        elems.put(100, v(100));
+        assertTrue(elems.denseCapacity() < 256);
+        assertEquals(3, elems.size());
+        assertEquals(v(2), elems.get(2));
+        assertNull(elems.get(50));
+        assertNull(elems.get(1000));
+    }
+
+    public void testRoomStaysWithinArraySize() {
+        ArrayElems elems = new ArrayElems(5);
+        elems.put(3, v(3));
+        elems.put(4, v(4));
+        assertEquals(5, elems.denseCapacity());
+        // past the end of the array.
+        elems.put(7, v(7));
+        assertEquals(5, elems.denseCapacity());
+        assertEquals(v(7), elems.get(7));
+    }
+
+    /** Random puts compared with a TreeMap, for sizes that are dense and sparse. */
+    public void testSameAsTreeMap() {
+        Random rand = new Random(8);
+        int[] sizes = { 0, 1, 10, 1000, ArrayElems.MAX_DENSE + 1 };
+        for (int arraySize : sizes) {
+            ArrayElems elems = new ArrayElems(arraySize);
+            TreeMap<Integer, abstractValue> expected = new TreeMap<Integer, abstractValue>();
+            for (int n = 0; n < 300; ++n) {
+                int i = rand.nextInt(2 * arraySize + 20) - 10;
+                abstractValue val = v(rand.nextInt(5));
+                elems.put(i, val);
+                expected.put(i, val);
+                assertEquals(expected.size(), elems.size());
+            }
+            int[] keys = elems.keys();
+            assertEquals(expected.size(), keys.length);
+            int k = 0;
+            for (Entry<Integer, abstractValue> e : elems) {
+                Entry<Integer, abstractValue> other = expected.pollFirstEntry();
+                assertEquals(other.getKey(), e.getKey());
+                assertEquals((int) other.getKey(), keys[k++]);
+                assertSame(other.getValue(), e.getValue());
+                assertSame(other.getValue(), elems.get(e.getKey()));
+            }
+            assertTrue(expected.isEmpty());
+        }
+    }
+}
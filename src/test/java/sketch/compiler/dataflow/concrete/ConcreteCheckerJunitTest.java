@@ -0,0 +1,97 @@
+package sketch.compiler.dataflow.concrete;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import sketch.compiler.ast.core.Program;
+import sketch.compiler.main.CompilationContext;
+import sketch.compiler.main.PlatformLocalization;
+import sketch.compiler.main.seq.SequentialSketchMain;
+import sketch.compiler.solvers.SATBackend;
+import sketch.compiler.test.StubSolver;
+
+/**
+ * A solution the checker rejects fails on the inputs it reports, and inputs on which
+ * Java's ints would give an answer the backend's may not are given up on instead.
+ */
+public class ConcreteCheckerJunitTest extends TestCase {
+    static final int INBITS = 5;
+
+    StubSolver solver;
+
+    /** Exposes the lowered program and a backend for it. */
+    static class Lowering extends SequentialSketchMain {
+        Lowering(String[] args) {
+            super(args);
+        }
+
+        SATBackend backend() {
+            backendParameters();
+            return new SATBackend(options, internalRControl(), varGen);
+        }
+
+        Program lowered() {
+            return lowerToSketch(preprocAndSemanticCheck(parseProgram())).result;
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        SequentialSketchMain.isTest = true;
+        solver = StubSolver.solving("H__0 3");
+    }
+
+    @Override
+    protected void tearDown() {
+        solver.delete();
+    }
+
+    /** Solves the sketch with the stub solver and checks the solution on 200 inputs. */
+    ConcreteChecker check(String text, ConcreteChecker.Failure[] fail) throws IOException {
+        File sketch = solver.sketch("concrete.sk", text);
+        new CompilationContext().enter();
+        try {
+            Lowering main =
+                    new Lowering(new String[] { "--fe-cegis-path",
+                            solver.script.getPath(), "--bnd-inbits", "" + INBITS,
+                            sketch.getPath() });
+            PlatformLocalization.getLocalization().setTempDirs();
+            Program prog = main.lowered();
+            SATBackend backend = main.backend();
+            assertTrue(backend.partialEvalAndSolve(prog));
+            ConcreteChecker checker = new ConcreteChecker(prog, INBITS, 17);
+            fail[0] = checker.check(backend.getOracle(), 200);
+            return checker;
+        } finally {
+            CompilationContext.exit();
+        }
+    }
+
+    public void testRejectionIsACounterexample() throws IOException {
+        ConcreteChecker.Failure[] fail = new ConcreteChecker.Failure[1];
+        check("harness void main(int x) { assert x * ?? == x + x; }\n", fail);
+        assertNotNull(fail[0]);
+        int x = fail[0].inputs.get(0).getIntVal();
+        assertTrue(x * 3 != x + x);
+    }
+
+    /** 81 * x^8 wraps around in Java for some x the backend may take. */
+    public void testOverflowIsGivenUp() throws IOException {
+        boolean wraps = false;
+        for (int x = 0; x < 1 << INBITS; ++x) {
+            int y = x * x * 3;
+            y = y * y;
+            y = y * y;
+            wraps |= y < 0;
+        }
+        assertTrue(wraps);
+        ConcreteChecker.Failure[] fail = new ConcreteChecker.Failure[1];
+        ConcreteChecker checker =
+                check("harness void main(int x) {\n" + "    int y = x * x * ??;\n"
+                        + "    y = y * y;\n" + "    y = y * y;\n"
+                        + "    assert y >= 0;\n" + "}\n", fail);
+        assertNull(fail[0]);
+        assertTrue(checker.getSkipped() > 0);
+    }
+}
@@ -0,0 +1,201 @@
+package sketch.compiler.dataflow.intervals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+import junit.framework.TestCase;
+import sketch.compiler.ast.core.FEReplacer;
+import sketch.compiler.ast.core.Function;
+import sketch.compiler.ast.core.Package;
+import sketch.compiler.ast.core.Program;
+import sketch.compiler.ast.core.exprs.ExprConstInt;
+import sketch.compiler.ast.core.exprs.ExprStar;
+import sketch.compiler.dataflow.abstractValue;
+import sketch.compiler.dataflow.concrete.ConcreteInterpreter;
+import sketch.compiler.dataflow.concrete.ConcreteInterpreter.AssertionFailed;
+import sketch.compiler.dataflow.concrete.ConcreteInterpreter.AssumptionFailed;
+import sketch.compiler.dataflow.concrete.ConcreteVtype;
+import sketch.compiler.main.CompilationContext;
+import sketch.compiler.main.PlatformLocalization;
+import sketch.compiler.main.seq.SequentialSketchMain;
+
+/**
+ * A hole narrowed to w bits loses no behavior: for every input, each value of its full
+ * size does what the largest value of w bits, or the value itself if it fits, does. The
+ * programs are run on every input and every value of the hole with the
+ * {@link ConcreteInterpreter}.
+ */
+public class HoleWidthsJunitTest extends TestCase {
+    static final int INBITS = 5;
+    static final int UNROLL = 8;
+
+    File dir;
+
+    /** Exposes the program the backend is given. */
+    static class Lowering extends SequentialSketchMain {
+        Lowering(String[] args) {
+            super(args);
+        }
+
+        Program lowered() {
+            return lowerToSketch(preprocAndSemanticCheck(parseProgram())).result;
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        SequentialSketchMain.isTest = true;
+        dir = Files.createTempDirectory("holewidths").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /** Lowers text; the analysis must run in the same compilation, for its options. */
+    Program lower(String text) throws IOException {
+        File sketch = new File(dir, "holewidths.sk");
+        Files.write(sketch.toPath(), text.getBytes(Charset.forName("UTF-8")));
+        Lowering main =
+                new Lowering(new String[] { "--bnd-inbits", "" + INBITS,
+                        "--bnd-unroll-amnt", "" + UNROLL, sketch.getPath() });
+        PlatformLocalization.getLocalization().setTempDirs();
+        return main.lowered();
+    }
+
+    /** The size in bits of each hole of prog. */
+    static Map<String, Integer> sizes(Program prog) {
+        final Map<String, Integer> sizes = new HashMap<String, Integer>();
+        prog.accept(new FEReplacer() {
+            public Object visitExprStar(ExprStar star) {
+                sizes.put(star.getSname(), star.getSize());
+                return star;
+            }
+        });
+        return sizes;
+    }
+
+    /** prog with the hole set to value. */
+    static Program withHole(Program prog, final String hole, final int value) {
+        return (Program) prog.accept(new FEReplacer() {
+            public Object visitExprStar(ExprStar star) {
+                return star.getSname().equals(hole) ? new ExprConstInt(star, value) : star;
+            }
+        });
+    }
+
+    /**
+     * What each harness of prog, which lowering turns into a sketch of its spec, does on
+     * each input: passes, or what stops it.
+     */
+    static List<String> outcomes(Program prog) {
+        ConcreteInterpreter interp = new ConcreteInterpreter(prog);
+        ConcreteVtype vtype = new ConcreteVtype();
+        List<String> result = new ArrayList<String>();
+        for (Package pkg : prog.getPackages()) {
+            for (Function f : pkg.getFuncs()) {
+                if (f.getSpecification() == null) {
+                    continue;
+                }
+                for (int x = 0; x < 1 << INBITS; ++x) {
+                    List<abstractValue> inputs = new ArrayList<abstractValue>();
+                    for (int i = 0; i < f.getParams().size(); ++i) {
+                        inputs.add(vtype.CONST(x));
+                    }
+                    try {
+                        interp.run(f, inputs);
+                        result.add("passes");
+                    } catch (AssertionFailed e) {
+                        result.add("fails " + e.getMessage());
+                    } catch (AssumptionFailed e) {
+                        result.add("is assumed away");
+                    } catch (RuntimeException e) {
+                        result.add("gives up");
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks that every value of each narrowed hole that no longer fits behaves like the
+     * largest value that does, and returns the widths.
+     */
+    Map<String, Integer> checkWidths(String text) throws IOException {
+        new CompilationContext().enter();
+        try {
+            return checkWidths(lower(text));
+        } finally {
+            CompilationContext.exit();
+        }
+    }
+
+    Map<String, Integer> checkWidths(Program prog) {
+        Map<String, Integer> widths = HoleWidths.compute(prog, UNROLL);
+        Map<String, Integer> sizes = sizes(prog);
+        for (Map.Entry<String, Integer> e : widths.entrySet()) {
+            String hole = e.getKey();
+            int largest = (1 << e.getValue()) - 1;
+            assertTrue(e.getValue() < sizes.get(hole));
+            List<String> kept = outcomes(withHole(prog, hole, largest));
+            assertEquals(1 << INBITS, kept.size());
+            assertFalse(kept.contains("gives up"));
+            for (int v = largest + 1; v < 1 << sizes.get(hole); ++v) {
+                assertEquals(hole + " = " + v, kept, outcomes(withHole(prog, hole, v)));
+            }
+        }
+        return widths;
+    }
+
+    public void testComparedWithConstants() throws IOException {
+        Map<String, Integer> widths =
+                checkWidths("harness void main(int x) {\n" + "    int t = ??;\n"
+                        + "    if (t < 3) {\n" + "        assert x > 0 || t == 1;\n"
+                        + "    } else {\n" + "        assert t == 5 || x < 20;\n"
+                        + "    }\n" + "}\n");
+        assertEquals(1, widths.size());
+        assertEquals(3, (int) widths.values().iterator().next());
+    }
+
+    public void testComparedInLoop() throws IOException {
+        Map<String, Integer> widths =
+                checkWidths("harness void main(int x) {\n" + "    int c = 0;\n"
+                        + "    int h = ??;\n"
+                        + "    for (int i = 0; i < 6; ++i) {\n"
+                        + "        if (i == h) { c = c + i; }\n" + "    }\n"
+                        + "    assert c > 3 || x > 3;\n" + "}\n");
+        assertEquals(1, widths.size());
+    }
+
+    public void testArrayIndex() throws IOException {
+        Map<String, Integer> widths =
+                checkWidths("harness void main(int x) {\n"
+                        + "    int[4] a = {3, 1, 1, 4};\n" + "    int i = ??;\n"
+                        + "    assert a[i] <= x + 1;\n" + "}\n");
+        assertEquals(1, widths.size());
+    }
+
+    public void testComparedWithInput() throws IOException {
+        // x is below 2^INBITS, so a hole of INBITS bits is all it needs.
+        checkWidths("harness void main(int x) {\n" + "    int t = ??;\n"
+                + "    assert x < t || x > 3;\n" + "}\n");
+    }
+
+    public void testArithmeticIsNotNarrowed() throws IOException {
+        assertTrue(checkWidths("harness void main(int x) {\n" + "    int t = ??;\n"
+                + "    int u = t + 1;\n" + "    assert u > 2 || x > 3;\n" + "}\n")
+                .isEmpty());
+        assertTrue(checkWidths("harness void main(int x) {\n"
+                + "    assert x + ?? > 3;\n" + "}\n").isEmpty());
+    }
+}
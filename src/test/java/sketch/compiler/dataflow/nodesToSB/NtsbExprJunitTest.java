@@ -0,0 +1,72 @@
+package sketch.compiler.dataflow.nodesToSB;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that symbolic expressions can be very deep, and that the temporaries written
+ * for shared subterms only depend on the expressions written.
+ */
+public class NtsbExprJunitTest extends TestCase {
+    /** Long enough not to be copied into the expressions that use it. */
+    static final String PRODUCT =
+            "(in_0 * in_1 * in_2 * in_3 * in_4 * in_5 * in_6 * in_7 * in_8 * in_9)";
+
+    static NtsbExpr chain(int depth) {
+        NtsbExpr e = NtsbExpr.term("(x + 1)");
+        for (int i = 0; i < depth; ++i) {
+            e = NtsbExpr.term("(", e, " + ", i % 7, ")");
+        }
+        return e;
+    }
+
+    public void testDeepEquals() {
+        NtsbExpr a = chain(200000);
+        NtsbExpr b = chain(200000);
+        assertNotSame(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertTrue(a.equals(b));
+        assertFalse(a.equals(NtsbExpr.term("(", a, " + 1)")));
+    }
+
+    /** Writes the same statement twice, then one that reuses a subterm of it. */
+    static String writeShared(boolean collect) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        NtsbVtype vt = new NtsbVtype(null, out);
+        vt.setShareThreshold(1);
+        vt.beginScope();
+        vt.emit("assert (",
+                vt.term("(", vt.term(PRODUCT), " + ", vt.term(PRODUCT), ")"), ");\n");
+        if (collect) {
+            // nothing holds the first statement any more but the writer.
+            System.gc();
+        }
+        vt.emit("assert (",
+                vt.term("(", vt.term(PRODUCT), " + ", vt.term(PRODUCT), ")"), ");\n");
+        vt.emit("assert (", vt.term("(", vt.term(PRODUCT), " - 1)"), ");\n");
+        out.flush();
+        return bytes.toString();
+    }
+
+    public void testSharingIsDeterministic() {
+        String plain = writeShared(false);
+        assertEquals(plain, writeShared(true));
+        assertTrue(plain, plain.startsWith("___sHaReD0 = " + PRODUCT + ";\n"));
+        assertTrue(plain, plain.contains("(___sHaReD0 + ___sHaReD0)"));
+        assertTrue(plain, plain.contains("(___sHaReD0 - 1)"));
+    }
+
+    public void testNoSharingInsideOneOccurrence() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        NtsbVtype vt = new NtsbVtype(null, out);
+        vt.setShareThreshold(1);
+        vt.beginScope();
+        vt.emit("assert (", vt.term("(", vt.term(PRODUCT), " + 2)"), ");\n");
+        out.flush();
+        assertEquals("assert ((" + PRODUCT + " + 2));\n", bytes.toString());
+    }
+}
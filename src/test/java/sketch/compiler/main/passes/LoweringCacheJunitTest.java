@@ -0,0 +1,171 @@
+package sketch.compiler.main.passes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+
+import junit.framework.TestCase;
+import sketch.compiler.ast.core.FEReplacer;
+import sketch.compiler.ast.core.Function;
+import sketch.compiler.ast.core.Package;
+import sketch.compiler.ast.core.Program;
+import sketch.compiler.ast.core.exprs.ExprBinary;
+import sketch.compiler.ast.core.exprs.ExprConstInt;
+import sketch.compiler.ast.core.exprs.ExprFunCall;
+import sketch.compiler.ast.core.exprs.ExprVar;
+import sketch.compiler.ast.core.exprs.Expression;
+import sketch.compiler.ast.core.stmts.Statement;
+import sketch.compiler.ast.core.stmts.StmtAssert;
+import sketch.compiler.ast.core.stmts.StmtBlock;
+import sketch.compiler.main.CompilationContext;
+import sketch.compiler.main.PlatformLocalization;
+import sketch.compiler.main.seq.SequentialSketchMain;
+
+/**
+ * A function whose lowering depends on how it is called is lowered again when its
+ * callers change, even if the function itself did not.
+ */
+public class LoweringCacheJunitTest extends TestCase {
+    File dir;
+    /** Functions the last lowering was given with an empty body. */
+    List<String> stubbed;
+
+    /** Exposes the program before lowering. */
+    static class Frontend extends SequentialSketchMain {
+        Frontend(String[] args) {
+            super(args);
+        }
+
+        Program preprocessed() {
+            return preprocAndSemanticCheck(parseProgram());
+        }
+    }
+
+    /**
+     * Lowers helper(x) to assert, for every call to it, that x is not the argument of
+     * that call.
+     */
+    class PerCaller extends LoweringCache.Lowering {
+        public Program lower(Program prog) {
+            final List<Expression> args = new ArrayList<Expression>();
+            stubbed = new ArrayList<String>();
+            for (Package pkg : prog.getPackages()) {
+                for (Function f : pkg.getFuncs()) {
+                    if (((StmtBlock) f.getBody()).getStmts().isEmpty()) {
+                        stubbed.add(f.getName());
+                    }
+                }
+            }
+            prog.accept(new FEReplacer() {
+                public Object visitExprFunCall(ExprFunCall exp) {
+                    if (exp.getName().equals("helper")) {
+                        args.add(exp.getParams().get(0));
+                    }
+                    return super.visitExprFunCall(exp);
+                }
+            });
+            return (Program) prog.accept(new FEReplacer() {
+                public Object visitFunction(Function f) {
+                    if (!f.getName().equals("helper")) {
+                        return f;
+                    }
+                    List<Statement> stmts = new ArrayList<Statement>();
+                    for (Expression arg : args) {
+                        stmts.add(new StmtAssert(f, new ExprBinary(f, new ExprVar(f, "x"),
+                                "!=", arg), false));
+                    }
+                    stmts.add(f.getBody());
+                    return f.creator().body(new StmtBlock(f, stmts)).create();
+                }
+            });
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        SequentialSketchMain.isTest = true;
+        dir = Files.createTempDirectory("loweringCache").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /**
+     * Lowers a program with two callers of helper, and returns the constant arguments
+     * helper was lowered for. The callers are changed without changing the names of
+     * their variables, so that the declarations stay the same.
+     */
+    TreeSet<Integer> lower(String one, String two, boolean cached) throws IOException {
+        String text =
+                "int helper(int x) { return x * x; }\n" + "harness void one(int y) { " +
+                        one + " }\n" + "harness void two(int y) { " + two + " }\n";
+        File sketch = new File(dir, "callers.sk");
+        Files.write(sketch.toPath(), text.getBytes(Charset.forName("UTF-8")));
+        new CompilationContext().enter();
+        try {
+            Frontend main = new Frontend(new String[] { sketch.getPath() });
+            PlatformLocalization.getLocalization().setTempDirs();
+            Program prog = main.preprocessed();
+            Program lowered =
+                    cached ? new LoweringCache(new File(dir, "cache"), main.options).lower(
+                            prog, new PerCaller()) : new PerCaller().lower(prog);
+            final TreeSet<Integer> result = new TreeSet<Integer>();
+            for (Package pkg : lowered.getPackages()) {
+                for (Function f : pkg.getFuncs()) {
+                    if (f.getName().equals("helper")) {
+                        f.accept(new FEReplacer() {
+                            public Object visitStmtAssert(StmtAssert stmt) {
+                                Expression arg = ((ExprBinary) stmt.getCond()).getRight();
+                                if (arg instanceof ExprConstInt) {
+                                    result.add(((ExprConstInt) arg).getVal());
+                                }
+                                return stmt;
+                            }
+                        });
+                    }
+                }
+            }
+            return result;
+        } finally {
+            CompilationContext.exit();
+        }
+    }
+
+    static TreeSet<Integer> args(Integer... args) {
+        return new TreeSet<Integer>(Arrays.asList(args));
+    }
+
+    public void testUnchangedProgramIsReused() throws IOException {
+        String one = "assert helper(1) > y;", two = "assert helper(y) > y;";
+        assertEquals(args(1), lower(one, two, true));
+        assertEquals(args(1), lower(one, two, true));
+        assertTrue(stubbed.containsAll(Arrays.asList("helper", "one", "two")));
+    }
+
+    public void testHelperWithOtherCallerIsLoweredAgain() throws IOException {
+        assertEquals(args(1), lower("assert helper(1) > y;", "assert helper(y) > y;", true));
+        String one = "assert helper(y) > y;", two = "assert helper(2) > y;";
+        assertEquals(args(2), lower(one, two, true));
+        assertFalse(stubbed.contains("helper"));
+        assertEquals(args(2), lower(one, two, false));
+    }
+
+    /** one did not change, but helper must see its call when it is lowered again. */
+    public void testCallerOfChangedFunctionIsLoweredAgain() throws IOException {
+        String one = "assert helper(1) > y;";
+        assertEquals(args(1, 2), lower(one, "assert helper(2) > y;", true));
+        String two = "assert helper(3) > y;";
+        assertEquals(args(1, 3), lower(one, two, true));
+        assertFalse(stubbed.contains("one"));
+        assertEquals(args(1, 3), lower(one, two, false));
+    }
+}
@@ -0,0 +1,59 @@
+package sketch.compiler.main.passes;
+
+import junit.framework.TestCase;
+import sketch.compiler.ast.core.FEReplacer;
+import sketch.compiler.ast.core.Program;
+import sketch.compiler.main.CompilationContext;
+
+/**
+ * Compilations that run side by side have profilers of their own.
+ */
+public class PassProfilerJunitTest extends TestCase {
+    static class Counted extends FEReplacer {}
+
+    static class Other extends FEReplacer {}
+
+    PassProfiler other;
+    Throwable failure;
+
+    @Override
+    protected void tearDown() {
+        PassProfiler.stop();
+        CompilationContext.exit();
+    }
+
+    public void testProfilerBelongsToItsCompilation() throws Exception {
+        new CompilationContext().enter();
+        assertNull(PassProfiler.get());
+        final PassProfiler mine = PassProfiler.start();
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    // a thread of the same compilation is not profiled.
+                    assertNull(PassProfiler.get());
+                    new CompilationContext().enter();
+                    assertNull(PassProfiler.get());
+                    other = PassProfiler.start();
+                    Program.emptyProgram().accept(new Other());
+                    assertSame(other, PassProfiler.stop());
+                } catch (Throwable e) {
+                    failure = e;
+                }
+            }
+        };
+        t.start();
+        t.join();
+        if (failure != null) {
+            throw new AssertionError(failure);
+        }
+        assertSame(mine, PassProfiler.get());
+        Program.emptyProgram().accept(new Counted());
+        assertSame(mine, PassProfiler.stop());
+        assertNull(PassProfiler.get());
+
+        assertEquals(1, mine.summaries.size());
+        assertTrue(mine.summaries.containsKey("Counted"));
+        assertEquals(1, other.summaries.size());
+        assertTrue(other.summaries.containsKey("Other"));
+    }
+}
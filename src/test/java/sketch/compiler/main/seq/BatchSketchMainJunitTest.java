@@ -0,0 +1,47 @@
+package sketch.compiler.main.seq;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import sketch.compiler.test.StubSolver;
+
+/**
+ * A job of a batch that would have exited the JVM only fails itself.
+ */
+public class BatchSketchMainJunitTest extends TestCase {
+    StubSolver solver;
+    File sketch;
+
+    @Override
+    protected void setUp() throws Exception {
+        solver = StubSolver.solving("H__0 1");
+        sketch =
+                solver.sketch("batch.sk",
+                        "harness void main(int x) { assert x + ?? > x; }\n");
+    }
+
+    @Override
+    protected void tearDown() {
+        solver.delete();
+    }
+
+    BatchSketchMain.Job job(int id, String... options) {
+        String[] args = new String[options.length + 7];
+        String[] common =
+                { "--fe-cegis-path", solver.script.getPath(), "--fe-tempdir",
+                        new File(solver.dir, "tmp").getPath(), "--fe-output",
+                        new File(solver.dir, "out" + id).getPath() };
+        System.arraycopy(common, 0, args, 0, common.length);
+        System.arraycopy(options, 0, args, common.length, options.length);
+        args[args.length - 1] = sketch.getPath();
+        BatchSketchMain.Job job = new BatchSketchMain.Job(id, args);
+        job.run();
+        return job;
+    }
+
+    public void testBadJobDoesNotEndTheBatch() {
+        // an unknown option makes the command line parser exit.
+        assertFalse(job(0, "--no-such-option").succeeded);
+        assertTrue(job(1).succeeded);
+    }
+}
@@ -0,0 +1,95 @@
+package sketch.compiler.parallelEncoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import junit.framework.TestCase;
+import sketch.compiler.ast.core.Function;
+import sketch.compiler.ast.core.Package;
+import sketch.compiler.ast.core.Program;
+import sketch.compiler.ast.core.stmts.Statement;
+import sketch.compiler.ast.core.stmts.StmtBlock;
+import sketch.compiler.ast.core.stmts.StmtVarDecl;
+import sketch.compiler.ast.promela.stmts.StmtFork;
+import sketch.compiler.main.CompilationContext;
+import sketch.compiler.main.seq.SequentialSketchMain;
+
+/**
+ * The parallel function is split into its pre-parallel section and its fork wherever
+ * it is in the package.
+ */
+public class ExtractPreParallelSectionJunitTest extends TestCase {
+    static final String SKETCH = "void first(int a, ref int r) {\n"
+            + "    int b = a;\n"
+            + "    r = b;\n"
+            + "}\n"
+            + "void par(int a) {\n"
+            + "    int x = a;\n"
+            + "    x = x + 1;\n"
+            + "    fork (int i; 2) {\n"
+            + "        int y = i;\n"
+            + "        x = y;\n"
+            + "    }\n"
+            + "}\n";
+
+    File dir;
+
+    /** Exposes the parsed program. */
+    static class Parser extends SequentialSketchMain {
+        Parser(String[] args) {
+            super(args);
+        }
+
+        Program parsed() {
+            return parseProgram();
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        SequentialSketchMain.isTest = true;
+        dir = Files.createTempDirectory("preparallel").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        new File(dir, "preparallel.sk").delete();
+        dir.delete();
+    }
+
+    public void testParallelFunctionAfterAnother() throws IOException {
+        File sketch = new File(dir, "preparallel.sk");
+        Files.write(sketch.toPath(), SKETCH.getBytes(Charset.forName("UTF-8")));
+        Program prog;
+        new CompilationContext().enter();
+        try {
+            prog = new Parser(new String[] { sketch.getPath() }).parsed();
+        } finally {
+            CompilationContext.exit();
+        }
+        ExtractPreParallelSection ps = new ExtractPreParallelSection();
+        Program result = (Program) prog.accept(ps);
+        assertNotNull(ps.ploop);
+        assertEquals("par", ps.parfun.getName());
+        Function par = null;
+        for (Package pkg : result.getPackages()) {
+            for (Function f : pkg.getFuncs()) {
+                if (f.getName().equals("par")) {
+                    par = f;
+                }
+            }
+        }
+        assertNotNull(par);
+        // x is shared, so it is declared first, then come the pre-parallel block and
+        // the fork
+        List<Statement> stmts = ((StmtBlock) par.getBody()).getStmts();
+        assertEquals(3, stmts.size());
+        assertEquals("x", ((StmtVarDecl) stmts.get(0)).getName(0));
+        assertTrue(stmts.get(1) instanceof StmtBlock);
+        assertTrue(stmts.get(1).toString().contains("x = x + 1"));
+        assertTrue(stmts.get(2) instanceof StmtFork);
+    }
+}
@@ -0,0 +1,179 @@
+package sketch.compiler.passes.structure;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+
+import junit.framework.TestCase;
+import sketch.compiler.ast.core.Function;
+import sketch.compiler.ast.core.Program;
+import sketch.compiler.main.CompilationContext;
+import sketch.compiler.main.PlatformLocalization;
+import sketch.compiler.main.seq.SequentialSketchMain;
+import sketch.compiler.passes.structure.CallGraph.CallEdge;
+
+/**
+ * The closure of the call graph, which is computed from its strongly connected
+ * components, against a search of the calls from each function.
+ */
+public class CallGraphJunitTest extends TestCase {
+    static final String SKETCH = "int leaf(int x) { return x + 1; }\n"
+            + "int self(int x) { if (x > 0) { return self(x - 1); } return leaf(x); }\n"
+            + "int a(int x) { if (x > 0) { return b(x - 1); } return x; }\n"
+            + "int b(int x) { return c(x) + leaf(x); }\n"
+            + "int c(int x) { return a(x); }\n"
+            + "int entry(int x) { return a(x) + self(x); }\n"
+            + "int unused(int x) { return x; }\n"
+            + "int spec(int x) { return entry(x); }\n"
+            + "int sketch(int x) implements spec { return entry(x) + ??; }\n";
+
+    File dir;
+
+    /** Exposes the parsed and the preprocessed program. */
+    static class Frontend extends SequentialSketchMain {
+        Frontend(String[] args) {
+            super(args);
+        }
+
+        Program parsed() {
+            return parseProgram();
+        }
+
+        Program preprocessed() {
+            return preprocAndSemanticCheck(parseProgram());
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        SequentialSketchMain.isTest = true;
+        dir = Files.createTempDirectory("callgraph").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    static Program parse(File sketch, boolean preprocess) {
+        new CompilationContext().enter();
+        try {
+            Frontend main = new Frontend(new String[] { sketch.getPath() });
+            PlatformLocalization.getLocalization().setTempDirs();
+            return preprocess ? main.preprocessed() : main.parsed();
+        } finally {
+            CompilationContext.exit();
+        }
+    }
+
+    /** The functions f reaches, found by following its calls. */
+    static Set<Function> searchFrom(CallGraph cg, Function f) {
+        Set<Function> reached = new HashSet<Function>();
+        Queue<Function> queue = new ArrayDeque<Function>();
+        queue.add(f);
+        while (!queue.isEmpty()) {
+            for (Function target : cg.targetsFrom(queue.remove())) {
+                if (reached.add(target)) {
+                    queue.add(target);
+                }
+            }
+        }
+        return reached;
+    }
+
+    /** Checks every query of the closure of cg against searchFrom. */
+    static void checkClosure(String name, CallGraph cg) {
+        Set<CallEdge> closure = new HashSet<CallEdge>();
+        for (CallEdge edge : cg.getClosureEdges()) {
+            closure.add(edge);
+        }
+        int edges = 0;
+        for (Function f : cg.getAllFcns()) {
+            Set<Function> reached = searchFrom(cg, f);
+            assertEquals(name + ": " + f.getName(), reached, new HashSet<Function>(
+                    cg.closureTargetsFrom(f)));
+            for (Function g : cg.getAllFcns()) {
+                boolean reaches = reached.contains(g);
+                assertEquals(reaches, cg.reaches(f, g));
+                assertEquals(reaches, cg.closureCallersTo(g).contains(f));
+                assertEquals(reaches, closure.contains(new CallEdge(f, g)));
+            }
+            edges += reached.size();
+        }
+        assertEquals(name, edges, closure.size());
+    }
+
+    Function fun(CallGraph cg, String name) {
+        return cg.getByName(name);
+    }
+
+    public void testCycles() throws IOException {
+        File sketch = new File(dir, "callgraph.sk");
+        Files.write(sketch.toPath(), SKETCH.getBytes(Charset.forName("UTF-8")));
+        CallGraph cg = CallGraph.of(parse(sketch, false));
+        checkClosure("callgraph.sk", cg);
+        assertTrue(cg.reaches(fun(cg, "self"), fun(cg, "self")));
+        assertTrue(cg.reaches(fun(cg, "b"), fun(cg, "b")));
+        assertTrue(cg.reaches(fun(cg, "entry"), fun(cg, "leaf")));
+        assertFalse(cg.reaches(fun(cg, "entry"), fun(cg, "entry")));
+        assertFalse(cg.reaches(fun(cg, "leaf"), fun(cg, "leaf")));
+        assertTrue(cg.closureTargetsFrom(fun(cg, "unused")).isEmpty());
+        assertSame(fun(cg, "sketch"), cg.getSketchOfSpec(fun(cg, "spec")));
+    }
+
+    public void testReadOnly() throws IOException {
+        File sketch = new File(dir, "callgraph.sk");
+        Files.write(sketch.toPath(), SKETCH.getBytes(Charset.forName("UTF-8")));
+        CallGraph cg = CallGraph.of(parse(sketch, false));
+        Function leaf = fun(cg, "leaf");
+        try {
+            cg.getAllFcns().clear();
+            fail("allFcns can be changed");
+        } catch (UnsupportedOperationException e) {}
+        try {
+            cg.targetsFrom(fun(cg, "b")).remove(leaf);
+            fail("the edges can be changed");
+        } catch (UnsupportedOperationException e) {}
+        try {
+            cg.callersTo(leaf).clear();
+            fail("the edges can be changed");
+        } catch (UnsupportedOperationException e) {}
+        try {
+            cg.closureTargetsFrom(fun(cg, "entry")).add(leaf);
+            fail("the closure can be changed");
+        } catch (UnsupportedOperationException e) {}
+        assertTrue(cg.targetsFrom(fun(cg, "b")).contains(leaf));
+    }
+
+    /** The closures of the programs of the test suite, as the passes see them. */
+    public void testSuiteSketches() {
+        File[] sketches = new File("src/test/sk/seq").listFiles();
+        assertNotNull(sketches);
+        int checked = 0;
+        for (File sketch : sketches) {
+            if (!sketch.getName().endsWith(".sk")) {
+                continue;
+            }
+            Program prog;
+            try {
+                prog = parse(sketch, true);
+            } catch (RuntimeException e) {
+                // sketches that are meant to fail
+                continue;
+            } catch (AssertionError e) {
+                continue;
+            }
+            CallGraph cg = CallGraph.of(prog);
+            checkClosure(sketch.getName(), cg);
+            ++checked;
+        }
+        assertTrue(checked > 100);
+    }
+}
@@ -0,0 +1,45 @@
+package sketch.compiler.solvers;
+
+import junit.framework.TestCase;
+
+/**
+ * Lines whose numbers don't parse are skipped, and the lines after them still count.
+ */
+public class CegisOutputParserJunitTest extends TestCase {
+    int holes;
+
+    public void testBadNumbersAreSkipped() {
+        CegisOutputParser parser = new CegisOutputParser();
+        parser.addListener(new CegisOutputParser.Listener() {
+            public void holeConcretized(CegisOutputParser p, String hole, int value,
+                    int bound)
+            {
+                ++holes;
+            }
+        });
+        parser.line("FIND TIME 1.5 CHECK TIME - TOTAL TIME 3");
+        parser.line("H__0: replacing with value 99999999999 bnd= 4");
+        parser.line("SKETCH nodes = 123456789012345678901234567890");
+        parser.line("FIND TIME 1 CHECK TIME 2 TOTAL TIME 3");
+        parser.line("H__1: replacing with value 3 bnd= 4");
+        parser.line("SKETCH nodes = 12");
+        parser.line("Total elapsed time (ms):  10.5");
+        parser.line("Model building time (ms):  2");
+        parser.line("Solution time (ms):  8");
+        parser.line("Max virtual mem (bytes):  99999999999999999999999");
+        parser.line("Total elapsed time (ms):  11");
+        parser.line("Model building time (ms):  3");
+        parser.line("Solution time (ms):  8");
+        parser.line("Max virtual mem (bytes):  1024");
+
+        assertEquals(4, parser.getBadLines());
+        assertEquals(1, parser.getIterations());
+        assertEquals(1, holes);
+        assertEquals(0.25, parser.getProbability());
+        SATSolutionStatistics stats = parser.getStatistics();
+        assertEquals(12, stats.numNodesInitial);
+        assertEquals(11, stats.elapsedTimeMs);
+        assertEquals(3, stats.modelBuildingTimeMs);
+        assertEquals(1024, stats.maxMemUsageBytes);
+    }
+}
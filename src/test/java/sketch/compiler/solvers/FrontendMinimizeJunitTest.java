@@ -0,0 +1,77 @@
+package sketch.compiler.solvers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+import sketch.compiler.main.seq.SequentialSketchMain;
+import sketch.compiler.test.StubSolver;
+import sketch.util.exceptions.SketchNotResolvedException;
+
+/**
+ * --slv-fe-minimize searches the cost bound with the integer size of --bnd-incremental,
+ * against a solver that needs 2 bits and a bound of at least 5.
+ */
+public class FrontendMinimizeJunitTest extends TestCase {
+    static final String SKETCH = "harness void main(int x) {\n" + "    int t = ??;\n"
+            + "    minimize(t);\n" + "    assert x + t >= x;\n" + "}\n";
+
+    StubSolver solver;
+    File sketch;
+
+    @Override
+    protected void setUp() throws IOException {
+        SequentialSketchMain.isTest = true;
+        solver =
+                new StubSolver("bits=5\n" + "case \"$args\" in\n"
+                        + "  *--bnd-cbits=*) bits=${args##*--bnd-cbits=}; "
+                        + "bits=${bits%% *};;\n" + "esac\n" + "bound=${in##*-bound}\n"
+                        + "if [ \"$bound\" = \"$in\" ]; then bound=64; fi\n"
+                        + "if [ $bits -ge 2 ] && [ $bound -ge 5 ]; then\n"
+                        + "  echo 'H__0 1' > \"$out\"\n" + "  exit 0\n" + "fi\n"
+                        + "exit 1");
+        sketch = solver.sketch("feminimize.sk", SKETCH);
+    }
+
+    @Override
+    protected void tearDown() {
+        solver.delete();
+    }
+
+    public void testProbesUseTheIncrementalSize() throws IOException {
+        solver.run(sketch, "--slv-fe-minimize", "1", "--bnd-incremental", "3");
+        List<String> calls = solver.calls();
+        // the sizes, without a bound, and then the probes
+        assertTrue(calls.get(0).contains("--bnd-cbits=1"));
+        assertTrue(calls.get(1).contains("--bnd-cbits=2"));
+        assertFalse(calls.get(1).contains(".tmp-bound"));
+        assertTrue(calls.size() > 2);
+        boolean probed5 = false;
+        for (String call : calls.subList(2, calls.size())) {
+            assertTrue(call, call.contains("--bnd-cbits=2"));
+            assertTrue(call, call.contains(".tmp-bound"));
+            probed5 |= call.endsWith("-bound5");
+        }
+        assertTrue(probed5);
+    }
+
+    public void testNoSizeIsEnough() throws IOException {
+        try {
+            solver.run(sketch, "--slv-fe-minimize", "1", "--bnd-incremental", "1");
+            fail("1 bit is not enough");
+        } catch (SketchNotResolvedException e) {}
+        List<String> calls = solver.calls();
+        assertEquals(1, calls.size());
+        assertTrue(calls.get(0).contains("--bnd-cbits=1"));
+    }
+
+    public void testWithoutIncrementalSize() throws IOException {
+        solver.run(sketch, "--slv-fe-minimize", "1");
+        assertFalse(solver.calls().isEmpty());
+        for (String call : solver.calls()) {
+            assertTrue(call, call.contains(".tmp-bound"));
+            assertFalse(call, call.contains("--bnd-cbits"));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package sketch.compiler.solvers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import junit.framework.TestCase;
+import sketch.compiler.ast.core.Program;
+import sketch.compiler.main.CompilationContext;
+import sketch.compiler.main.PlatformLocalization;
+import sketch.compiler.main.seq.SequentialSketchMain;
+import sketch.compiler.test.StubSolver;
+
+/**
+ * With --slv-send-changed, the interactive backend leaves out functions the
+ * solver has already read, but only once the solver has completed the round they were
+ * sent in.
+ */
+public class InteractiveSATBackendJunitTest extends TestCase {
+    static final String SKETCH =
+            "int f(int x) { return x + ??; }\n"
+                    + "harness void main(int x) { assert f(x) >= x; }\n";
+
+    StubSolver solver;
+    File received;
+    File crash;
+
+    /** Exposes the program the backend is given. */
+    static class Lowering extends SequentialSketchMain {
+        Lowering(String[] args) {
+            super(args);
+        }
+
+        InteractiveSATBackend backend() {
+            backendParameters();
+            return new InteractiveSATBackend(options, internalRControl(), varGen);
+        }
+
+        Program lowered() {
+            return lowerToSketch(preprocAndSemanticCheck(parseProgram())).result;
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        SequentialSketchMain.isTest = true;
+        // answers every problem, or dies without answering if the crash file exists.
+        solver =
+                new StubSolver("d=$(dirname \"$0\")\n" + "while read -r line; do\n"
+                        + "  echo \"$line\" >> \"$d/received\"\n"
+                        + "  case \"$line\" in\n" + "    \"assert \"*SKETCHES*)\n"
+                        + "      echo 'H__0 1' > \"$d/sol.tmp\"\n"
+                        + "      if [ -e \"$d/crash\" ]; then exit 1; fi\n"
+                        + "      echo COMPLETED;;\n" + "    \"exit();\") exit 0;;\n"
+                        + "  esac\n" + "done");
+        received = new File(solver.dir, "received");
+        crash = new File(solver.dir, "crash");
+    }
+
+    @Override
+    protected void tearDown() {
+        solver.delete();
+    }
+
+    /** Runs rounds rounds of the sketch on one solver process. */
+    InteractiveSATBackend solve(int rounds, boolean sendChanged) throws IOException {
+        File sketch = solver.sketch("interactive.sk", SKETCH);
+        String[] args =
+                sendChanged ? new String[] { "--fe-cegis-path", solver.script.getPath(),
+                        "--slv-send-changed", sketch.getPath() }
+                        : new String[] { "--fe-cegis-path", solver.script.getPath(),
+                                sketch.getPath() };
+        new CompilationContext().enter();
+        try {
+            Lowering main = new Lowering(args);
+            PlatformLocalization.getLocalization().setTempDirs();
+            main.options.feOpts.output = new File(solver.dir, "sol").getPath();
+            Program prog = main.lowered();
+            InteractiveSATBackend backend = main.backend();
+            backend.initializeSolver();
+            try {
+                for (int i = 0; i < rounds; ++i) {
+                    backend.partialEvalAndSolve(prog);
+                }
+            } finally {
+                backend.cleanup();
+            }
+            return backend;
+        } finally {
+            CompilationContext.exit();
+        }
+    }
+
+    int count(String prefix) throws IOException {
+        List<String> lines = Files.readAllLines(received.toPath(), Charset.forName("UTF-8"));
+        int n = 0;
+        for (String line : lines) {
+            if (line.startsWith(prefix)) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    public void testUnchangedFunctionsAreSentOnce() throws IOException {
+        InteractiveSATBackend backend = solve(3, true);
+        assertTrue(solver.calls().get(0).contains("-interactive"));
+        assertEquals(3, count("assert main__Wrapper SKETCHES"));
+        assertEquals(1, count("def f("));
+        assertEquals(1, count("def main("));
+        assertTrue(backend.acknowledged.containsKey("f@ANONYMOUS"));
+    }
+
+    public void testEverythingIsSentByDefault() throws IOException {
+        InteractiveSATBackend backend = solve(2, false);
+        assertEquals(2, count("def f("));
+        assertNull(backend.acknowledged);
+    }
+
+    public void testRoundThatFailsIsNotAcknowledged() throws IOException {
+        crash.createNewFile();
+        InteractiveSATBackend backend = solve(1, true);
+        assertEquals(1, count("def f("));
+        assertFalse(backend.sentFunctions.isEmpty());
+        assertTrue(backend.acknowledged.isEmpty());
+    }
+}
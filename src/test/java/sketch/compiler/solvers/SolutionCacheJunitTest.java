@@ -0,0 +1,170 @@
+package sketch.compiler.solvers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import sketch.compiler.ast.core.TempVarGen;
+import sketch.compiler.main.cmdline.SketchOptions;
+
+/**
+ * Eviction order, expiry and keys of the solution cache.
+ */
+public class SolutionCacheJunitTest extends TestCase {
+    File dir;
+    File scratch;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("solcache").toFile();
+        scratch = Files.createTempDirectory("solcache-files").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        FileUtils.deleteQuietly(dir);
+        FileUtils.deleteQuietly(scratch);
+    }
+
+    File file(String name, String text) throws IOException {
+        File f = new File(scratch, name);
+        Files.write(f.toPath(), text.getBytes("UTF-8"));
+        return f;
+    }
+
+    void store(SolutionCache cache, String key) throws IOException {
+        cache.store(key, file("problem", "problem of " + key),
+                file("solution", "H__0 1"), "output of " + key, -1);
+    }
+
+    boolean has(SolutionCache cache, String key) {
+        return cache.lookup(key, new File(scratch, "found")) != null;
+    }
+
+    /** Size of one entry, so that limits can be given in entries. */
+    long entrySize() throws IOException {
+        File other = Files.createTempDirectory("solcache-size").toFile();
+        try {
+            SolutionCache cache = new SolutionCache(other, 0, 0);
+            store(cache, "k");
+            return FileUtils.sizeOfDirectory(new File(other, "k"));
+        } finally {
+            FileUtils.deleteQuietly(other);
+        }
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() throws IOException {
+        SolutionCache cache = new SolutionCache(dir, entrySize() * 5 / 2, 0);
+        store(cache, "a");
+        store(cache, "b");
+        assertTrue(has(cache, "a"));
+        store(cache, "c");
+        assertEquals(2, cache.size());
+        assertTrue(has(cache, "a"));
+        assertFalse(has(cache, "b"));
+        assertTrue(has(cache, "c"));
+    }
+
+    public void testIndexIsReadInOrderOfUse() throws IOException {
+        long size = entrySize();
+        SolutionCache first = new SolutionCache(dir, 0, 0);
+        store(first, "a");
+        store(first, "b");
+        long now = System.currentTimeMillis();
+        new File(dir, "b").setLastModified(now - 60000);
+        new File(dir, "a").setLastModified(now);
+        // as in a new JVM.
+        SolutionCache second = new SolutionCache(dir, size * 5 / 2, 0);
+        assertEquals(2, second.size());
+        store(second, "c");
+        assertTrue(new File(dir, "a").isDirectory());
+        assertFalse(new File(dir, "b").exists());
+        assertTrue(new File(dir, "c").isDirectory());
+    }
+
+    public void testExpiredEntriesAreEvicted() throws Exception {
+        SolutionCache cache = new SolutionCache(dir, 0, 200);
+        store(cache, "a");
+        Thread.sleep(400);
+        store(cache, "b");
+        assertFalse(new File(dir, "a").exists());
+        assertTrue(has(cache, "b"));
+    }
+
+    public void testExpiredEntryIsNotLookedUp() throws Exception {
+        SolutionCache cache = new SolutionCache(dir, 0, 200);
+        store(cache, "a");
+        assertTrue(has(cache, "a"));
+        Thread.sleep(400);
+        File found = new File(scratch, "found");
+        found.delete();
+        assertNull(cache.lookup("a", found));
+        assertFalse(found.exists());
+        assertFalse(new File(dir, "a").exists());
+        assertEquals(0, cache.size());
+    }
+
+    public void testOldEntryOfOtherProcessIsNotLookedUp() throws IOException {
+        store(new SolutionCache(dir, 0, 0), "a");
+        new File(dir, "a").setLastModified(System.currentTimeMillis() - 60000);
+        SolutionCache cache = new SolutionCache(dir, 0, 30000);
+        assertFalse(has(cache, "a"));
+        assertFalse(new File(dir, "a").exists());
+    }
+
+    public void testEntriesOfOtherProcessesAreFound() throws IOException {
+        SolutionCache cache = new SolutionCache(dir, 0, 0);
+        assertEquals(0, cache.size());
+        store(new SolutionCache(dir, 0, 0), "a");
+        assertTrue(has(cache, "a"));
+        assertEquals(1, cache.size());
+    }
+
+    public void testHitHasSolverOutput() throws IOException {
+        SolutionCache cache = SolutionCache.open(dir, 0, 0);
+        assertSame(cache, SolutionCache.open(new File(dir.getPath()), 0, 0));
+        store(cache, "a");
+        File found = new File(scratch, "found");
+        SolutionCache.Hit hit = cache.lookup("a", found);
+        assertEquals("output of a", hit.output);
+        assertEquals("H__0 1", new String(Files.readAllBytes(found.toPath()), "UTF-8"));
+    }
+
+    static String solverKey(File solver) {
+        MessageDigest md = SolutionCache.newDigest();
+        SolutionCache.addSolver(md, solver.getPath());
+        return SolutionCache.toKey(md);
+    }
+
+    public void testKeyChangesWithSolver() throws IOException {
+        File solver = file("cegis", "#!/bin/sh\n");
+        solver.setLastModified(1000000000000L);
+        String before = solverKey(solver);
+        assertEquals(before, solverKey(solver));
+        solver.setLastModified(1000000060000L);
+        assertFalse(before.equals(solverKey(solver)));
+    }
+
+    public void testCachedStatsAreOfTheCachedRun() throws IOException {
+        SketchOptions options = new SketchOptions(new String[] { "cached.sk" });
+        SATBackend backend = new SATBackend(options, null, new TempVarGen());
+        String out =
+                "SKETCH nodes = 120\n" + "Total elapsed time (ms):  35.5\n"
+                        + "Model building time (ms):  10\n"
+                        + "Solution time (ms):  20\n"
+                        + "Max virtual mem (bytes):  4096\n";
+        SATSolutionStatistics stat =
+                backend.cachedStats(new SolutionCache.Hit(-1, out));
+        assertTrue(stat.successful());
+        assertEquals(0, stat.elapsedTimeMs());
+        assertEquals(0, stat.solutionTimeMs());
+        assertEquals(120, stat.numNodesInitial);
+        assertEquals(4096, stat.maxMemoryUsageBytes());
+        assertTrue(backend.cachedStats(new SolutionCache.Hit(-1, null)).successful());
+    }
+}
@@ -0,0 +1,21 @@
+package sketch.compiler.solvers.constructs;
+
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+import sketch.compiler.ast.core.TempVarGen;
+
+/**
+ * An oracle has functions only once it has read one, and can be asked before it has read
+ * anything.
+ */
+public class ValueOracleJunitTest extends TestCase {
+    public void testHasFunctions() throws IOException {
+        ValueOracle oracle = new ValueOracle(new StaticHoleTracker(new TempVarGen()));
+        assertFalse(oracle.hasFunctions());
+        oracle.loadFromStream(new LineNumberReader(new StringReader("H__0 3\n")));
+        assertFalse(oracle.hasFunctions());
+    }
+}
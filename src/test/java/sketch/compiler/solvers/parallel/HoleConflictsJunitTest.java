@@ -0,0 +1,63 @@
+package sketch.compiler.solvers.parallel;
+
+import junit.framework.TestCase;
+import sketch.compiler.solvers.CegisOutputParser;
+import sketch.compiler.solvers.SATSolutionStatistics;
+
+/**
+ * Only a trial that ends with UNDETERMINED shows its assignment infeasible; a crash, a
+ * kill or a timeout records nothing.
+ */
+public class HoleConflictsJunitTest extends TestCase {
+    HoleConflicts conflicts;
+
+    @Override
+    protected void setUp() {
+        conflicts = new HoleConflicts();
+    }
+
+    /** Runs a trial that sets H__0 to 1 and H__1 to 2, and ends as stat says. */
+    boolean trial(SATSolutionStatistics stat) {
+        CegisOutputParser parser = new CegisOutputParser();
+        HoleConflicts.Tracker tracker = conflicts.newTracker();
+        parser.addListener(tracker);
+        parser.line("H__0: replacing with value 1 bnd= 4");
+        parser.line("H__1: replacing with value 2 bnd= 4");
+        return conflicts.record(tracker, stat);
+    }
+
+    static SATSolutionStatistics exit(int exitCode) {
+        SATSolutionStatistics stat = new SATSolutionStatistics();
+        stat.exitCode = exitCode;
+        return stat;
+    }
+
+    public void testUndeterminedIsAConflict() {
+        assertFalse(trial(exit(2)));
+        assertEquals(1, conflicts.size());
+        assertTrue(trial(exit(2)));
+        assertEquals(1, conflicts.getPruned());
+    }
+
+    public void testOtherExitsRecordNothing() {
+        // SIGABRT, SIGSEGV, destroyed, out of memory, unknown
+        for (int exitCode : new int[] { 134, 139, 143, 103, -1 }) {
+            assertFalse(trial(exit(exitCode)));
+            assertEquals("exit " + exitCode, 0, conflicts.size());
+        }
+        assertFalse(trial(exit(2)));
+        assertEquals(1, conflicts.size());
+    }
+
+    public void testKilledRecordsNothing() {
+        SATSolutionStatistics stat = exit(2);
+        stat.killed = true;
+        assertFalse(trial(stat));
+        stat = exit(2);
+        stat.killedByTimeout = true;
+        assertFalse(trial(stat));
+        assertEquals(0, conflicts.size());
+        assertFalse(trial(null));
+        assertEquals(0, conflicts.size());
+    }
+}
@@ -0,0 +1,56 @@
+package sketch.compiler.test;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import sketch.compiler.main.seq.SequentialSketchMain;
+
+/**
+ * The backend file is the same for any number of --fe-emit-threads, and the names of
+ * locals in it restart with every function.
+ */
+public class EmitThreadsJunitTest extends TestCase {
+    static final String SKETCH =
+            "int sum(int x) {\n" + "    int s = 0;\n"
+                    + "    for (int i = 0; i < x; ++i) { s = s + i * ??; }\n"
+                    + "    return s;\n" + "}\n" + "harness void first(int x) {\n"
+                    + "    if (x < 4) {\n" + "        int[3] a = {x, x + 1, x + 2};\n"
+                    + "        for (int i = 0; i < 3; ++i) { a[i] = a[i] * 2; }\n"
+                    + "        assert a[x % 3] >= 0;\n" + "    }\n" + "}\n"
+                    + "harness void second(int x) {\n" + "    assert sum(x) == sum(x);\n"
+                    + "}\n" + "harness void third(int x) {\n"
+                    + "    assert sum(x + 1) >= sum(x);\n" + "}\n";
+
+    StubSolver solver;
+    File sketch;
+
+    @Override
+    protected void setUp() throws Exception {
+        SequentialSketchMain.isTest = true;
+        solver = StubSolver.solving("H__0 1");
+        sketch = solver.sketch("emitThreads.sk", SKETCH);
+    }
+
+    @Override
+    protected void tearDown() {
+        solver.delete();
+    }
+
+    String problem(int threads) throws Exception {
+        solver.run(sketch, "--fe-emit-threads", "" + threads);
+        return solver.problem(sketch);
+    }
+
+    public void testSameForAnyThreadCount() throws Exception {
+        String sequential = problem(1);
+        assertEquals(sequential, problem(4));
+        assertEquals(sequential, problem(2));
+    }
+
+    public void testLocalNamesRestartPerFunction() throws Exception {
+        String text = problem(1);
+        // each wrapper calls its harness, and names the result of the call the same way.
+        assertEquals(3, text.split("___GaRbAgE0=", -1).length - 1);
+        assertFalse(text, text.contains("___GaRbAgE1"));
+    }
+}
@@ -0,0 +1,53 @@
+package sketch.compiler.test;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import sketch.compiler.main.seq.SequentialSketchMain;
+
+/**
+ * Include files read back from --fe-parse-cache give the same backend file as include
+ * files that are parsed.
+ */
+public class IncludeCacheJunitTest extends TestCase {
+    static final String SKETCH =
+            "include \"intops.skh\";\n" + "include \"array.skh\";\n"
+                    + "harness void main(int x) {\n"
+                    + "    assert abs(x) + ?? >= x;\n" + "}\n";
+
+    StubSolver solver;
+    File sketch;
+    File cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        SequentialSketchMain.isTest = true;
+        solver = StubSolver.solving("H__0 1");
+        sketch = solver.sketch("includeCache.sk", SKETCH);
+        cache = new File(solver.dir, "parsed");
+    }
+
+    @Override
+    protected void tearDown() {
+        solver.delete();
+    }
+
+    String problem(String... options) throws Exception {
+        String[] args = new String[options.length + 2];
+        args[0] = "--fe-inc";
+        args[1] = new File("src/sketchlib").getAbsolutePath();
+        System.arraycopy(options, 0, args, 2, options.length);
+        solver.run(sketch, args);
+        return solver.problem(sketch);
+    }
+
+    public void testCachedIncludesGiveSameProblem() throws Exception {
+        String parsed = problem();
+        assertEquals(parsed, problem("--fe-parse-cache", cache.getPath()));
+        String[] entries = cache.list();
+        assertNotNull(entries);
+        assertEquals(2, entries.length);
+        // now every include comes from the cache.
+        assertEquals(parsed, problem("--fe-parse-cache", cache.getPath()));
+    }
+}
@@ -0,0 +1,47 @@
+package sketch.compiler.test;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import sketch.compiler.main.seq.SequentialSketchMain;
+
+/**
+ * Passes that run on several functions at once give the same backend file as passes
+ * that run on one function at a time.
+ */
+public class PassThreadsJunitTest extends TestCase {
+    static final String SKETCH =
+            "int f(int x) { int y = x++ + x++; return y + x--; }\n"
+                    + "int g(int x) { int[4] a; a[x++] = x; return a[x--] + x; }\n"
+                    + "bit[4] h(bit[4] v) { bit[4] w = v >> 1; return (w >> ??) ^ v; }\n"
+                    + "harness void main(int x, bit[4] v) {\n"
+                    + "    if (x < 2 && x >= 0) { assert f(x) + g(x) >= ??; }\n"
+                    + "    assert h(v) == h(v);\n"
+                    + "}\n";
+
+    StubSolver solver;
+    File sketch;
+
+    @Override
+    protected void setUp() throws Exception {
+        SequentialSketchMain.isTest = true;
+        solver = StubSolver.solving("H__0 1", "H__1 0");
+        sketch = solver.sketch("passThreads.sk", SKETCH);
+    }
+
+    @Override
+    protected void tearDown() {
+        solver.delete();
+    }
+
+    String problem(int threads) throws Exception {
+        solver.run(sketch, "--fe-pass-threads", String.valueOf(threads));
+        return solver.problem(sketch);
+    }
+
+    public void testSameProblemForAnyNumberOfThreads() throws Exception {
+        String sequential = problem(1);
+        assertEquals(sequential, problem(4));
+        assertEquals(sequential, problem(2));
+    }
+}
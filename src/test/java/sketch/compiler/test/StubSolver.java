@@ -0,0 +1,110 @@
+package sketch.compiler.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import sketch.compiler.main.CompilationContext;
+import sketch.compiler.main.PlatformLocalization;
+import sketch.compiler.main.seq.SequentialSketchMain;
+
+/**
+ * A shell script that stands in for the backend solver, and a scratch directory to run
+ * the frontend with it. The script sees the problem file in $in, the solution file in
+ * $out and its whole command line in $args, and runs the body it is given; it also
+ * appends its command line to the file calls in the scratch directory, one run per line.
+ */
+public class StubSolver {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public final File dir;
+    public final File script;
+
+    public StubSolver(String body) throws IOException {
+        dir = Files.createTempDirectory("stubsolver").toFile();
+        script = new File(dir, "cegis.sh");
+        write(script, "#!/bin/bash\n" + "echo \"$@\" >> " + new File(dir, "calls") +
+                "\n" + "args=\"$*\"\n" + "out=\"\"\n" + "in=\"\"\n" +
+                "while [ $# -gt 0 ]; do\n" +
+                "  if [ \"$1\" = \"-o\" ]; then out=$2; shift; fi\n" + "  in=$1\n" +
+                "  shift\n" + "done\n" + body + "\n");
+        script.setExecutable(true);
+    }
+
+    /** A solver that finds the solution given as the lines of its solution file. */
+    public static StubSolver solving(String... solution) throws IOException {
+        StringBuilder sb = new StringBuilder(": > \"$out\"\n");
+        for (String line : solution) {
+            sb.append("echo '" + line + "' >> \"$out\"\n");
+        }
+        sb.append("exit 0");
+        return new StubSolver(sb.toString());
+    }
+
+    public File sketch(String name, String text) throws IOException {
+        File f = new File(dir, name);
+        write(f, text);
+        return f;
+    }
+
+    /**
+     * Runs the frontend on sketch with the given options, keeping its files. Every run
+     * is a compilation of its own, so holes are numbered from 0 each time.
+     */
+    public void run(File sketch, String... options) {
+        List<String> args = new ArrayList<String>();
+        args.addAll(Arrays.asList("--fe-cegis-path", script.getPath(), "--fe-keep-tmp",
+                "--fe-tempdir", new File(dir, "tmp").getPath()));
+        args.addAll(Arrays.asList(options));
+        args.add(sketch.getPath());
+        new CompilationContext().enter();
+        try {
+            SequentialSketchMain main =
+                    new SequentialSketchMain(args.toArray(new String[0]));
+            PlatformLocalization.getLocalization().setTempDirs();
+            main.run();
+        } finally {
+            CompilationContext.exit();
+        }
+    }
+
+    /** The problem the frontend wrote for the solver, for a sketch run last. */
+    public String problem(File sketch) throws IOException {
+        return read(new File(dir, "tmp/tmp/" + sketch.getName() + "/input0.tmp"));
+    }
+
+    /** The command lines the solver was run with, one per run. */
+    public List<String> calls() throws IOException {
+        File calls = new File(dir, "calls");
+        if (!calls.exists()) {
+            return new ArrayList<String>();
+        }
+        return Files.readAllLines(calls.toPath(), UTF8);
+    }
+
+    public void delete() {
+        delete(dir);
+    }
+
+    static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                delete(c);
+            }
+        }
+        f.delete();
+    }
+
+    static void write(File f, String text) throws IOException {
+        Files.write(f.toPath(), text.getBytes(UTF8));
+    }
+
+    static String read(File f) throws IOException {
+        return new String(Files.readAllBytes(f.toPath()), UTF8);
+    }
+}
@@ -0,0 +1,63 @@
+package sketch.util;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * A handler stops its process at once, and one that throws does not leave the process
+ * blocked on its output.
+ */
+public class SynchronousTimedProcessJunitTest extends TestCase {
+    static SynchronousTimedProcess start(String script) throws IOException {
+        return new SynchronousTimedProcess(new ProcessBuilder("sh", "-c", script).start());
+    }
+
+    /** The process prints nothing after stop(), so there is no next line to wait for. */
+    public void testStopKillsSilentProcess() throws Exception {
+        SynchronousTimedProcess proc = start("echo started; exec sleep 60");
+        final SynchronousTimedProcess.OutputHandler handler =
+                new SynchronousTimedProcess.OutputHandler() {
+                    public void line(String line) {
+                        final SynchronousTimedProcess.OutputHandler self = this;
+                        new Thread() {
+                            public void run() {
+                                self.stop();
+                            }
+                        }.start();
+                    }
+                };
+        long start = System.currentTimeMillis();
+        ProcessStatus status = proc.run(true, handler);
+        assertTrue(System.currentTimeMillis() - start < 30000);
+        assertTrue(handler.stopRequested());
+        assertTrue(status.exitCode != 0);
+    }
+
+    public void testStopBeforeRun() throws Exception {
+        SynchronousTimedProcess proc = start("exec sleep 60");
+        SynchronousTimedProcess.OutputHandler handler =
+                new SynchronousTimedProcess.OutputHandler() {
+                    public void line(String line) {}
+                };
+        handler.stop();
+        long start = System.currentTimeMillis();
+        proc.run(true, handler);
+        assertTrue(System.currentTimeMillis() - start < 30000);
+    }
+
+    /** Much more output than a pipe holds comes after the handler throws. */
+    public void testFailingHandlerStillDrainsOutput() throws Exception {
+        SynchronousTimedProcess proc =
+                start("i=0; while [ $i -lt 20000 ]; do "
+                        + "echo 'line line line line line line line'; i=$((i+1)); done");
+        final RuntimeException failure = new IllegalStateException("bad line");
+        ProcessStatus status = proc.run(true, new SynchronousTimedProcess.OutputHandler() {
+            public void line(String line) {
+                throw failure;
+            }
+        });
+        assertEquals(0, status.exitCode);
+        assertSame(failure, status.exception);
+    }
+}
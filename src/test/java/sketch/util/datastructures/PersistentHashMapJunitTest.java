@@ -0,0 +1,167 @@
+package sketch.util.datastructures;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * PersistentHashMap against a HashMap, with keys whose hash codes collide in full or in
+ * their low bits, and with old versions kept around.
+ */
+public class PersistentHashMapJunitTest extends TestCase {
+    /** A key with a chosen hash code. */
+    static final class Key {
+        final int id;
+        final int hash;
+
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public String toString() {
+            return "k" + id + "#" + Integer.toHexString(hash);
+        }
+    }
+
+    static <K, V> Map<K, V> contents(PersistentHashMap<K, V> map) {
+        Map<K, V> result = new HashMap<K, V>();
+        for (Map.Entry<K, V> e : map) {
+            assertNull("entry seen twice: " + e, result.put(e.getKey(), e.getValue()));
+        }
+        return result;
+    }
+
+    static <K, V> void assertContents(Map<K, V> expected, PersistentHashMap<K, V> map) {
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.isEmpty(), map.isEmpty());
+        assertEquals(expected, contents(map));
+        for (Map.Entry<K, V> e : expected.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+    }
+
+    public void testFullCollisions() {
+        Key a = new Key(1, 42), b = new Key(2, 42), c = new Key(3, 42);
+        PersistentHashMap<Key, String> m = PersistentHashMap.empty();
+        m = m.put(a, "a").put(b, "b").put(c, "c");
+        assertEquals(3, m.size());
+        assertEquals("b", m.get(b));
+        assertNull(m.get(new Key(4, 42)));
+        m = m.put(b, "B");
+        assertEquals(3, m.size());
+        assertEquals("B", m.get(b));
+        PersistentHashMap<Key, String> withoutB = m.remove(b);
+        assertEquals(2, withoutB.size());
+        assertNull(withoutB.get(b));
+        assertEquals("a", withoutB.get(a));
+        assertEquals("c", withoutB.get(c));
+        assertEquals("B", m.get(b));
+        assertTrue(withoutB.remove(a).remove(c).isEmpty());
+    }
+
+    /** Hash codes that only differ in their top bits, so that the trie is deepest. */
+    public void testHighBitCollisions() {
+        Map<Key, Integer> expected = new HashMap<Key, Integer>();
+        PersistentHashMap<Key, Integer> m = PersistentHashMap.empty();
+        for (int i = 0; i < 8; ++i) {
+            Key k = new Key(i, i << 29);
+            Key same = new Key(100 + i, i << 29);
+            m = m.put(k, i).put(same, -i);
+            expected.put(k, i);
+            expected.put(same, -i);
+        }
+        assertContents(expected, m);
+        for (int i = 0; i < 8; i += 2) {
+            m = m.remove(new Key(i, i << 29));
+            expected.remove(new Key(i, i << 29));
+            assertContents(expected, m);
+        }
+    }
+
+    public void testRemove() {
+        PersistentHashMap<String, Integer> m = PersistentHashMap.empty();
+        assertSame(m, m.remove("x"));
+        m = m.put("x", 1).put("y", 2);
+        assertSame(m, m.remove("z"));
+        PersistentHashMap<String, Integer> one = m.remove("x");
+        assertEquals(1, one.size());
+        assertFalse(one.containsKey("x"));
+        assertTrue(one.containsKey("y"));
+        assertTrue(one.remove("y").isEmpty());
+        assertFalse(one.remove("y").iterator().hasNext());
+    }
+
+    /** Random puts and removes; every version is kept and checked at the end. */
+    public void testVersionsAreIndependent() {
+        Random rand = new Random(4);
+        List<PersistentHashMap<Key, Integer>> versions =
+                new ArrayList<PersistentHashMap<Key, Integer>>();
+        List<Map<Key, Integer>> expected = new ArrayList<Map<Key, Integer>>();
+        PersistentHashMap<Key, Integer> m = PersistentHashMap.empty();
+        Map<Key, Integer> e = new HashMap<Key, Integer>();
+        for (int step = 0; step < 3000; ++step) {
+            int id = rand.nextInt(500);
+            // few distinct hash codes, so that there are collisions at every level.
+            Key k = new Key(id, (id % 97) * 0x01234567);
+            if (rand.nextInt(3) == 0) {
+                m = m.remove(k);
+                e.remove(k);
+            } else {
+                int v = rand.nextInt(10);
+                m = m.put(k, v);
+                e.put(k, v);
+            }
+            versions.add(m);
+            expected.add(new HashMap<Key, Integer>(e));
+        }
+        for (int i = 0; i < versions.size(); i += 7) {
+            assertContents(expected.get(i), versions.get(i));
+        }
+        assertContents(e, m);
+    }
+
+    public void testUnchangedMapIsShared() {
+        Integer one = 1;
+        PersistentHashMap<String, Integer> m = PersistentHashMap.empty();
+        m = m.put("a", one).put("b", 2);
+        assertSame(m, m.put("a", one));
+        PersistentHashMap<String, Integer> changed = m.put("a", 3);
+        assertNotSame(m, changed);
+        assertEquals(one, m.get("a"));
+        assertEquals(Integer.valueOf(3), changed.get("a"));
+        assertSame(PersistentHashMap.empty(), PersistentHashMap.empty());
+    }
+
+    /** A put or a remove copies only the nodes on the path to its key. */
+    public void testVersionsShareNodes() {
+        PersistentHashMap<Integer, Integer> m = PersistentHashMap.empty();
+        for (int i = 0; i < 100000; ++i) {
+            m = m.put(i, i);
+        }
+        PersistentHashMap<Integer, Integer> put = m.put(-1, -1);
+        PersistentHashMap<Integer, Integer> removed = m.remove(31337);
+        // at most one node for every 5 bits of the hash.
+        assertTrue(put.nodesNotIn(m) <= 7);
+        assertTrue(removed.nodesNotIn(m) <= 7);
+        assertTrue(m.nodesNotIn(put) <= 7);
+        assertEquals(100001, put.size());
+        assertEquals(99999, removed.size());
+        assertEquals(Integer.valueOf(31337), m.get(31337));
+    }
+}